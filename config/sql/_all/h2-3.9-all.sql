@@ -269,6 +269,14 @@ CREATE TABLE m_audit_ref_value (
   type            VARCHAR(255),
   PRIMARY KEY (id)
 );
+CREATE TABLE m_cache_invalidation (
+  id             BIGINT GENERATED BY DEFAULT AS IDENTITY,
+  nodeIdentifier VARCHAR(255),
+  objectType     INTEGER,
+  oid            VARCHAR(36),
+  timestampValue TIMESTAMP,
+  PRIMARY KEY (id)
+);
 CREATE TABLE m_case_wi (
   id                            INTEGER     NOT NULL,
   owner_oid                     VARCHAR(36) NOT NULL,
@@ -798,6 +806,8 @@ CREATE INDEX iAuditPropValRecordId
   ON m_audit_prop_value (record_id);
 CREATE INDEX iAuditRefValRecordId
   ON m_audit_ref_value (record_id);
+CREATE INDEX iCacheInvalidationTimestamp
+  ON m_cache_invalidation (timestampValue);
 CREATE INDEX iCaseWorkItemRefTargetOid
   ON m_case_wi_reference (targetOid);
 
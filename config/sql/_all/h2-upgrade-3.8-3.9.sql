@@ -16,3 +16,14 @@ ALTER TABLE m_object_collection
 ALTER TABLE m_acc_cert_campaign ADD COLUMN iteration INTEGER DEFAULT 1 NOT NULL;
 ALTER TABLE m_acc_cert_case ADD COLUMN iteration INTEGER DEFAULT 1 NOT NULL;
 ALTER TABLE m_acc_cert_wi ADD COLUMN iteration INTEGER DEFAULT 1 NOT NULL;
+
+CREATE TABLE m_cache_invalidation (
+  id             BIGINT GENERATED BY DEFAULT AS IDENTITY,
+  nodeIdentifier VARCHAR(255),
+  objectType     INTEGER,
+  oid            VARCHAR(36),
+  timestampValue TIMESTAMP,
+  PRIMARY KEY (id)
+);
+CREATE INDEX iCacheInvalidationTimestamp
+  ON m_cache_invalidation (timestampValue);
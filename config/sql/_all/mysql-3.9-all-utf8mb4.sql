@@ -327,6 +327,17 @@ CREATE TABLE m_audit_ref_value (
   DEFAULT CHARACTER SET utf8mb4
   COLLATE utf8mb4_bin
   ENGINE = InnoDB;
+CREATE TABLE m_cache_invalidation (
+  id             BIGINT NOT NULL AUTO_INCREMENT,
+  nodeIdentifier VARCHAR(255),
+  objectType     INTEGER,
+  oid            VARCHAR(36) CHARSET utf8 COLLATE utf8_bin ,
+  timestampValue DATETIME(6),
+  PRIMARY KEY (id)
+)
+  DEFAULT CHARACTER SET utf8mb4
+  COLLATE utf8mb4_bin
+  ENGINE = InnoDB;
 CREATE TABLE m_case_wi (
   id                            INTEGER     NOT NULL,
   owner_oid                     VARCHAR(36) CHARSET utf8 COLLATE utf8_bin NOT NULL,
@@ -1009,6 +1020,8 @@ CREATE INDEX iAuditPropValRecordId
   ON m_audit_prop_value (record_id);
 CREATE INDEX iAuditRefValRecordId
   ON m_audit_ref_value (record_id);
+CREATE INDEX iCacheInvalidationTimestamp
+  ON m_cache_invalidation (timestampValue);
 CREATE INDEX iCaseWorkItemRefTargetOid
   ON m_case_wi_reference (targetOid);
 
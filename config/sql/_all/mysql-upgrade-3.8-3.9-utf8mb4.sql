@@ -19,3 +19,17 @@ ALTER TABLE m_object_collection
 ALTER TABLE m_acc_cert_campaign ADD COLUMN iteration INTEGER DEFAULT 1 NOT NULL;
 ALTER TABLE m_acc_cert_case ADD COLUMN iteration INTEGER DEFAULT 1 NOT NULL;
 ALTER TABLE m_acc_cert_wi ADD COLUMN iteration INTEGER DEFAULT 1 NOT NULL;
+
+CREATE TABLE m_cache_invalidation (
+  id             BIGINT NOT NULL AUTO_INCREMENT,
+  nodeIdentifier VARCHAR(255),
+  objectType     INTEGER,
+  oid            VARCHAR(36) CHARSET utf8 COLLATE utf8_bin ,
+  timestampValue DATETIME(6),
+  PRIMARY KEY (id)
+)
+  DEFAULT CHARACTER SET utf8mb4
+  COLLATE utf8mb4_bin
+  ENGINE = InnoDB;
+CREATE INDEX iCacheInvalidationTimestamp
+  ON m_cache_invalidation (timestampValue);
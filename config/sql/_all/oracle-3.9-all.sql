@@ -265,6 +265,14 @@ CREATE TABLE m_audit_ref_value (
   type            VARCHAR2(255 CHAR),
   PRIMARY KEY (id)
 ) INITRANS 30;
+CREATE TABLE m_cache_invalidation (
+  id             NUMBER(19, 0) GENERATED AS IDENTITY,
+  nodeIdentifier VARCHAR2(255 CHAR),
+  objectType     NUMBER(10, 0),
+  oid            VARCHAR2(36 CHAR),
+  timestampValue TIMESTAMP,
+  PRIMARY KEY (id)
+) INITRANS 30;
 CREATE TABLE m_case_wi (
   id                            NUMBER(10, 0)     NOT NULL,
   owner_oid                     VARCHAR2(36 CHAR) NOT NULL,
@@ -794,6 +802,8 @@ CREATE INDEX iAuditPropValRecordId
   ON m_audit_prop_value (record_id) INITRANS 30;
 CREATE INDEX iAuditRefValRecordId
   ON m_audit_ref_value (record_id) INITRANS 30;
+CREATE INDEX iCacheInvalidationTimestamp
+  ON m_cache_invalidation (timestampValue) INITRANS 30;
 CREATE INDEX iCaseWorkItemRefTargetOid
   ON m_case_wi_reference (targetOid) INITRANS 30;
 
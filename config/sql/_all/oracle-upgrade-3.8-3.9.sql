@@ -15,4 +15,15 @@ ALTER TABLE m_object_collection
 
 ALTER TABLE m_acc_cert_campaign ADD iteration NUMBER(10, 0) DEFAULT 1 NOT NULL;
 ALTER TABLE m_acc_cert_case ADD iteration NUMBER(10, 0) DEFAULT 1 NOT NULL;
-ALTER TABLE m_acc_cert_wi ADD iteration NUMBER(10, 0) DEFAULT 1 NOT NULL;
\ No newline at end of file
+ALTER TABLE m_acc_cert_wi ADD iteration NUMBER(10, 0) DEFAULT 1 NOT NULL;
+
+CREATE TABLE m_cache_invalidation (
+  id             NUMBER(19, 0) GENERATED AS IDENTITY,
+  nodeIdentifier VARCHAR2(255 CHAR),
+  objectType     NUMBER(10, 0),
+  oid            VARCHAR2(36 CHAR),
+  timestampValue TIMESTAMP,
+  PRIMARY KEY (id)
+) INITRANS 30;
+CREATE INDEX iCacheInvalidationTimestamp
+  ON m_cache_invalidation (timestampValue) INITRANS 30;
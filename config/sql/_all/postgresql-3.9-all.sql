@@ -265,6 +265,14 @@ CREATE TABLE m_audit_ref_value (
   type            VARCHAR(255),
   PRIMARY KEY (id)
 );
+CREATE TABLE m_cache_invalidation (
+  id             BIGSERIAL NOT NULL,
+  nodeIdentifier VARCHAR(255),
+  objectType     INT4,
+  oid            VARCHAR(36),
+  timestampValue TIMESTAMP,
+  PRIMARY KEY (id)
+);
 CREATE TABLE m_case_wi (
   id                            INT4        NOT NULL,
   owner_oid                     VARCHAR(36) NOT NULL,
@@ -794,6 +802,8 @@ CREATE INDEX iAuditPropValRecordId
   ON m_audit_prop_value (record_id);
 CREATE INDEX iAuditRefValRecordId
   ON m_audit_ref_value (record_id);
+CREATE INDEX iCacheInvalidationTimestamp
+  ON m_cache_invalidation (timestampValue);
 CREATE INDEX iCaseWorkItemRefTargetOid
   ON m_case_wi_reference (targetOid);
 
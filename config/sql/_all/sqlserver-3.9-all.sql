@@ -265,6 +265,14 @@ CREATE TABLE m_audit_ref_value (
   type            NVARCHAR(255) COLLATE database_default,
   PRIMARY KEY (id)
 );
+CREATE TABLE m_cache_invalidation (
+  id             BIGINT IDENTITY NOT NULL,
+  nodeIdentifier NVARCHAR(255) COLLATE database_default,
+  objectType     INT,
+  oid            NVARCHAR(36) COLLATE database_default,
+  timestampValue DATETIME2,
+  PRIMARY KEY (id)
+);
 CREATE TABLE m_case_wi (
   id                            INT                                   NOT NULL,
   owner_oid                     NVARCHAR(36) COLLATE database_default NOT NULL,
@@ -794,6 +802,8 @@ CREATE INDEX iAuditPropValRecordId
   ON m_audit_prop_value (record_id);
 CREATE INDEX iAuditRefValRecordId
   ON m_audit_ref_value (record_id);
+CREATE INDEX iCacheInvalidationTimestamp
+  ON m_cache_invalidation (timestampValue);
 CREATE INDEX iCaseWorkItemRefTargetOid
   ON m_case_wi_reference (targetOid);
 
@@ -15,4 +15,15 @@ ALTER TABLE m_object_collection
 
 ALTER TABLE m_acc_cert_campaign ADD iteration INT DEFAULT 1 NOT NULL;
 ALTER TABLE m_acc_cert_case ADD iteration INT DEFAULT 1 NOT NULL;
-ALTER TABLE m_acc_cert_wi ADD iteration INT DEFAULT 1 NOT NULL;
\ No newline at end of file
+ALTER TABLE m_acc_cert_wi ADD iteration INT DEFAULT 1 NOT NULL;
+
+CREATE TABLE m_cache_invalidation (
+  id             BIGINT IDENTITY NOT NULL,
+  nodeIdentifier NVARCHAR(255) COLLATE database_default,
+  objectType     INT,
+  oid            NVARCHAR(36) COLLATE database_default,
+  timestampValue DATETIME2,
+  PRIMARY KEY (id)
+);
+CREATE INDEX iCacheInvalidationTimestamp
+  ON m_cache_invalidation (timestampValue);
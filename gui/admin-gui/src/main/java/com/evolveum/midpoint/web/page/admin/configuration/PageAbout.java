@@ -104,6 +104,7 @@ public class PageAbout extends PageAdminConfiguration {
     private static final String OPERATION_SUBMIT_REINDEX = DOT_CLASS + "submitReindex";
     private static final String OPERATION_CLEANUP_ACTIVITI_PROCESSES = DOT_CLASS + "cleanupActivitiProcesses";
     private static final String OPERATION_GET_PROVISIONING_DIAG = DOT_CLASS + "getProvisioningDiag";
+    private static final String OPERATION_GET_MODEL_CACHES_DIAG = DOT_CLASS + "getModelCachesDiag";
     private static final String OPERATION_DELETE_ALL_OBJECTS = DOT_CLASS + "deleteAllObjects";
     private static final String OPERATION_DELETE_TASK = DOT_CLASS + "deleteTask";
     private static final String POST_INIT = DOT_CLASS + "postInit";
@@ -130,6 +131,9 @@ public class PageAbout extends PageAdminConfiguration {
     private static final String ID_PROVISIONING_ADDITIONAL_DETAILS = "provisioningAdditionalDetails";
     private static final String ID_PROVISIONING_DETAIL_NAME = "provisioningDetailName";
     private static final String ID_PROVISIONING_DETAIL_VALUE = "provisioningDetailValue";
+    private static final String ID_MODEL_CACHES_DETAILS = "modelCachesDetails";
+    private static final String ID_MODEL_CACHES_DETAIL_NAME = "modelCachesDetailName";
+    private static final String ID_MODEL_CACHES_DETAIL_VALUE = "modelCachesDetailValue";
     private static final String ID_JVM_PROPERTIES = "jvmProperties";
     private static final String ID_CLEAR_CSS_JS_CACHE = "clearCssJsCache";
     private static final String ID_FACTORY_DEFAULT = "factoryDefault";
@@ -228,6 +232,30 @@ public class PageAbout extends PageAdminConfiguration {
         };
         add(provisioningAdditionalDetails);
 
+        ListView<LabeledString> modelCachesDetails = new ListView<LabeledString>(ID_MODEL_CACHES_DETAILS,
+            new LoadableModel<List<LabeledString>>(false) {
+
+                @Override
+                protected List<LabeledString> load() {
+                    return loadModelCachesDiag();
+                }
+            }) {
+
+            @Override
+            protected void populateItem(ListItem<LabeledString> item) {
+                LabeledString labeledString = item.getModelObject();
+
+                Label property = new Label(ID_MODEL_CACHES_DETAIL_NAME, labeledString.getLabel());
+                property.setRenderBodyOnly(true);
+                item.add(property);
+
+                Label value = new Label(ID_MODEL_CACHES_DETAIL_VALUE, labeledString.getData());
+                value.setRenderBodyOnly(true);
+                item.add(value);
+            }
+        };
+        add(modelCachesDetails);
+
         Label jvmProperties = new Label(ID_JVM_PROPERTIES, new LoadableModel<String>(false) {
 
             @Override
@@ -347,6 +375,27 @@ public class PageAbout extends PageAdminConfiguration {
         return diag;
     }
 
+    private List<LabeledString> loadModelCachesDiag() {
+        OperationResult result = new OperationResult(OPERATION_GET_MODEL_CACHES_DIAG);
+        List<LabeledString> details = new ArrayList<>();
+        try {
+            Task task = createSimpleTask(OPERATION_GET_MODEL_CACHES_DIAG);
+            details = getModelDiagnosticService().getModelCachesDiag(task, result);
+
+            result.recordSuccessIfUnknown();
+        } catch (Exception ex) {
+            LoggingUtils.logUnexpectedException(LOGGER, "Couldn't get model caches diagnostics", ex);
+            result.recordFatalError("Couldn't get model caches diagnostics.", ex);
+        }
+        result.recomputeStatus();
+
+        if (!WebComponentUtil.isSuccessOrHandledError(result)) {
+            showResult(result);
+        }
+
+        return details;
+    }
+
     private ProvisioningDiag loadProvisioningDiagModel() {
         OperationResult result = new OperationResult(OPERATION_GET_PROVISIONING_DIAG);
         ProvisioningDiag diag = null;
@@ -55,7 +55,8 @@ public abstract class Item<V extends PrismValue, D extends ItemDefinition> imple
     protected QName elementName;
     protected PrismValue parent;
     protected D definition;
-    @NotNull protected final List<V> values = new ArrayList<>();
+    // ValueList keeps the values in order and maintains hash index for larger items (see there)
+    @NotNull protected final List<V> values = new ValueList<>();
     private transient Map<String,Object> userData = new HashMap<>();;
 
 	protected boolean immutable;
@@ -139,6 +140,9 @@ public abstract class Item<V extends PrismValue, D extends ItemDefinition> imple
     public void setElementName(QName elementName) {
 		checkMutability();
         this.elementName = elementName;
+        if (parent instanceof PrismContainerValue) {
+        	((PrismContainerValue<?>) parent).itemRenamed();
+		}
     }
 
     /**
@@ -307,7 +311,7 @@ public abstract class Item<V extends PrismValue, D extends ItemDefinition> imple
      * provided value argument may not be.
      */
     public PrismValue findValue(PrismValue value, boolean ignoreMetadata) {
-        for (PrismValue myVal : getValues()) {
+        for (PrismValue myVal : getCandidateValues(value)) {
             if (myVal.equalsComplex(value, ignoreMetadata, false)) {
                 return myVal;
             }
@@ -393,7 +397,7 @@ public abstract class Item<V extends PrismValue, D extends ItemDefinition> imple
     }
 
     public boolean contains(V value, boolean ignoreMetadata) {
-    	for (V myValue: getValues()) {
+    	for (V myValue: getCandidateValues(value)) {
     		if (myValue.equals(value, ignoreMetadata)) {
     			return true;
     		}
@@ -402,7 +406,7 @@ public abstract class Item<V extends PrismValue, D extends ItemDefinition> imple
     }
 
     public boolean containsRealValue(V value) {
-    	for (V myValue: getValues()) {
+    	for (V myValue: getCandidateValues(value)) {
     		if (myValue.equalsRealValue(value)) {
     			return true;
     		}
@@ -454,32 +458,57 @@ public abstract class Item<V extends PrismValue, D extends ItemDefinition> imple
 
     public boolean removeAll(Collection<V> newValues) {
 		checkMutability();					// TODO consider if there is real change
-    	boolean changed = false;
+		Set<V> valuesToRemove = Collections.newSetFromMap(new IdentityHashMap<>());
     	for (V val: newValues) {
-    		if (remove(val)) {
-    			changed = true;
-    		}
+    		collectValuesToRemove(val, valuesToRemove);
     	}
-    	return changed;
+    	return removeValues(valuesToRemove);
     }
 
     public boolean remove(V newValue) {
 		checkMutability();					// TODO consider if there is real change
-    	boolean changed = false;
-    	Iterator<V> iterator = values.iterator();
-    	while (iterator.hasNext()) {
-    		V val = iterator.next();
+		Set<V> valuesToRemove = Collections.newSetFromMap(new IdentityHashMap<>());
+		collectValuesToRemove(newValue, valuesToRemove);
+		return removeValues(valuesToRemove);
+    }
+
+	private void collectValuesToRemove(V newValue, Set<V> valuesToRemove) {
+		for (V val : getCandidateValues(newValue)) {
 			// the same algorithm as when deleting the item value from delete delta
 			// TODO either make equalsRealValue return false if both PCVs have IDs and these IDs are different
 			// TODO or include a special test condition here; see MID-3828
 			if (val.representsSameValue(newValue, false) || val.equalsRealValue(newValue)) {
-    			iterator.remove();
-    			val.setParent(null);
-    			changed = true;
-    		}
-    	}
-    	return changed;
-    }
+				valuesToRemove.add(val);
+			}
+		}
+	}
+
+	// values are compared by identity here
+	boolean removeValues(Set<V> valuesToRemove) {
+		if (valuesToRemove.isEmpty()) {
+			return false;
+		}
+		((ValueList<V>) values).removeAllIdentical(valuesToRemove);
+		valuesToRemove.forEach(val -> val.setParent(null));
+		return true;
+	}
+
+	/**
+	 * Values that can be equal to (or represent the same value as) the provided one. For large items
+	 * this is typically a small subset of all values.
+	 */
+	Collection<V> getCandidateValues(PrismValue value) {
+		return ((ValueList<V>) values).getCandidates(value);
+	}
+
+	Collection<V> getCandidateValuesByKey(Object key) {
+		return ((ValueList<V>) values).getCandidatesByKey(key);
+	}
+
+	// called when a value contained in this item changes in a way that can affect its equality to other values
+	void valueChanged() {
+		((ValueList<V>) values).invalidateIndex();
+	}
 
     public V remove(int index) {
 		checkMutability();					// TODO consider if there is real change
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.prism;
+
+import javax.xml.namespace.QName;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * List of items of a container value. Keeps the items in the order they were added (needed for consistent
+ * serialization), but for larger values it also maintains an index by item local name, so looking up an item
+ * does not need to scan the whole list (think of extensions with hundreds of properties).
+ *
+ * The index is keyed by local part only, because item names are matched using QNameUtil.match, where
+ * an unqualified name matches any namespace. The caller has to filter the returned candidates by the full name.
+ *
+ * The index is built lazily on the first lookup after a change and kept up to date by add(item). Any other
+ * modification (removal, set, operations on iterators or sublists) is detected by means of modCount
+ * and causes the index to be rebuilt on the next lookup. Renaming an item that is already in the list
+ * has to be reported via {@link #invalidateIndex()}.
+ *
+ * Not thread safe (just like the rest of the prism structures).
+ */
+class ItemList extends ArrayList<Item<?,?>> {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Below this size, lookups simply go through the list; maintaining the index would not pay off.
+	 */
+	static final int INDEX_THRESHOLD = 10;
+
+	private transient Map<String, List<Item<?,?>>> index;
+	private transient int indexModCount;
+
+	ItemList() {
+	}
+
+	ItemList(int initialCapacity) {
+		super(initialCapacity);
+	}
+
+	/**
+	 * Returns items that can match given name: either all items, or (for larger lists) those with the same local name.
+	 */
+	Collection<Item<?,?>> getCandidates(QName name) {
+		if (size() <= INDEX_THRESHOLD) {
+			return this;
+		}
+		if (index == null || indexModCount != modCount) {
+			rebuildIndex();
+		}
+		List<Item<?,?>> candidates = index.get(name.getLocalPart());
+		return candidates != null ? candidates : Collections.emptyList();
+	}
+
+	private void rebuildIndex() {
+		index = new HashMap<>(size() * 2);
+		for (Item<?,?> item : this) {
+			addToIndex(item);
+		}
+		indexModCount = modCount;
+	}
+
+	private void addToIndex(Item<?,?> item) {
+		QName name = item.getElementName();
+		if (name != null) {
+			index.computeIfAbsent(name.getLocalPart(), k -> new ArrayList<>(1)).add(item);
+		}
+	}
+
+	void invalidateIndex() {
+		index = null;
+	}
+
+	@Override
+	public boolean add(Item<?,?> item) {
+		boolean indexValid = index != null && indexModCount == modCount;
+		boolean rv = super.add(item);
+		if (indexValid) {
+			addToIndex(item);
+			indexModCount = modCount;
+		}
+		return rv;
+	}
+
+	@Override
+	public Item<?,?> set(int position, Item<?,?> item) {
+		// does not change modCount
+		invalidateIndex();
+		return super.set(position, item);
+	}
+
+	@Override
+	public Object clone() {
+		ItemList clone = (ItemList) super.clone();
+		clone.index = null;
+		return clone;
+	}
+}
@@ -53,7 +53,8 @@ public class PrismContainerValue<C extends Containerable> extends PrismValue imp
     private static final Trace LOGGER = TraceManager.getTrace(PrismContainerValue.class);
 
 	// This is list. We need to maintain the order internally to provide consistent
-    // output in DOM and other ordering-sensitive representations
+    // output in DOM and other ordering-sensitive representations.
+	// Normally an ItemList, which adds an index by name for faster lookups in large container values.
 	protected List<Item<?,?>> items = null;
     private Long id;
 
@@ -378,11 +379,18 @@ public class PrismContainerValue<C extends Containerable> extends PrismValue imp
         	item.applyDefinition((ID)determineItemDefinition(item.getElementName(), getComplexTypeDefinition()), false);
         }
         if (items == null) {
-        	items = new ArrayList<>();
+        	items = new ItemList();
         }
         return items.add(item);
     }
 
+	// called when a name of contained item is changed
+	void itemRenamed() {
+		if (items instanceof ItemList) {
+			((ItemList) items).invalidateIndex();
+		}
+	}
+
     /**
      * Merges the provided item into this item. The values are joined together.
      * Returns true if new item or value was added.
@@ -759,8 +767,9 @@ public class PrismContainerValue<C extends Containerable> extends PrismValue imp
         if (items == null) {
             return null;
         }
+        Collection<Item<?,?>> candidates = items instanceof ItemList ? ((ItemList) items).getCandidates(subName) : items;
         Item<IV,ID> matching = null;
-        for (Item<?,?> item : items) {
+        for (Item<?,?> item : candidates) {
             if (QNameUtil.match(subName, item.getElementName())) {
                 if (matching != null) {
                     String containerName = getParent() != null ? DebugUtil.formatElementName(getParent().getElementName()) : "";
@@ -1378,7 +1387,7 @@ public class PrismContainerValue<C extends Containerable> extends PrismValue imp
 				Item<?,?> clonedItem = item.cloneComplex(strategy);
 				clonedItem.setParent(clone);
 				if (clone.items == null) {
-					clone.items = new ArrayList<>(this.items.size());
+					clone.items = new ItemList(this.items.size());
 				}
 				clone.items.add(clonedItem);
 			}
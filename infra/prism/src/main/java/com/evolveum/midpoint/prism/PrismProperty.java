@@ -269,14 +269,14 @@ public class PrismProperty<T> extends Item<PrismPropertyValue<T>,PrismPropertyDe
     public void addValue(PrismPropertyValue<T> pValueToAdd) {
 		checkMutability();
 		pValueToAdd.checkValue();
-    	Iterator<PrismPropertyValue<T>> iterator = getValues().iterator();
-    	while (iterator.hasNext()) {
-    		PrismPropertyValue<T> pValue = iterator.next();
+		Set<PrismPropertyValue<T>> existingValues = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (PrismPropertyValue<T> pValue : getCandidateValues(pValueToAdd)) {
     		if (pValue.equalsRealValue(pValueToAdd)) {
     			LOGGER.warn("Adding value to property "+ getElementName()+" that already exists (overwriting), value: "+pValueToAdd);
-    			iterator.remove();
+    			existingValues.add(pValue);
     		}
     	}
+		removeValues(existingValues);
     	pValueToAdd.setParent(this);
     	pValueToAdd.recompute();
     	getValues().add(pValueToAdd);
@@ -308,16 +308,13 @@ public class PrismProperty<T> extends Item<PrismPropertyValue<T>,PrismPropertyDe
 
     public boolean deleteValue(PrismPropertyValue<T> pValueToDelete) {
 		checkMutability();
-		Iterator<PrismPropertyValue<T>> iterator = getValues().iterator();
-    	boolean found = false;
-    	while (iterator.hasNext()) {
-    		PrismPropertyValue<T> pValue = iterator.next();
+		Set<PrismPropertyValue<T>> valuesToDelete = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (PrismPropertyValue<T> pValue : getCandidateValues(pValueToDelete)) {
     		if (pValue.equalsRealValue(pValueToDelete)) {
-    			iterator.remove();
-    			pValue.setParent(null);
-    			found = true;
+    			valuesToDelete.add(pValue);
     		}
     	}
+		boolean found = removeValues(valuesToDelete);
     	if (!found) {
     		LOGGER.warn("Deleting value of property "+ getElementName()+" that does not exist (skipping), value: "+pValueToDelete);
     	}
@@ -335,7 +332,7 @@ public class PrismProperty<T> extends Item<PrismPropertyValue<T>,PrismPropertyDe
     }
 
     public boolean hasRealValue(PrismPropertyValue<T> value) {
-        for (PrismPropertyValue<T> propVal : getValues()) {
+        for (PrismPropertyValue<T> propVal : getCandidateValues(value)) {
             if (propVal.equalsRealValue(value)) {
                 return true;
             }
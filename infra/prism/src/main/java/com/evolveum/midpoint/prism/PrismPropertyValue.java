@@ -112,6 +112,7 @@ public class PrismPropertyValue<T> extends PrismValue implements DebugDumpable,
         this.value = value;
         this.rawElement = null;
         checkValue();
+        invalidateParentIndex();
     }
 
 	public T getValue() {
@@ -171,6 +172,7 @@ public class PrismPropertyValue<T> extends PrismValue implements DebugDumpable,
 
 	public void setRawElement(XNode rawElement) {
 		this.rawElement = rawElement;
+		invalidateParentIndex();
 	}
 
 	@Override
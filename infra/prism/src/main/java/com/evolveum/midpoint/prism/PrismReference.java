@@ -85,7 +85,7 @@ public class PrismReference extends Item<PrismReferenceValue,PrismReferenceDefin
 
 	private PrismReferenceValue getValue(String oid) {
 		// We need to tolerate null OIDs here. Because of JAXB.
-		for (PrismReferenceValue val: getValues()) {
+		for (PrismReferenceValue val: getCandidateValuesByKey(oid)) {
 			if (MiscUtil.equals(oid, val.getOid())) {
 				return val;
 			}
@@ -167,7 +167,7 @@ public class PrismReference extends Item<PrismReferenceValue,PrismReferenceDefin
 	}
 
     public PrismReferenceValue findValueByOid(String oid) {
-    	for (PrismReferenceValue pval: getValues()) {
+    	for (PrismReferenceValue pval: getCandidateValuesByKey(oid)) {
     		if (oid.equals(pval.getOid())) {
     			return pval;
     		}
@@ -102,6 +102,7 @@ public class PrismReferenceValue extends PrismValue implements DebugDumpable, Se
 	public void setOid(String oid) {
 		checkMutability();
 		this.oid = oid;
+		invalidateParentIndex();
 	}
 
 	/**
@@ -120,6 +121,9 @@ public class PrismReferenceValue extends PrismValue implements DebugDumpable, Se
 	public void setObject(PrismObject object) {
 		checkMutability();
 		this.object = object;
+		if (oid == null) {
+			invalidateParentIndex();	// OID is taken from the object in this case
+		}
 	}
 
 	/**
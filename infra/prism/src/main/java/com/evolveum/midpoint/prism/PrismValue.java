@@ -110,6 +110,16 @@ public abstract class PrismValue implements IPrismValue {
 		return parent;
 	}
 
+	/**
+	 * To be called when the value changes in a way that can affect its equality to other values
+	 * (e.g. a new OID or real value is set). The parent item may have these values indexed.
+	 */
+	void invalidateParentIndex() {
+		if (parent instanceof Item) {
+			((Item<?, ?>) parent).valueChanged();
+		}
+	}
+
 	@Override
 	public void setParent(Itemable parent) {
 		if (this.parent != null && parent != null && this.parent != parent) {
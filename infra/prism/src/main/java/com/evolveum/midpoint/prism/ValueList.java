@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.prism;
+
+import com.evolveum.midpoint.prism.polystring.PolyString;
+
+import javax.xml.namespace.QName;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * List of values of an item. Keeps the values in the order they were added, but for larger items it also
+ * maintains a hash index, so checking whether a value is present (when adding values, applying deltas etc.)
+ * does not need to compare the value with all the other ones.
+ *
+ * The index is keyed by a value key (see {@link #getKey(PrismValue)}): a simple part of the value that
+ * is the same for all values that are equal (in the sense of equalsComplex, equalsRealValue or representsSameValue).
+ * So the index just narrows down the candidates; the caller has to compare them in the usual way.
+ * Only values with immutable, well-behaved content have a key: references with OID and properties with strings,
+ * numbers, booleans, enums, QNames and polystrings. If there is any value without a key in the list, the index
+ * is not used at all (e.g. a raw value can be equal to a parsed one).
+ *
+ * The index is built lazily on the first lookup after a change and kept up to date by add(value) and
+ * removeAllIdentical(..). Any other modification is detected by means of modCount and causes the index
+ * to be rebuilt on the next lookup. Changes of values that are already in the list (their OIDs or real values)
+ * have to be reported via {@link #invalidateIndex()}.
+ *
+ * Not thread safe (just like the rest of the prism structures).
+ */
+class ValueList<V extends PrismValue> extends ArrayList<V> {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Below this size, lookups simply go through the list; maintaining the index would not pay off.
+	 */
+	static final int INDEX_THRESHOLD = 20;
+
+	private transient Map<Object, List<V>> index;
+	private transient int unkeyedCount;
+	private transient int indexModCount;
+
+	/**
+	 * Returns values that can be equal to given value: either all values, or (when possible) only those
+	 * with the same key.
+	 */
+	Collection<V> getCandidates(PrismValue value) {
+		return size() <= INDEX_THRESHOLD ? this : getCandidatesByKey(getKey(value));
+	}
+
+	/**
+	 * Returns values that can have given key (see {@link #getKey(PrismValue)}).
+	 */
+	Collection<V> getCandidatesByKey(Object key) {
+		if (key == null || size() <= INDEX_THRESHOLD) {
+			return this;
+		}
+		if (!isIndexValid()) {
+			rebuildIndex();
+		}
+		if (unkeyedCount > 0) {
+			return this;
+		}
+		List<V> candidates = index.get(key);
+		return candidates != null ? candidates : Collections.emptyList();
+	}
+
+	private boolean isIndexValid() {
+		return index != null && indexModCount == modCount;
+	}
+
+	private void rebuildIndex() {
+		index = new HashMap<>(size() * 2);
+		unkeyedCount = 0;
+		for (V value : this) {
+			addToIndex(value);
+		}
+		indexModCount = modCount;
+	}
+
+	private void addToIndex(V value) {
+		Object key = getKey(value);
+		if (key != null) {
+			index.computeIfAbsent(key, k -> new ArrayList<>(1)).add(value);
+		} else {
+			unkeyedCount++;
+		}
+	}
+
+	private void removeFromIndex(V value) {
+		Object key = getKey(value);
+		List<V> bucket = key != null ? index.get(key) : null;
+		if (bucket != null && removeIdentical(bucket, value)) {
+			if (bucket.isEmpty()) {
+				index.remove(key);
+			}
+		} else {
+			// Either unkeyed, or the key has changed since indexing (e.g. a raw value was parsed) - in which case
+			// it was counted as unkeyed. Overestimating unkeyedCount is safe: the index is just not used.
+			if (unkeyedCount > 0) {
+				unkeyedCount--;
+			} else {
+				invalidateIndex();
+			}
+		}
+	}
+
+	void invalidateIndex() {
+		index = null;
+	}
+
+	@Override
+	public boolean add(V value) {
+		boolean indexValid = isIndexValid();
+		boolean rv = super.add(value);
+		if (indexValid) {
+			addToIndex(value);
+			indexModCount = modCount;
+		}
+		return rv;
+	}
+
+	/**
+	 * Removes given value instances (compared by identity) in one pass.
+	 */
+	boolean removeAllIdentical(Set<V> valuesToRemove) {
+		if (valuesToRemove.isEmpty()) {
+			return false;
+		}
+		boolean indexValid = isIndexValid();
+		boolean changed = removeIf(valuesToRemove::contains);
+		if (indexValid) {
+			for (V value : valuesToRemove) {
+				removeFromIndex(value);
+			}
+			if (index != null) {
+				indexModCount = modCount;
+			}
+		}
+		return changed;
+	}
+
+	@Override
+	public V set(int position, V value) {
+		// does not change modCount
+		invalidateIndex();
+		return super.set(position, value);
+	}
+
+	@Override
+	public Object clone() {
+		ValueList<?> clone = (ValueList<?>) super.clone();
+		clone.index = null;
+		return clone;
+	}
+
+	/**
+	 * Returns the key of a value, or null if the value cannot be indexed.
+	 * Equal values (in any of the senses used by Item) must have equal keys.
+	 */
+	static Object getKey(PrismValue value) {
+		if (value instanceof PrismReferenceValue) {
+			return ((PrismReferenceValue) value).getOid();
+		} else if (value instanceof PrismPropertyValue) {
+			PrismPropertyValue<?> propertyValue = (PrismPropertyValue<?>) value;
+			if (propertyValue.getRawElement() != null) {
+				return null;
+			}
+			Object realValue = propertyValue.getValue();
+			if (realValue instanceof PolyString) {
+				// norm can be recomputed, but orig is final
+				return ((PolyString) realValue).getOrig();
+			} else if (realValue instanceof String || realValue instanceof Boolean || realValue instanceof Integer
+					|| realValue instanceof Long || realValue instanceof Short || realValue instanceof Byte
+					|| realValue instanceof BigInteger || realValue instanceof BigDecimal
+					|| realValue instanceof Enum || realValue instanceof QName) {
+				return realValue;
+			} else {
+				return null;
+			}
+		} else {
+			return null;
+		}
+	}
+
+	private static <V> boolean removeIdentical(List<V> list, V value) {
+		for (Iterator<V> iterator = list.iterator(); iterator.hasNext(); ) {
+			if (iterator.next() == value) {
+				iterator.remove();
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -18,6 +18,7 @@ package com.evolveum.midpoint.prism.lex;
 
 import com.evolveum.midpoint.prism.*;
 import com.evolveum.midpoint.prism.lex.dom.DomLexicalProcessor;
+import com.evolveum.midpoint.prism.lex.dom.StaxLexicalProcessor;
 import com.evolveum.midpoint.prism.lex.json.JsonLexicalProcessor;
 import com.evolveum.midpoint.prism.lex.json.NullLexicalProcessor;
 import com.evolveum.midpoint.prism.lex.json.YamlLexicalProcessor;
@@ -40,6 +41,12 @@ import static com.evolveum.midpoint.prism.PrismContext.LANG_YAML;
  */
 public class LexicalProcessorRegistry {
 
+	/**
+	 * If set to true, XML is read using StAX directly into XNode trees (StaxLexicalProcessor), without intermediate DOM.
+	 * Off by default until StAX is proven to produce the same XNode trees as DOM (see TestStaxParser).
+	 */
+	public static final String STAX_XML_PARSER_PROPERTY_NAME = "midpoint.prism.staxXmlParser";
+
 	private final Map<String, LexicalProcessor> parserMap;
 
 	private final DomLexicalProcessor domLexicalProcessor;
@@ -50,7 +57,10 @@ public class LexicalProcessorRegistry {
 		nullLexicalProcessor = new NullLexicalProcessor();
 
 		parserMap = new HashMap<>();
-		parserMap.put(LANG_XML, domLexicalProcessor);
+		// DOM processor is available via domProcessor() even if XML is read using StAX
+		parserMap.put(LANG_XML, Boolean.getBoolean(STAX_XML_PARSER_PROPERTY_NAME)
+				? new StaxLexicalProcessor(schemaRegistry, domLexicalProcessor)
+				: domLexicalProcessor);
 		parserMap.put(LANG_JSON, new JsonLexicalProcessor(schemaRegistry));
 		parserMap.put(LANG_YAML, new YamlLexicalProcessor(schemaRegistry));
 	}
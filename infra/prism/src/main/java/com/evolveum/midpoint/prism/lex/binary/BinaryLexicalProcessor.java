@@ -0,0 +1,724 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.prism.lex.binary;
+
+import com.evolveum.midpoint.prism.ParserSource;
+import com.evolveum.midpoint.prism.ParsingContext;
+import com.evolveum.midpoint.prism.PrismContextImpl;
+import com.evolveum.midpoint.prism.SerializationContext;
+import com.evolveum.midpoint.prism.lex.LexicalProcessor;
+import com.evolveum.midpoint.prism.lex.LexicalUtils;
+import com.evolveum.midpoint.prism.lex.dom.TextValueParser;
+import com.evolveum.midpoint.prism.marshaller.ItemPathHolder;
+import com.evolveum.midpoint.prism.schema.SchemaRegistry;
+import com.evolveum.midpoint.prism.xml.DynamicNamespacePrefixMapper;
+import com.evolveum.midpoint.prism.xml.XsdTypeMapper;
+import com.evolveum.midpoint.prism.xnode.*;
+import com.evolveum.midpoint.util.DOMUtil;
+import com.evolveum.midpoint.util.QNameUtil;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.prism.xml.ns._public.types_3.ItemPathType;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.w3c.dom.Element;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Compact binary representation of XNode trees. It is meant for machine-only storage (e.g. the repository),
+ * not for data interchange: there is no schema for it and it is not guaranteed to be stable across midPoint versions
+ * (other than by the version byte at the beginning).
+ *
+ * The content is the same as what would be written to XML by DomLexicalWriter and read back by the XML lexical
+ * processors: primitive values are kept as text (plus namespace declarations needed for QNames and item paths),
+ * so they are parsed the same way as values read from XML. Unlike XML, there is no need to guess whether an element
+ * is a list or a map, and names (QNames and strings used in them) are stored only once per document.
+ *
+ * Format (version 1):
+ *
+ * document := VERSION count:varint root*
+ * root     := name:qname (node | END)
+ * node     := tag:byte [elementName:qname] [type:qname] content
+ *               tag = kind | flags (ELEMENT_NAME, TYPE, ATTRIBUTE, NAMESPACES)
+ * entry    := tag:byte key:qname [elementName:qname] [type:qname] content
+ * content  := entry* END                          for maps (the tag comes first, so that END can be recognized)
+ *           | node* END                           for lists
+ *           | text:string namespaces?             for primitive values (namespaces only if NAMESPACES flag is set)
+ *           | text:string                         for schema (serialized XML)
+ * namespaces := count:varint (prefix:ref namespace:ref)*
+ * qname    := varint                              index+1 into the table of already seen QNames; 0 means that
+ *                                                 (namespace:ref localPart:ref prefix:ref) follows and is added to the table
+ * ref      := varint                              0 = null, 1 = new string follows (and is added to the table),
+ *                                                 index+2 into the table of already seen strings
+ * string   := length:varint utf8-bytes
+ */
+public class BinaryLexicalProcessor implements LexicalProcessor<byte[]> {
+
+	static final byte FORMAT_VERSION = 1;
+
+	private static final int KIND_MASK = 0x0F;
+	private static final int END = 0;
+	private static final int MAP = 1;
+	private static final int LIST = 2;
+	private static final int PRIMITIVE = 3;
+	private static final int SCHEMA = 4;
+
+	private static final int FLAG_ELEMENT_NAME = 0x10;
+	private static final int FLAG_TYPE = 0x20;
+	private static final int FLAG_ATTRIBUTE = 0x40;
+	private static final int FLAG_NAMESPACES = 0x80;
+
+	// used only if there's no prefix mapper
+	private static final String DEFAULT_QNAME_PREFIX = "qn";
+
+	@NotNull private final SchemaRegistry schemaRegistry;
+
+	public BinaryLexicalProcessor(@NotNull SchemaRegistry schemaRegistry) {
+		this.schemaRegistry = schemaRegistry;
+	}
+
+	//region Parsing
+
+	@NotNull
+	@Override
+	public RootXNode read(@NotNull ParserSource source, @NotNull ParsingContext parsingContext) throws SchemaException, IOException {
+		return read(readAll(source));
+	}
+
+	@NotNull
+	public RootXNode read(@NotNull byte[] data) throws SchemaException {
+		List<RootXNode> roots = readObjects(data);
+		if (roots.size() != 1) {
+			throw new SchemaException("Expected exactly one root node, got " + roots.size());
+		}
+		return roots.get(0);
+	}
+
+	@NotNull
+	@Override
+	public List<RootXNode> readObjects(@NotNull ParserSource source, @NotNull ParsingContext parsingContext) throws SchemaException, IOException {
+		return readObjects(readAll(source));
+	}
+
+	@NotNull
+	public List<RootXNode> readObjects(@NotNull byte[] data) throws SchemaException {
+		try {
+			return new Reader(data).readDocument();
+		} catch (RuntimeException e) {
+			// corrupted data lead e.g. to ArrayIndexOutOfBoundsException
+			throw new SchemaException("Couldn't read binary data: " + e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public void readObjectsIteratively(@NotNull ParserSource source, @NotNull ParsingContext parsingContext,
+			RootXNodeHandler handler) throws SchemaException, IOException {
+		for (RootXNode root : readObjects(source, parsingContext)) {
+			if (!handler.handleData(root)) {
+				return;
+			}
+		}
+	}
+
+	private byte[] readAll(ParserSource source) throws IOException {
+		InputStream is = source.getInputStream();
+		try {
+			return IOUtils.toByteArray(is);
+		} finally {
+			if (source.closeStreamAfterParsing()) {
+				IOUtils.closeQuietly(is);
+			}
+		}
+	}
+
+	@Override
+	public boolean canRead(@NotNull File file) throws IOException {
+		return false;           // binary data are not meant to be stored in files
+	}
+
+	@Override
+	public boolean canRead(@NotNull String dataString) {
+		return false;
+	}
+
+	private static class Reader {
+
+		private final byte[] data;
+		private int position;
+		private final List<String> strings = new ArrayList<>();
+		private final List<QName> qnames = new ArrayList<>();
+
+		private Reader(byte[] data) {
+			this.data = data;
+		}
+
+		private List<RootXNode> readDocument() throws SchemaException {
+			byte version = data[position++];
+			if (version != FORMAT_VERSION) {
+				throw new SchemaException("Unsupported binary format version: " + version);
+			}
+			int count = readVarInt();
+			List<RootXNode> roots = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				QName rootElementName = readQName();
+				RootXNode root = new RootXNode(rootElementName);
+				int tag = data[position++] & 0xFF;
+				if (tag != END) {
+					XNode subnode = readNode(tag, rootElementName);
+					// xsi:type of the root element is applied to both root and the subnode (see XML processors)
+					if (subnode.isExplicitTypeDeclaration()) {
+						root.setTypeQName(subnode.getTypeQName());
+						root.setExplicitTypeDeclaration(true);
+					}
+					root.setSubnode(subnode);
+				}
+				roots.add(root);
+			}
+			return roots;
+		}
+
+		private XNode readNode(int tag, QName name) throws SchemaException {
+			QName elementName = (tag & FLAG_ELEMENT_NAME) != 0 ? readQName() : null;
+			QName typeName = (tag & FLAG_TYPE) != 0 ? readQName() : null;
+			if (elementName != null) {
+				name = elementName;
+			}
+			XNode node;
+			switch (tag & KIND_MASK) {
+				case MAP:
+					node = readMap();
+					break;
+				case LIST:
+					node = readList(name);
+					break;
+				case PRIMITIVE:
+					node = readPrimitive(tag, name);
+					break;
+				case SCHEMA:
+					SchemaXNode xschema = new SchemaXNode();
+					xschema.setSchemaElement(DOMUtil.parseDocument(readString()).getDocumentElement());
+					node = xschema;
+					break;
+				default:
+					throw new SchemaException("Unknown node kind " + (tag & KIND_MASK) + " at position " + (position - 1));
+			}
+			if (elementName != null) {
+				node.setElementName(elementName);
+			}
+			if (typeName != null) {
+				node.setTypeQName(typeName);
+				node.setExplicitTypeDeclaration(true);
+			}
+			return node;
+		}
+
+		private MapXNode readMap() throws SchemaException {
+			MapXNode xmap = new MapXNode();
+			for (;;) {
+				int tag = data[position++] & 0xFF;
+				if (tag == END) {
+					return xmap;
+				}
+				QName key = readQName();
+				xmap.put(key, readNode(tag, key));
+			}
+		}
+
+		private ListXNode readList(QName name) throws SchemaException {
+			ListXNode xlist = new ListXNode();
+			for (;;) {
+				int tag = data[position++] & 0xFF;
+				if (tag == END) {
+					return xlist;
+				}
+				xlist.add(readNode(tag, name));
+			}
+		}
+
+		private PrimitiveXNode<?> readPrimitive(int tag, QName name) {
+			String text = readString();
+			Map<String, String> namespaces;
+			if ((tag & FLAG_NAMESPACES) != 0) {
+				int count = readVarInt();
+				namespaces = new HashMap<>();
+				for (int i = 0; i < count; i++) {
+					String prefix = readRef();
+					namespaces.put(prefix, readRef());
+				}
+			} else {
+				namespaces = Collections.emptyMap();
+			}
+			boolean attribute = (tag & FLAG_ATTRIBUTE) != 0;
+			PrimitiveXNode<?> primitive = new PrimitiveXNode<>();
+			primitive.setValueParser(new TextValueParser<>(name, text, namespaces, attribute));
+			primitive.setAttribute(attribute);
+			return primitive;
+		}
+
+		private QName readQName() {
+			int index = readVarInt();
+			if (index > 0) {
+				return qnames.get(index - 1);
+			}
+			String namespace = readRef();
+			String localPart = readRef();
+			String prefix = readRef();
+			QName qname = new QName(namespace, localPart, prefix != null ? prefix : XMLConstants.DEFAULT_NS_PREFIX);
+			qnames.add(qname);
+			return qname;
+		}
+
+		private String readRef() {
+			int ref = readVarInt();
+			if (ref == 0) {
+				return null;
+			} else if (ref == 1) {
+				String string = readString();
+				strings.add(string);
+				return string;
+			} else {
+				return strings.get(ref - 2);
+			}
+		}
+
+		private String readString() {
+			int length = readVarInt();
+			String string = new String(data, position, length, StandardCharsets.UTF_8);
+			position += length;
+			return string;
+		}
+
+		private int readVarInt() {
+			int value = 0;
+			int shift = 0;
+			for (;;) {
+				byte b = data[position++];
+				value |= (b & 0x7F) << shift;
+				if (b >= 0) {
+					return value;
+				}
+				shift += 7;
+			}
+		}
+	}
+
+	//endregion
+
+	//region Serialization
+
+	@NotNull
+	@Override
+	public byte[] write(@NotNull RootXNode root, @Nullable SerializationContext serializationContext) throws SchemaException {
+		return write(Collections.singletonList(root), null, serializationContext);
+	}
+
+	@NotNull
+	@Override
+	public byte[] write(@NotNull XNode xnode, @NotNull QName rootElementName, @Nullable SerializationContext serializationContext)
+			throws SchemaException {
+		return write(LexicalUtils.createRootXNode(xnode, rootElementName), serializationContext);
+	}
+
+	/**
+	 * Aggregate element name is not used, as the list of roots is represented directly.
+	 */
+	@NotNull
+	@Override
+	public byte[] write(@NotNull List<RootXNode> roots, @Nullable QName aggregateElementName,
+			@Nullable SerializationContext context) throws SchemaException {
+		Writer writer = new Writer(schemaRegistry.getNamespacePrefixMapper());
+		writer.writeDocument(roots);
+		return writer.toByteArray();
+	}
+
+	/**
+	 * Text representation of a primitive value, the same as DomLexicalWriter puts into XML.
+	 */
+	private static class PrimitiveText {
+		@NotNull private final String text;
+		private final Map<String, String> namespaces;
+		private final QName explicitType;
+
+		private PrimitiveText(@NotNull String text, Map<String, String> namespaces, QName explicitType) {
+			this.text = text;
+			this.namespaces = namespaces;
+			this.explicitType = explicitType;
+		}
+	}
+
+	private static class Writer {
+
+		private final DynamicNamespacePrefixMapper prefixMapper;
+		private byte[] buffer = new byte[4096];
+		private int position;
+		private final Map<String, Integer> strings = new HashMap<>();
+		private final Map<QName, Integer> qnameIndices = new HashMap<>();
+		private final List<QName> qnames = new ArrayList<>();
+
+		private Writer(DynamicNamespacePrefixMapper prefixMapper) {
+			this.prefixMapper = prefixMapper;
+		}
+
+		private byte[] toByteArray() {
+			return Arrays.copyOf(buffer, position);
+		}
+
+		private void writeDocument(List<RootXNode> roots) throws SchemaException {
+			writeByte(FORMAT_VERSION);
+			writeVarInt(roots.size());
+			for (RootXNode root : roots) {
+				writeQName(root.getRootElementName());
+				// type of the subnode itself is ignored (as in DomLexicalWriter)
+				QName rootType = root.isExplicitTypeDeclaration() ? root.getTypeQName() : null;
+				XNode subnode = root.getSubnode();
+				Object item = subnode != null ? toItem(subnode, false) : null;
+				if (item instanceof PrimitiveText) {
+					PrimitiveText text = (PrimitiveText) item;
+					writePrimitive(text, false, null, null, rootType != null ? rootType : text.explicitType);
+				} else if (item != null) {
+					writeNode((XNode) item, null, null, rootType);
+				} else {
+					writeByte(END);
+				}
+			}
+		}
+
+		/**
+		 * Returns what is to be written for a given node: the node itself, the text of a primitive value, or null if
+		 * nothing would be written (an unset primitive value, an empty schema). Homogeneous lists are treated separately.
+		 */
+		@Nullable
+		private Object toItem(@NotNull XNode node, boolean asAttribute) throws SchemaException {
+			if (node instanceof PrimitiveXNode) {
+				return getPrimitiveText((PrimitiveXNode<?>) node, asAttribute);
+			} else if (node instanceof SchemaXNode && ((SchemaXNode) node).getSchemaElement() == null) {
+				return null;
+			} else {
+				return node;
+			}
+		}
+
+		private void writeMapContent(MapXNode map) throws SchemaException {
+			for (Map.Entry<QName, XNode> entry : map.entrySet()) {
+				writeEntry(entry.getKey(), entry.getValue());
+			}
+			writeByte(END);
+		}
+
+		private void writeEntry(@NotNull QName key, XNode value) throws SchemaException {
+			if (value == null) {
+				return;
+			}
+			if (value instanceof ListXNode && !value.isHeterogeneousList()) {
+				List<Object> items = new ArrayList<>();
+				collectListItems((ListXNode) value, items);
+				if (items.size() == 1) {
+					writeItem(items.get(0), key, null);
+				} else if (items.size() > 1) {
+					// XML reader creates a list from repeated elements
+					writeTag(LIST, 0, key, null, null);
+					for (Object item : items) {
+						writeItem(item, null, null);
+					}
+					writeByte(END);
+				}
+			} else if (value instanceof PrimitiveXNode && ((PrimitiveXNode) value).isAttribute()) {
+				PrimitiveText text = getPrimitiveText((PrimitiveXNode<?>) value, true);
+				if (text != null) {
+					writePrimitive(text, true, key, null, null);
+				}
+			} else {
+				Object item = toItem(value, false);
+				if (item != null) {
+					writeItem(item, key, null);
+				}
+			}
+		}
+
+		// items are either nodes or texts of primitive values
+		private void collectListItems(ListXNode list, List<Object> items) throws SchemaException {
+			for (XNode node : list) {
+				if (node instanceof ListXNode && !node.isHeterogeneousList()) {
+					collectListItems((ListXNode) node, items);
+				} else if (node != null) {
+					Object item = toItem(node, false);
+					if (item != null) {
+						items.add(item);
+					}
+				}
+			}
+		}
+
+		private void writeItem(Object item, QName key, QName elementName) throws SchemaException {
+			if (item instanceof PrimitiveText) {
+				PrimitiveText text = (PrimitiveText) item;
+				writePrimitive(text, false, key, elementName, text.explicitType);
+			} else {
+				XNode node = (XNode) item;
+				QName explicitType = node instanceof MapXNode && node.isExplicitTypeDeclaration() ? node.getTypeQName() : null;
+				writeNode(node, key, elementName, explicitType);
+			}
+		}
+
+		/**
+		 * Writes a node other than primitive one (these are written using writePrimitive).
+		 */
+		private void writeNode(@NotNull XNode node, QName key, QName elementName, QName explicitType) throws SchemaException {
+			if (node instanceof MapXNode) {
+				writeTag(MAP, 0, key, elementName, explicitType);
+				writeMapContent((MapXNode) node);
+			} else if (node instanceof RootXNode) {
+				// written as an element containing the root element (see DomLexicalWriter)
+				writeTag(MAP, 0, key, elementName, null);
+				RootXNode root = (RootXNode) node;
+				writeEntry(root.getRootElementName(), root.getSubnode());
+				writeByte(END);
+			} else if (node instanceof ListXNode) {
+				writeTag(LIST, 0, key, elementName, explicitType);
+				if (node.isHeterogeneousList()) {
+					for (XNode listItem : (ListXNode) node) {
+						if (listItem != null) {
+							writeNamedListItem(listItem.getElementName(), listItem);
+						}
+					}
+				} else {
+					// a list at the root level
+					List<Object> items = new ArrayList<>();
+					collectListItems((ListXNode) node, items);
+					for (Object item : items) {
+						writeItem(item, null, null);
+					}
+				}
+				writeByte(END);
+			} else if (node instanceof SchemaXNode) {
+				writeTag(SCHEMA, 0, key, elementName, null);
+				writeString(serializeSchema(((SchemaXNode) node).getSchemaElement()));
+			} else {
+				throw new IllegalArgumentException("Unexpected node " + node);
+			}
+		}
+
+		/**
+		 * Item of a heterogeneous list. A homogeneous list within it is flattened, with all the items getting its name.
+		 */
+		private void writeNamedListItem(QName elementName, XNode node) throws SchemaException {
+			if (elementName == null) {
+				throw new SchemaException("In a list, there are both nodes with element names and nodes without them: " + node);
+			}
+			if (node instanceof ListXNode && !node.isHeterogeneousList()) {
+				List<Object> items = new ArrayList<>();
+				collectListItems((ListXNode) node, items);
+				for (Object item : items) {
+					writeItem(item, null, elementName);
+				}
+			} else {
+				Object item = toItem(node, false);
+				if (item != null) {
+					writeItem(item, null, elementName);
+				}
+			}
+		}
+
+		private void writePrimitive(PrimitiveText text, boolean attribute, QName key, QName elementName, QName explicitType) {
+			int flags = attribute ? FLAG_ATTRIBUTE : 0;
+			if (text.namespaces != null && !text.namespaces.isEmpty()) {
+				flags |= FLAG_NAMESPACES;
+			}
+			writeTag(PRIMITIVE, flags, key, elementName, attribute ? null : explicitType);
+			writeString(text.text);
+			if ((flags & FLAG_NAMESPACES) != 0) {
+				writeVarInt(text.namespaces.size());
+				for (Map.Entry<String, String> namespace : text.namespaces.entrySet()) {
+					writeRef(namespace.getKey());
+					writeRef(namespace.getValue());
+				}
+			}
+		}
+
+		private void writeTag(int kind, int flags, QName key, QName elementName, QName explicitType) {
+			if (elementName != null) {
+				flags |= FLAG_ELEMENT_NAME;
+			}
+			if (explicitType != null) {
+				flags |= FLAG_TYPE;
+			}
+			writeByte(kind | flags);
+			if (key != null) {
+				writeQName(key);
+			}
+			if (elementName != null) {
+				writeQName(elementName);
+			}
+			if (explicitType != null) {
+				writeQName(explicitType);
+			}
+		}
+
+		/**
+		 * Mirrors DomLexicalWriter.serializePrimitiveElementOrAttribute. Returns null if nothing would be written.
+		 * Unparsed values are kept as they are.
+		 */
+		@Nullable
+		private PrimitiveText getPrimitiveText(PrimitiveXNode<?> xprim, boolean asAttribute) throws SchemaException {
+			QName typeQName = xprim.getTypeQName();
+			if (!xprim.isParsed()) {
+				return new PrimitiveText(StringUtils.defaultString(xprim.getStringValue()),
+						xprim.getRelevantNamespaceDeclarations(), xprim.isExplicitTypeDeclaration() ? typeQName : null);
+			}
+
+			if (typeQName == null) {
+				Object v = xprim.getValue();
+				if (v != null) {
+					typeQName = XsdTypeMapper.toXsdType(v.getClass());
+				}
+			}
+			if (typeQName == null) {
+				if (PrismContextImpl.isAllowSchemalessSerialization()) {
+					String stringValue = xprim.getStringValue();
+					return stringValue != null ?
+							new PrimitiveText(stringValue, xprim.getRelevantNamespaceDeclarations(), null) : null;
+				} else {
+					throw new IllegalStateException("No type for primitive value " + xprim + ", cannot serialize (schemaless serialization is disabled)");
+				}
+			}
+			if (StringUtils.isBlank(typeQName.getNamespaceURI())) {
+				typeQName = XsdTypeMapper.determineQNameWithNs(typeQName);
+			}
+			QName explicitType = xprim.isExplicitTypeDeclaration() ? typeQName : null;
+
+			if (ItemPathType.COMPLEX_TYPE.equals(typeQName)) {
+				ItemPathType itemPathType = (ItemPathType) xprim.getValue();
+				if (itemPathType == null) {
+					return null;
+				}
+				if (asAttribute) {
+					throw new UnsupportedOperationException("Serializing ItemPath as an attribute is not supported yet");
+				}
+				ItemPathHolder holder = new ItemPathHolder(itemPathType.getItemPath());
+				String text = holder.getXPathWithDeclarations();       // sets the prefixes used in namespace map
+				return new PrimitiveText(text, holder.getNamespaceMap(), explicitType);
+			} else if (DOMUtil.XSD_QNAME.equals(typeQName)) {
+				QName value = (QName) xprim.getParsedValueWithoutRecording(DOMUtil.XSD_QNAME);
+				return getQNameText(value, explicitType);
+			} else {
+				return new PrimitiveText(StringUtils.defaultString(xprim.getGuessedFormattedValue()), null, explicitType);
+			}
+		}
+
+		// see DOMUtil.setQNameValue
+		private PrimitiveText getQNameText(QName value, QName explicitType) {
+			if (value == null) {
+				return new PrimitiveText("", null, explicitType);
+			} else if (StringUtils.isEmpty(value.getNamespaceURI())) {
+				String text = QNameUtil.isPrefixUndeclared(value.getPrefix()) ?
+						value.getPrefix() + ":" + value.getLocalPart() : value.getLocalPart();
+				return new PrimitiveText(text, null, explicitType);
+			} else {
+				if (StringUtils.isBlank(value.getPrefix()) && prefixMapper != null) {
+					value = prefixMapper.setQNamePrefixExplicit(value);
+				}
+				String prefix = StringUtils.isNotBlank(value.getPrefix()) ? value.getPrefix() : DEFAULT_QNAME_PREFIX;
+				return new PrimitiveText(prefix + ":" + value.getLocalPart(),
+						Collections.singletonMap(prefix, value.getNamespaceURI()), explicitType);
+			}
+		}
+
+		/**
+		 * Namespaces declared at the top of XML documents are available to the schema in XML (see DomLexicalWriter),
+		 * so they have to be declared here.
+		 */
+		private String serializeSchema(Element schemaElement) {
+			Element clone = (Element) schemaElement.cloneNode(true);
+			if (prefixMapper != null) {
+				Map<String, String> declared = DOMUtil.getNamespaceDeclarations(clone);
+				for (Map.Entry<String, String> namespace : prefixMapper.getNamespacesDeclaredByDefault().entrySet()) {
+					if (!declared.containsKey(namespace.getKey())) {
+						DOMUtil.setNamespaceDeclaration(clone, namespace.getKey(), namespace.getValue());
+					}
+				}
+			}
+			return DOMUtil.serializeDOMToString(clone);
+		}
+
+		private void writeQName(QName qname) {
+			Integer index = qnameIndices.get(qname);
+			// QName.equals ignores prefixes, so we have to check them explicitly
+			if (index != null && qnames.get(index).getPrefix().equals(qname.getPrefix())) {
+				writeVarInt(index + 1);
+			} else {
+				writeVarInt(0);
+				writeRef(StringUtils.defaultIfEmpty(qname.getNamespaceURI(), null));
+				writeRef(qname.getLocalPart());
+				writeRef(StringUtils.defaultIfEmpty(qname.getPrefix(), null));
+				qnameIndices.put(qname, qnames.size());
+				qnames.add(qname);
+			}
+		}
+
+		private void writeRef(String string) {
+			if (string == null) {
+				writeVarInt(0);
+				return;
+			}
+			Integer index = strings.get(string);
+			if (index != null) {
+				writeVarInt(index + 2);
+			} else {
+				writeVarInt(1);
+				writeString(string);
+				strings.put(string, strings.size());
+			}
+		}
+
+		private void writeString(String string) {
+			byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+			writeVarInt(bytes.length);
+			ensureCapacity(bytes.length);
+			System.arraycopy(bytes, 0, buffer, position, bytes.length);
+			position += bytes.length;
+		}
+
+		private void writeVarInt(int value) {
+			ensureCapacity(5);
+			while ((value & ~0x7F) != 0) {
+				buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			buffer[position++] = (byte) value;
+		}
+
+		private void writeByte(int value) {
+			ensureCapacity(1);
+			buffer[position++] = (byte) value;
+		}
+
+		private void ensureCapacity(int needed) {
+			if (position + needed > buffer.length) {
+				buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + needed));
+			}
+		}
+	}
+
+	//endregion
+}
@@ -59,7 +59,7 @@ public class DomLexicalProcessor implements LexicalProcessor<String> {
 
 	public static final Trace LOGGER = TraceManager.getTrace(DomLexicalProcessor.class);
 
-	private static final QName SCHEMA_ELEMENT_QNAME = DOMUtil.XSD_SCHEMA_ELEMENT;
+	static final QName SCHEMA_ELEMENT_QNAME = DOMUtil.XSD_SCHEMA_ELEMENT;
 
 	@NotNull private final SchemaRegistry schemaRegistry;
 
@@ -196,12 +196,12 @@ public class DomLexicalProcessor implements LexicalProcessor<String> {
 				PrismConstants.A_MAX_OCCURS.getNamespaceURI(),
 				PrismConstants.A_MAX_OCCURS.getLocalPart());
 		if (!StringUtils.isBlank(maxOccursString)) {
-			int maxOccurs = parseMultiplicity(maxOccursString, element);
+			int maxOccurs = parseMultiplicity(maxOccursString, DOMUtil.getQName(element));
 			xnode.setMaxOccurs(maxOccurs);
 		}
 	}
 
-	private int parseMultiplicity(String maxOccursString, Element element) throws SchemaException {
+	static int parseMultiplicity(String maxOccursString, QName elementName) throws SchemaException {
 		if (PrismConstants.MULTIPLICITY_UNBONUNDED.equals(maxOccursString)) {
 			return -1;
 		}
@@ -212,7 +212,7 @@ public class DomLexicalProcessor implements LexicalProcessor<String> {
 			return Integer.valueOf(maxOccursString);
 		} else {
 			throw new SchemaException("Expected numeric value for " + PrismConstants.A_MAX_OCCURS.getLocalPart()
-					+ " attribute on " + DOMUtil.getQName(element) + " but got " + maxOccursString);
+					+ " attribute on " + elementName + " but got " + maxOccursString);
 		}
 	}
 
@@ -221,7 +221,7 @@ public class DomLexicalProcessor implements LexicalProcessor<String> {
 	 * only the content is parsed).
 	 */
 	@Nullable
-	private XNode parseElementContent(Element element, boolean storeElementName) throws SchemaException {
+	XNode parseElementContent(Element element, boolean storeElementName) throws SchemaException {
 		if (DOMUtil.isNil(element)) {		// TODO: ok?
 			return null;
 		}
@@ -280,6 +280,20 @@ public class DomLexicalProcessor implements LexicalProcessor<String> {
 
 	private boolean isList(Element element) throws SchemaException {
 		String isListAttribute = DOMUtil.getAttribute(element, new QName(DOMUtil.IS_LIST_ATTRIBUTE_NAME));
+		List<QName> childNames = new ArrayList<>();
+		for (Element childElement : DOMUtil.listChildElements(element)) {
+			childNames.add(DOMUtil.getQName(childElement));
+		}
+		return isList(DOMUtil.getQName(element), DOMUtil.resolveXsiType(element), isListAttribute,
+				DOMUtil.hasApplicationAttributes(element), childNames);
+	}
+
+	/**
+	 * Decides whether element content should be parsed as a list, given the relevant information about the element.
+	 * (Shared with StaxLexicalProcessor.)
+	 */
+	boolean isList(QName elementName, QName typeName, String isListAttribute, boolean hasApplicationAttributes,
+			List<QName> childNames) {
 		if (StringUtils.isNotEmpty(isListAttribute)) {
 			return Boolean.valueOf(isListAttribute);
 		}
@@ -289,7 +303,6 @@ public class DomLexicalProcessor implements LexicalProcessor<String> {
 //		}
 
 		// checking parent element fitness
-		QName typeName = DOMUtil.resolveXsiType(element);
 		if (typeName != null) {
 			Collection<? extends ComplexTypeDefinition> definitions = schemaRegistry
 					.findTypeDefinitionsByType(typeName, ComplexTypeDefinition.class);
@@ -308,7 +321,7 @@ public class DomLexicalProcessor implements LexicalProcessor<String> {
 			}
 		} else {	// typeName == null
 			Collection<? extends ComplexTypeDefinition> definitions =
-					schemaRegistry.findTypeDefinitionsByElementName(DOMUtil.getQName(element), ComplexTypeDefinition.class);
+					schemaRegistry.findTypeDefinitionsByElementName(elementName, ComplexTypeDefinition.class);
 			// TODO - or allMatch here? - allMatch would mean that if there's an extension (or resource item) with a name
 			// of e.g. formItems, pipeline, sequence, ... - it would not be recognizable as list=true anymore. That's why
 			// we will use anyMatch here.
@@ -320,17 +333,17 @@ public class DomLexicalProcessor implements LexicalProcessor<String> {
 		}
 
 		// checking the content
-		if (DOMUtil.hasApplicationAttributes(element)) {
+		if (hasApplicationAttributes) {
 			return false;		// TODO - or should we fail in this case?
 		}
-		//System.out.println("Elements are compatible: " + DOMUtil.listChildElements(element) + ": " + rv);
-		return elementsAreCompatible(DOMUtil.listChildElements(element));
+		//System.out.println("Elements are compatible: " + childNames + ": " + rv);
+		return elementsAreCompatible(childNames);
 	}
 
-	private boolean elementsAreCompatible(List<Element> elements) {
+	private boolean elementsAreCompatible(List<QName> elementNames) {
 		QName unified = null;
-		for (Element element : elements) {
-			QName root = getHierarchyRoot(DOMUtil.getQName(element));
+		for (QName elementName : elementNames) {
+			QName root = getHierarchyRoot(elementName);
 			if (unified == null) {
 				unified = root;
 			} else if (!QNameUtil.match(unified, root)) {
@@ -482,7 +495,7 @@ public class DomLexicalProcessor implements LexicalProcessor<String> {
 		}
 	}
 
-	private static <T> T processIllegalArgumentException(String value, QName typeName, IllegalArgumentException e, XNodeProcessorEvaluationMode mode) {
+	static <T> T processIllegalArgumentException(String value, QName typeName, IllegalArgumentException e, XNodeProcessorEvaluationMode mode) {
 		if (mode != XNodeProcessorEvaluationMode.COMPAT) {
 			throw e;
 		}
@@ -0,0 +1,496 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.prism.lex.dom;
+
+import com.evolveum.midpoint.prism.*;
+import com.evolveum.midpoint.prism.lex.LexicalProcessor;
+import com.evolveum.midpoint.prism.schema.SchemaRegistry;
+import com.evolveum.midpoint.prism.xnode.*;
+import com.evolveum.midpoint.util.DOMUtil;
+import com.evolveum.midpoint.util.QNameUtil;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.codehaus.staxmate.dom.DOMConverter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.w3c.dom.Element;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.*;
+
+/**
+ * Reads XML data directly into XNode trees using StAX, i.e. without building the DOM tree first.
+ *
+ * The result should be the same as the one produced by DomLexicalProcessor. That one is still used for writing,
+ * for DOM element sources and for xsd:schema elements (these are kept in SchemaXNode as DOM).
+ */
+public class StaxLexicalProcessor implements LexicalProcessor<String> {
+
+	private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+
+	@NotNull private final SchemaRegistry schemaRegistry;
+	@NotNull private final DomLexicalProcessor domLexicalProcessor;
+
+	public StaxLexicalProcessor(@NotNull SchemaRegistry schemaRegistry, @NotNull DomLexicalProcessor domLexicalProcessor) {
+		this.schemaRegistry = schemaRegistry;
+		this.domLexicalProcessor = domLexicalProcessor;
+	}
+
+	private static XMLInputFactory createXmlInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		// external DTDs are not loaded (the same as in DOMUtil)
+		factory.setXMLResolver((publicID, systemID, baseURI, namespace) -> new ByteArrayInputStream(new byte[0]));
+		return factory;
+	}
+
+	@FunctionalInterface
+	private interface StreamProcessor<T> {
+		T process(XMLStreamReader stream) throws XMLStreamException, SchemaException;
+	}
+
+	@NotNull
+	@Override
+	public RootXNode read(@NotNull ParserSource source, @NotNull ParsingContext parsingContext) throws SchemaException, IOException {
+		if (source instanceof ParserElementSource) {
+			return domLexicalProcessor.read(source, parsingContext);
+		}
+		try {
+			return process(source, stream -> {
+				moveToRootElement(stream);
+				return readRoot(stream, Collections.emptyMap());
+			});
+		} catch (XMLStreamException e) {
+			throw new IllegalStateException("Error parsing XML document " + e.getMessage(), e);
+		}
+	}
+
+	@NotNull
+	@Override
+	public List<RootXNode> readObjects(@NotNull ParserSource source, @NotNull ParsingContext parsingContext) throws SchemaException, IOException {
+		try {
+			return process(source, stream -> {
+				List<RootXNode> rv = new ArrayList<>();
+				readObjects(stream, rv::add);
+				return rv;
+			});
+		} catch (XMLStreamException e) {
+			throw new IllegalStateException("Error parsing XML document " + e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public void readObjectsIteratively(@NotNull ParserSource source, @NotNull ParsingContext parsingContext,
+			RootXNodeHandler handler) throws SchemaException, IOException {
+		try {
+			process(source, stream -> {
+				readObjects(stream, handler);
+				return null;
+			});
+		} catch (XMLStreamException e) {
+			// the message contains the location
+			throw new SchemaException("Exception while parsing XML: " + e.getMessage(), e);
+		}
+	}
+
+	private <T> T process(ParserSource source, StreamProcessor<T> processor) throws XMLStreamException, SchemaException, IOException {
+		InputStream is = null;
+		XMLStreamReader stream = null;
+		try {
+			if (source instanceof ParserStringSource) {
+				// no need to encode the string to bytes and decode it again
+				stream = XML_INPUT_FACTORY.createXMLStreamReader(new StringReader(((ParserStringSource) source).getData()));
+			} else {
+				is = source.getInputStream();
+				stream = XML_INPUT_FACTORY.createXMLStreamReader(is);
+			}
+			return processor.process(stream);
+		} finally {
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (XMLStreamException e) {
+					DomLexicalProcessor.LOGGER.debug("Couldn't close XML stream reader: {}", e.getMessage(), e);
+				}
+			}
+			if (is != null && source.closeStreamAfterParsing()) {
+				IOUtils.closeQuietly(is);
+			}
+		}
+	}
+
+	/**
+	 * Reads either a single object or a collection of objects (wrapped by the objects element), passing
+	 * them to the handler one by one.
+	 */
+	private void readObjects(XMLStreamReader stream, RootXNodeHandler handler) throws XMLStreamException, SchemaException {
+		moveToRootElement(stream);
+		QName objectsMarker = schemaRegistry.getPrismContext().getObjectsElementName();
+		if (objectsMarker != null && !QNameUtil.match(stream.getName(), objectsMarker)) {
+			handler.handleData(readRoot(stream, Collections.emptyMap()));
+			return;
+		}
+		ElementStart objectsElement = readElementStart(stream, Collections.emptyMap());
+		while (moveToNextChildElement(stream)) {
+			if (!handler.handleData(readRoot(stream, objectsElement.namespaces))) {
+				return;
+			}
+		}
+	}
+
+	private void moveToRootElement(XMLStreamReader stream) throws XMLStreamException {
+		while (stream.getEventType() != XMLStreamConstants.START_ELEMENT) {
+			if (!stream.hasNext()) {
+				throw new XMLStreamException("No root element found", stream.getLocation());
+			}
+			stream.next();
+		}
+	}
+
+	/**
+	 * Moves the stream to the next child element of the current one.
+	 * @return false if there are no more child elements (the stream is at the END_ELEMENT of the current element)
+	 */
+	private boolean moveToNextChildElement(XMLStreamReader stream) throws XMLStreamException {
+		for (;;) {
+			int eventType = stream.next();
+			if (eventType == XMLStreamConstants.START_ELEMENT) {
+				return true;
+			} else if (eventType == XMLStreamConstants.END_ELEMENT) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Reads the element at the current (START_ELEMENT) position as a root node. The stream is left at the
+	 * END_ELEMENT of this element.
+	 */
+	@NotNull
+	private RootXNode readRoot(XMLStreamReader stream, Map<String, String> parentNamespaces) throws XMLStreamException, SchemaException {
+		ElementStart start = readElementStart(stream, parentNamespaces);
+		RootXNode xroot = new RootXNode(start.name);
+		extractCommonMetadata(start, xroot);
+		xroot.setSubnode(readElementContent(stream, start));
+		return xroot;
+	}
+
+	/**
+	 * Collects information from the start tag. The stream is not moved.
+	 */
+	private ElementStart readElementStart(XMLStreamReader stream, Map<String, String> parentNamespaces) {
+		Map<String, String> namespaces = parentNamespaces;
+		int namespaceCount = stream.getNamespaceCount();
+		if (namespaceCount > 0) {
+			// the same representation as in DOMUtil.getAllVisibleNamespaceDeclarations (null prefix for default namespace)
+			namespaces = new HashMap<>(parentNamespaces);
+			for (int i = 0; i < namespaceCount; i++) {
+				namespaces.put(StringUtils.defaultIfEmpty(stream.getNamespacePrefix(i), null),
+						StringUtils.defaultString(stream.getNamespaceURI(i)));
+			}
+		}
+		ElementStart start = new ElementStart(stream.getName(), namespaces);
+		String xsiType = null;
+		String hackedXsiType = null;
+		for (int i = 0; i < stream.getAttributeCount(); i++) {
+			String namespace = stream.getAttributeNamespace(i);
+			String localName = stream.getAttributeLocalName(i);
+			String value = stream.getAttributeValue(i);
+			if (DOMUtil.XSI_TYPE.getNamespaceURI().equals(namespace)) {
+				if (DOMUtil.XSI_TYPE.getLocalPart().equals(localName)) {
+					xsiType = value;
+				} else if (DOMUtil.XSI_NIL.getLocalPart().equals(localName)) {
+					start.nil = Boolean.parseBoolean(value);
+				}
+			} else if (StringUtils.isEmpty(namespace)) {
+				if (DOMUtil.HACKED_XSI_TYPE.equals(localName)) {
+					hackedXsiType = value;
+				} else if (DOMUtil.IS_LIST_ATTRIBUTE_NAME.equals(localName)) {
+					start.isListAttribute = value;
+				}
+			} else if (PrismConstants.A_MAX_OCCURS.getNamespaceURI().equals(namespace)
+					&& PrismConstants.A_MAX_OCCURS.getLocalPart().equals(localName)) {
+				start.maxOccurs = value;
+			}
+			if (DOMUtil.isApplicationAttribute(namespace, localName)) {
+				String prefix = StringUtils.defaultString(stream.getAttributePrefix(i));
+				start.addApplicationAttribute(new Attribute(new QName(StringUtils.defaultString(namespace), localName, prefix),
+						prefix.isEmpty() ? localName : prefix + ":" + localName, value));
+			}
+		}
+		if (StringUtils.isEmpty(xsiType)) {
+			xsiType = hackedXsiType;
+		}
+		if (StringUtils.isNotEmpty(xsiType)) {
+			start.typeName = TextValueParser.resolveQName(xsiType, namespaces);
+		}
+		return start;
+	}
+
+	/**
+	 * Reads the content of the element whose start tag was already processed. The stream is left
+	 * at the END_ELEMENT of this element.
+	 */
+	@Nullable
+	private XNode readElementContent(XMLStreamReader stream, ElementStart start) throws XMLStreamException, SchemaException {
+		String text = null;
+		StringBuilder textBuilder = null;
+		List<QName> childNames = null;
+		List<XNode> childNodes = null;
+		for (;;) {
+			int eventType = stream.next();
+			switch (eventType) {
+				case XMLStreamConstants.START_ELEMENT:
+					if (childNames == null) {
+						childNames = new ArrayList<>();
+						childNodes = new ArrayList<>();
+					}
+					ElementStart childStart = readElementStart(stream, start.namespaces);
+					childNames.add(childStart.name);
+					if (childStart.name.equals(DomLexicalProcessor.SCHEMA_ELEMENT_QNAME)) {
+						childNodes.add(readSchemaElement(stream, childStart));
+					} else {
+						childNodes.add(readElementContent(stream, childStart));
+					}
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+					// text is relevant only for primitive values, i.e. for elements without children
+					if (childNames == null) {
+						if (text == null) {
+							text = stream.getText();
+						} else {
+							if (textBuilder == null) {
+								textBuilder = new StringBuilder(text);
+							}
+							textBuilder.append(stream.getTextCharacters(), stream.getTextStart(), stream.getTextLength());
+						}
+					}
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					if (textBuilder != null) {
+						text = textBuilder.toString();
+					}
+					return createNode(start, text, childNames, childNodes);
+				default:
+					// comments, processing instructions, ... are ignored
+			}
+		}
+	}
+
+	// see DomLexicalProcessor.parseElementContent
+	@Nullable
+	private XNode createNode(ElementStart start, String text, List<QName> childNames, List<XNode> childNodes)
+			throws SchemaException {
+		if (start.nil) {
+			return null;
+		}
+		XNode node;
+		if (childNames != null || start.applicationAttributes != null) {
+			List<QName> names = childNames != null ? childNames : Collections.emptyList();
+			if (domLexicalProcessor.isList(start.name, start.typeName, start.isListAttribute,
+					start.applicationAttributes != null, names)) {
+				node = createList(start, childNames, childNodes);
+			} else {
+				node = createMap(start, childNames, childNodes);
+			}
+		} else {
+			PrimitiveXNode<?> primitive = new PrimitiveXNode<>();
+			primitive.setValueParser(new TextValueParser<>(start.name, StringUtils.defaultString(text), start.namespaces, false));
+			node = primitive;
+		}
+		extractCommonMetadata(start, node);
+		return node;
+	}
+
+	private ListXNode createList(ElementStart start, List<QName> childNames, List<XNode> childNodes) throws SchemaException {
+		if (start.applicationAttributes != null) {
+			throw new SchemaException("List should have no application attributes: " + start.name);
+		}
+		ListXNode xlist = new ListXNode();
+		if (childNames != null) {
+			for (int i = 0; i < childNames.size(); i++) {
+				XNode child = toRegularNode(childNodes.get(i));
+				if (child != null) {
+					child.setElementName(childNames.get(i));
+				}
+				xlist.add(child);
+			}
+		}
+		return xlist;
+	}
+
+	private MapXNode createMap(ElementStart start, List<QName> childNames, List<XNode> childNodes) throws SchemaException {
+		MapXNode xmap = new MapXNode();
+		if (start.applicationAttributes != null) {
+			// DOM keeps attributes sorted by their qualified names, so we do the same
+			start.applicationAttributes.sort(Comparator.comparing(attribute -> attribute.qualifiedName));
+			for (Attribute attribute : start.applicationAttributes) {
+				PrimitiveXNode<?> xattribute = new PrimitiveXNode<>();
+				xattribute.setValueParser(new TextValueParser<>(attribute.name, attribute.value, start.namespaces, true));
+				xattribute.setAttribute(true);
+				xmap.put(attribute.name, xattribute);
+			}
+		}
+		if (childNames != null) {
+			// consecutive elements with the same name form a list
+			int groupStart = 0;
+			for (int i = 1; i <= childNames.size(); i++) {
+				if (i == childNames.size() || !QNameUtil.match(childNames.get(i), childNames.get(groupStart))) {
+					addMapEntry(xmap, childNames.get(groupStart), childNodes.subList(groupStart, i));
+					groupStart = i;
+				}
+			}
+		}
+		return xmap;
+	}
+
+	// see DomLexicalProcessor.parseSubElementsGroupAsMapEntry
+	private void addMapEntry(MapXNode xmap, QName elementName, List<XNode> nodes) throws SchemaException {
+		XNode xsub;
+		if (elementName.equals(DomLexicalProcessor.SCHEMA_ELEMENT_QNAME)) {
+			if (nodes.size() == 1) {
+				xsub = nodes.get(0);
+			} else {
+				throw new SchemaException("Too many schema elements");
+			}
+		} else if (nodes.size() == 1) {
+			xsub = toRegularNode(nodes.get(0));
+		} else {
+			ListXNode xlist = new ListXNode();
+			for (XNode node : nodes) {
+				xlist.add(toRegularNode(node));
+			}
+			xsub = xlist;
+		}
+		xmap.merge(elementName, xsub);
+	}
+
+	/**
+	 * Schema elements are read to DOM in advance, as we don't know if they are going to be treated as SchemaXNode.
+	 * If not, they are parsed in the standard way.
+	 */
+	private XNode toRegularNode(XNode node) throws SchemaException {
+		if (node instanceof SchemaXNode) {
+			return domLexicalProcessor.parseElementContent(((SchemaXNode) node).getSchemaElement(), false);
+		} else {
+			return node;
+		}
+	}
+
+	private SchemaXNode readSchemaElement(XMLStreamReader stream, ElementStart start) throws XMLStreamException {
+		Element schemaElement = DOMUtil.getFirstChildElement(new DOMConverter().buildDocument(stream));
+		// namespaces declared on ancestors are not present in the DOM (that covers only the schema element itself)
+		Map<String, String> declaredNamespaces = DOMUtil.getNamespaceDeclarations(schemaElement);
+		for (Map.Entry<String, String> namespace : start.namespaces.entrySet()) {
+			if (!declaredNamespaces.containsKey(namespace.getKey())) {
+				DOMUtil.setNamespaceDeclaration(schemaElement, namespace.getKey(), namespace.getValue());
+			}
+		}
+		SchemaXNode xschema = new SchemaXNode();
+		xschema.setSchemaElement(schemaElement);
+		return xschema;
+	}
+
+	private void extractCommonMetadata(ElementStart start, XNode xnode) throws SchemaException {
+		if (start.typeName != null) {
+			xnode.setTypeQName(start.typeName);
+			xnode.setExplicitTypeDeclaration(true);
+		}
+		if (!StringUtils.isBlank(start.maxOccurs)) {
+			xnode.setMaxOccurs(DomLexicalProcessor.parseMultiplicity(start.maxOccurs, start.name));
+		}
+	}
+
+	@Override
+	public boolean canRead(@NotNull File file) throws IOException {
+		return domLexicalProcessor.canRead(file);
+	}
+
+	@Override
+	public boolean canRead(@NotNull String dataString) {
+		return domLexicalProcessor.canRead(dataString);
+	}
+
+	@NotNull
+	@Override
+	public String write(@NotNull RootXNode xnode, @Nullable SerializationContext serializationContext) throws SchemaException {
+		return domLexicalProcessor.write(xnode, serializationContext);
+	}
+
+	@NotNull
+	@Override
+	public String write(@NotNull XNode xnode, @NotNull QName rootElementName, @Nullable SerializationContext serializationContext)
+			throws SchemaException {
+		return domLexicalProcessor.write(xnode, rootElementName, serializationContext);
+	}
+
+	@NotNull
+	@Override
+	public String write(@NotNull List<RootXNode> roots, @Nullable QName aggregateElementName,
+			@Nullable SerializationContext context) throws SchemaException {
+		return domLexicalProcessor.write(roots, aggregateElementName, context);
+	}
+
+	/**
+	 * Information from the start tag of an element.
+	 */
+	private static class ElementStart {
+		@NotNull private final QName name;
+		@NotNull private final Map<String, String> namespaces;		// all visible namespace declarations
+		private QName typeName;
+		private boolean nil;
+		private String isListAttribute;
+		private String maxOccurs;
+		private List<Attribute> applicationAttributes;				// null if there are none
+
+		private ElementStart(@NotNull QName name, @NotNull Map<String, String> namespaces) {
+			this.name = name;
+			this.namespaces = namespaces;
+		}
+
+		private void addApplicationAttribute(Attribute attribute) {
+			if (applicationAttributes == null) {
+				applicationAttributes = new ArrayList<>();
+			}
+			applicationAttributes.add(attribute);
+		}
+	}
+
+	private static class Attribute {
+		@NotNull private final QName name;
+		@NotNull private final String qualifiedName;
+		@NotNull private final String value;
+
+		private Attribute(@NotNull QName name, @NotNull String qualifiedName, @NotNull String value) {
+			this.name = name;
+			this.qualifiedName = qualifiedName;
+			this.value = value;
+		}
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.prism.lex.dom;
+
+import com.evolveum.midpoint.prism.marshaller.ItemPathHolder;
+import com.evolveum.midpoint.prism.marshaller.XNodeProcessorEvaluationMode;
+import com.evolveum.midpoint.prism.polystring.PolyString;
+import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
+import com.evolveum.midpoint.prism.xml.XsdTypeMapper;
+import com.evolveum.midpoint.prism.xnode.ValueParser;
+import com.evolveum.midpoint.util.DOMUtil;
+import com.evolveum.midpoint.util.PrettyPrinter;
+import com.evolveum.midpoint.util.QNameUtil;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.prism.xml.ns._public.types_3.ItemPathType;
+import org.apache.commons.lang.StringUtils;
+import org.jetbrains.annotations.NotNull;
+
+import javax.xml.namespace.QName;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Parser for a value of XML element or attribute. Keeps the text and visible namespace declarations (needed for
+ * QNames and item paths) instead of DOM node. Used by StAX and binary lexical processors.
+ *
+ * Namespace declarations are represented in the same way as in DOMUtil.getAllVisibleNamespaceDeclarations,
+ * i.e. null prefix means the default namespace.
+ */
+public class TextValueParser<T> implements ValueParser<T>, Serializable {
+
+	@NotNull private final QName name;
+	@NotNull private final String text;
+	@NotNull private final Map<String, String> namespaces;
+	private final boolean attribute;
+
+	public TextValueParser(@NotNull QName name, @NotNull String text, @NotNull Map<String, String> namespaces,
+			boolean attribute) {
+		this.name = name;
+		this.text = text;
+		this.namespaces = namespaces;
+		this.attribute = attribute;
+	}
+
+	// see DomLexicalProcessor.parsePrimitiveElementValue and parsePrimitiveAttrValue
+	@SuppressWarnings("unchecked")
+	@Override
+	public T parse(QName typeName, XNodeProcessorEvaluationMode mode) throws SchemaException {
+		try {
+			if (!attribute && ItemPathType.COMPLEX_TYPE.equals(typeName)) {
+				return (T) new ItemPathType(new ItemPathHolder(text, namespaces).toItemPath());
+			} else if (DOMUtil.XSD_QNAME.equals(typeName)) {
+				return (T) resolveQName(text, namespaces);
+			} else if (XmlTypeConverter.canConvert(typeName)) {
+				if (attribute) {
+					return XmlTypeConverter.toJavaValue(text, typeName);
+				} else {
+					return (T) parseElementValue(typeName);
+				}
+			} else if (!attribute && DOMUtil.XSD_ANYTYPE.equals(typeName)) {
+				return (T) text;                // if parsing primitive as xsd:anyType, we can safely parse it as string
+			} else {
+				throw new SchemaException("Cannot convert " + (attribute ? "attribute" : "element") + " '" + name
+						+ "' to " + typeName);
+			}
+		} catch (IllegalArgumentException e) {
+			return DomLexicalProcessor.processIllegalArgumentException(text, typeName, e, mode);		// primitive way of ensuring compatibility mode
+		}
+	}
+
+	// see XmlTypeConverter.toJavaValue(Element, Class); primitive elements have no child elements
+	private Object parseElementValue(QName typeName) {
+		Class<?> type = XsdTypeMapper.getXsdToJavaMapping(typeName);
+		if (type.equals(QName.class)) {
+			return resolveQName(text, namespaces);
+		} else if (PolyString.class.isAssignableFrom(type)) {
+			return new PolyString(text);
+		} else {
+			Object javaValue = XmlTypeConverter.toJavaValue(text, type);
+			if (javaValue == null) {
+				throw new IllegalArgumentException("Unknown type for conversion: " + type + "(element " + name + ")");
+			}
+			return javaValue;
+		}
+	}
+
+	/**
+	 * The same as DOMUtil.resolveQName, only using explicit namespace declarations.
+	 * (I.e. a QName without prefix has no namespace, even if default namespace is declared.)
+	 */
+	static QName resolveQName(String stringValue, Map<String, String> namespaces) {
+		if (StringUtils.isBlank(stringValue)) {
+			return null;
+		}
+		String[] parts = stringValue.split(":");
+		if (parts.length > 2) {
+			throw new IllegalArgumentException("Unsupported format: more than one colon in Qname: " + stringValue);
+		}
+		if (parts.length == 1 || parts[1] == null || parts[1].isEmpty()) {
+			return new QName(null, parts[0]);
+		}
+		String prefix = parts[0];
+		String namespace = namespaces.get(prefix);
+		if (namespace == null) {
+			QNameUtil.reportUndeclaredNamespacePrefix(prefix, stringValue);
+			prefix = QNameUtil.markPrefixAsUndeclared(prefix);
+		}
+		return new QName(namespace, parts[1], prefix);
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return attribute ? StringUtils.isEmpty(text) : StringUtils.isBlank(text);
+	}
+
+	@Override
+	public String getStringValue() {
+		return text;
+	}
+
+	@Override
+	public Map<String, String> getPotentiallyRelevantNamespaces() {
+		return new HashMap<>(namespaces);
+	}
+
+	@Override
+	public String toString() {
+		return "ValueParser(text" + (attribute ? "a" : "e") + ", " + PrettyPrinter.prettyPrint(name) + ": " + text + ")";
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.prism;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.fail;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.exception.SystemException;
+
+/**
+ * Item lookup in container values large enough to be indexed (see ItemList).
+ */
+public class TestItemList {
+
+	private static final String NS_A = "http://midpoint.evolveum.com/xml/ns/test/a";
+	private static final String NS_B = "http://midpoint.evolveum.com/xml/ns/test/b";
+	private static final int SIZE = ItemList.INDEX_THRESHOLD * 3;
+
+	@Test
+	public void testFind() throws Exception {
+		System.out.println("===[ testFind ]===");
+		PrismContainerValue<?> value = createValue();
+
+		for (int i = 0; i < SIZE; i++) {
+			QName name = new QName(NS_A, "p" + i);
+			assertEquals("Wrong item found for " + name, name, value.findItem(name).getElementName());
+			assertEquals("Wrong item found for unqualified " + name, name, value.findItem(new QName("p" + i)).getElementName());
+		}
+		assertNull("Item with wrong namespace found", value.findItem(new QName(NS_B, "p1")));
+		assertNull("Nonexistent item found", value.findItem(new QName(NS_A, "nonexistent")));
+		assertEquals("Wrong order of items", new QName(NS_A, "p0"), value.getItems().get(0).getElementName());
+	}
+
+	@Test
+	public void testAddDuplicate() throws Exception {
+		System.out.println("===[ testAddDuplicate ]===");
+		PrismContainerValue<?> value = createValue();
+
+		try {
+			value.add(new PrismProperty<>(new QName(NS_A, "p" + (SIZE - 1))));
+			fail("Duplicate item was added");
+		} catch (IllegalArgumentException e) {
+			System.out.println("Got expected exception: " + e);
+		}
+	}
+
+	@Test
+	public void testAmbiguousUnqualifiedName() throws Exception {
+		System.out.println("===[ testAmbiguousUnqualifiedName ]===");
+		PrismContainerValue<?> value = createValue();
+		PrismProperty<String> other = new PrismProperty<>(new QName(NS_B, "p1"));
+		value.add(other);
+
+		assertSame("Wrong item found", other, value.findItem(new QName(NS_B, "p1")));
+		try {
+			value.findItem(new QName("p1"));
+			fail("Ambiguous name was not detected");
+		} catch (SystemException e) {
+			System.out.println("Got expected exception: " + e);
+		}
+	}
+
+	@Test
+	public void testModifications() throws Exception {
+		System.out.println("===[ testModifications ]===");
+		PrismContainerValue<?> value = createValue();
+		QName p1 = new QName(NS_A, "p1");
+		QName p2 = new QName(NS_A, "p2");
+		QName p3 = new QName(NS_A, "p3");
+		QName renamed = new QName(NS_A, "renamed");
+		value.findItem(p1);         // builds the index
+
+		value.remove(value.findItem(p1));
+		assertNull("Removed item found", value.findItem(p1));
+
+		Iterator<Item<?, ?>> iterator = value.getItems().iterator();
+		while (iterator.hasNext()) {
+			if (p2.equals(iterator.next().getElementName())) {
+				iterator.remove();
+			}
+		}
+		assertNull("Item removed via iterator found", value.findItem(p2));
+
+		Item<?, ?> item3 = value.findItem(p3);
+		item3.setElementName(renamed);
+		assertNull("Item found by its old name", value.findItem(p3));
+		assertSame("Renamed item not found", item3, value.findItem(renamed));
+
+		PrismProperty<String> replacement = new PrismProperty<>(p1);
+		value.getItems().set(0, replacement);
+		assertSame("Replaced item not found", replacement, value.findItem(p1));
+		assertNull("Item replaced via set() found", value.findItem(new QName(NS_A, "p0")));
+
+		assertEquals("Wrong number of items", SIZE - 2, value.getItems().size());
+	}
+
+	@Test
+	public void testClone() throws Exception {
+		System.out.println("===[ testClone ]===");
+		PrismContainerValue<?> value = createValue();
+		QName p1 = new QName(NS_A, "p1");
+		value.findItem(p1);
+
+		PrismContainerValue<?> clone = value.clone();
+		clone.remove(clone.findItem(p1));
+
+		assertNull("Removed item found in clone", clone.findItem(p1));
+		assertEquals("Item missing in the original", p1, value.findItem(p1).getElementName());
+	}
+
+	private PrismContainerValue<?> createValue() throws SchemaException {
+		PrismContainerValue<?> value = new PrismContainerValue<>();
+		List<PrismProperty<String>> properties = new ArrayList<>();
+		for (int i = 0; i < SIZE; i++) {
+			PrismProperty<String> property = new PrismProperty<>(new QName(NS_A, "p" + i));
+			property.setRealValue("value" + i);
+			properties.add(property);
+		}
+		value.addAll(properties);
+		return value;
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.prism;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import javax.xml.namespace.QName;
+
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.prism.polystring.PolyString;
+import com.evolveum.midpoint.prism.xnode.PrimitiveXNode;
+
+/**
+ * Value lookup in items large enough to be indexed (see ValueList).
+ */
+public class TestValueList {
+
+	private static final QName NAME = new QName("http://midpoint.evolveum.com/xml/ns/test", "values");
+	private static final int SIZE = ValueList.INDEX_THRESHOLD * 3;
+
+	@Test
+	public void testPropertyValues() throws Exception {
+		System.out.println("===[ testPropertyValues ]===");
+		PrismProperty<String> property = createProperty();
+
+		assertTrue("Existing value not found", property.contains(new PrismPropertyValue<>("v1")));
+		assertFalse("Nonexistent value found", property.contains(new PrismPropertyValue<>("nonexistent")));
+		assertFalse("Duplicate value added", property.add(new PrismPropertyValue<>("v2")));
+		assertEquals("Wrong number of values", SIZE, property.size());
+
+		assertTrue("Value was not removed", property.remove(new PrismPropertyValue<>("v3")));
+		assertFalse("Removed value found", property.contains(new PrismPropertyValue<>("v3")));
+		assertTrue("Values were not removed", property.removeAll(Arrays.asList(new PrismPropertyValue<>("v4"), new PrismPropertyValue<>("v5"))));
+		assertFalse("Removed value found", property.contains(new PrismPropertyValue<>("v5")));
+		assertEquals("Wrong number of values", SIZE - 3, property.size());
+		assertEquals("Wrong order of values", "v6", property.getValues().get(3).getValue());
+
+		property.deleteValue(new PrismPropertyValue<>("v6"));
+		assertFalse("Deleted value found", property.hasRealValue(new PrismPropertyValue<>("v6")));
+		property.addValue(new PrismPropertyValue<>("v7"));
+		assertEquals("Wrong number of values", SIZE - 4, property.size());
+	}
+
+	@Test
+	public void testChangedValue() throws Exception {
+		System.out.println("===[ testChangedValue ]===");
+		PrismProperty<String> property = createProperty();
+		assertTrue(property.contains(new PrismPropertyValue<>("v1")));
+
+		property.getValues().get(1).setValue("changed");
+		assertFalse("Old value found", property.contains(new PrismPropertyValue<>("v1")));
+		assertTrue("Changed value not found", property.contains(new PrismPropertyValue<>("changed")));
+
+		property.getValues().set(2, new PrismPropertyValue<>("replaced"));
+		assertFalse("Old value found", property.contains(new PrismPropertyValue<>("v2")));
+		assertTrue("Replaced value not found", property.contains(new PrismPropertyValue<>("replaced")));
+
+		property.getValues().removeIf(v -> "v3".equals(v.getValue()));
+		assertFalse("Removed value found", property.contains(new PrismPropertyValue<>("v3")));
+	}
+
+	@Test
+	public void testRawValue() throws Exception {
+		System.out.println("===[ testRawValue ]===");
+		ValueList<PrismPropertyValue<String>> list = new ValueList<>();
+		for (int i = 0; i < SIZE; i++) {
+			list.add(new PrismPropertyValue<>("v" + i));
+		}
+		assertEquals("Wrong number of candidates", 1, list.getCandidates(new PrismPropertyValue<>("v1")).size());
+
+		// a raw value may be equal to any parsed one, so the index must not be used while it is present
+		PrismPropertyValue<String> raw = new PrismPropertyValue<>(null);
+		raw.setRawElement(new PrimitiveXNode<>("v1"));
+		list.add(raw);
+		assertEquals("Index used with raw value present", SIZE + 1, list.getCandidates(new PrismPropertyValue<>("v1")).size());
+
+		Set<PrismPropertyValue<String>> toRemove = Collections.newSetFromMap(new IdentityHashMap<>());
+		toRemove.add(raw);
+		assertTrue("Raw value was not removed", list.removeAllIdentical(toRemove));
+		assertEquals("Wrong number of candidates", 1, list.getCandidates(new PrismPropertyValue<>("v1")).size());
+	}
+
+	@Test
+	public void testPolyStringValues() throws Exception {
+		System.out.println("===[ testPolyStringValues ]===");
+		PrismProperty<PolyString> property = new PrismProperty<>(NAME);
+		for (int i = 0; i < SIZE; i++) {
+			property.add(new PrismPropertyValue<>(new PolyString("Name " + i, "name " + i)));
+		}
+
+		assertTrue("Existing value not found", property.contains(new PrismPropertyValue<>(new PolyString("Name 1", "name 1"))));
+		assertFalse("Value with different norm found", property.contains(new PrismPropertyValue<>(new PolyString("Name 1", "other"))));
+	}
+
+	@Test
+	public void testReferenceValues() throws Exception {
+		System.out.println("===[ testReferenceValues ]===");
+		PrismReference reference = new PrismReference(NAME);
+		for (int i = 0; i < SIZE; i++) {
+			reference.add(new PrismReferenceValue("oid" + i));
+		}
+		PrismReferenceValue withoutOid = new PrismReferenceValue();
+		reference.add(withoutOid);
+
+		assertTrue("Existing value not found", reference.contains(new PrismReferenceValue("oid1")));
+		assertNotNull("Existing value not found", reference.findValueByOid("oid2"));
+		assertNull("Nonexistent value found", reference.findValueByOid("nonexistent"));
+
+		withoutOid.setOid("newOid");
+		assertSame("Value with changed OID not found", withoutOid, reference.findValueByOid("newOid"));
+		assertTrue("Value was not removed", reference.remove(new PrismReferenceValue("oid3")));
+		assertNull("Removed value found", reference.findValueByOid("oid3"));
+	}
+
+	private PrismProperty<String> createProperty() throws Exception {
+		PrismProperty<String> property = new PrismProperty<>(NAME);
+		for (int i = 0; i < SIZE; i++) {
+			property.add(new PrismPropertyValue<>("v" + i));
+		}
+		return property;
+	}
+}
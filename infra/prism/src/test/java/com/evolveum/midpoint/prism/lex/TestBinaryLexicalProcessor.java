@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.prism.lex;
+
+import static com.evolveum.midpoint.prism.PrismInternalTestUtil.*;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.Test;
+import org.xml.sax.SAXException;
+
+import com.evolveum.midpoint.prism.Objectable;
+import com.evolveum.midpoint.prism.ParserFileSource;
+import com.evolveum.midpoint.prism.ParsingContext;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismInternalTestUtil;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.foo.ResourceType;
+import com.evolveum.midpoint.prism.foo.UserType;
+import com.evolveum.midpoint.prism.lex.binary.BinaryLexicalProcessor;
+import com.evolveum.midpoint.prism.lex.dom.DomLexicalProcessor;
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.prism.xnode.RootXNode;
+import com.evolveum.midpoint.util.PrettyPrinter;
+import com.evolveum.midpoint.util.exception.SchemaException;
+
+/**
+ * Checks that XNode trees and prism objects survive the round trip through the binary lexical processor.
+ */
+public class TestBinaryLexicalProcessor {
+
+	private static final File XML_DIR = new File(COMMON_DIR_PATH, "xml");
+
+	@BeforeSuite
+	public void setupDebug() throws SchemaException, SAXException, IOException {
+		PrettyPrinter.setDefaultNamespacePrefix(DEFAULT_NAMESPACE_PREFIX);
+		PrismTestUtil.resetPrismContext(new PrismInternalTestUtil());
+	}
+
+	private BinaryLexicalProcessor createProcessor() {
+		return new BinaryLexicalProcessor(PrismTestUtil.getSchemaRegistry());
+	}
+
+	@Test
+	public void testXNodeRoundTrip() throws Exception {
+		final String TEST_NAME = "testXNodeRoundTrip";
+		displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		BinaryLexicalProcessor processor = createProcessor();
+		DomLexicalProcessor domParser = new DomLexicalProcessor(PrismTestUtil.getSchemaRegistry());
+		List<File> files = new ArrayList<>(FileUtils.listFiles(XML_DIR, new String[] { "xml" }, false));
+		assertTrue("No files to check", files.size() > 10);
+
+		for (File file : files) {
+			System.out.println("Checking " + file);
+			List<RootXNode> xmlNodes;
+			try {
+				xmlNodes = domParser.readObjects(new ParserFileSource(file), ParsingContext.createDefault());
+			} catch (RuntimeException | SchemaException e) {
+				System.out.println("Skipping unparseable file: " + e);
+				continue;
+			}
+
+			// WHEN
+			byte[] data = processor.write(xmlNodes, null, null);
+			List<RootXNode> binaryNodes = processor.readObjects(data);
+
+			// THEN
+			System.out.println("Size: " + data.length + " bytes (XML: " + file.length() + " bytes)");
+			assertEquals("Different nodes for " + file, xmlNodes, binaryNodes);
+		}
+	}
+
+	@Test
+	public void testUserRoundTrip() throws Exception {
+		final String TEST_NAME = "testUserRoundTrip";
+		displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		PrismContext prismContext = PrismTestUtil.getPrismContext();
+		PrismObject<UserType> user = prismContext.parseObject(new File(XML_DIR, USER_JACK_FILE_BASENAME + ".xml"));
+
+		// WHEN
+		PrismObject<UserType> reparsed = roundTrip(user);
+
+		// THEN
+		System.out.println("Reparsed user:\n" + reparsed.debugDump());
+		assertTrue("Users differ: " + user.diff(reparsed), user.equivalent(reparsed));
+	}
+
+	@Test
+	public void testResourceRoundTrip() throws Exception {
+		final String TEST_NAME = "testResourceRoundTrip";
+		displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		PrismContext prismContext = PrismTestUtil.getPrismContext();
+		PrismObject<ResourceType> resource = prismContext.parseObject(new File(XML_DIR, "resource-rum.xml"));
+
+		// WHEN
+		PrismObject<ResourceType> reparsed = roundTrip(resource);
+
+		// THEN
+		System.out.println("Reparsed resource:\n" + reparsed.debugDump());
+		assertTrue("Resources differ: " + resource.diff(reparsed), resource.equivalent(reparsed));
+	}
+
+	@Test
+	public void testCorruptedData() throws Exception {
+		final String TEST_NAME = "testCorruptedData";
+		displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		PrismContext prismContext = PrismTestUtil.getPrismContext();
+		PrismObject<UserType> user = prismContext.parseObject(new File(XML_DIR, USER_JACK_FILE_BASENAME + ".xml"));
+		byte[] data = createProcessor().write(prismContext.xnodeSerializer().serialize(user), null);
+
+		// WHEN+THEN
+		try {
+			createProcessor().read(Arrays.copyOf(data, data.length / 2));
+			fail("Unexpected success");
+		} catch (SchemaException e) {
+			System.out.println("Got expected exception: " + e);
+		}
+	}
+
+	private <O extends Objectable> PrismObject<O> roundTrip(PrismObject<O> object)
+			throws SchemaException {
+		PrismContext prismContext = PrismTestUtil.getPrismContext();
+		BinaryLexicalProcessor processor = createProcessor();
+		byte[] data = processor.write(prismContext.xnodeSerializer().serialize(object), null);
+		System.out.println("Binary size: " + data.length + " bytes");
+		return prismContext.parserFor(processor.read(data)).parse();
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.prism.lex;
+
+import static com.evolveum.midpoint.prism.PrismInternalTestUtil.USER_JACK_FILE_BASENAME;
+import static com.evolveum.midpoint.prism.PrismInternalTestUtil.displayTestTitle;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.prism.ParserFileSource;
+import com.evolveum.midpoint.prism.ParserStringSource;
+import com.evolveum.midpoint.prism.ParsingContext;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.lex.dom.DomLexicalProcessor;
+import com.evolveum.midpoint.prism.lex.dom.StaxLexicalProcessor;
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.prism.xnode.RootXNode;
+import com.evolveum.midpoint.util.DebugUtil;
+
+/**
+ * Runs the common lexical processor tests on StAX processor and checks that it produces the same XNode trees
+ * as the DOM processor.
+ */
+public class TestStaxParser extends AbstractLexicalProcessorTest {
+
+	private static final File TEST_RESOURCES_DIR = new File("src/test/resources");
+
+	@Override
+	protected String getSubdirName() {
+		return "xml";
+	}
+
+	@Override
+	protected String getFilenameSuffix() {
+		return "xml";
+	}
+
+	@Override
+	protected StaxLexicalProcessor createParser() {
+		return new StaxLexicalProcessor(PrismTestUtil.getSchemaRegistry(), createDomParser());
+	}
+
+	private DomLexicalProcessor createDomParser() {
+		return new DomLexicalProcessor(PrismTestUtil.getSchemaRegistry());
+	}
+
+	@Test
+	public void testSameAsDom() throws Exception {
+		final String TEST_NAME = "testSameAsDom";
+		displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		StaxLexicalProcessor staxParser = createParser();
+		DomLexicalProcessor domParser = createDomParser();
+		List<File> files = new ArrayList<>(FileUtils.listFiles(TEST_RESOURCES_DIR, new String[] { "xml", "xsd" }, true));
+		assertTrue("No files to check", files.size() > 10);
+
+		for (File file : files) {
+			System.out.println("Checking " + file);
+
+			// WHEN
+			List<RootXNode> domNodes;
+			try {
+				domNodes = domParser.readObjects(new ParserFileSource(file), ParsingContext.createDefault());
+			} catch (RuntimeException e) {
+				System.out.println("DOM parser failed, expecting the same from StAX parser: " + e);
+				try {
+					staxParser.readObjects(new ParserFileSource(file), ParsingContext.createDefault());
+					throw new AssertionError("StAX parser succeeded on " + file + " although DOM parser failed: " + e);
+				} catch (RuntimeException e1) {
+					assertEquals("Wrong exception for " + file, e.getClass(), e1.getClass());
+					continue;
+				}
+			}
+			List<RootXNode> staxNodes = staxParser.readObjects(new ParserFileSource(file), ParsingContext.createDefault());
+
+			// THEN
+			assertEquals("Different nodes for " + file, domNodes, staxNodes);
+			assertEquals("Different nodes (debug dump) for " + file, normalize(DebugUtil.debugDump(domNodes)),
+					normalize(DebugUtil.debugDump(staxNodes)));
+		}
+	}
+
+	@Test
+	public void testParseUserFromString() throws Exception {
+		final String TEST_NAME = "testParseUserFromString";
+		displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		File file = getFile(USER_JACK_FILE_BASENAME);
+		String xml = FileUtils.readFileToString(file, "UTF-8");
+
+		// WHEN
+		RootXNode fromString = createParser().read(new ParserStringSource(xml), ParsingContext.createDefault());
+
+		// THEN
+		RootXNode fromDom = createDomParser().read(new ParserFileSource(file), ParsingContext.createDefault());
+		assertNotNull("No root node", fromString);
+		assertEquals("Different nodes", fromDom, fromString);
+	}
+
+	// value parsers differ in their toString; everything else should be the same
+	private String normalize(String dump) {
+		return dump.replace("ValueParser(DOMe,", "ValueParser(texte,").replace("ValueParser(DOMa,", "ValueParser(texta,");
+	}
+
+	@Override
+	protected void validateUserSchema(String xmlString, PrismContext prismContext) {
+	}
+
+	@Override
+	protected void validateResourceSchema(String xmlString, PrismContext prismContext) {
+	}
+
+	@Override
+	protected String getWhenItemSerialized() {
+		return "<when>2012-02-24T10:48:52.000Z</when>";
+	}
+}
@@ -364,6 +364,8 @@ public abstract class SchemaConstants {
 	public static final QName MODEL_EXTENSION_OBJECT_DELTA = new QName(NS_MODEL_EXTENSION, "objectDelta");
 	public static final QName MODEL_EXTENSION_OBJECT_DELTAS = new QName(NS_MODEL_EXTENSION, "objectDeltas");
 	public static final QName MODEL_EXTENSION_WORKER_THREADS = new QName(NS_MODEL_EXTENSION, "workerThreads");
+	public static final QName MODEL_EXTENSION_SHADOW_LOOKUP_BATCH_SIZE = new QName(NS_MODEL_EXTENSION, "shadowLookupBatchSize");
+	public static final QName MODEL_EXTENSION_SHADOW_PROCESSING_THREADS = new QName(NS_MODEL_EXTENSION, "shadowProcessingThreads");
 	public static final QName MODEL_EXTENSION_OPTION_RAW = new QName(NS_MODEL_EXTENSION, "optionRaw");
 	public static final QName MODEL_EXTENSION_EXECUTE_OPTIONS = new QName(NS_MODEL_EXTENSION, "executeOptions");
 
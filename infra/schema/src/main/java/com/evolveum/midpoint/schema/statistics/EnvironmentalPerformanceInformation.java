@@ -50,6 +50,7 @@ public class EnvironmentalPerformanceInformation {
     private Map<ProvisioningStatisticsKey,ProvisioningStatisticsData> provisioningData = new HashMap<>();
     private Map<NotificationsStatisticsKey,GenericStatisticsData> notificationsData = new HashMap<>();
     private Map<MappingsStatisticsKey,GenericStatisticsData> mappingsData = new HashMap<>();
+    private Map<ProvisioningStatisticsKey,ShadowLookupStatisticsData> shadowLookupData = new HashMap<>();   // operation is null here
 
 	private static final int AGGREGATION_THRESHOLD = 50;
 
@@ -159,6 +160,18 @@ public class EnvironmentalPerformanceInformation {
             setValue(entryType, key.getOperation(), key.getStatusType(), entry.getValue().getCount(),
                     entry.getValue().getMinDuration(), entry.getValue().getMaxDuration(), entry.getValue().getTotalDuration());
         }
+        for (Map.Entry<ProvisioningStatisticsKey, ShadowLookupStatisticsData> entry : shadowLookupData.entrySet()) {
+            ProvisioningStatisticsKey key = entry.getKey();
+            ProvisioningStatisticsEntryType entryType = findProvisioningEntryType(rv.getEntry(), key.getResourceName(), key.getObjectClass());
+            if (entryType == null) {
+                entryType = new ProvisioningStatisticsEntryType();
+                entryType.setResource(key.getResourceName());
+                entryType.setObjectClass(key.getObjectClass());
+                rv.getEntry().add(entryType);
+            }
+            entryType.setShadowLookups(sum(entryType.getShadowLookups(), entry.getValue().getObjects()));
+            entryType.setShadowLookupQueries(sum(entryType.getShadowLookupQueries(), entry.getValue().getQueries()));
+        }
         return rv;
     }
 
@@ -410,6 +423,9 @@ public class EnvironmentalPerformanceInformation {
             e.setScriptFailure(e.getScriptFailure() + de.getScriptFailure());
             e.setOtherFailure(e.getOtherFailure() + de.getOtherFailure());
 
+            e.setShadowLookups(sum(e.getShadowLookups(), de.getShadowLookups()));
+            e.setShadowLookupQueries(sum(e.getShadowLookupQueries(), de.getShadowLookupQueries()));
+
             int totalCount = e.getGetSuccess() + e.getGetFailure() +
                     e.getSearchSuccess() + e.getSearchFailure() +
                     e.getCreateSuccess() + e.getCreateFailure() +
@@ -430,6 +446,16 @@ public class EnvironmentalPerformanceInformation {
         }
     }
 
+    private static Integer sum(Integer a, Integer b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        return a + b;
+    }
+
     private static Long min(Long a, Long b) {
         if (a == null) {
             return b;
@@ -460,6 +486,16 @@ public class EnvironmentalPerformanceInformation {
         data.recordOperation(duration, count);
     }
 
+    public synchronized void recordShadowLookup(String resourceOid, String resourceName, QName objectClassName, int objects, int queries) {
+        ProvisioningStatisticsKey key = new ProvisioningStatisticsKey(resourceOid, resourceName, objectClassName, null, true);
+        ShadowLookupStatisticsData data = shadowLookupData.get(key);
+        if (data == null) {
+            data = new ShadowLookupStatisticsData();
+            shadowLookupData.put(key, data);
+        }
+        data.recordLookup(objects, queries);
+    }
+
     public synchronized void recordNotificationOperation(String transportName, boolean success, long duration) {
         NotificationsStatisticsKey key = new NotificationsStatisticsKey(transportName, success);
         GenericStatisticsData data = notificationsData.get(key);
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.schema.statistics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics of a queue that feeds one stage of an object processing pipeline (e.g. shadow processing or clockwork
+ * in reconciliation) with items produced by the previous stage.
+ *
+ * If the producers wait long for free space in the queue, this stage is the bottleneck. If the consumers (the stage
+ * threads) wait long for items, the bottleneck is somewhere before this stage.
+ *
+ * Thread safety: instances are updated concurrently by producer and consumer threads.
+ */
+public class PipelineStageStatistics {
+
+    private final String stageName;
+    private final int threads;
+    private final AtomicLong items = new AtomicLong();
+    private final AtomicLong producerWaitNanos = new AtomicLong();
+    private final AtomicLong consumerWaitNanos = new AtomicLong();
+
+    public PipelineStageStatistics(String stageName, int threads) {
+        this.stageName = stageName;
+        this.threads = threads;
+    }
+
+    public String getStageName() {
+        return stageName;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public long getItems() {
+        return items.get();
+    }
+
+    /**
+     * Total time the producers spent waiting for the queue to accept an item (milliseconds).
+     */
+    public long getProducerWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(producerWaitNanos.get());
+    }
+
+    /**
+     * Total time the stage threads spent waiting for an item (milliseconds), summed over all the threads.
+     */
+    public long getConsumerWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(consumerWaitNanos.get());
+    }
+
+    public void recordItemSubmitted(long waitNanos) {
+        producerWaitNanos.addAndGet(waitNanos);
+    }
+
+    /**
+     * A queue element can carry more items (e.g. a batch of objects).
+     */
+    public void recordItemsTaken(int count, long waitNanos) {
+        items.addAndGet(count);
+        consumerWaitNanos.addAndGet(waitNanos);
+    }
+
+    public void recordConsumerWait(long waitNanos) {
+        consumerWaitNanos.addAndGet(waitNanos);
+    }
+
+    @Override
+    public String toString() {
+        return stageName + " stage (" + threads + " threads): " + getItems() + " items, producers waited "
+                + getProducerWaitTime() + " ms, stage threads waited " + getConsumerWaitTime() + " ms";
+    }
+}
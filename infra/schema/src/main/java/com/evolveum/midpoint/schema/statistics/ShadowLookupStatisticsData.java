@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.schema.statistics;
+
+/**
+ * Batched lookups of repository shadows: number of objects looked up and number of repository queries used.
+ */
+public class ShadowLookupStatisticsData {
+
+    private int objects;
+    private int queries;
+
+    public int getObjects() {
+        return objects;
+    }
+
+    public int getQueries() {
+        return queries;
+    }
+
+    public void recordLookup(int objects, int queries) {
+        this.objects += objects;
+        this.queries += queries;
+    }
+}
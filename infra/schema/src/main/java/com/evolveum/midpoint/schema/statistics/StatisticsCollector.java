@@ -56,6 +56,12 @@ public interface StatisticsCollector {
 
     void recordProvisioningOperation(String resourceOid, String resourceName, QName objectClassName, ProvisioningOperation operation, boolean success, int count, long duration);
 
+    /**
+     * Records a batched lookup of repository shadows for given number of resource objects,
+     * done by given number of repository queries.
+     */
+    void recordShadowLookup(String resourceOid, String resourceName, QName objectClassName, int objects, int queries);
+
     void recordNotificationOperation(String transportName, boolean success, long duration);
 
     void recordMappingOperation(String objectOid, String objectName, String objectTypeName, String mappingName, long duration);
@@ -54,6 +54,27 @@ public class SystemConfigurationTypeUtil {
         return sysconfigObject.asObjectable().getInternals().getMaxModelClicks();
     }
 
+    public static Integer getProjectionExecutionThreads(PrismObject<SystemConfigurationType> sysconfigObject) {
+        if (sysconfigObject == null || sysconfigObject.asObjectable().getInternals() == null) {
+            return null;
+        }
+        return sysconfigObject.asObjectable().getInternals().getProjectionExecutionThreads();
+    }
+
+    public static Integer getPrincipalCacheTimeToLive(PrismObject<SystemConfigurationType> sysconfigObject) {
+        if (sysconfigObject == null || sysconfigObject.asObjectable().getInternals() == null) {
+            return null;
+        }
+        return sysconfigObject.asObjectable().getInternals().getPrincipalCacheTimeToLive();
+    }
+
+    public static Integer getVerifiedCredentialsCacheTimeToLive(PrismObject<SystemConfigurationType> sysconfigObject) {
+        if (sysconfigObject == null || sysconfigObject.asObjectable().getInternals() == null) {
+            return null;
+        }
+        return sysconfigObject.asObjectable().getInternals().getVerifiedCredentialsCacheTimeToLive();
+    }
+
     public static String getDefaultHostname(SystemConfigurationType sysconfig) {
         if (sysconfig == null) {
             return null;
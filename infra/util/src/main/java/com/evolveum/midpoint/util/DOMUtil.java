@@ -867,9 +867,16 @@ public class DOMUtil {
 	}
 
 	private static boolean isApplicationAttribute(Attr attr) {
-		String namespaceURI = attr.getNamespaceURI();
+		return isApplicationAttribute(attr.getNamespaceURI(), attr.getName());
+	}
+
+	/**
+	 * Variant usable also without DOM (e.g. when reading XML using StAX).
+	 * @param name Attribute name; relevant only for attributes without namespace.
+	 */
+	public static boolean isApplicationAttribute(String namespaceURI, String name) {
         if (StringUtils.isEmpty(namespaceURI)) {
-			return !AUXILIARY_ATTRIBUTE_NAMES.contains(attr.getName());
+			return !AUXILIARY_ATTRIBUTE_NAMES.contains(name);
 		} else {
         	return !AUXILIARY_NAMESPACES.contains(namespaceURI);
 		}
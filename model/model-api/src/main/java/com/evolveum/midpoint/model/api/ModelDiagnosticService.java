@@ -17,7 +17,9 @@ package com.evolveum.midpoint.model.api;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.List;
 
+import com.evolveum.midpoint.schema.LabeledString;
 import com.evolveum.midpoint.schema.ProvisioningDiag;
 import com.evolveum.midpoint.schema.RepositoryDiag;
 import com.evolveum.midpoint.schema.RepositoryQueryDiagRequest;
@@ -91,6 +93,13 @@ public interface ModelDiagnosticService {
      */
 	ProvisioningDiag getProvisioningDiag(Task task, OperationResult parentResult);
 
+	/**
+	 * Provide state of the model caches: expression cache, compiled scripts and their precompilation.
+	 *
+	 * EXPERIMENTAL
+	 */
+	List<LabeledString> getModelCachesDiag(Task task, OperationResult parentResult);
+
 	/**
 	 * Execute arbitrary implementation-specific query. In current implementation this means hibernate query.
 	 *
@@ -18,13 +18,24 @@ package com.evolveum.midpoint.model.common;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
 import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
+import com.evolveum.midpoint.repo.api.CacheListener;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.schema.GetOperationOptions;
 import com.evolveum.midpoint.schema.SelectorOptions;
@@ -36,6 +47,7 @@ import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.DisplayType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.RelationDefinitionType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.RelationsDefinitionType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleManagementConfigurationType;
@@ -53,6 +65,13 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.SystemObjectsType;
  * the number of getObject(SystemConfiguration) and the getVersion(SystemConfiguration)
  * calls.
  *
+ * The system configuration is kept in an immutable snapshot that is replaced as a whole.
+ * Readers do not lock: they get the current snapshot even if it is expired, and the version check
+ * (and reload, if needed) is done by a background thread. Only when there is no valid snapshot at all
+ * (at the start or after invalidation) the configuration is loaded by the reader itself.
+ * Snapshots are invalidated by CacheDispatcher events for SystemConfigurationType, so changes
+ * done through the repository cache (on this or other node) are visible immediately.
+ *
  * In the future: May be used for more objects that are often used and seldom
  * changed, e.g. object templates.
  *
@@ -61,97 +80,211 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.SystemObjectsType;
  * @author semancik
  */
 @Component
-public class SystemObjectCache {
+public class SystemObjectCache implements CacheListener {
 
 	private static final Trace LOGGER = TraceManager.getTrace(SystemObjectCache.class);
-	
-	private static final String USER_DATA_KEY_RELATIONS = SystemObjectCache.class.getName() + ".relations";
+
+	private static final String OPERATION_REFRESH_SYSTEM_CONFIGURATION = SystemObjectCache.class.getName() + ".refreshSystemConfiguration";
 
 	@Autowired
 	@Qualifier("cacheRepositoryService")
 	private transient RepositoryService cacheRepositoryService;
 
-	private PrismObject<SystemConfigurationType> systemConfiguration;
-	private Long systemConfigurationCheckTimestamp;
+	@Autowired private CacheDispatcher cacheDispatcher;
+
+	private volatile Snapshot snapshot;
+
+	// incremented on each invalidation; snapshots loaded in older generations are not valid
+	private final AtomicLong generation = new AtomicLong();
+
+	// snapshots are published only under this lock (readers do not use it)
+	private final Object loadLock = new Object();
+
+	private final AtomicBoolean refreshScheduled = new AtomicBoolean();
+	private ExecutorService refreshExecutor;
 
 	private long getSystemConfigurationExpirationMillis() {
 		return 1000;
 	}
 
-	public synchronized PrismObject<SystemConfigurationType> getSystemConfiguration(OperationResult result) throws SchemaException {
-		try {
-			if (!hasValidSystemConfiguration(result)) {
-				LOGGER.trace("Cache MISS: reading system configuration from the repository: {}, version {}",
-						systemConfiguration, systemConfiguration==null?null:systemConfiguration.getVersion());
-				loadSystemConfiguration(result);
-			} else {
-				LOGGER.trace("Cache HIT: reusing cached system configuration: {}, version {}",
-						systemConfiguration, systemConfiguration==null?null:systemConfiguration.getVersion());
+	@PostConstruct
+	public void initialize() {
+		refreshExecutor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "midPoint system configuration refresher");
+			thread.setDaemon(true);
+			return thread;
+		});
+		cacheDispatcher.registerCacheListener(this);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		cacheDispatcher.unregisterCacheListener(this);
+		refreshExecutor.shutdownNow();
+	}
+
+	/**
+	 * Returns the cached system configuration. The returned object is immutable and shared, so it must not be changed.
+	 */
+	public PrismObject<SystemConfigurationType> getSystemConfiguration(OperationResult result) throws SchemaException {
+		return getSnapshot(result).systemConfiguration;
+	}
+
+	private Snapshot getSnapshot(OperationResult result) throws SchemaException {
+		Snapshot current = snapshot;
+		if (isValid(current)) {
+			if (System.currentTimeMillis() >= current.checkTimestamp + getSystemConfigurationExpirationMillis()) {
+				scheduleRefresh();
 			}
+			LOGGER.trace("Cache HIT: reusing cached system configuration: {}, version {}",
+					current.systemConfiguration, current.systemConfiguration.getVersion());
+			return current;
+		}
+		try {
+			return loadSnapshot(result);
 		} catch (ObjectNotFoundException e) {
-			systemConfiguration = null;
 			LOGGER.trace("Cache ERROR: System configuration not found", e);
 			result.muteLastSubresultError();
+			return new Snapshot(null, generation.get(), System.currentTimeMillis());
 		}
-		return systemConfiguration;
 	}
 
-	private boolean hasValidSystemConfiguration(OperationResult result) throws ObjectNotFoundException, SchemaException {
-		if (systemConfiguration == null) {
-			return false;
+	private boolean isValid(Snapshot snapshot) {
+		return snapshot != null && snapshot.generation == generation.get();
+	}
+
+	private Snapshot loadSnapshot(OperationResult result) throws ObjectNotFoundException, SchemaException {
+		synchronized (loadLock) {
+			Snapshot current = snapshot;
+			if (isValid(current)) {
+				return current;          // loaded by another thread in the meantime
+			}
+			LOGGER.trace("Cache MISS: reading system configuration from the repository");
+			long loadGeneration = generation.get();
+			Snapshot loaded = new Snapshot(loadSystemConfiguration(result), loadGeneration, System.currentTimeMillis());
+			snapshot = loaded;
+			return loaded;
 		}
+	}
+
+	private PrismObject<SystemConfigurationType> loadSystemConfiguration(OperationResult result) throws ObjectNotFoundException, SchemaException {
+		Collection<SelectorOptions<GetOperationOptions>> options = SelectorOptions.createCollection(GetOperationOptions.createReadOnly());
+		PrismObject<SystemConfigurationType> systemConfiguration = cacheRepositoryService.getObject(SystemConfigurationType.class,
+				SystemObjectsType.SYSTEM_CONFIGURATION.value(), options, result);
 		if (systemConfiguration.getVersion() == null) {
-			return false;
-		}
-		if (systemConfigurationCheckTimestamp == null) {
-			return false;
-		}
-		if (System.currentTimeMillis() < systemConfigurationCheckTimestamp + getSystemConfigurationExpirationMillis()) {
-			return true;
+			LOGGER.warn("Retrieved system configuration with null version");
 		}
-		String repoVersion = cacheRepositoryService.getVersion(SystemConfigurationType.class, SystemObjectsType.SYSTEM_CONFIGURATION.value(),
-				result);
-		if (systemConfiguration.getVersion().equals(repoVersion)) {
-			systemConfigurationCheckTimestamp = System.currentTimeMillis();
-			return true;
+		systemConfiguration.setImmutable(true);
+		return systemConfiguration;
+	}
+
+	private void scheduleRefresh() {
+		if (refreshScheduled.compareAndSet(false, true)) {
+			try {
+				refreshExecutor.execute(this::refresh);
+			} catch (RejectedExecutionException e) {
+				LOGGER.debug("Couldn't schedule system configuration refresh (shutting down?): {}", e.getMessage());
+				refreshScheduled.set(false);
+			}
 		}
-		return false;
 	}
 
-	private void loadSystemConfiguration(OperationResult result) throws ObjectNotFoundException, SchemaException {
-		Collection<SelectorOptions<GetOperationOptions>> options = SelectorOptions.createCollection(GetOperationOptions.createReadOnly());
-		systemConfiguration = cacheRepositoryService.getObject(SystemConfigurationType.class, SystemObjectsType.SYSTEM_CONFIGURATION.value(),
-				options, result);
-		systemConfigurationCheckTimestamp = System.currentTimeMillis();
-		if (systemConfiguration != null && systemConfiguration.getVersion() == null) {
-			LOGGER.warn("Retrieved system configuration with null version");
+	/**
+	 * Checks the version of the system configuration in the repository and reloads it if it has changed.
+	 * Runs in the refresher thread.
+	 */
+	private void refresh() {
+		OperationResult result = new OperationResult(OPERATION_REFRESH_SYSTEM_CONFIGURATION);
+		try {
+			Snapshot current = snapshot;
+			if (!isValid(current)) {
+				return;         // will be loaded by the next reader
+			}
+			long refreshGeneration = current.generation;
+			String repoVersion = cacheRepositoryService.getVersion(SystemConfigurationType.class,
+					SystemObjectsType.SYSTEM_CONFIGURATION.value(), result);
+			PrismObject<SystemConfigurationType> systemConfiguration;
+			if (repoVersion != null && repoVersion.equals(current.systemConfiguration.getVersion())) {
+				LOGGER.trace("System configuration version {} has not changed", repoVersion);
+				systemConfiguration = current.systemConfiguration;
+			} else {
+				LOGGER.trace("System configuration version changed from {} to {}, reloading it",
+						current.systemConfiguration.getVersion(), repoVersion);
+				systemConfiguration = loadSystemConfiguration(result);
+			}
+			Snapshot refreshed = systemConfiguration == current.systemConfiguration ?
+					current.withCheckTimestamp(System.currentTimeMillis()) :
+					new Snapshot(systemConfiguration, refreshGeneration, System.currentTimeMillis());
+			synchronized (loadLock) {
+				// not publishing anything if there was an invalidation or reload in the meantime
+				if (snapshot == current) {
+					snapshot = refreshed;
+				}
+			}
+		} catch (ObjectNotFoundException e) {
+			LOGGER.debug("System configuration no longer exists, invalidating the cached one");
+			invalidateCaches();
+		} catch (Throwable t) {
+			// the current snapshot is kept; the refresh will be retried by the next reader
+			LOGGER.warn("Couldn't refresh system configuration: {}", t.getMessage(), t);
+		} finally {
+			refreshScheduled.set(false);
 		}
 	}
 
-	public synchronized void invalidateCaches() {
-		systemConfiguration = null;
+	public void invalidateCaches() {
+		generation.incrementAndGet();
+		snapshot = null;
+	}
+
+	@Override
+	public <O extends ObjectType> void invalidateCache(Class<O> type, String oid) {
+		if (type == null || SystemConfigurationType.class.equals(type)) {
+			LOGGER.trace("Invalidating cached system configuration because of change of {}:{}", type, oid);
+			invalidateCaches();
+		}
 	}
-	
+
 	public List<RelationDefinitionType> getRelationDefinitions(OperationResult parentResult) throws ObjectNotFoundException, SchemaException {
-		PrismObject<SystemConfigurationType> systemConfiguration = getSystemConfiguration(parentResult);
-		if (systemConfiguration == null) {
-			return createRelationDefinitions(null);
+		return getSnapshot(parentResult).relationDefinitions;
+	}
+
+	private static final class Snapshot {
+
+		private final PrismObject<SystemConfigurationType> systemConfiguration;       // null if there's none
+		private final List<RelationDefinitionType> relationDefinitions;
+		private final long generation;
+		private final long checkTimestamp;
+
+		private Snapshot(PrismObject<SystemConfigurationType> systemConfiguration, long generation, long checkTimestamp) {
+			this(systemConfiguration, createRelationDefinitions(systemConfiguration), generation, checkTimestamp);
 		}
-		List<RelationDefinitionType> cachedRelations = systemConfiguration.getUserData(USER_DATA_KEY_RELATIONS);
-		if (cachedRelations != null) {
-			return cachedRelations;
+
+		private Snapshot(PrismObject<SystemConfigurationType> systemConfiguration, List<RelationDefinitionType> relationDefinitions,
+				long generation, long checkTimestamp) {
+			this.systemConfiguration = systemConfiguration;
+			this.relationDefinitions = relationDefinitions;
+			this.generation = generation;
+			this.checkTimestamp = checkTimestamp;
+		}
+
+		private Snapshot withCheckTimestamp(long checkTimestamp) {
+			return new Snapshot(systemConfiguration, relationDefinitions, generation, checkTimestamp);
 		}
-		RoleManagementConfigurationType roleManagement = systemConfiguration.asObjectable().getRoleManagement();
+	}
+
+	private static List<RelationDefinitionType> createRelationDefinitions(PrismObject<SystemConfigurationType> systemConfiguration) {
 		RelationsDefinitionType relationsDef = null;
-		if (roleManagement != null) {
-			relationsDef = roleManagement.getRelations();
+		if (systemConfiguration != null) {
+			RoleManagementConfigurationType roleManagement = systemConfiguration.asObjectable().getRoleManagement();
+			if (roleManagement != null) {
+				relationsDef = roleManagement.getRelations();
+			}
 		}
-		cachedRelations = createRelationDefinitions(relationsDef);
-		systemConfiguration.setUserData(USER_DATA_KEY_RELATIONS, cachedRelations);
-		return cachedRelations;
+		return Collections.unmodifiableList(createRelationDefinitions(relationsDef));
 	}
 
-	private List<RelationDefinitionType> createRelationDefinitions(RelationsDefinitionType relationsDef) {
+	private static List<RelationDefinitionType> createRelationDefinitions(RelationsDefinitionType relationsDef) {
 		List<RelationDefinitionType> configuredRelations = null;
 		boolean includeDefaultRelations = true;
 		if (relationsDef != null) {
@@ -172,7 +305,7 @@ public class SystemObjectCache {
 		return relations;
 	}
 
-	private void addDefaultRelations(List<RelationDefinitionType> relations) {
+	private static void addDefaultRelations(List<RelationDefinitionType> relations) {
 		for (RelationTypes relationTypeEnum : RelationTypes.values()) {
 			if (ObjectTypeUtil.findRelationDefinition(relations, relationTypeEnum.getRelation()) != null) {
 				continue;
@@ -53,4 +53,14 @@ public interface ScriptEvaluator {
 	 */
 	String getLanguageUrl();
 
+	/**
+	 * Compiles the script in advance (if the evaluator supports that), so the first evaluation does not have to.
+	 *
+	 * @return true if the script was compiled (or it was already compiled before)
+	 */
+	default boolean precompile(ScriptExpressionEvaluatorType expressionType, String contextDescription)
+			throws ExpressionEvaluationException {
+		return false;
+	}
+
 }
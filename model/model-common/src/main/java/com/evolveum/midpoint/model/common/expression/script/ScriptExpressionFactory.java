@@ -36,6 +36,7 @@ import com.evolveum.midpoint.schema.constants.MidPointConstants;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.util.ObjectResolver;
 import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.util.exception.ExpressionEvaluationException;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
@@ -158,6 +159,16 @@ public class ScriptExpressionFactory implements Cacheable{
 		}
 	}
 
+	/**
+	 * Compiles the script in advance, if its language supports that. Used to warm up script caches.
+	 *
+	 * @return true if the script is compiled now
+	 */
+	public boolean precompile(ScriptExpressionEvaluatorType expressionType, String shortDesc) throws ExpressionEvaluationException {
+		ScriptEvaluator evaluator = evaluatorMap.get(getLanguage(expressionType));
+		return evaluator != null && evaluator.precompile(expressionType, shortDesc);
+	}
+
 	public void registerEvaluator(String language, ScriptEvaluator evaluator) {
 		if (evaluatorMap.containsKey(language)) {
 			throw new IllegalArgumentException("Evaluator for language "+language+" already registered");
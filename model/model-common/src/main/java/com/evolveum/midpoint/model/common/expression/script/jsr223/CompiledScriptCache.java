@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.common.expression.script.jsr223;
+
+import javax.script.CompiledScript;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Cache of compiled scripts, keyed by the source code.
+ *
+ * The cache is bounded both by the number of scripts and by their total weight. The weight of a script is
+ * the length of its source code: the size of the generated classes is not available through JSR-223,
+ * and it grows with the source anyway. Least recently used scripts are evicted first.
+ *
+ * All operations are synchronized; scripts are compiled outside of the cache.
+ */
+public class CompiledScriptCache {
+
+	public static final int DEFAULT_MAX_SIZE = 5000;
+	public static final long DEFAULT_MAX_WEIGHT = 20_000_000L;          // characters of source code
+
+	// access order is used for LRU eviction
+	private final LinkedHashMap<String, CompiledScript> scripts = new LinkedHashMap<>(16, 0.75f, true);
+
+	private int maxSize = DEFAULT_MAX_SIZE;
+	private long maxWeight = DEFAULT_MAX_WEIGHT;
+	private long weight;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	public synchronized int getMaxSize() {
+		return maxSize;
+	}
+
+	public synchronized void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+		evictIfNeeded();
+	}
+
+	public synchronized long getMaxWeight() {
+		return maxWeight;
+	}
+
+	public synchronized void setMaxWeight(long maxWeight) {
+		this.maxWeight = maxWeight;
+		evictIfNeeded();
+	}
+
+	public synchronized CompiledScript get(String code) {
+		CompiledScript script = scripts.get(code);
+		if (script != null) {
+			hits++;
+		} else {
+			misses++;
+		}
+		return script;
+	}
+
+	public synchronized boolean contains(String code) {
+		return scripts.containsKey(code);
+	}
+
+	/**
+	 * Puts the script into the cache. If another thread compiled the same code in the meantime,
+	 * its script is kept and returned.
+	 */
+	public synchronized CompiledScript put(String code, CompiledScript script) {
+		CompiledScript existing = scripts.get(code);
+		if (existing != null) {
+			return existing;
+		}
+		if (code.length() > maxWeight || maxSize <= 0) {
+			return script;          // would evict everything else
+		}
+		scripts.put(code, script);
+		weight += code.length();
+		evictIfNeeded();
+		return script;
+	}
+
+	/**
+	 * Returns true if the script fits into the cache without evicting any other script.
+	 */
+	public synchronized boolean hasRoomFor(String code) {
+		return scripts.size() < maxSize && weight + code.length() <= maxWeight;
+	}
+
+	/**
+	 * Puts the script into the cache only if it fits there without evicting any other script.
+	 * Used for scripts compiled in advance, which must not push out the scripts that are actually used.
+	 *
+	 * @return true if the script is in the cache (put now or by another thread before)
+	 */
+	public synchronized boolean putIfRoom(String code, CompiledScript script) {
+		if (scripts.containsKey(code)) {
+			return true;
+		}
+		if (!hasRoomFor(code)) {
+			return false;
+		}
+		scripts.put(code, script);
+		weight += code.length();
+		return true;
+	}
+
+	public synchronized void clear() {
+		scripts.clear();
+		weight = 0;
+	}
+
+	public synchronized int size() {
+		return scripts.size();
+	}
+
+	private void evictIfNeeded() {
+		Iterator<String> iterator = scripts.keySet().iterator();
+		while ((scripts.size() > maxSize || weight > maxWeight) && iterator.hasNext()) {
+			// the eldest entry in access order
+			String eldest = iterator.next();
+			iterator.remove();
+			weight -= eldest.length();
+			evictions++;
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "size=" + scripts.size() + "/" + maxSize + ", weight=" + weight + "/" + maxWeight
+				+ ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions;
+	}
+}
@@ -18,8 +18,6 @@ package com.evolveum.midpoint.model.common.expression.script.jsr223;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 
 import javax.script.Bindings;
@@ -72,7 +70,7 @@ public class Jsr223ScriptEvaluator implements ScriptEvaluator {
 	private final Protector protector;
 	private final LocalizationService localizationService;
 
-	private final Map<String, CompiledScript> scriptCache;
+	private final CompiledScriptCache scriptCache = new CompiledScriptCache();
 
 	public Jsr223ScriptEvaluator(String engineName, PrismContext prismContext, Protector protector,
 			LocalizationService localizationService) {
@@ -83,10 +81,21 @@ public class Jsr223ScriptEvaluator implements ScriptEvaluator {
 		}
 		this.prismContext = prismContext;
 		this.protector = protector;
-		this.scriptCache = new ConcurrentHashMap<>();
 		this.localizationService = localizationService;
 	}
 
+	public void setScriptCacheMaxSize(int maxSize) {
+		scriptCache.setMaxSize(maxSize);
+	}
+
+	public void setScriptCacheMaxWeight(long maxWeight) {
+		scriptCache.setMaxWeight(maxWeight);
+	}
+
+	public CompiledScriptCache getScriptCache() {
+		return scriptCache;
+	}
+
 	@Override
 	public <T, V extends PrismValue> List<V> evaluate(ScriptExpressionEvaluatorType expressionType,
 			ExpressionVariables variables, ItemDefinition outputDefinition,
@@ -193,19 +202,40 @@ public class Jsr223ScriptEvaluator implements ScriptEvaluator {
 		return evalRawResult;
 	}
 
+	@Override
+	public boolean precompile(ScriptExpressionEvaluatorType expressionType, String contextDescription)
+			throws ExpressionEvaluationException {
+		String codeString = expressionType.getCode();
+		if (codeString == null) {
+			return false;
+		}
+		if (scriptCache.contains(codeString)) {
+			return true;
+		}
+		if (!scriptCache.hasRoomFor(codeString)) {
+			// the cache is full: precompiled scripts must not evict the ones that are being used
+			return false;
+		}
+		// not counted in SCRIPT_COMPILE_COUNT, as this is not done on the request path
+		return scriptCache.putIfRoom(codeString, compileScript(codeString, contextDescription));
+	}
+
 	private CompiledScript createCompiledScript(String codeString, String contextDescription) throws ExpressionEvaluationException {
 		CompiledScript compiledScript = scriptCache.get(codeString);
 		if (compiledScript != null) {
 			return compiledScript;
 		}
+		InternalMonitor.recordCount(InternalCounters.SCRIPT_COMPILE_COUNT);
+		return scriptCache.put(codeString, compileScript(codeString, contextDescription));
+	}
+
+	private CompiledScript compileScript(String codeString, String contextDescription)
+			throws ExpressionEvaluationException {
 		try {
-			InternalMonitor.recordCount(InternalCounters.SCRIPT_COMPILE_COUNT);
-			compiledScript = ((Compilable)scriptEngine).compile(codeString);
+			return ((Compilable)scriptEngine).compile(codeString);
 		} catch (ScriptException e) {
 			throw new ExpressionEvaluationException(e.getMessage() + " in " + contextDescription, e);
 		}
-		scriptCache.put(codeString, compiledScript);
-		return compiledScript;
 	}
 
 	private <T> T convertScalarResult(Class<T> expectedType, Function<Object, Object> additionalConvertor, Object rawValue, String contextDescription) throws ExpressionEvaluationException {
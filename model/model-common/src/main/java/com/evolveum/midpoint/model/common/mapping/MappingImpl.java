@@ -1064,7 +1064,7 @@ public class MappingImpl<V extends PrismValue,D extends ItemDefinition> implemen
 		if (mappingType != null) {
 			expressionType = mappingType.getExpression();
 		}
-		expression = expressionFactory.makeExpression(expressionType, outputDefinition,
+		expression = expressionFactory.makeExpression(expressionType, outputDefinition, originObject,
 				"expression in "+getMappingContextDescription(), task, result);
 		ExpressionEvaluationContext context = new ExpressionEvaluationContext(sources, variables,
 				"expression in "+getMappingContextDescription(), task, result);
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.common;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollection;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.Test;
+import org.xml.sax.SAXException;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
+import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.schema.MidPointPrismContextFactory;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SystemConfigurationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SystemObjectsType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+
+/**
+ * Snapshot handling of SystemObjectCache: reuse, background version check and reload, and invalidation
+ * (also while a background refresh is running). The repository is mocked.
+ */
+public class TestSystemObjectCache {
+
+	private static final String OID = SystemObjectsType.SYSTEM_CONFIGURATION.value();
+
+	// SystemObjectCache checks the version after 1 second
+	private static final long EXPIRATION_WAIT = 1100L;
+	private static final long TIMEOUT = 5000L;
+
+	@Mock private RepositoryService repositoryService;
+	@Mock private CacheDispatcher cacheDispatcher;
+	@InjectMocks private SystemObjectCache cache;
+
+	// the system configuration "stored in the repository"
+	private final AtomicReference<PrismObject<SystemConfigurationType>> repoConfiguration = new AtomicReference<>();
+
+	@BeforeSuite
+	public void setupPrismContext() throws SchemaException, SAXException, IOException {
+		PrismTestUtil.resetPrismContext(MidPointPrismContextFactory.FACTORY);
+	}
+
+	@BeforeMethod
+	public void createCache() throws Exception {
+		cache = null;
+		MockitoAnnotations.initMocks(this);
+		when(repositoryService.getObject(eq(SystemConfigurationType.class), eq(OID), anyCollection(), any(OperationResult.class)))
+				.thenAnswer(invocation -> repoConfiguration.get().clone());
+		when(repositoryService.getVersion(eq(SystemConfigurationType.class), eq(OID), any(OperationResult.class)))
+				.thenAnswer(invocation -> repoConfiguration.get().getVersion());
+		cache.initialize();
+	}
+
+	@AfterMethod
+	public void shutdownCache() {
+		cache.shutdown();
+	}
+
+	@Test
+	public void test100CacheHit() throws Exception {
+		System.out.println("===[ test100CacheHit ]===");
+		OperationResult result = new OperationResult("test100CacheHit");
+		repoConfiguration.set(createConfiguration("1"));
+
+		PrismObject<SystemConfigurationType> first = cache.getSystemConfiguration(result);
+		PrismObject<SystemConfigurationType> second = cache.getSystemConfiguration(result);
+
+		assertEquals("Wrong version", "1", first.getVersion());
+		assertSame("Configuration not reused", first, second);
+		assertTrue("Cached configuration is not immutable", first.isImmutable());
+		verify(repositoryService, times(1)).getObject(eq(SystemConfigurationType.class), eq(OID), anyCollection(), any(OperationResult.class));
+		verify(repositoryService, never()).getVersion(eq(SystemConfigurationType.class), eq(OID), any(OperationResult.class));
+	}
+
+	@Test
+	public void test110RefreshUnchanged() throws Exception {
+		System.out.println("===[ test110RefreshUnchanged ]===");
+		OperationResult result = new OperationResult("test110RefreshUnchanged");
+		repoConfiguration.set(createConfiguration("1"));
+		PrismObject<SystemConfigurationType> first = cache.getSystemConfiguration(result);
+
+		Thread.sleep(EXPIRATION_WAIT);
+		PrismObject<SystemConfigurationType> expired = cache.getSystemConfiguration(result);
+
+		assertSame("Expired configuration not returned while refreshing", first, expired);
+		verify(repositoryService, timeout(TIMEOUT)).getVersion(eq(SystemConfigurationType.class), eq(OID), any(OperationResult.class));
+		assertSame("Configuration reloaded although the version is the same", first, cache.getSystemConfiguration(result));
+		verify(repositoryService, times(1)).getObject(eq(SystemConfigurationType.class), eq(OID), anyCollection(), any(OperationResult.class));
+	}
+
+	@Test
+	public void test120RefreshChanged() throws Exception {
+		System.out.println("===[ test120RefreshChanged ]===");
+		OperationResult result = new OperationResult("test120RefreshChanged");
+		repoConfiguration.set(createConfiguration("1"));
+		cache.getSystemConfiguration(result);
+
+		repoConfiguration.set(createConfiguration("2"));
+		Thread.sleep(EXPIRATION_WAIT);
+		assertEquals("Expired configuration not returned while refreshing", "1", cache.getSystemConfiguration(result).getVersion());
+
+		verify(repositoryService, timeout(TIMEOUT).times(2)).getObject(eq(SystemConfigurationType.class), eq(OID), anyCollection(), any(OperationResult.class));
+		assertEquals("Configuration not refreshed", "2", waitForVersion("2", result));
+	}
+
+	@Test
+	public void test130Invalidation() throws Exception {
+		System.out.println("===[ test130Invalidation ]===");
+		OperationResult result = new OperationResult("test130Invalidation");
+		repoConfiguration.set(createConfiguration("1"));
+		cache.getSystemConfiguration(result);
+		repoConfiguration.set(createConfiguration("2"));
+
+		cache.invalidateCache(UserType.class, "123");
+		assertEquals("Configuration reloaded after change of unrelated object", "1", cache.getSystemConfiguration(result).getVersion());
+
+		cache.invalidateCache(SystemConfigurationType.class, OID);
+		assertEquals("Configuration not reloaded after invalidation", "2", cache.getSystemConfiguration(result).getVersion());
+		verify(repositoryService, times(2)).getObject(eq(SystemConfigurationType.class), eq(OID), anyCollection(), any(OperationResult.class));
+		verify(cacheDispatcher).registerCacheListener(cache);
+	}
+
+	/**
+	 * A refresh that started before the invalidation must not replace the configuration loaded after it.
+	 */
+	@Test
+	public void test140InvalidationDuringRefresh() throws Exception {
+		System.out.println("===[ test140InvalidationDuringRefresh ]===");
+		OperationResult result = new OperationResult("test140InvalidationDuringRefresh");
+		repoConfiguration.set(createConfiguration("1"));
+		cache.getSystemConfiguration(result);
+
+		CountDownLatch refreshStarted = new CountDownLatch(1);
+		CountDownLatch refreshReleased = new CountDownLatch(1);
+		when(repositoryService.getVersion(eq(SystemConfigurationType.class), eq(OID), any(OperationResult.class)))
+				.thenAnswer(invocation -> {
+					refreshStarted.countDown();
+					refreshReleased.await(TIMEOUT, TimeUnit.MILLISECONDS);
+					return repoConfiguration.get().getVersion();
+				});
+		Thread.sleep(EXPIRATION_WAIT);
+		cache.getSystemConfiguration(result);           // schedules the refresh
+		assertTrue("Refresh not started", refreshStarted.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+		repoConfiguration.set(createConfiguration("2"));
+		cache.invalidateCache(SystemConfigurationType.class, OID);
+		assertEquals("Configuration not reloaded after invalidation", "2", cache.getSystemConfiguration(result).getVersion());
+
+		repoConfiguration.set(createConfiguration("3"));            // seen by the refresh, not announced by invalidation
+		refreshReleased.countDown();
+		verify(repositoryService, timeout(TIMEOUT).times(3)).getObject(eq(SystemConfigurationType.class), eq(OID), anyCollection(), any(OperationResult.class));
+		Thread.sleep(100L);             // the refresh publishes its snapshot (if at all) right after loading it
+
+		assertEquals("Stale refresh replaced the configuration loaded after invalidation", "2",
+				cache.getSystemConfiguration(result).getVersion());
+	}
+
+	private PrismObject<SystemConfigurationType> createConfiguration(String version) {
+		PrismObject<SystemConfigurationType> configuration = new SystemConfigurationType(PrismTestUtil.getPrismContext())
+				.oid(OID)
+				.name("SystemConfiguration")
+				.asPrismObject();
+		configuration.setVersion(version);
+		return configuration;
+	}
+
+	private String waitForVersion(String expected, OperationResult result) throws Exception {
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		String version;
+		while (!expected.equals(version = cache.getSystemConfiguration(result).getVersion())
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(10L);
+		}
+		return version;
+	}
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.common.expression;
+
+import static org.mockito.Mockito.mock;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.Test;
+import org.xml.sax.SAXException;
+
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.repo.common.expression.Expression;
+import com.evolveum.midpoint.repo.common.expression.ExpressionCache;
+import com.evolveum.midpoint.schema.MidPointPrismContextFactory;
+import com.evolveum.midpoint.schema.util.ObjectResolver;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ExpressionType;
+
+/**
+ * LRU eviction and invalidation by source object of the expression cache, also under concurrent access.
+ */
+public class TestExpressionCache {
+
+	private static final String ROLE1_OID = "role1";
+	private static final String ROLE2_OID = "role2";
+	private static final String ROLE3_OID = "role3";
+
+	private static final int THREADS = 4;
+	private static final int OPERATIONS_PER_THREAD = 20000;
+	private static final int SOURCES = 10;
+
+	private final ObjectResolver objectResolver = mock(ObjectResolver.class);
+
+	@BeforeSuite
+	public void setup() throws SchemaException, SAXException, IOException {
+		PrismTestUtil.resetPrismContext(MidPointPrismContextFactory.FACTORY);
+	}
+
+	@Test
+	public void test100EvictLeastRecentlyUsed() {
+		System.out.println("===[ test100EvictLeastRecentlyUsed ]===");
+		ExpressionCache<String> cache = createCache(3);
+		Expression<?, ?> e1 = put(cache, "e1", null);
+		put(cache, "e2", null);
+		Expression<?, ?> e3 = put(cache, "e3", null);
+
+		assertSame(e1, cache.get("e1", null));          // e2 is now the least recently used
+		Expression<?, ?> e4 = put(cache, "e4", null);
+
+		assertEquals("Wrong cache size", 3, cache.size());
+		assertNull("Least recently used entry not evicted", cache.get("e2", null));
+		assertSame(e1, cache.get("e1", null));
+		assertSame(e3, cache.get("e3", null));
+		assertSame(e4, cache.get("e4", null));
+		assertTrue("Eviction not counted: " + cache, cache.toString().contains("evictions=1"));
+	}
+
+	@Test
+	public void test110ShrinkMaxSize() {
+		System.out.println("===[ test110ShrinkMaxSize ]===");
+		ExpressionCache<String> cache = createCache(10);
+		for (int i = 0; i < 10; i++) {
+			put(cache, "e" + i, null);
+		}
+		Expression<?, ?> e0 = cache.get("e0", null);
+
+		cache.setMaxSize(2);
+
+		assertEquals("Wrong cache size", 2, cache.size());
+		assertSame("Recently used entry evicted", e0, cache.get("e0", null));
+		assertTrue("Most recently added entry evicted", cache.get("e9", null) != null);
+	}
+
+	@Test
+	public void test120PutKeepsExisting() {
+		System.out.println("===[ test120PutKeepsExisting ]===");
+		ExpressionCache<String> cache = createCache(10);
+		Expression<?, ?> first = put(cache, "e", null);
+
+		Expression<?, ?> second = cache.put("e", createExpression(), null);
+
+		assertSame("Expression created by another thread not reused", first, second);
+		assertEquals("Wrong cache size", 1, cache.size());
+	}
+
+	@Test
+	public void test130Disabled() {
+		System.out.println("===[ test130Disabled ]===");
+		ExpressionCache<String> cache = createCache(0);
+		Expression<?, ?> expression = createExpression();
+
+		assertSame(expression, cache.put("e", expression, ROLE1_OID));
+		assertEquals("Expression cached although the cache is disabled", 0, cache.size());
+		assertNull(cache.get("e", null));
+	}
+
+	@Test
+	public void test200InvalidateBySource() {
+		System.out.println("===[ test200InvalidateBySource ]===");
+		ExpressionCache<String> cache = createCache(10);
+		put(cache, "fromRole1", ROLE1_OID);
+		Expression<?, ?> fromRole2 = put(cache, "fromRole2", ROLE2_OID);
+		put(cache, "shared", ROLE3_OID);
+		cache.get("shared", ROLE1_OID);                 // the same expression used in another role
+		Expression<?, ?> noSource = put(cache, "noSource", null);
+
+		cache.invalidate(ROLE1_OID);
+
+		assertNull("Expression from changed role not invalidated", cache.get("fromRole1", null));
+		assertNull("Expression shared with changed role not invalidated", cache.get("shared", null));
+		assertSame(fromRole2, cache.get("fromRole2", null));
+		assertSame(noSource, cache.get("noSource", null));
+		assertEquals("Wrong cache size", 2, cache.size());
+		assertTrue("Source index not cleaned up: " + cache, cache.toString().contains("sources=1"));
+
+		cache.invalidate(ROLE3_OID);                    // its only expression is gone already
+		assertEquals("Wrong cache size", 2, cache.size());
+	}
+
+	@Test
+	public void test210InvalidateUnknownSource() {
+		System.out.println("===[ test210InvalidateUnknownSource ]===");
+		ExpressionCache<String> cache = createCache(10);
+		put(cache, "fromRole1", ROLE1_OID);
+		put(cache, "noSource", null);
+
+		cache.invalidate(null);
+
+		assertEquals("Cache not cleared", 0, cache.size());
+		assertTrue("Source index not cleared: " + cache, cache.toString().contains("sources=0"));
+	}
+
+	@Test
+	public void test220EvictedEntryLeavesSourceIndex() {
+		System.out.println("===[ test220EvictedEntryLeavesSourceIndex ]===");
+		ExpressionCache<String> cache = createCache(1);
+		put(cache, "fromRole1", ROLE1_OID);
+		Expression<?, ?> fromRole2 = put(cache, "fromRole2", ROLE2_OID);         // evicts the first one
+
+		assertTrue("Evicted entry still in source index: " + cache, cache.toString().contains("sources=1"));
+		cache.invalidate(ROLE1_OID);
+		assertSame(fromRole2, cache.get("fromRole2", null));
+	}
+
+	/**
+	 * Many threads use and invalidate a small cache. Afterwards, each remaining entry must still be reachable
+	 * from the source index: invalidating all the sources must empty both the cache and the index.
+	 */
+	@Test
+	public void test300ConcurrentAccess() throws Exception {
+		System.out.println("===[ test300ConcurrentAccess ]===");
+		int maxSize = 20;
+		ExpressionCache<String> cache = createCache(maxSize);
+		List<Callable<Void>> workers = new ArrayList<>();
+		for (int t = 0; t < THREADS; t++) {
+			final int seed = t;
+			workers.add(() -> {
+				Random random = new Random(seed);
+				for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+					String key = "e" + random.nextInt(50);
+					String sourceOid = "role" + random.nextInt(SOURCES);
+					int operation = random.nextInt(10);
+					if (operation == 0) {
+						cache.invalidate(sourceOid);
+					} else if (cache.get(key, sourceOid) == null) {
+						put(cache, key, sourceOid);
+					}
+				}
+				return null;
+			});
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			for (Future<Void> future : executor.invokeAll(workers)) {
+				future.get();           // re-throws exceptions of the workers
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		System.out.println("Cache after concurrent access: " + cache);
+		assertTrue("Cache too large: " + cache, cache.size() <= maxSize);
+		for (int i = 0; i < SOURCES; i++) {
+			cache.invalidate("role" + i);
+		}
+		assertEquals("Entries not reachable from source index: " + cache, 0, cache.size());
+		assertTrue("Source index not cleaned up: " + cache, cache.toString().contains("sources=0"));
+	}
+
+	private ExpressionCache<String> createCache(int maxSize) {
+		ExpressionCache<String> cache = new ExpressionCache<>();
+		cache.setMaxSize(maxSize);
+		return cache;
+	}
+
+	private Expression<?, ?> put(ExpressionCache<String> cache, String key, String sourceOid) {
+		return cache.put(key, createExpression(), sourceOid);
+	}
+
+	private Expression<?, ?> createExpression() {
+		return new Expression<>(new ExpressionType(), null, objectResolver, null, PrismTestUtil.getPrismContext());
+	}
+}
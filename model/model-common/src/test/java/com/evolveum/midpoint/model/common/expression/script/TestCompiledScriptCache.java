@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.common.expression.script;
+
+import static org.mockito.Mockito.mock;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.IOException;
+
+import javax.script.CompiledScript;
+
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.Test;
+import org.xml.sax.SAXException;
+
+import com.evolveum.midpoint.common.LocalizationTestUtil;
+import com.evolveum.midpoint.model.common.expression.script.jsr223.CompiledScriptCache;
+import com.evolveum.midpoint.model.common.expression.script.jsr223.Jsr223ScriptEvaluator;
+import com.evolveum.midpoint.prism.crypto.ProtectorImpl;
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.schema.MidPointPrismContextFactory;
+import com.evolveum.midpoint.schema.internals.InternalCounters;
+import com.evolveum.midpoint.schema.internals.InternalMonitor;
+import com.evolveum.midpoint.test.util.TestUtil;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ScriptExpressionEvaluatorType;
+
+/**
+ * Limits of the compiled script cache and precompilation of scripts into it.
+ */
+public class TestCompiledScriptCache {
+
+	@BeforeSuite
+	public void setup() throws SchemaException, SAXException, IOException {
+		PrismTestUtil.resetPrismContext(MidPointPrismContextFactory.FACTORY);
+	}
+
+	@Test
+	public void test100EvictBySize() {
+		final String TEST_NAME = "test100EvictBySize";
+		TestUtil.displayTestTitle(TEST_NAME);
+		CompiledScriptCache cache = createCache(3, 1000L);
+		put(cache, "a");
+		put(cache, "b");
+		put(cache, "c");
+
+		assertNotNull(cache.get("a"));          // "b" is now the least recently used
+		put(cache, "d");
+
+		assertEquals("Wrong cache size", 3, cache.size());
+		assertNull("Least recently used script not evicted", cache.get("b"));
+		assertNotNull(cache.get("a"));
+		assertNotNull(cache.get("d"));
+		assertTrue("Eviction not counted: " + cache, cache.toString().contains("evictions=1"));
+	}
+
+	@Test
+	public void test110EvictByWeight() {
+		final String TEST_NAME = "test110EvictByWeight";
+		TestUtil.displayTestTitle(TEST_NAME);
+		CompiledScriptCache cache = createCache(100, 10L);
+		put(cache, "aaaa");
+		put(cache, "bbbb");
+		put(cache, "cccc");             // 12 characters in total
+
+		assertEquals("Wrong cache size", 2, cache.size());
+		assertNull("Least recently used script not evicted", cache.get("aaaa"));
+
+		CompiledScript tooLarge = mock(CompiledScript.class);
+		assertSame(tooLarge, cache.put("xxxxxxxxxxx", tooLarge));
+		assertFalse("Script larger than the whole cache was cached", cache.contains("xxxxxxxxxxx"));
+		assertEquals("Scripts evicted by a script larger than the whole cache", 2, cache.size());
+	}
+
+	@Test
+	public void test120ShrinkLimits() {
+		final String TEST_NAME = "test120ShrinkLimits";
+		TestUtil.displayTestTitle(TEST_NAME);
+		CompiledScriptCache cache = createCache(10, 1000L);
+		for (int i = 0; i < 10; i++) {
+			put(cache, "script" + i);
+		}
+		cache.get("script0");
+
+		cache.setMaxSize(5);
+		assertEquals("Wrong cache size", 5, cache.size());
+		assertTrue("Recently used script evicted", cache.contains("script0"));
+
+		cache.setMaxWeight(14L);                // two scripts of 7 characters
+		assertEquals("Wrong cache size", 2, cache.size());
+		assertTrue("Recently used script evicted", cache.contains("script0"));
+	}
+
+	@Test
+	public void test130PutIfRoom() {
+		final String TEST_NAME = "test130PutIfRoom";
+		TestUtil.displayTestTitle(TEST_NAME);
+		CompiledScriptCache cache = createCache(2, 1000L);
+		put(cache, "a");
+
+		assertTrue(cache.putIfRoom("b", mock(CompiledScript.class)));
+		assertTrue("Script already in the cache not reported", cache.putIfRoom("a", mock(CompiledScript.class)));
+		assertFalse("Script put into a full cache", cache.putIfRoom("c", mock(CompiledScript.class)));
+
+		assertEquals("Wrong cache size", 2, cache.size());
+		assertTrue(cache.contains("a"));
+		assertTrue(cache.contains("b"));
+		assertTrue("Eviction counted: " + cache, cache.toString().contains("evictions=0"));
+	}
+
+	/**
+	 * Precompilation fills only the free space of the cache: it must not evict the scripts that are used.
+	 */
+	@Test
+	public void test200PrecompileDoesNotEvict() throws Exception {
+		final String TEST_NAME = "test200PrecompileDoesNotEvict";
+		TestUtil.displayTestTitle(TEST_NAME);
+		Jsr223ScriptEvaluator evaluator = new Jsr223ScriptEvaluator("groovy", PrismTestUtil.getPrismContext(),
+				new ProtectorImpl(), LocalizationTestUtil.getLocalizationService());
+		evaluator.setScriptCacheMaxSize(2);
+		CompiledScriptCache cache = evaluator.getScriptCache();
+		InternalMonitor.reset();
+
+		assertTrue("Script not precompiled", evaluator.precompile(createScript("1 + 1"), TEST_NAME));
+		assertTrue("Script not precompiled", evaluator.precompile(createScript("2 + 2"), TEST_NAME));
+		assertTrue("Already compiled script not reported", evaluator.precompile(createScript("1 + 1"), TEST_NAME));
+		assertFalse("Script precompiled into a full cache", evaluator.precompile(createScript("3 + 3"), TEST_NAME));
+
+		assertEquals("Wrong cache size", 2, cache.size());
+		assertTrue(cache.contains("1 + 1"));
+		assertTrue(cache.contains("2 + 2"));
+		assertFalse(cache.contains("3 + 3"));
+		assertTrue("Eviction counted: " + cache, cache.toString().contains("evictions=0"));
+		assertEquals("Precompilation counted as compilation on the request path", 0,
+				InternalMonitor.getCount(InternalCounters.SCRIPT_COMPILE_COUNT));
+	}
+
+	private CompiledScriptCache createCache(int maxSize, long maxWeight) {
+		CompiledScriptCache cache = new CompiledScriptCache();
+		cache.setMaxSize(maxSize);
+		cache.setMaxWeight(maxWeight);
+		return cache;
+	}
+
+	private void put(CompiledScriptCache cache, String code) {
+		cache.put(code, mock(CompiledScript.class));
+	}
+
+	private ScriptExpressionEvaluatorType createScript(String code) {
+		ScriptExpressionEvaluatorType script = new ScriptExpressionEvaluatorType();
+		script.setCode(code);
+		return script;
+	}
+}
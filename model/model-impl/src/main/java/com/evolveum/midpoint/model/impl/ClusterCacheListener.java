@@ -138,4 +138,9 @@ public class ClusterCacheListener implements CacheListener {
 		
 	}
 
+	@Override
+	public <O extends ObjectType> void invalidateCacheFromRemoteNode(Class<O> type, String oid) {
+		// the node where the change originated has already notified all the other nodes
+	}
+
 }
@@ -21,17 +21,23 @@ import com.evolveum.midpoint.model.api.validator.Scope;
 import com.evolveum.midpoint.model.api.validator.ValidationResult;
 import com.evolveum.midpoint.model.common.stringpolicy.ValuePolicyProcessor;
 import com.evolveum.midpoint.model.impl.rest.Convertor;
+import com.evolveum.midpoint.model.impl.rest.BulkDeltaExecutor;
 import com.evolveum.midpoint.model.impl.rest.ConvertorInterface;
+import com.evolveum.midpoint.model.impl.rest.ObjectListStreamWriter;
 import com.evolveum.midpoint.model.impl.rest.PATCH;
 import com.evolveum.midpoint.model.impl.scripting.ScriptingExpressionEvaluator;
 import com.evolveum.midpoint.model.impl.security.SecurityHelper;
 import com.evolveum.midpoint.model.impl.util.RestServiceUtil;
+import com.evolveum.midpoint.prism.PrismConstants;
 import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.crypto.Protector;
 import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
 import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.query.ObjectPaging;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.query.OrderDirection;
 import com.evolveum.midpoint.prism.query.QueryJaxbConvertor;
 import com.evolveum.midpoint.prism.query.builder.QueryBuilder;
 import com.evolveum.midpoint.repo.api.CacheDispatcher;
@@ -43,6 +49,7 @@ import com.evolveum.midpoint.schema.SearchResultMetadata;
 import com.evolveum.midpoint.schema.SelectorOptions;
 import com.evolveum.midpoint.schema.constants.MidPointConstants;
 import com.evolveum.midpoint.schema.constants.ObjectTypes;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.security.api.SecurityUtil;
 import com.evolveum.midpoint.task.api.Task;
@@ -58,6 +65,7 @@ import com.evolveum.midpoint.xml.ns._public.model.scripting_3.ExecuteScriptOutpu
 import com.evolveum.midpoint.xml.ns._public.model.scripting_3.ExecuteScriptType;
 import com.evolveum.midpoint.xml.ns._public.model.scripting_3.ScriptingExpressionType;
 import com.evolveum.prism.xml.ns._public.query_3.QueryType;
+import com.evolveum.prism.xml.ns._public.types_3.ObjectDeltaType;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang.Validate;
@@ -71,11 +79,16 @@ import javax.ws.rs.core.*;
 import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
 import javax.xml.namespace.QName;
+import java.io.IOException;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * @author katkav
@@ -102,6 +115,8 @@ public class ModelRestService {
 	public static final String OPERATION_RESUME_TASKS = CLASS_DOT + "resumeTasks";
 	public static final String OPERATION_SCHEDULE_TASKS_NOW = CLASS_DOT + "scheduleTasksNow";
 	public static final String OPERATION_EXECUTE_SCRIPT = CLASS_DOT + "executeScript";
+	public static final String OPERATION_EXECUTE_CHANGES = CLASS_DOT + "executeChanges";
+	public static final String OPERATION_EXECUTE_CHANGE = CLASS_DOT + "executeChange";
 	public static final String OPERATION_COMPARE = CLASS_DOT + "compare";
 	public static final String OPERATION_GET_LOG_FILE_CONTENT = CLASS_DOT + "getLogFileContent";
 	public static final String OPERATION_GET_LOG_FILE_SIZE = CLASS_DOT + "getLogFileSize";
@@ -112,6 +127,11 @@ public class ModelRestService {
 	public static final String OPERATION_EXECUTE_CREDENTIAL_RESET = CLASS_DOT + "executeCredentialReset";
 	public static final String OPERATION_EXECUTE_CLUSTER_EVENT = CLASS_DOT + "executeClusterEvent";
 
+	public static final String CONTINUATION_TOKEN_HEADER = "ContinuationToken";
+
+	public static final QName OBJECT_DELTA_OPERATION_LIST = new QName(SchemaConstants.NS_API_TYPES, "objectDeltaOperationList");
+	public static final QName DELTA_OPERATION = new QName(SchemaConstants.NS_API_TYPES, "deltaOperation");
+
 	private static final String CURRENT = "current";
 	private static final String VALIDATE = "validate";
 
@@ -452,11 +472,18 @@ public class ModelRestService {
 	@Path("/{type}")
 	@Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON, "application/yaml"})
 	public <T extends ObjectType> Response searchObjectsByType(@PathParam("type") String type, @QueryParam("options") List<String> options,
+			@QueryParam("stream") Boolean stream,
+			@QueryParam("pageSize") Integer pageSize,
+			@QueryParam("continuationToken") String continuationToken,
 			@Context UriInfo uriInfo, @Context MessageContext mc) {
 		Task task = RestServiceUtil.initRequest(mc);
 		OperationResult parentResult = task.getResult().createSubresult(OPERATION_SEARCH_OBJECTS);
 
 		Class<T> clazz = ObjectTypes.getClassFromRestType(type);
+		if (Boolean.TRUE.equals(stream)) {
+			return searchObjectsStreaming(clazz, null, options, null, Collections.emptyList(), pageSize, continuationToken,
+					mc, task, parentResult);
+		}
 		Response response;
 		try {
 
@@ -705,12 +732,19 @@ public class ModelRestService {
 			@QueryParam("options") List<String> options,
 			@QueryParam("include") List<String> include,
 			@QueryParam("exclude") List<String> exclude,
+			@QueryParam("stream") Boolean stream,
+			@QueryParam("pageSize") Integer pageSize,
+			@QueryParam("continuationToken") String continuationToken,
 			@Context MessageContext mc){
 
 		Task task = RestServiceUtil.initRequest(mc);
 		OperationResult parentResult = task.getResult().createSubresult(OPERATION_SEARCH_OBJECTS);
 
 		Class clazz = ObjectTypes.getClassFromRestType(type);
+		if (Boolean.TRUE.equals(stream)) {
+			return searchObjectsStreaming(clazz, queryType, options, include, exclude, pageSize, continuationToken,
+					mc, task, parentResult);
+		}
 		Response response;
 		try {
 			ObjectQuery query = QueryJaxbConvertor.createObjectQuery(clazz, queryType, prismContext);
@@ -738,6 +772,134 @@ public class ModelRestService {
 		object.getValue().removePaths(ItemPath.fromStringList(exclude));
 	}
 
+	/**
+	 * Writes the objects to the response as they are found (see ObjectListStreamWriter), so the server does not need
+	 * to keep all of them in memory. As the status is sent before the search starts, a failure during the search
+	 * cannot be reported by the status. The response is aborted instead, and the client gets an incomplete document.
+	 *
+	 * If pageSize is specified, only one page of objects (ordered by OID) is returned. The continuation token points
+	 * after the last object of the page (by its OID), so the next page does not depend on objects that were added
+	 * or deleted in the meantime. It is sent in the ContinuationToken header; there is no header on the last page.
+	 */
+	private <T extends ObjectType> Response searchObjectsStreaming(Class<T> clazz, QueryType queryType, List<String> options,
+			List<String> include, List<String> exclude, Integer pageSize, String continuationToken, MessageContext mc,
+			Task task, OperationResult parentResult) {
+		Response response;
+		try {
+			ObjectQuery query = queryType != null ? QueryJaxbConvertor.createObjectQuery(clazz, queryType, prismContext) : null;
+			Collection<SelectorOptions<GetOperationOptions>> searchOptions = GetOperationOptions.fromRestOptions(options, include, exclude, DefinitionProcessingOption.ONLY_IF_EXISTS);
+			String nextContinuationToken = null;
+			if (pageSize != null) {
+				if (pageSize <= 0) {
+					throw new SchemaException("Page size must be positive: " + pageSize);
+				}
+				if (query != null && query.getPaging() != null) {
+					throw new SchemaException("Paging in the query cannot be combined with pageSize and continuationToken");
+				}
+				String afterOid = decodeContinuationToken(continuationToken);
+
+				// The headers are sent before the objects, so the end of the page has to be found first:
+				// its last object and whether there is any object after it.
+				ObjectQuery pageEndQuery = createPageQuery(clazz, query, afterOid, null);
+				pageEndQuery.setPaging(ObjectPaging.createPaging(pageSize - 1, 2, new ItemPath(PrismConstants.T_ID), OrderDirection.ASCENDING));
+				List<PrismObject<T>> pageEnd = modelService.searchObjects(clazz, pageEndQuery, searchOptions, task, parentResult);
+				if (pageEnd.size() > 1) {
+					String lastOid = pageEnd.get(0).getOid();
+					nextContinuationToken = encodeContinuationToken(lastOid);
+					// bounded by the token instead of pageSize, so objects added in the meantime are not skipped
+					query = createPageQuery(clazz, query, afterOid, lastOid);
+					query.setPaging(ObjectPaging.createPaging(new ItemPath(PrismConstants.T_ID), OrderDirection.ASCENDING));
+				} else {
+					query = createPageQuery(clazz, query, afterOid, null);
+					query.setPaging(ObjectPaging.createPaging(null, pageSize, new ItemPath(PrismConstants.T_ID), OrderDirection.ASCENDING));
+				}
+			} else if (continuationToken != null) {
+				throw new SchemaException("Continuation token can be used only together with pageSize");
+			}
+			ObjectQuery searchQuery = query;
+			MediaType mediaType = ObjectListStreamWriter.selectMediaType(mc.getHttpHeaders().getAcceptableMediaTypes());
+
+			StreamingOutput output = outputStream -> {
+				try {
+					ObjectListStreamWriter writer = new ObjectListStreamWriter(prismContext, mediaType, outputStream);
+					AtomicReference<Exception> writeFailure = new AtomicReference<>();
+					ResultHandler<T> handler = (object, result) -> {
+						try {
+							removeExcludes(object, exclude);		// temporary measure until fixed in repo
+							writer.write(object);
+							return true;
+						} catch (IOException | SchemaException e) {
+							writeFailure.set(e);
+							return false;
+						}
+					};
+					writer.writeStart();
+					modelService.searchObjectsIterative(clazz, searchQuery, handler, searchOptions, task, parentResult);
+					if (writeFailure.get() != null) {
+						throw writeFailure.get();
+					}
+					writer.writeEnd();
+					LOGGER.debug("Streamed {} objects of type {}", writer.getObjectsWritten(), clazz.getSimpleName());
+				} catch (IOException e) {
+					parentResult.recordFatalError("Couldn't write search results: " + e.getMessage(), e);
+					throw e;
+				} catch (Exception e) {
+					LoggingUtils.logUnexpectedException(LOGGER, "Couldn't stream search results", e);
+					parentResult.recordFatalError("Couldn't stream search results: " + e.getMessage(), e);
+					throw new WebApplicationException(e);
+				} finally {
+					parentResult.computeStatusIfUnknown();
+					finishRequest(task);
+				}
+			};
+
+			ResponseBuilder builder = Response.ok(output, mediaType);
+			if (nextContinuationToken != null) {
+				builder.header(CONTINUATION_TOKEN_HEADER, nextContinuationToken);
+			}
+			return builder.build();
+		} catch (Exception ex) {
+			response = RestServiceUtil.handleException(parentResult, ex);
+		}
+
+		parentResult.computeStatus();
+		finishRequest(task);
+		return response;
+	}
+
+	/**
+	 * @return copy of the query restricted to objects with afterOid &lt; OID &lt;= lastOid (each bound is optional)
+	 */
+	private <T extends ObjectType> ObjectQuery createPageQuery(Class<T> clazz, ObjectQuery query, String afterOid, String lastOid) {
+		ObjectQuery pageQuery = query != null ? query.clone() : new ObjectQuery();
+		if (afterOid != null) {
+			pageQuery.addFilter(QueryBuilder.queryFor(clazz, prismContext).item(PrismConstants.T_ID).gt(afterOid).buildFilter());
+		}
+		if (lastOid != null) {
+			pageQuery.addFilter(QueryBuilder.queryFor(clazz, prismContext).item(PrismConstants.T_ID).le(lastOid).buildFilter());
+		}
+		return pageQuery;
+	}
+
+	private String encodeContinuationToken(String lastOid) {
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(lastOid.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private String decodeContinuationToken(String continuationToken) throws SchemaException {
+		if (continuationToken == null) {
+			return null;
+		}
+		try {
+			String afterOid = new String(Base64.getUrlDecoder().decode(continuationToken), StandardCharsets.UTF_8);
+			if (afterOid.isEmpty()) {
+				throw new SchemaException("Invalid continuation token: " + continuationToken);
+			}
+			return afterOid;
+		} catch (IllegalArgumentException e) {
+			throw new SchemaException("Invalid continuation token: " + continuationToken, e);
+		}
+	}
+
 	@POST
 	@Path("/resources/{resourceOid}/import/{objectClass}")
 	@Consumes({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON, "application/yaml"})
@@ -948,6 +1110,109 @@ public class ModelRestService {
 		return response;
 	}
 
+	/**
+	 * Executes the deltas one by one (each in its own clockwork run), in at most the given number of threads.
+	 * The results (the delta with OID of the added object and the execution result) are written in the order
+	 * of the deltas as soon as they are available, so the number of deltas is not limited by the server memory
+	 * needed for the results (apit:objectDeltaOperationList). A failure of one delta does not stop the execution
+	 * of the others; the operation result of the request contains only the numbers of executed and failed deltas.
+	 */
+	@POST
+	@Path("/rpc/executeChanges")
+	@Consumes({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON, "application/yaml"})
+	@Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON, "application/yaml"})
+	public Response executeChanges(ObjectDeltaListType deltaList,
+			@QueryParam("options") List<String> options,
+			@QueryParam("threads") Integer threads,
+			@Context MessageContext mc) {
+
+		Task task = RestServiceUtil.initRequest(mc);
+		OperationResult parentResult = task.getResult().createSubresult(OPERATION_EXECUTE_CHANGES);
+
+		Response response;
+		try {
+			if (deltaList == null) {
+				throw new SchemaException("No deltas to execute");
+			}
+			ModelExecuteOptions modelExecuteOptions = ModelExecuteOptions.fromRestOptions(options);
+			BulkDeltaExecutor executor = new BulkDeltaExecutor(threads != null ? threads : 1);
+			MediaType mediaType = ObjectListStreamWriter.selectMediaType(mc.getHttpHeaders().getAcceptableMediaTypes());
+			AtomicInteger executed = new AtomicInteger();
+			AtomicInteger failed = new AtomicInteger();
+
+			StreamingOutput output = outputStream -> {
+				try {
+					ObjectListStreamWriter writer = new ObjectListStreamWriter(prismContext, mediaType, OBJECT_DELTA_OPERATION_LIST, outputStream);
+					writer.writeStart();
+					executor.execute(deltaList.getDelta(),
+							delta -> executeDelta(delta, modelExecuteOptions, task),
+							deltaOperation -> {
+								// results of the deltas are returned to the client only, the request result gets the counts
+								executed.incrementAndGet();
+								if (isFailed(deltaOperation)) {
+									failed.incrementAndGet();
+								}
+								writer.writeRealValue(deltaOperation, DELTA_OPERATION);
+								writer.flush();
+							});
+					writer.writeEnd();
+					if (failed.get() > 0) {
+						parentResult.recordPartialError(failed.get() + " out of " + executed.get() + " deltas failed");
+					} else {
+						parentResult.recordSuccess();
+					}
+				} catch (IOException e) {
+					parentResult.recordFatalError("Couldn't write results of delta execution: " + e.getMessage(), e);
+					throw e;
+				} catch (Exception e) {
+					LoggingUtils.logUnexpectedException(LOGGER, "Couldn't execute deltas", e);
+					parentResult.recordFatalError("Couldn't execute deltas: " + e.getMessage(), e);
+					throw new WebApplicationException(e);
+				} finally {
+					parentResult.addReturn("executed", executed.get());
+					parentResult.addReturn("failed", failed.get());
+					parentResult.computeStatusIfUnknown();
+					finishRequest(task);
+				}
+			};
+			return Response.ok(output, mediaType).build();
+		} catch (Exception ex) {
+			response = RestServiceUtil.handleException(parentResult, ex);
+		}
+
+		parentResult.computeStatus();
+		finishRequest(task);
+		return response;
+	}
+
+	private ObjectDeltaOperationType executeDelta(ObjectDeltaType deltaType, ModelExecuteOptions options, Task requestTask) {
+		// tasks are not thread-safe, so each delta gets its own one
+		Task task = taskManager.createTaskInstance(OPERATION_EXECUTE_CHANGE);
+		task.setOwner(requestTask.getOwner());
+		task.setChannel(requestTask.getChannel());
+		OperationResult result = task.getResult();
+
+		ObjectDeltaOperationType deltaOperation = new ObjectDeltaOperationType();
+		deltaOperation.setObjectDelta(deltaType);
+		try {
+			ObjectDelta<? extends ObjectType> delta = DeltaConvertor.createObjectDelta(deltaType, prismContext);
+			modelService.executeChanges(Collections.singleton(delta), options, task, result);
+			// contains the OID of the added object
+			deltaOperation.setObjectDelta(DeltaConvertor.toObjectDeltaType(delta));
+		} catch (Exception ex) {
+			LOGGER.debug("Couldn't execute delta {}: {}", deltaType, ex.getMessage(), ex);
+			result.recordFatalError(ex.getMessage(), ex);
+		}
+		result.computeStatusIfUnknown();
+		deltaOperation.setExecutionResult(result.createOperationResultType());
+		return deltaOperation;
+	}
+
+	private boolean isFailed(ObjectDeltaOperationType deltaOperation) {
+		OperationResultStatusType status = deltaOperation.getExecutionResult().getStatus();
+		return status == OperationResultStatusType.FATAL_ERROR || status == OperationResultStatusType.PARTIAL_ERROR;
+	}
+
 	@POST
 	@Path("/rpc/compare")
 	//	@Produces({"text/html", "application/xml"})
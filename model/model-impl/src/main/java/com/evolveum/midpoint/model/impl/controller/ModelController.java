@@ -25,6 +25,7 @@ import com.evolveum.midpoint.model.api.hooks.HookRegistry;
 import com.evolveum.midpoint.model.api.hooks.ReadHook;
 import com.evolveum.midpoint.model.common.SystemObjectCache;
 import com.evolveum.midpoint.model.impl.ModelObjectResolver;
+import com.evolveum.midpoint.model.impl.expr.ScriptPrecompiler;
 import com.evolveum.midpoint.model.impl.importer.ImportAccountsFromResourceTaskHandler;
 import com.evolveum.midpoint.model.impl.importer.ObjectImporter;
 import com.evolveum.midpoint.model.impl.lens.*;
@@ -153,6 +154,7 @@ public class ModelController implements ModelService, TaskService, WorkflowServi
 	@Autowired private SchemaTransformer schemaTransformer;
 	@Autowired private ObjectMerger objectMerger;
 	@Autowired private SystemObjectCache systemObjectCache;
+	@Autowired private ScriptPrecompiler scriptPrecompiler;
 	@Autowired private EmulatedSearchProvider emulatedSearchProvider;
 	@Autowired private CacheRegistry cacheRegistry;
 	@Autowired private ClockworkMedic clockworkMedic;
@@ -1603,6 +1605,9 @@ public class ModelController implements ModelService, TaskService, WorkflowServi
 		// Initialize provisioning
 		provisioning.postInit(result);
 
+		// in background; resources, templates and roles are already imported at this point
+		scriptPrecompiler.startWarmUp();
+
         if (result.isUnknown()) {
 		    result.computeStatus();
         }
@@ -18,8 +18,10 @@ package com.evolveum.midpoint.model.impl.controller;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import javax.xml.namespace.QName;
 
@@ -39,6 +41,10 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
 import com.evolveum.midpoint.model.api.ModelDiagnosticService;
+import com.evolveum.midpoint.model.common.expression.script.ScriptEvaluator;
+import com.evolveum.midpoint.model.common.expression.script.ScriptExpressionFactory;
+import com.evolveum.midpoint.model.common.expression.script.jsr223.Jsr223ScriptEvaluator;
+import com.evolveum.midpoint.model.impl.expr.ScriptPrecompiler;
 import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.PrismObjectDefinition;
@@ -47,6 +53,7 @@ import com.evolveum.midpoint.prism.polystring.PolyString;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.provisioning.api.ProvisioningService;
 import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.repo.common.expression.ExpressionFactory;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.task.api.Task;
 import com.evolveum.midpoint.util.DebugUtil;
@@ -104,6 +111,15 @@ public class ModelDiagController implements ModelDiagnosticService {
 	@Autowired
 	private MidpointConfiguration midpointConfiguration;
 
+	@Autowired
+	private ExpressionFactory expressionFactory;
+
+	@Autowired
+	private ScriptExpressionFactory scriptExpressionFactory;
+
+	@Autowired
+	private ScriptPrecompiler scriptPrecompiler;
+
 	private RandomString randomString;
 
 	ModelDiagController() {
@@ -207,6 +223,21 @@ public class ModelDiagController implements ModelDiagnosticService {
         return provisioningService.getProvisioningDiag();
     }
 
+	@Override
+	public List<LabeledString> getModelCachesDiag(Task task, OperationResult parentResult) {
+		List<LabeledString> details = new ArrayList<>();
+		details.add(new LabeledString("expressionCache", String.valueOf(expressionFactory.getCache())));
+		for (Map.Entry<String, ScriptEvaluator> entry : scriptExpressionFactory.getEvaluators().entrySet()) {
+			if (entry.getValue() instanceof Jsr223ScriptEvaluator) {
+				details.add(new LabeledString("scriptCache " + entry.getKey(),
+						((Jsr223ScriptEvaluator) entry.getValue()).getScriptCache().toString()));
+			}
+		}
+		details.add(new LabeledString("scriptPrecompilation",
+				(scriptPrecompiler.isWarmUpFinished() ? "finished" : "not finished") + ": " + scriptPrecompiler.getStatistics()));
+		return details;
+	}
+
     private void repositorySelfTestUser(Task task, OperationResult testResult) {
 		OperationResult result = testResult.createSubresult(REPOSITORY_SELF_TEST_USER);
 
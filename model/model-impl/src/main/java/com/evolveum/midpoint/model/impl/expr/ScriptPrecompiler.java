@@ -0,0 +1,300 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.impl.expr;
+
+import com.evolveum.midpoint.model.common.expression.script.ScriptExpressionFactory;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.xnode.ListXNode;
+import com.evolveum.midpoint.prism.xnode.MapXNode;
+import com.evolveum.midpoint.prism.xnode.RootXNode;
+import com.evolveum.midpoint.prism.xnode.XNode;
+import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.schema.GetOperationOptions;
+import com.evolveum.midpoint.schema.ResultHandler;
+import com.evolveum.midpoint.schema.SelectorOptions;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectTemplateType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ScriptExpressionEvaluatorType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.xml.namespace.QName;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compiles scripts found in resources, object templates and roles in advance, so that the first
+ * evaluation of a mapping does not have to wait for the compilation.
+ *
+ * Warm-up is started after the system initialization: objects are read from the repository by a background
+ * thread and their scripts are compiled in parallel. Imported objects are processed in the same way.
+ * Compiled scripts are stored in the caches of the script evaluators (e.g. Jsr223ScriptEvaluator).
+ *
+ * The queue of the compiler threads is bounded: when it is full, the warm-up thread compiles the scripts itself
+ * (so it does not read further objects) and scripts of imported objects are not precompiled at all.
+ * Precompiled scripts never evict other scripts from the caches; see Jsr223ScriptEvaluator.precompile().
+ *
+ * Progress of the warm-up is available via getStatistics(), shown in model caches diagnostics.
+ */
+@Component
+public class ScriptPrecompiler {
+
+	private static final Trace LOGGER = TraceManager.getTrace(ScriptPrecompiler.class);
+
+	private static final String OPERATION_WARM_UP = ScriptPrecompiler.class.getName() + ".warmUp";
+
+	private static final List<Class<? extends ObjectType>> SUPPORTED_TYPES =
+			Arrays.asList(ResourceType.class, ObjectTemplateType.class, RoleType.class);
+
+	private static final QName SCRIPT_ELEMENT_NAME = new QName(SchemaConstants.NS_C, "script");
+	private static final String CODE_LOCAL_NAME = "code";
+
+	private static final int QUEUE_SIZE_PER_THREAD = 50;
+
+	@Autowired private ScriptExpressionFactory scriptExpressionFactory;
+	@Autowired private PrismContext prismContext;
+
+	@Autowired
+	@Qualifier("repositoryService")
+	private RepositoryService repositoryService;
+
+	private ThreadPoolExecutor compilerExecutor;
+
+	private final AtomicInteger objectsScanned = new AtomicInteger();
+	private final AtomicInteger scriptsFound = new AtomicInteger();
+	private final AtomicInteger scriptsCompiled = new AtomicInteger();
+	private final AtomicInteger scriptsSkipped = new AtomicInteger();
+	private final AtomicInteger scriptsFailed = new AtomicInteger();
+	private volatile long warmUpStarted;
+	private volatile long warmUpFinished;
+
+	@PostConstruct
+	public void initialize() {
+		int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+		compilerExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(threads * QUEUE_SIZE_PER_THREAD), createThreadFactory("midPoint script precompiler"));
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		compilerExecutor.shutdownNow();
+	}
+
+	/**
+	 * Starts compiling scripts from all supported objects in the repository. Returns immediately.
+	 */
+	public void startWarmUp() {
+		Thread thread = createThreadFactory("midPoint script warm-up").newThread(this::warmUp);
+		thread.start();
+	}
+
+	private void warmUp() {
+		warmUpStarted = System.currentTimeMillis();
+		warmUpFinished = 0;
+		LOGGER.info("Starting precompilation of scripts in {}", SUPPORTED_TYPES);
+		OperationResult result = new OperationResult(OPERATION_WARM_UP);
+		// one for the scanning itself, so the warm-up cannot finish before all the objects are read
+		AtomicInteger pending = new AtomicInteger(1);
+		for (Class<? extends ObjectType> type : SUPPORTED_TYPES) {
+			try {
+				searchObjects(type, pending, result);
+			} catch (SchemaException | RuntimeException e) {
+				LoggingUtils.logUnexpectedException(LOGGER, "Couldn't read objects of type {} for script precompilation", e,
+						type.getSimpleName());
+			}
+		}
+		finishIfDone(pending);
+	}
+
+	private <O extends ObjectType> void searchObjects(Class<O> type, AtomicInteger pending, OperationResult result)
+			throws SchemaException {
+		ResultHandler<O> handler = (object, parentResult) -> {
+			for (Runnable compilation : createCompilations(object)) {
+				pending.incrementAndGet();
+				boolean submitted = submit(() -> {
+					try {
+						compilation.run();
+					} finally {
+						finishIfDone(pending);
+					}
+				}, true);
+				if (!submitted) {
+					finishIfDone(pending);
+				}
+			}
+			return true;
+		};
+		repositoryService.searchObjectsIterative(type, null, handler,
+				SelectorOptions.createCollection(GetOperationOptions.createReadOnly()), false, result);
+	}
+
+	private void finishIfDone(AtomicInteger pending) {
+		if (pending.decrementAndGet() == 0) {
+			finishWarmUp();
+		}
+	}
+
+	private void finishWarmUp() {
+		warmUpFinished = System.currentTimeMillis();
+		LOGGER.info("Precompilation of scripts finished in {} ms: {}", warmUpFinished - warmUpStarted, getStatistics());
+	}
+
+	/**
+	 * Compiles scripts in the object (e.g. just imported one) in background. Objects of other types are ignored.
+	 */
+	public void precompileAsync(PrismObject<? extends ObjectType> object) {
+		if (object == null || !SUPPORTED_TYPES.contains(object.getCompileTimeClass())) {
+			return;
+		}
+		for (Runnable compilation : createCompilations(object)) {
+			submit(compilation, false);
+		}
+	}
+
+	/**
+	 * @param runIfFull If the queue is full, run the compilation in the current thread instead of skipping it.
+	 */
+	private boolean submit(Runnable compilation, boolean runIfFull) {
+		try {
+			compilerExecutor.execute(compilation);
+			return true;
+		} catch (RejectedExecutionException e) {
+			if (runIfFull && !compilerExecutor.isShutdown()) {
+				compilation.run();
+				return true;
+			}
+			scriptsSkipped.incrementAndGet();
+			LOGGER.debug("Script precompilation rejected (queue full or shutting down): {}", e.getMessage());
+			return false;
+		}
+	}
+
+	private List<Runnable> createCompilations(PrismObject<? extends ObjectType> object) {
+		objectsScanned.incrementAndGet();
+		List<MapXNode> scripts = new ArrayList<>();
+		try {
+			collectScripts(prismContext.xnodeSerializer().serialize(object), scripts);
+		} catch (SchemaException | RuntimeException e) {
+			LOGGER.debug("Couldn't look for scripts in {}: {}", object, e.getMessage(), e);
+			return new ArrayList<>();
+		}
+		scriptsFound.addAndGet(scripts.size());
+		String contextDescription = "precompilation of script in " + object;
+		List<Runnable> compilations = new ArrayList<>();
+		for (MapXNode script : scripts) {
+			compilations.add(() -> compile(script, contextDescription));
+		}
+		return compilations;
+	}
+
+	private void compile(MapXNode script, String contextDescription) {
+		try {
+			ScriptExpressionEvaluatorType scriptType = prismContext.parserFor(new RootXNode(SCRIPT_ELEMENT_NAME, script))
+					.parseRealValue(ScriptExpressionEvaluatorType.class);
+			if (scriptExpressionFactory.precompile(scriptType, contextDescription)) {
+				scriptsCompiled.incrementAndGet();
+			} else {
+				scriptsSkipped.incrementAndGet();
+			}
+		} catch (Throwable t) {
+			// not our business: the error will be reported when the script is evaluated
+			scriptsFailed.incrementAndGet();
+			LOGGER.debug("Couldn't precompile script in {}: {}", contextDescription, t.getMessage(), t);
+		}
+		LOGGER.trace("Script precompilation progress: {}", getStatistics());
+	}
+
+	/**
+	 * Looks for "script" items containing "code". Besides script expression evaluators, this finds e.g.
+	 * provisioning scripts as well. These are skipped later, because their languages have no precompiling evaluators.
+	 */
+	private void collectScripts(XNode xnode, List<MapXNode> scripts) {
+		if (xnode instanceof RootXNode) {
+			collectScripts(((RootXNode) xnode).getSubnode(), scripts);
+		} else if (xnode instanceof ListXNode) {
+			for (XNode item : (ListXNode) xnode) {
+				collectScripts(item, scripts);
+			}
+		} else if (xnode instanceof MapXNode) {
+			for (Map.Entry<QName, XNode> entry : ((MapXNode) xnode).entrySet()) {
+				if (SCRIPT_ELEMENT_NAME.getLocalPart().equals(entry.getKey().getLocalPart())) {
+					collectScriptValues(entry.getValue(), scripts);
+				} else {
+					collectScripts(entry.getValue(), scripts);
+				}
+			}
+		}
+	}
+
+	private void collectScriptValues(XNode xnode, List<MapXNode> scripts) {
+		if (xnode instanceof ListXNode) {
+			for (XNode item : (ListXNode) xnode) {
+				collectScriptValues(item, scripts);
+			}
+		} else if (xnode instanceof MapXNode) {
+			MapXNode map = (MapXNode) xnode;
+			boolean hasCode = false;
+			for (QName key : map.keySet()) {
+				hasCode = hasCode || CODE_LOCAL_NAME.equals(key.getLocalPart());
+			}
+			if (hasCode) {
+				scripts.add(map);
+			} else {
+				collectScripts(map, scripts);
+			}
+		}
+	}
+
+	private ThreadFactory createThreadFactory(String name) {
+		AtomicInteger counter = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, name + " " + counter.incrementAndGet());
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		};
+	}
+
+	public boolean isWarmUpFinished() {
+		return warmUpFinished != 0;
+	}
+
+	public String getStatistics() {
+		int processed = scriptsCompiled.get() + scriptsSkipped.get() + scriptsFailed.get();
+		return "objects=" + objectsScanned + ", scripts=" + processed + "/" + scriptsFound
+				+ " (compiled=" + scriptsCompiled + ", skipped=" + scriptsSkipped + ", failed=" + scriptsFailed + ")";
+	}
+}
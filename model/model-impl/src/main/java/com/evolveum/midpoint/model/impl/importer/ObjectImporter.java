@@ -22,6 +22,7 @@ import com.evolveum.midpoint.common.validator.EventResult;
 import com.evolveum.midpoint.common.validator.Validator;
 import com.evolveum.midpoint.model.api.ModelExecuteOptions;
 import com.evolveum.midpoint.model.api.ModelService;
+import com.evolveum.midpoint.model.impl.expr.ScriptPrecompiler;
 import com.evolveum.midpoint.model.impl.migrator.Migrator;
 import com.evolveum.midpoint.model.impl.util.Utils;
 import com.evolveum.midpoint.prism.*;
@@ -89,6 +90,7 @@ public class ObjectImporter {
     @Autowired private ModelService modelService;
     @Autowired private Clock clock;
 	@Autowired private Migrator migrator;
+	@Autowired private ScriptPrecompiler scriptPrecompiler;
 
     // this method is responsible for computing the operation result!
     public void importObjects(InputStream input, String language, ImportOptionsType options, Task task, OperationResult parentResult) {
@@ -259,6 +261,7 @@ public class ObjectImporter {
 		try {
 			importObjectToRepository(object, options, task, objectResult);
 		    LOGGER.info("Imported object {}", object);
+		    scriptPrecompiler.precompileAsync(object);
 		} catch (SchemaException e) {
 			recordError(objectResult, object, "Schema violation", e);
 		} catch (ObjectAlreadyExistsException e) {
@@ -63,6 +63,7 @@ import com.evolveum.midpoint.schema.internals.InternalsConfig;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.result.OperationResultStatus;
 import com.evolveum.midpoint.schema.util.ShadowUtil;
+import com.evolveum.midpoint.schema.util.SystemConfigurationTypeUtil;
 import com.evolveum.midpoint.security.api.OwnerResolver;
 import com.evolveum.midpoint.security.enforcer.api.AuthorizationParameters;
 import com.evolveum.midpoint.security.enforcer.api.SecurityEnforcer;
@@ -84,8 +85,10 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -121,6 +124,7 @@ public class ChangeExecutor {
 	@Autowired private ModelObjectResolver objectResolver;
 	@Autowired private OperationalDataManager metadataManager;
 	@Autowired private CredentialsProcessor credentialsProcessor;
+	@Autowired private ProjectionExecutionPool projectionExecutionPool;
 
 	private PrismObjectDefinition<UserType> userDefinition = null;
 	private PrismObjectDefinition<ShadowType> shadowDefinition = null;
@@ -229,156 +233,303 @@ public class ChangeExecutor {
 
 			boolean restartRequested = false;
 
-			for (LensProjectionContext projCtx : context.getProjectionContexts()) {
-				if (projCtx.getWave() != context.getExecutionWave()) {
-					continue;
+			List<LensProjectionContext> projectionsToExecute = getProjectionsToExecute(context);
+			int threads = getProjectionExecutionThreads(context);
+			// a nested clockwork (e.g. started by a provisioning operation in a pool thread) executes sequentially
+			if (threads > 1 && projectionsToExecute.size() > 1 && !ProjectionExecutionPool.isExecutingConcurrently()) {
+				restartRequested = executeProjectionsConcurrently(projectionsToExecute, threads, context, task, result);
+			} else {
+				for (LensProjectionContext projCtx : projectionsToExecute) {
+					ProjectionExecution execution = new ProjectionExecution(projCtx,
+							createProjectionSubresult(projCtx, result));
+					try {
+						context.checkAbortRequested();
+						context.reportProgress(new ProgressInformation(RESOURCE_OBJECT_OPERATION,
+								projCtx.getResourceShadowDiscriminator(), ENTERING));
+						executeProjectionDelta(execution, context, task);
+					} catch (Throwable t) {
+						execution.exception = t;
+					}
+					if (finishProjectionExecution(execution, focusContext, context, task)) {
+						restartRequested = true;
+						break; // we will process remaining projections when retrying the wave
+					}
 				}
+			}
 
-				if (!projCtx.isCanProject()) {
-					continue;
-				}
+			// Result computation here needs to be slightly different
+			result.computeStatusComposite();
+			return restartRequested;
 
-				// we should not get here, but just to be sure
-				if (projCtx.getSynchronizationPolicyDecision() == SynchronizationPolicyDecision.IGNORE) {
-					LOGGER.trace("Skipping ignored projection context {}", projCtx.toHumanReadableString());
-					continue;
-				}
+		} catch (Throwable t) {
+			result.recordThrowableIfNeeded(t);      // last resort: to avoid UNKNOWN subresults
+			throw t;
+		}
+	}
 
-				OperationResult subResult = result.createSubresult(
-						OPERATION_EXECUTE_PROJECTION + "." + projCtx.getObjectTypeClass().getSimpleName());
-				subResult.addArbitraryObjectAsContext("discriminator", projCtx.getResourceShadowDiscriminator());
-				if (projCtx.getResource() != null) {
-					subResult.addParam("resource", projCtx.getResource());
-				}
-				try {
+	private <O extends ObjectType> List<LensProjectionContext> getProjectionsToExecute(LensContext<O> context) {
+		List<LensProjectionContext> rv = new ArrayList<>();
+		for (LensProjectionContext projCtx : context.getProjectionContexts()) {
+			if (projCtx.getWave() != context.getExecutionWave()) {
+				continue;
+			}
 
-					context.checkAbortRequested();
+			if (!projCtx.isCanProject()) {
+				continue;
+			}
 
-					context.reportProgress(new ProgressInformation(RESOURCE_OBJECT_OPERATION,
-							projCtx.getResourceShadowDiscriminator(), ENTERING));
+			// we should not get here, but just to be sure
+			if (projCtx.getSynchronizationPolicyDecision() == SynchronizationPolicyDecision.IGNORE) {
+				LOGGER.trace("Skipping ignored projection context {}", projCtx.toHumanReadableString());
+				continue;
+			}
+			rv.add(projCtx);
+		}
+		return rv;
+	}
 
-					executeReconciliationScript(projCtx, context, BeforeAfterType.BEFORE, task, subResult);
+	private <O extends ObjectType> int getProjectionExecutionThreads(LensContext<O> context) {
+		Integer threads = SystemConfigurationTypeUtil.getProjectionExecutionThreads(context.getSystemConfiguration());
+		return threads != null ? threads : 1;
+	}
 
-					ObjectDelta<ShadowType> projDelta = projCtx.getExecutableDelta();
+	private OperationResult createProjectionSubresult(LensProjectionContext projCtx, OperationResult result) {
+		OperationResult subResult = result.createSubresult(
+				OPERATION_EXECUTE_PROJECTION + "." + projCtx.getObjectTypeClass().getSimpleName());
+		subResult.addArbitraryObjectAsContext("discriminator", projCtx.getResourceShadowDiscriminator());
+		if (projCtx.getResource() != null) {
+			subResult.addParam("resource", projCtx.getResource());
+		}
+		return subResult;
+	}
 
-					if (shouldBeDeleted(projDelta, projCtx)) {
-						projDelta = ObjectDelta.createDeleteDelta(projCtx.getObjectTypeClass(), projCtx.getOid(),
-								prismContext);
-					}
+	/**
+	 * Executes the resource operations of projections concurrently. Projections in one wave do not depend on each other
+	 * (see DependencyProcessor), but projections on the same resource (e.g. higher-order contexts) are executed
+	 * sequentially, as one group. The current thread executes one of the groups, the others are executed by the
+	 * projection execution pool.
+	 *
+	 * Only the deltas (and "before" reconciliation scripts) are executed concurrently. Everything that touches
+	 * the focus or the lens context as a whole (links, "after" scripts, error handling, progress reporting) is done
+	 * afterwards in the current thread, in the original order of the projections.
+	 *
+	 * Unlike in the sequential execution, a restart caused by ObjectAlreadyExistsException does not prevent
+	 * the other projections of the wave from being executed. They are recognized as already executed when
+	 * the wave is retried.
+	 */
+	private <O extends ObjectType> boolean executeProjectionsConcurrently(List<LensProjectionContext> projectionContexts,
+			int threads, LensContext<O> context, Task task, OperationResult result)
+			throws ObjectNotFoundException, SchemaException {
+
+		List<ProjectionExecution> executions = new ArrayList<>(projectionContexts.size());
+		Map<Object, List<ProjectionExecution>> groups = new LinkedHashMap<>();
+		for (LensProjectionContext projCtx : projectionContexts) {
+			ProjectionExecution execution = new ProjectionExecution(projCtx, createProjectionSubresult(projCtx, result));
+			executions.add(execution);
+			Object groupKey = projCtx.getResourceOid() != null ? projCtx.getResourceOid() : projCtx;
+			groups.computeIfAbsent(groupKey, k -> new ArrayList<>()).add(execution);
+			context.reportProgress(new ProgressInformation(RESOURCE_OBJECT_OPERATION,
+					projCtx.getResourceShadowDiscriminator(), ENTERING));
+		}
+		LOGGER.trace("Executing {} projection(s) in {} group(s) concurrently", executions.size(), groups.size());
+
+		List<Runnable> groupExecutions = new ArrayList<>(groups.size());
+		for (List<ProjectionExecution> group : groups.values()) {
+			groupExecutions.add(() -> executeProjectionGroup(group, context, task));
+		}
+		try {
+			projectionExecutionPool.execute(groupExecutions, threads);
+		} finally {
+			// requestee was kept set for the other threads while they were running
+			Utils.clearRequestee(task);
+		}
 
-					if (projCtx.getSynchronizationPolicyDecision() == SynchronizationPolicyDecision.BROKEN) {
-						if (context.getFocusContext() != null
-								&& context.getFocusContext().getDelta() != null
-								&& context.getFocusContext().getDelta().isDelete()
-								&& context.getOptions() != null
-								&& ModelExecuteOptions.isForce(context.getOptions())) {
-							if (projDelta == null) {
-								projDelta = ObjectDelta.createDeleteDelta(projCtx.getObjectTypeClass(),
-										projCtx.getOid(), prismContext);
-							}
-						}
-						if (projDelta != null && projDelta.isDelete()) {
+		boolean restartRequested = false;
+		for (ProjectionExecution execution : executions) {
+			if (finishProjectionExecution(execution, context.getFocusContext(), context, task)) {
+				restartRequested = true;
+			}
+		}
+		return restartRequested;
+	}
 
-							executeDelta(projDelta, projCtx, context, null, null, projCtx.getResource(), task,
-									subResult);
+	private <O extends ObjectType> void executeProjectionGroup(List<ProjectionExecution> group, LensContext<O> context,
+			Task task) {
+		for (ProjectionExecution execution : group) {
+			try {
+				context.checkAbortRequested();
+				executeProjectionDelta(execution, context, task);
+			} catch (Throwable t) {
+				execution.exception = t;
+			}
+		}
+	}
 
-						}
-					} else {
+	/**
+	 * Executes the resource operation(s) of given projection. Touches only the projection context and its operation result,
+	 * so it can be run concurrently for independent projections.
+	 */
+	private <O extends ObjectType> void executeProjectionDelta(ProjectionExecution execution, LensContext<O> context, Task task)
+			throws ObjectAlreadyExistsException, ObjectNotFoundException, SchemaException, CommunicationException,
+			ConfigurationException, SecurityViolationException, ExpressionEvaluationException, PreconditionViolationException {
 
-						if (projDelta == null || projDelta.isEmpty()) {
-							if (LOGGER.isTraceEnabled()) {
-								LOGGER.trace("No change for " + projCtx.getResourceShadowDiscriminator());
-							}
-							if (focusContext != null) {
-								updateLinks(focusContext, projCtx, task, subResult);
-							}
+		LensProjectionContext projCtx = execution.projectionContext;
+		OperationResult subResult = execution.result;
 
-							// Make sure post-reconcile delta is always executed,
-							// even if there is no change
-							executeReconciliationScript(projCtx, context, BeforeAfterType.AFTER, task,
-									subResult);
-
-							subResult.computeStatus();
-							subResult.recordNotApplicableIfUnknown();
-							continue;
-
-						} else if (projDelta.isDelete() && projCtx.getResourceShadowDiscriminator() != null
-								&& projCtx.getResourceShadowDiscriminator().getOrder() > 0) {
-							// HACK ... for higher-order context check if this was
-							// already deleted
-							LensProjectionContext lowerOrderContext = LensUtil.findLowerOrderContext(context,
-									projCtx);
-							if (lowerOrderContext != null && lowerOrderContext.isDelete()) {
-								// We assume that this was already executed
-								subResult.setStatus(OperationResultStatus.NOT_APPLICABLE);
-								continue;
-							}
-						}
+		executeReconciliationScript(projCtx, context, BeforeAfterType.BEFORE, task, subResult);
 
-						executeDelta(projDelta, projCtx, context, null, null, projCtx.getResource(), task, subResult);
+		ObjectDelta<ShadowType> projDelta = projCtx.getExecutableDelta();
 
-					}
+		if (shouldBeDeleted(projDelta, projCtx)) {
+			projDelta = ObjectDelta.createDeleteDelta(projCtx.getObjectTypeClass(), projCtx.getOid(),
+					prismContext);
+		}
 
-					subResult.computeStatus();
+		if (projCtx.getSynchronizationPolicyDecision() == SynchronizationPolicyDecision.BROKEN) {
+			if (context.getFocusContext() != null
+					&& context.getFocusContext().getDelta() != null
+					&& context.getFocusContext().getDelta().isDelete()
+					&& context.getOptions() != null
+					&& ModelExecuteOptions.isForce(context.getOptions())) {
+				if (projDelta == null) {
+					projDelta = ObjectDelta.createDeleteDelta(projCtx.getObjectTypeClass(),
+							projCtx.getOid(), prismContext);
+				}
+			}
+			if (projDelta != null && projDelta.isDelete()) {
+
+				executeDelta(projDelta, projCtx, context, null, null, projCtx.getResource(), task,
+						subResult);
+
+			}
+		} else {
+
+			if (projDelta == null || projDelta.isEmpty()) {
+				if (LOGGER.isTraceEnabled()) {
+					LOGGER.trace("No change for " + projCtx.getResourceShadowDiscriminator());
+				}
+				execution.outcome = ProjectionExecutionOutcome.NO_CHANGE;
+				return;
+
+			} else if (projDelta.isDelete() && projCtx.getResourceShadowDiscriminator() != null
+					&& projCtx.getResourceShadowDiscriminator().getOrder() > 0) {
+				// HACK ... for higher-order context check if this was
+				// already deleted
+				LensProjectionContext lowerOrderContext = LensUtil.findLowerOrderContext(context,
+						projCtx);
+				if (lowerOrderContext != null && lowerOrderContext.isDelete()) {
+					// We assume that this was already executed
+					subResult.setStatus(OperationResultStatus.NOT_APPLICABLE);
+					execution.outcome = ProjectionExecutionOutcome.NOT_APPLICABLE;
+					return;
+				}
+			}
+
+			executeDelta(projDelta, projCtx, context, null, null, projCtx.getResource(), task, subResult);
+
+		}
+		execution.outcome = ProjectionExecutionOutcome.EXECUTED;
+	}
+
+	/**
+	 * Updates links, executes "after" reconciliation script and handles exceptions thrown while executing the projection.
+	 * Returns true if the operation has to be restarted.
+	 */
+	private <O extends ObjectType> boolean finishProjectionExecution(ProjectionExecution execution,
+			LensFocusContext<O> focusContext, LensContext<O> context, Task task) throws ObjectNotFoundException, SchemaException {
+
+		LensProjectionContext projCtx = execution.projectionContext;
+		OperationResult subResult = execution.result;
+		try {
+			if (execution.exception == null && execution.outcome != ProjectionExecutionOutcome.NOT_APPLICABLE) {
+				try {
+					if (execution.outcome == ProjectionExecutionOutcome.EXECUTED) {
+						subResult.computeStatus();
+					}
 					if (focusContext != null) {
 						updateLinks(focusContext, projCtx, task, subResult);
 					}
 
+					// Make sure post-reconcile delta is always executed,
+					// even if there is no change
 					executeReconciliationScript(projCtx, context, BeforeAfterType.AFTER, task, subResult);
 
 					subResult.computeStatus();
 					subResult.recordNotApplicableIfUnknown();
+				} catch (Throwable t) {
+					execution.exception = t;
+				}
+			}
 
-				} catch (SchemaException | ObjectNotFoundException | PreconditionViolationException | CommunicationException |
-						ConfigurationException | SecurityViolationException | ExpressionEvaluationException | RuntimeException | Error e) {
-					recordProjectionExecutionException(e, projCtx, subResult, SynchronizationPolicyDecision.BROKEN);
-					
-					// We still want to update the links here. E.g. this may be live sync case where we discovered new account
-					// try to reconcile, but the reconciliation fails. We still want this shadow linked to user.
-					if (focusContext != null) {
-						updateLinks(focusContext, projCtx, task, subResult);
-					}
+			if (execution.exception instanceof ObjectAlreadyExistsException) {
 
-				} catch (ObjectAlreadyExistsException e) {
+				// check if this is a repeated attempt - OAEE was not handled
+				// correctly, e.g. if creating "Users" user in AD, whereas
+				// "Users" is SAM Account Name which is used by a built-in group
+				// - in such case, mark the context as broken
 
-					// check if this is a repeated attempt - OAEE was not handled
-					// correctly, e.g. if creating "Users" user in AD, whereas
-					// "Users" is SAM Account Name which is used by a built-in group
-					// - in such case, mark the context as broken
+				if (isRepeatedAlreadyExistsException(projCtx)) {
+					recordProjectionExecutionException(execution.exception, projCtx, subResult,
+							SynchronizationPolicyDecision.BROKEN);
+					return false;
+				}
 
-					if (isRepeatedAlreadyExistsException(projCtx)) {
-						recordProjectionExecutionException(e, projCtx, subResult,
-								SynchronizationPolicyDecision.BROKEN);
-						continue;
-					}
+				// in his case we do not need to set account context as
+				// broken, instead we need to restart projector for this
+				// context to recompute new account or find out if the
+				// account was already linked..
+				// and also do not set fatal error to the operation result, this
+				// is a special case
+				// if it is fatal, it will be set later
+				// but we need to set some result
+				subResult.recordSuccess();
+				subResult.muteLastSubresultError();
+				return true;
+
+			} else if (execution.exception != null) {
+				recordProjectionExecutionException(execution.exception, projCtx, subResult, SynchronizationPolicyDecision.BROKEN);
 
-					// in his case we do not need to set account context as
-					// broken, instead we need to restart projector for this
-					// context to recompute new account or find out if the
-					// account was already linked..
-					// and also do not set fatal error to the operation result, this
-					// is a special case
-					// if it is fatal, it will be set later
-					// but we need to set some result
-					subResult.recordSuccess();
-					subResult.muteLastSubresultError();
-					restartRequested = true;
-					break; // we will process remaining projections when retrying
-					// the wave
-
-				} finally {
-					context.reportProgress(new ProgressInformation(RESOURCE_OBJECT_OPERATION,
-							projCtx.getResourceShadowDiscriminator(), subResult));
+				// We still want to update the links here. E.g. this may be live sync case where we discovered new account
+				// try to reconcile, but the reconciliation fails. We still want this shadow linked to user.
+				if (focusContext != null) {
+					updateLinks(focusContext, projCtx, task, subResult);
 				}
 			}
+			return false;
 
-			// Result computation here needs to be slightly different
-			result.computeStatusComposite();
-			return restartRequested;
+		} finally {
+			context.reportProgress(new ProgressInformation(RESOURCE_OBJECT_OPERATION,
+					projCtx.getResourceShadowDiscriminator(), subResult));
+		}
+	}
 
-		} catch (Throwable t) {
-			result.recordThrowableIfNeeded(t);      // last resort: to avoid UNKNOWN subresults
-			throw t;
+	private enum ProjectionExecutionOutcome {
+		EXECUTED, NO_CHANGE, NOT_APPLICABLE
+	}
+
+	/**
+	 * State of the execution of one projection. Written by the thread that executes the projection delta;
+	 * read by the current (clockwork) thread after that.
+	 */
+	private static class ProjectionExecution {
+		private final LensProjectionContext projectionContext;
+		private final OperationResult result;
+		private ProjectionExecutionOutcome outcome;
+		private Throwable exception;
+
+		private ProjectionExecution(LensProjectionContext projectionContext, OperationResult result) {
+			this.projectionContext = projectionContext;
+			this.result = result;
+		}
+	}
+
+	/**
+	 * Requestee is set on the (shared) task for each provisioning operation. While projections are executed concurrently
+	 * it must not be cleared until all of them are finished.
+	 */
+	private void clearRequestee(Task task) {
+		if (!ProjectionExecutionPool.isExecutingConcurrently()) {
+			Utils.clearRequestee(task);
 		}
 	}
 
@@ -854,7 +1005,7 @@ public class ChangeExecutor {
 		} catch (Exception ex) {
 			throw new SystemException(ex.getMessage(), ex);
 		} finally {
-			Utils.clearRequestee(task);
+			clearRequestee(task);
 		}
 		// if everything is OK, add result of the situation modification to the
 		// parent result
@@ -918,7 +1069,10 @@ public class ChangeExecutor {
 			}
 
 			// To make sure that the OID is set (e.g. after ADD operation)
-			LensUtil.setContextOid(context, objectContext, objectDelta.getOid());
+			// (the lens context is shared by the threads executing projections concurrently)
+			synchronized (context) {
+				LensUtil.setContextOid(context, objectContext, objectDelta.getOid());
+			}
 
 		} finally {
 
@@ -929,7 +1083,9 @@ public class ChangeExecutor {
 				}
 				LensObjectDeltaOperation<T> objectDeltaOp = LensUtil.createObjectDeltaOperation(
 						objectDelta.clone(), result, objectContext, null, resource);
-				objectContext.addToExecutedDeltas(objectDeltaOp);
+				synchronized (context) {
+					objectContext.addToExecutedDeltas(objectDeltaOp);
+				}
 			}
 
 			if (LOGGER.isDebugEnabled()) {
@@ -1441,7 +1597,7 @@ public class ChangeExecutor {
 		}
 		Utils.setRequestee(task, context);
 		String oid = provisioning.addObject(object, scripts, options, task, result);
-		Utils.clearRequestee(task);
+		clearRequestee(task);
 		return oid;
 	}
 
@@ -1470,7 +1626,7 @@ public class ChangeExecutor {
 		}
 		Utils.setRequestee(task, context);
 		provisioning.deleteObject(objectTypeClass, oid, options, scripts, task, result);
-		Utils.clearRequestee(task);
+		clearRequestee(task);
 	}
 
 	private <F extends ObjectType, T extends ObjectType> String modifyProvisioningObject(
@@ -1504,7 +1660,7 @@ public class ChangeExecutor {
 		Utils.setRequestee(task, context);
 		String changedOid = provisioning.modifyObject(objectTypeClass, oid, modifications, scripts, options,
 				task, result);
-		Utils.clearRequestee(task);
+		clearRequestee(task);
 		return changedOid;
 	}
 
@@ -1750,7 +1906,7 @@ public class ChangeExecutor {
 			for (OperationProvisioningScriptType script : evaluatedScript.getScript()) {
 				Utils.setRequestee(task, context);
 				scriptResult = provisioning.executeScript(resource.getOid(), script, task, parentResult);
-				Utils.clearRequestee(task);
+				clearRequestee(task);
 			}
 		} finally {
 			ModelExpressionThreadLocalHolder.popExpressionEnvironment();
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.impl.lens;
+
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Threads that execute projection changes concurrently (see ChangeExecutor). The pool is shared by all clockwork
+ * executions on the node, so the number of threads bounds the number of concurrent projection operations
+ * started this way. It is created on first use and resized when the configured number of threads changes.
+ * Idle threads are terminated after a while.
+ *
+ * A task executed this way must not wait for the pool again (e.g. when a nested clockwork executes its own projections):
+ * with all threads waiting, the pool would be starved. So nested executions run sequentially in the current thread.
+ */
+@Component
+public class ProjectionExecutionPool {
+
+	private static final Trace LOGGER = TraceManager.getTrace(ProjectionExecutionPool.class);
+
+	private static final long KEEP_ALIVE_SECONDS = 60;
+
+	private static final ThreadLocal<Boolean> EXECUTING_CONCURRENTLY = new ThreadLocal<>();
+
+	private ThreadPoolExecutor executor;
+
+	/**
+	 * True if the current thread executes a task of a concurrent execution, i.e. other tasks may run at the same time.
+	 */
+	public static boolean isExecutingConcurrently() {
+		return Boolean.TRUE.equals(EXECUTING_CONCURRENTLY.get()) || Thread.currentThread() instanceof PoolThread;
+	}
+
+	/**
+	 * Executes the tasks concurrently and waits for all of them. The first one is executed in the current thread,
+	 * the others in the pool, with the security context of the current thread. If the current thread is already
+	 * executing concurrently, all the tasks are executed sequentially in it.
+	 *
+	 * Tasks should not throw exceptions; if they do, the first one is rethrown (wrapped) after all of them finish.
+	 */
+	public void execute(List<Runnable> tasks, int threads) {
+		if (isExecutingConcurrently()) {
+			LOGGER.trace("Already executing concurrently, executing {} task(s) sequentially", tasks.size());
+			for (Runnable task : tasks) {
+				executeMarked(task);
+			}
+			return;
+		}
+		SecurityContext securityContext = SecurityContextHolder.getContext();
+		ExecutorService executor = getExecutor(threads);
+		List<Future<?>> futures = new ArrayList<>(tasks.size());
+		for (Runnable task : tasks.subList(1, tasks.size())) {
+			futures.add(executor.submit(() -> {
+				SecurityContextHolder.setContext(securityContext);
+				try {
+					executeMarked(task);
+				} finally {
+					SecurityContextHolder.clearContext();
+				}
+			}));
+		}
+		RuntimeException firstException = null;
+		try {
+			executeMarked(tasks.get(0));
+		} catch (RuntimeException e) {
+			firstException = e;
+		}
+		try {
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					if (firstException == null) {
+						firstException = new SystemException("Unexpected exception in concurrent execution: "
+								+ e.getCause().getMessage(), e.getCause());
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SystemException("Interrupted while waiting for concurrent execution to complete", e);
+		}
+		if (firstException != null) {
+			throw firstException;
+		}
+	}
+
+	private void executeMarked(Runnable task) {
+		Boolean previous = EXECUTING_CONCURRENTLY.get();
+		EXECUTING_CONCURRENTLY.set(true);
+		try {
+			task.run();
+		} finally {
+			if (previous != null) {
+				EXECUTING_CONCURRENTLY.set(previous);
+			} else {
+				EXECUTING_CONCURRENTLY.remove();
+			}
+		}
+	}
+
+	synchronized ExecutorService getExecutor(int threads) {
+		if (executor == null) {
+			LOGGER.debug("Creating projection execution pool with {} threads", threads);
+			executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<>(), createThreadFactory("midPoint projection executor"));
+			executor.allowCoreThreadTimeOut(true);
+		} else if (executor.getMaximumPoolSize() != threads) {
+			LOGGER.debug("Resizing projection execution pool from {} to {} threads", executor.getMaximumPoolSize(), threads);
+			// core size must not exceed the maximum size at any moment
+			if (threads > executor.getMaximumPoolSize()) {
+				executor.setMaximumPoolSize(threads);
+				executor.setCorePoolSize(threads);
+			} else {
+				executor.setCorePoolSize(threads);
+				executor.setMaximumPoolSize(threads);
+			}
+		}
+		return executor;
+	}
+
+	@PreDestroy
+	public synchronized void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	private ThreadFactory createThreadFactory(String name) {
+		AtomicInteger counter = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new PoolThread(runnable, name + " " + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	private static class PoolThread extends Thread {
+		private PoolThread(Runnable runnable, String name) {
+			super(runnable, name);
+		}
+	}
+}
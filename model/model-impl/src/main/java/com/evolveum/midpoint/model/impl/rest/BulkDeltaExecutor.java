@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.model.impl.rest;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectDeltaOperationType;
+import com.evolveum.prism.xml.ns._public.types_3.ObjectDeltaType;
+
+/**
+ * Executes a list of deltas in a bounded number of threads and hands over the results in the order of the deltas,
+ * as soon as they are available. Only a limited number of deltas is submitted ahead of the first unfinished one,
+ * so if the results cannot be written (e.g. the client reads them slowly), the execution waits as well.
+ *
+ * The threads run with the security context of the calling thread. They are created for each execution,
+ * as bulk requests are expected to be long and infrequent.
+ */
+public class BulkDeltaExecutor {
+
+	public static final int MAX_THREADS = 8;
+
+	@FunctionalInterface
+	public interface DeltaExecution {
+
+		/**
+		 * Executes the delta. Must not throw exceptions; failures are to be recorded in the returned execution result.
+		 */
+		ObjectDeltaOperationType execute(ObjectDeltaType delta);
+	}
+
+	@FunctionalInterface
+	public interface ResultWriter {
+		void write(ObjectDeltaOperationType result) throws IOException, SchemaException;
+	}
+
+	private final int threads;
+
+	public BulkDeltaExecutor(int threads) {
+		this.threads = Math.max(1, Math.min(threads, MAX_THREADS));
+	}
+
+	public void execute(List<ObjectDeltaType> deltas, DeltaExecution execution, ResultWriter resultWriter)
+			throws IOException, SchemaException {
+		if (threads == 1) {
+			for (ObjectDeltaType delta : deltas) {
+				resultWriter.write(execution.execute(delta));
+			}
+			return;
+		}
+
+		SecurityContext securityContext = SecurityContextHolder.getContext();
+		ExecutorService executor = Executors.newFixedThreadPool(threads, createThreadFactory());
+		Deque<Future<ObjectDeltaOperationType>> pending = new ArrayDeque<>();
+		try {
+			Iterator<ObjectDeltaType> iterator = deltas.iterator();
+			while (iterator.hasNext() || !pending.isEmpty()) {
+				// keep the threads busy while the oldest result is being waited for
+				while (iterator.hasNext() && pending.size() < threads * 2) {
+					ObjectDeltaType delta = iterator.next();
+					pending.add(executor.submit(() -> {
+						SecurityContextHolder.setContext(securityContext);
+						try {
+							return execution.execute(delta);
+						} finally {
+							SecurityContextHolder.clearContext();
+						}
+					}));
+				}
+				resultWriter.write(getResult(pending.removeFirst()));
+			}
+		} finally {
+			// deltas that have not been started are not executed; the running ones are let to finish
+			pending.forEach(future -> future.cancel(false));
+			executor.shutdown();
+		}
+	}
+
+	private ObjectDeltaOperationType getResult(Future<ObjectDeltaOperationType> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SystemException("Interrupted while waiting for execution of deltas", e);
+		} catch (ExecutionException e) {
+			// shouldn't occur, as the execution records all failures in the result
+			throw new SystemException("Unexpected exception while executing delta: " + e.getCause().getMessage(), e.getCause());
+		}
+	}
+
+	private ThreadFactory createThreadFactory() {
+		AtomicInteger counter = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, "midPoint REST delta executor " + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+}
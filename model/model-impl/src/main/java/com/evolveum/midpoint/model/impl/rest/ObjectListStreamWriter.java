@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.model.impl.rest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import javax.ws.rs.core.MediaType;
+import javax.xml.namespace.QName;
+
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismSerializer;
+import com.evolveum.midpoint.prism.SerializationOptions;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.util.exception.SchemaException;
+
+/**
+ * Writes objects to the output stream one by one, as they are returned by an iterative search, so the whole
+ * list does not have to be kept in memory. The result has the same form as files with more objects,
+ * so it can be read by the prism parser (also iteratively):
+ *
+ * - XML: objects enclosed in the c:objects element,
+ * - JSON: array of objects,
+ * - YAML: one document per object.
+ *
+ * Other values (e.g. results of bulk operations) can be written in the same way, under a different aggregate element.
+ *
+ * Not thread-safe.
+ */
+public class ObjectListStreamWriter {
+
+	public static final MediaType APPLICATION_YAML_TYPE = new MediaType("application", "yaml");
+
+	private enum Format { XML, JSON, YAML }
+
+	private final Format format;
+	private final PrismSerializer<String> serializer;
+	private final QName aggregateElementName;
+	private final OutputStream outputStream;
+	private int objectsWritten;
+
+	public ObjectListStreamWriter(PrismContext prismContext, MediaType mediaType, OutputStream outputStream) {
+		this(prismContext, mediaType, SchemaConstants.C_OBJECTS, outputStream);
+	}
+
+	public ObjectListStreamWriter(PrismContext prismContext, MediaType mediaType, QName aggregateElementName,
+			OutputStream outputStream) {
+		this.format = getFormat(mediaType);
+		this.aggregateElementName = aggregateElementName;
+		this.outputStream = outputStream;
+		PrismSerializer<String> languageSerializer;
+		switch (format) {
+			case JSON: languageSerializer = prismContext.jsonSerializer(); break;
+			case YAML: languageSerializer = prismContext.yamlSerializer(); break;
+			default: languageSerializer = prismContext.xmlSerializer();
+		}
+		this.serializer = languageSerializer.options(SerializationOptions.createSerializeReferenceNames());
+	}
+
+	/**
+	 * @return the first of the acceptable media types that is supported (XML if there is none)
+	 */
+	public static MediaType selectMediaType(List<MediaType> acceptableMediaTypes) {
+		if (acceptableMediaTypes != null) {
+			for (MediaType acceptable : acceptableMediaTypes) {
+				if (MediaType.APPLICATION_XML_TYPE.isCompatible(acceptable)) {
+					return MediaType.APPLICATION_XML_TYPE;
+				} else if (MediaType.APPLICATION_JSON_TYPE.isCompatible(acceptable)) {
+					return MediaType.APPLICATION_JSON_TYPE;
+				} else if (APPLICATION_YAML_TYPE.isCompatible(acceptable)) {
+					return APPLICATION_YAML_TYPE;
+				}
+			}
+		}
+		return MediaType.APPLICATION_XML_TYPE;
+	}
+
+	public void writeStart() throws IOException {
+		switch (format) {
+			case XML: write("<" + aggregateElementName.getLocalPart() + " xmlns=\"" + aggregateElementName.getNamespaceURI() + "\">\n"); break;
+			case JSON: write("[\n"); break;
+			default: // nothing to do
+		}
+		outputStream.flush();
+	}
+
+	public void write(PrismObject<?> object) throws IOException, SchemaException {
+		writeSerialized(serializer.serialize(object));
+	}
+
+	public void writeRealValue(Object value, QName elementName) throws IOException, SchemaException {
+		writeSerialized(serializer.serializeRealValue(value, elementName));
+	}
+
+	private void writeSerialized(String serialized) throws IOException {
+		switch (format) {
+			case JSON:
+				if (objectsWritten > 0) {
+					write(",\n");
+				}
+				break;
+			case YAML:
+				if (!serialized.startsWith("---")) {
+					write("---\n");
+				}
+				break;
+			default: // nothing to do
+		}
+		write(serialized);
+		write("\n");
+		objectsWritten++;
+	}
+
+	public void writeEnd() throws IOException {
+		switch (format) {
+			case XML: write("</" + aggregateElementName.getLocalPart() + ">\n"); break;
+			case JSON: write("]\n"); break;
+			default: // nothing to do
+		}
+		outputStream.flush();
+	}
+
+	public void flush() throws IOException {
+		outputStream.flush();
+	}
+
+	public int getObjectsWritten() {
+		return objectsWritten;
+	}
+
+	private void write(String text) throws IOException {
+		outputStream.write(text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static Format getFormat(MediaType mediaType) {
+		if (MediaType.APPLICATION_JSON_TYPE.isCompatible(mediaType)) {
+			return Format.JSON;
+		} else if (APPLICATION_YAML_TYPE.isCompatible(mediaType)) {
+			return Format.YAML;
+		} else {
+			return Format.XML;
+		}
+	}
+}
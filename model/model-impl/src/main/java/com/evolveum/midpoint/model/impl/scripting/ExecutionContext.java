@@ -39,15 +39,18 @@ import java.util.Map;
 public class ExecutionContext {
     private static final Trace LOGGER = TraceManager.getTrace(ExecutionContext.class);
 
+    public static final int DEFAULT_STREAMING_BATCH_SIZE = 0;               // no streaming unless requested
+
     private final boolean privileged;
     private final ScriptingExpressionEvaluationOptionsType options;
     private final Task task;
     private final ScriptingExpressionEvaluator scriptingExpressionEvaluator;
-    private final StringBuilder consoleOutput = new StringBuilder();
+    private final StringBuffer consoleOutput;                                      // shared with worker contexts, hence StringBuffer
     private final Map<String, PipelineData> globalVariables = new HashMap<>();      // will probably remain unused
     private final Map<String, Object> initialVariables;                             // used e.g. when there are no data in a pipeline; these are frozen - i.e. made immutable if possible; to be cloned-on-use
     private PipelineData finalOutput;                                        // used only when passing result to external clients (TODO do this more cleanly)
     private final boolean recordProgressAndIterationStatistics;
+    private final boolean worker;                                                   // executing in a worker thread of a parallel pipeline stage
 
     public ExecutionContext(ScriptingExpressionEvaluationOptionsType options, Task task,
             ScriptingExpressionEvaluator scriptingExpressionEvaluator,
@@ -58,6 +61,27 @@ public class ExecutionContext {
         this.privileged = privileged;
         this.initialVariables = initialVariables;
         this.recordProgressAndIterationStatistics = recordProgressAndIterationStatistics;
+        this.consoleOutput = new StringBuffer();
+        this.worker = false;
+    }
+
+    private ExecutionContext(ExecutionContext parent, Task workerTask) {
+        this.options = parent.options;
+        this.task = workerTask;
+        this.scriptingExpressionEvaluator = parent.scriptingExpressionEvaluator;
+        this.privileged = parent.privileged;
+        this.initialVariables = parent.initialVariables;
+        this.recordProgressAndIterationStatistics = parent.recordProgressAndIterationStatistics;
+        this.consoleOutput = parent.consoleOutput;
+        this.worker = true;
+    }
+
+    /**
+     * Creates a context for a worker thread (lightweight subtask) executing a part of the pipeline.
+     * The console output is shared with this context; global variables are not.
+     */
+    ExecutionContext createWorkerContext(Task workerTask) {
+        return new ExecutionContext(this, workerTask);
     }
 
 	public Task getTask() {
@@ -76,6 +100,11 @@ public class ExecutionContext {
         return options != null && Boolean.TRUE.equals(options.isHideOperationResults());
     }
 
+    public int getStreamingBatchSize() {
+        Integer size = options != null ? options.getStreamingBatchSize() : null;
+        return size != null ? size : DEFAULT_STREAMING_BATCH_SIZE;
+    }
+
 	public PipelineData getGlobalVariable(String name) {
         return globalVariables.get(name);
     }
@@ -93,7 +122,9 @@ public class ExecutionContext {
     }
 
     public void println(Object o) {
-        consoleOutput.append(o).append("\n");
+        synchronized (consoleOutput) {
+            consoleOutput.append(o).append("\n");
+        }
         if (o != null) {
             LOGGER.info("Script console message: {}", o);          // temporary, until some better way of logging bulk action executions is found
         }
@@ -151,4 +182,8 @@ public class ExecutionContext {
     public boolean isPrivileged() {
         return privileged;
     }
+
+    public boolean isWorker() {
+        return worker;
+    }
 }
@@ -67,6 +67,9 @@ public class ScriptingExpressionEvaluator {
     private static final Trace LOGGER = TraceManager.getTrace(ScriptingExpressionEvaluator.class);
     private static final String DOT_CLASS = ScriptingExpressionEvaluator.class + ".";
 
+    // actions with this parameter may need the whole input at once (see e.g. ScriptExecutor, NotifyExecutor)
+    private static final String PARAM_FOR_WHOLE_INPUT = "forWholeInput";
+
     @Autowired private TaskManager taskManager;
     @Autowired private SearchEvaluator searchEvaluator;
     @Autowired private SelectEvaluator selectEvaluator;
@@ -232,12 +235,39 @@ public class ScriptingExpressionEvaluator {
     }
 
     private PipelineData executePipeline(ExpressionPipelineType pipeline, PipelineData data, ExecutionContext context, OperationResult result) throws ScriptExecutionException {
-        for (JAXBElement<? extends ScriptingExpressionType> expressionType : pipeline.getScriptingExpression()) {
+        List<JAXBElement<? extends ScriptingExpressionType>> expressions = pipeline.getScriptingExpression();
+        int batchSize = context.getStreamingBatchSize();
+        if (batchSize > 0 && expressions.size() > 1 && expressions.get(0).getValue() instanceof SearchExpressionType
+                && !hasWholeInputAction(expressions)) {
+            // objects found are sent through the rest of the pipeline in batches, as they come
+            return new StreamingPipelineEvaluator(this, taskManager, expressions.subList(1, expressions.size()),
+                    batchSize, context, result)
+                    .evaluate(searchEvaluator, (SearchExpressionType) expressions.get(0).getValue(), data);
+        }
+        for (JAXBElement<? extends ScriptingExpressionType> expressionType : expressions) {
             data = evaluateExpression(expressionType, data, context, result);
         }
         return data;
     }
 
+    /**
+     * Streaming would give these actions one batch at a time instead of the whole search result.
+     */
+    private boolean hasWholeInputAction(List<JAXBElement<? extends ScriptingExpressionType>> expressions) {
+        for (JAXBElement<? extends ScriptingExpressionType> expression : expressions) {
+            if (expression.getValue() instanceof ActionExpressionType) {
+                for (ActionParameterValueType parameter : ((ActionExpressionType) expression.getValue()).getParameter()) {
+                    if (PARAM_FOR_WHOLE_INPUT.equals(parameter.getName())) {
+                        LOGGER.debug("Not streaming the pipeline, as its action '{}' may require the whole input",
+                                ((ActionExpressionType) expression.getValue()).getType());
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
     private PipelineData executeSequence(ExpressionSequenceType sequence, PipelineData input, ExecutionContext context, OperationResult result) throws ScriptExecutionException {
         PipelineData lastOutput = null;
         List<JAXBElement<? extends ScriptingExpressionType>> scriptingExpression = sequence.getScriptingExpression();
@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.model.impl.scripting;
+
+import com.evolveum.midpoint.model.api.PipelineItem;
+import com.evolveum.midpoint.model.api.ScriptExecutionException;
+import com.evolveum.midpoint.model.impl.scripting.expressions.SearchEvaluator;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.result.OperationResultStatus;
+import com.evolveum.midpoint.task.api.LightweightTaskHandler;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.task.api.TaskManager;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.model.scripting_3.ActionExpressionType;
+import com.evolveum.midpoint.xml.ns._public.model.scripting_3.ScriptingExpressionType;
+import com.evolveum.midpoint.xml.ns._public.model.scripting_3.SearchExpressionType;
+import org.apache.commons.lang3.BooleanUtils;
+
+import javax.xml.bind.JAXBElement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluates a pipeline that starts with a search in a streaming way: objects found are collected into batches
+ * and each batch is sent through the remaining stages as soon as it is complete. So, unlike in the plain pipeline
+ * evaluation, no stage needs to have the whole set of objects in memory.
+ *
+ * Action stages with workerThreads set are executed in parallel: each batch is split among worker threads
+ * (lightweight subtasks of the current task), which are started on the first batch and reused for the
+ * following ones. The batch is finished by all the workers before it is passed to the next stage.
+ *
+ * An instance is used for a single evaluation of a pipeline.
+ */
+class StreamingPipelineEvaluator {
+
+    private static final Trace LOGGER = TraceManager.getTrace(StreamingPipelineEvaluator.class);
+
+    private static final String DOT_CLASS = StreamingPipelineEvaluator.class.getName() + ".";
+
+    private static final int WORKER_THREAD_WAIT_FOR_REQUEST = 500;
+    private static final int WAIT_FOR_WORKERS_INTERVAL = 500;
+
+    private final ScriptingExpressionEvaluator scriptingExpressionEvaluator;
+    private final TaskManager taskManager;
+    private final List<JAXBElement<? extends ScriptingExpressionType>> stages;    // stages after the search
+    private final int batchSize;
+    private final ExecutionContext context;
+    private final OperationResult result;
+
+    private PipelineData currentBatch = PipelineData.createEmpty();
+    private PipelineData output;                                                     // null if not aggregated
+    private int batchesProcessed;
+    private Boolean workersUsable;                                                   // determined on first parallel stage
+    private final Map<Integer, ParallelStage> parallelStages = new HashMap<>();
+
+    StreamingPipelineEvaluator(ScriptingExpressionEvaluator scriptingExpressionEvaluator, TaskManager taskManager,
+            List<JAXBElement<? extends ScriptingExpressionType>> stages, int batchSize, ExecutionContext context,
+            OperationResult result) {
+        this.scriptingExpressionEvaluator = scriptingExpressionEvaluator;
+        this.taskManager = taskManager;
+        this.stages = stages;
+        this.batchSize = batchSize;
+        this.context = context;
+        this.result = result;
+    }
+
+    PipelineData evaluate(SearchEvaluator searchEvaluator, SearchExpressionType search, PipelineData input)
+            throws ScriptExecutionException {
+        output = BooleanUtils.isFalse(search.isAggregateOutput()) ? null : PipelineData.createEmpty();
+        try {
+            searchEvaluator.evaluate(search, input, this::push, context, result);
+            // the stages are evaluated also if nothing was found, just like in non-streaming mode
+            if (!currentBatch.getData().isEmpty() || batchesProcessed == 0) {
+                processBatch();
+            }
+        } finally {
+            stopWorkers();
+        }
+        return output != null ? output : PipelineData.createEmpty();
+    }
+
+    private void push(PipelineData data) throws ScriptExecutionException {
+        currentBatch.addAllFrom(data);
+        if (currentBatch.getData().size() >= batchSize) {
+            processBatch();
+        }
+    }
+
+    private void processBatch() throws ScriptExecutionException {
+        PipelineData data = currentBatch;
+        currentBatch = PipelineData.createEmpty();
+        LOGGER.trace("Processing batch #{} with {} item(s)", batchesProcessed + 1, data.getData().size());
+        for (int i = 0; i < stages.size(); i++) {
+            data = evaluateStage(i, data);
+        }
+        if (output != null) {
+            output.addAllFrom(data);
+        }
+        batchesProcessed++;
+        result.setSummarizeSuccesses(true);
+        result.summarize();
+    }
+
+    private PipelineData evaluateStage(int index, PipelineData data) throws ScriptExecutionException {
+        ScriptingExpressionType stage = stages.get(index).getValue();
+        ParallelStage parallelStage = getParallelStage(index, stage);
+        if (parallelStage != null && !data.getData().isEmpty()) {
+            return parallelStage.evaluate(data);
+        } else {
+            return scriptingExpressionEvaluator.evaluateExpression(stage, data, context, result);
+        }
+    }
+
+    private ParallelStage getParallelStage(int index, ScriptingExpressionType stage) {
+        if (!(stage instanceof ActionExpressionType)) {
+            return null;
+        }
+        Integer workerThreads = ((ActionExpressionType) stage).getWorkerThreads();
+        if (workerThreads == null || workerThreads <= 1 || !isWorkersUsable()) {
+            return null;
+        }
+        return parallelStages.computeIfAbsent(index, i -> new ParallelStage((ActionExpressionType) stage, workerThreads));
+    }
+
+    /**
+     * Workers are lightweight subtasks, so we need a task with an owner. Privileged execution relies on the security
+     * context of the current thread, so it cannot be delegated to workers. Nested parallelism is not supported.
+     */
+    private boolean isWorkersUsable() {
+        if (workersUsable == null) {
+            Task task = context.getTask();
+            workersUsable = task != null && task.getOwner() != null && !context.isPrivileged() && !context.isWorker();
+            if (!workersUsable) {
+                LOGGER.debug("Worker threads cannot be used in this context, executing actions in the current thread. Task = {}", task);
+            }
+        }
+        return workersUsable;
+    }
+
+    private void stopWorkers() {
+        if (parallelStages.isEmpty()) {
+            return;
+        }
+        parallelStages.values().forEach(stage -> stage.allItemsSubmitted = true);
+        taskManager.waitForTransientChildren(context.getTask(), result);
+        for (ParallelStage stage : parallelStages.values()) {
+            for (OperationResult workerSpecificResult : stage.workerSpecificResults) {
+                workerSpecificResult.computeStatus();
+                workerSpecificResult.summarize();
+                result.addSubresult(workerSpecificResult);
+            }
+        }
+    }
+
+    /**
+     * Part of a batch to be processed by a single worker.
+     */
+    private static class Chunk {
+        private final PipelineData input = PipelineData.createEmpty();
+        private final CountDownLatch done;
+        private PipelineData output;
+        private Throwable exception;
+
+        private Chunk(CountDownLatch done) {
+            this.done = done;
+        }
+    }
+
+    private class ParallelStage {
+
+        private final ActionExpressionType action;
+        private final int threadsCount;
+        private final BlockingQueue<Chunk> requestQueue;
+        private final List<OperationResult> workerSpecificResults;
+        private volatile boolean allItemsSubmitted = false;
+
+        private ParallelStage(ActionExpressionType action, int threadsCount) {
+            this.action = action;
+            this.threadsCount = threadsCount;
+            // there are at most threadsCount chunks waiting, as we wait for each batch to be completed
+            this.requestQueue = new ArrayBlockingQueue<>(threadsCount);
+            this.workerSpecificResults = new ArrayList<>(threadsCount);
+            startWorkers();
+        }
+
+        private void startWorkers() {
+            Task coordinatorTask = context.getTask();
+            for (int i = 0; i < threadsCount; i++) {
+                // we intentionally do not put worker specific result under main operation result until the workers are done
+                OperationResult workerSpecificResult = new OperationResult(DOT_CLASS + "executeAsynchronously");
+                workerSpecificResult.addContext("action", action.getType());
+                workerSpecificResult.addContext("subtaskIndex", i+1);
+                workerSpecificResults.add(workerSpecificResult);
+
+                Task subtask = coordinatorTask.createSubtask(new WorkerHandler(workerSpecificResult));
+                if (context.isRecordProgressAndIterationStatistics()) {
+                    subtask.resetIterativeTaskInformation(null);
+                    subtask.resetActionsExecutedInformation(null);
+                }
+                subtask.setCategory(coordinatorTask.getCategory());
+                subtask.setResult(new OperationResult(DOT_CLASS + "executeWorker", OperationResultStatus.IN_PROGRESS, (String) null));
+                subtask.setName("Worker thread " + (i+1) + " of " + threadsCount + " for action " + action.getType());
+                subtask.startLightweightHandler();
+                LOGGER.trace("Worker subtask {} created", subtask);
+            }
+        }
+
+        private PipelineData evaluate(PipelineData input) throws ScriptExecutionException {
+            List<PipelineItem> items = input.getData();
+            int chunksCount = Math.min(threadsCount, items.size());
+            CountDownLatch done = new CountDownLatch(chunksCount);
+            List<Chunk> chunks = new ArrayList<>(chunksCount);
+            for (int i = 0; i < chunksCount; i++) {
+                chunks.add(new Chunk(done));
+            }
+            for (int i = 0; i < items.size(); i++) {
+                chunks.get(i % chunksCount).input.add(items.get(i));
+            }
+            requestQueue.addAll(chunks);
+            try {
+                while (!done.await(WAIT_FOR_WORKERS_INTERVAL, TimeUnit.MILLISECONDS)) {
+                    context.checkTaskStop();
+                }
+            } catch (InterruptedException e) {
+                throw new SystemException("Interrupted while waiting for worker threads executing action " + action.getType(), e);
+            }
+
+            PipelineData output = PipelineData.createEmpty();
+            for (Chunk chunk : chunks) {
+                if (chunk.exception instanceof ScriptExecutionException) {
+                    throw (ScriptExecutionException) chunk.exception;
+                } else if (chunk.exception instanceof RuntimeException) {
+                    throw (RuntimeException) chunk.exception;
+                } else if (chunk.exception != null) {
+                    throw new SystemException(chunk.exception.getMessage(), chunk.exception);
+                }
+                output.addAllFrom(chunk.output);
+            }
+            Task task = context.getTask();
+            if (context.isRecordProgressAndIterationStatistics()) {
+                // workers record the progress in their own subtasks
+                task.setProgress(task.getProgress() + items.size());
+            }
+            return output;
+        }
+
+        private class WorkerHandler implements LightweightTaskHandler {
+            private final OperationResult workerSpecificResult;
+
+            private WorkerHandler(OperationResult workerSpecificResult) {
+                this.workerSpecificResult = workerSpecificResult;
+            }
+
+            @Override
+            public void run(Task workerTask) {
+                workerSpecificResult.addArbitraryObjectAsContext("subtaskName", workerTask.getName());
+                ExecutionContext workerContext = context.createWorkerContext(workerTask);
+                while (workerTask.canRun()) {
+                    Chunk chunk;
+                    try {
+                        chunk = requestQueue.poll(WORKER_THREAD_WAIT_FOR_REQUEST, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        LOGGER.trace("Interrupted when waiting for next request", e);
+                        return;
+                    }
+                    if (chunk != null) {
+                        process(chunk, workerContext);
+                    } else if (allItemsSubmitted) {
+                        LOGGER.trace("queue is empty and nothing more is expected - exiting");
+                        return;
+                    }
+                }
+            }
+
+            private void process(Chunk chunk, ExecutionContext workerContext) {
+                try {
+                    chunk.output = scriptingExpressionEvaluator.evaluateExpression(action, chunk.input, workerContext,
+                            workerSpecificResult);
+                } catch (Throwable t) {
+                    chunk.exception = t;
+                } finally {
+                    workerSpecificResult.setSummarizeSuccesses(true);
+                    workerSpecificResult.summarize();
+                    chunk.done.countDown();
+                }
+            }
+        }
+    }
+}
@@ -35,6 +35,7 @@ import com.evolveum.midpoint.schema.ResultHandler;
 import com.evolveum.midpoint.schema.SelectorOptions;
 import com.evolveum.midpoint.schema.constants.ObjectTypes;
 import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.Holder;
 import com.evolveum.midpoint.util.exception.*;
 import com.evolveum.midpoint.util.logging.LoggingUtils;
 import com.evolveum.midpoint.util.logging.Trace;
@@ -70,9 +71,29 @@ public class SearchEvaluator extends BaseExpressionEvaluator {
 
     private static final String PARAM_NO_FETCH = "noFetch";
 
-    public <T extends ObjectType> PipelineData evaluate(SearchExpressionType searchExpression, PipelineData input,
+    /**
+     * Receives the output of the search as it is being produced, i.e. before the search is finished.
+     */
+    @FunctionalInterface
+    public interface OutputConsumer {
+	    void accept(PipelineData data) throws ScriptExecutionException;
+    }
+
+    public PipelineData evaluate(SearchExpressionType searchExpression, PipelineData input,
 			ExecutionContext context, OperationResult globalResult)
 		    throws ScriptExecutionException {
+	    final PipelineData outputData = PipelineData.createEmpty();
+	    evaluate(searchExpression, input, outputData::addAllFrom, context, globalResult);
+	    return outputData;
+    }
+
+	/**
+	 * Evaluates the search, passing the output (found objects or output of the child expression evaluated for them)
+	 * to the consumer. Used to stream the objects through the pipeline without keeping them all in memory.
+	 */
+    public <T extends ObjectType> void evaluate(SearchExpressionType searchExpression, PipelineData input,
+		    OutputConsumer consumer, ExecutionContext context, OperationResult globalResult)
+		    throws ScriptExecutionException {
         Validate.notNull(searchExpression.getType());
 
 	    List<PipelineItem> data = input.getData();
@@ -83,8 +104,8 @@ public class SearchEvaluator extends BaseExpressionEvaluator {
 		    data = Collections.singletonList(dummyItem);
 	    }
 
-	    final PipelineData outputData = PipelineData.createEmpty();
 	    final MutableBoolean atLeastOne = new MutableBoolean(false);
+	    final Holder<ScriptExecutionException> consumerException = new Holder<>();
 
 	    for (PipelineItem item : data) {
 
@@ -142,7 +163,7 @@ public class SearchEvaluator extends BaseExpressionEvaluator {
 							    (ScriptingExpressionType) childExpression.getValue(),
 							    PipelineData.create(object.getValue(), item.getVariables()), context, globalResult);
 					    if (!BooleanUtils.isFalse(searchExpression.isAggregateOutput())) {
-						    outputData.addAllFrom(expressionResult);
+						    consumer.accept(expressionResult);
 					    }
 					    globalResult.setSummarizeSuccesses(true);
 					    globalResult.summarize();
@@ -155,7 +176,12 @@ public class SearchEvaluator extends BaseExpressionEvaluator {
 					    }
 				    }
 			    } else {
-				    outputData.addValue(object.getValue(), item.getVariables());
+				    try {
+					    consumer.accept(PipelineData.create(object.getValue(), item.getVariables()));
+				    } catch (ScriptExecutionException e) {
+					    consumerException.setValue(e);
+					    return false;
+				    }
 			    }
 			    return true;
 		    };
@@ -167,12 +193,14 @@ public class SearchEvaluator extends BaseExpressionEvaluator {
 			    // TODO continue on any error?
 			    throw new ScriptExecutionException("Couldn't execute searchObjects operation: " + e.getMessage(), e);
 		    }
+		    if (consumerException.getValue() != null) {
+			    throw consumerException.getValue();
+		    }
 	    }
 
 	    if (atLeastOne.isFalse()) {
 		    context.println("Warning: no matching object found");          // temporary hack, this will be configurable
 	    }
-        return outputData;
     }
 
 }
@@ -2,6 +2,7 @@ package com.evolveum.midpoint.model.impl.security;
 
 import org.apache.commons.lang.StringUtils;
 import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.authentication.AuthenticationCredentialsNotFoundException;
 import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.stereotype.Component;
@@ -20,6 +21,8 @@ import com.evolveum.prism.xml.ns._public.types_3.ProtectedStringType;
 @Component("passwordAuthenticationEvaluator")
 public class PasswordAuthenticationEvaluatorImpl extends AuthenticationEvaluatorImpl<PasswordType, PasswordAuthenticationContext>{
 
+	@Autowired private VerifiedCredentialsCache verifiedCredentialsCache;
+
 	@Override
 	protected void checkEnteredCredentials(ConnectionEnvironment connEnv, PasswordAuthenticationContext authCtx) {
 		if (StringUtils.isBlank(authCtx.getPassword())) {
@@ -53,7 +56,15 @@ public class PasswordAuthenticationEvaluatorImpl extends AuthenticationEvaluator
 	@Override
 	protected boolean passwordMatches(ConnectionEnvironment connEnv, MidPointPrincipal principal,
 			PasswordType passwordType, PasswordAuthenticationContext authCtx) {
-		return decryptAndMatch(connEnv, principal, passwordType.getValue(), authCtx.getPassword());
+		ProtectedStringType storedValue = passwordType.getValue();
+		if (verifiedCredentialsCache.isVerified(principal.getOid(), storedValue, authCtx.getPassword())) {
+			return true;
+		}
+		boolean matches = decryptAndMatch(connEnv, principal, storedValue, authCtx.getPassword());
+		if (matches) {
+			verifiedCredentialsCache.recordVerified(principal.getOid(), storedValue, authCtx.getPassword());
+		}
+		return matches;
 	}
 
 
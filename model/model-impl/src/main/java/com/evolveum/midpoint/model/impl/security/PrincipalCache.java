@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.impl.security;
+
+import com.evolveum.midpoint.common.Clock;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
+import com.evolveum.midpoint.repo.api.CacheListener;
+import com.evolveum.midpoint.schema.util.SystemConfigurationTypeUtil;
+import com.evolveum.midpoint.security.api.Authorization;
+import com.evolveum.midpoint.security.api.DelegatorWithOtherPrivilegesLimitations;
+import com.evolveum.midpoint.security.api.MidPointPrincipal;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the parts of MidPointPrincipal that are compiled from the assignments of a user (authorizations, admin GUI
+ * configuration, delegations) together with the applicable security policy. Clients that authenticate the same user
+ * over and over again (REST, SOAP) then do not need to evaluate the assignments for each request.
+ *
+ * An entry is used only if the user is the same as the one it was compiled for. Credentials are not compared,
+ * because they are updated on each successful login (and the version of the user changes with them).
+ * Changes of roles, orgs, security policies and other objects the evaluation depends on clear the whole cache
+ * (CacheDispatcher events, including the ones from other cluster nodes). A change of a user removes the entries
+ * of its deputies. As the evaluation depends on time as well, entries expire after internals/principalCacheTimeToLive.
+ * If that is not set, nothing is cached.
+ */
+@Component
+public class PrincipalCache implements CacheListener {
+
+	private static final Trace LOGGER = TraceManager.getTrace(PrincipalCache.class);
+
+	private static final int MAX_ENTRIES = 10000;
+
+	@Autowired private CacheDispatcher cacheDispatcher;
+	@Autowired private Clock clock;
+
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+	// incremented when the whole cache is invalidated; entries compiled in older generations are not stored
+	private final AtomicLong generation = new AtomicLong();
+
+	@PostConstruct
+	public void initialize() {
+		cacheDispatcher.registerCacheListener(this);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		cacheDispatcher.unregisterCacheListener(this);
+	}
+
+	public boolean isEnabled(PrismObject<SystemConfigurationType> systemConfiguration) {
+		return getTimeToLiveMillis(systemConfiguration) > 0;
+	}
+
+	/**
+	 * Must be called before the compilation of the principal that is going to be stored by {@link #put}.
+	 */
+	public long getGeneration() {
+		return generation.get();
+	}
+
+	/**
+	 * Fills in the compiled parts of the principal from the cache, if there is a valid entry for its user.
+	 * The user must be recomputed in the same way as it was when the entry was stored.
+	 *
+	 * @return false if there is no such entry
+	 */
+	public boolean initializePrincipal(MidPointPrincipal principal) {
+		String oid = principal.getOid();
+		Entry entry = oid != null ? entries.get(oid) : null;
+		if (entry == null) {
+			LOGGER.trace("Cache MISS: no compiled principal for {}", oid);
+			return false;
+		}
+		if (clock.currentTimeMillis() >= entry.expiresAt) {
+			LOGGER.trace("Cache MISS: compiled principal for {} has expired", oid);
+			entries.remove(oid, entry);
+			return false;
+		}
+		if (!entry.user.equivalent(stripUser(principal.getUser().asPrismObject()))) {
+			LOGGER.trace("Cache MISS: user {} has changed since its principal was compiled", oid);
+			entries.remove(oid, entry);
+			return false;
+		}
+		LOGGER.trace("Cache HIT: reusing compiled principal for {}", oid);
+		principal.getAuthorities().addAll(entry.authorizations);
+		principal.setAdminGuiConfiguration(entry.adminGuiConfiguration != null ? entry.adminGuiConfiguration.clone() : null);
+		principal.setApplicableSecurityPolicy(entry.securityPolicy != null ? entry.securityPolicy.clone() : null);
+		entry.delegators.forEach(principal::addDelegatorWithOtherPrivilegesLimitations);
+		return true;
+	}
+
+	/**
+	 * Stores the compiled parts of the principal, unless the cache was invalidated after the compilation started.
+	 */
+	public void put(MidPointPrincipal principal, long compilationGeneration, PrismObject<SystemConfigurationType> systemConfiguration) {
+		String oid = principal.getOid();
+		long timeToLive = getTimeToLiveMillis(systemConfiguration);
+		if (oid == null || timeToLive <= 0) {
+			return;
+		}
+		if (entries.size() >= MAX_ENTRIES) {
+			removeExpiredEntries();
+			if (entries.size() >= MAX_ENTRIES) {
+				LOGGER.trace("Not caching compiled principal for {}, the cache is full", oid);
+				return;
+			}
+		}
+		Entry entry = new Entry(stripUser(principal.getUser().asPrismObject()), principal,
+				clock.currentTimeMillis() + timeToLive);
+		if (generation.get() == compilationGeneration) {
+			entries.put(oid, entry);
+			// the invalidation could come after the check above; it has to win
+			if (generation.get() != compilationGeneration) {
+				entries.remove(oid, entry);
+			}
+		}
+	}
+
+	public void invalidateAll() {
+		generation.incrementAndGet();
+		entries.clear();
+	}
+
+	@Override
+	public <O extends ObjectType> void invalidateCache(Class<O> type, String oid) {
+		if (type != null && UserType.class.isAssignableFrom(type) && oid != null) {
+			// the user itself is compared when the entry is used; its deputies have to be checked here
+			entries.values().removeIf(entry -> entry.delegatorOids.contains(oid));
+		} else if (isRelevant(type)) {
+			LOGGER.trace("Invalidating compiled principals because of change of {}:{}", type, oid);
+			invalidateAll();
+		}
+	}
+
+	private boolean isRelevant(Class<?> type) {
+		return type == null
+				|| type.isAssignableFrom(AbstractRoleType.class)            // ObjectType, FocusType
+				|| AbstractRoleType.class.isAssignableFrom(type)
+				|| UserType.class.isAssignableFrom(type)
+				|| SystemConfigurationType.class.equals(type)
+				|| SecurityPolicyType.class.equals(type)
+				|| FunctionLibraryType.class.equals(type);
+	}
+
+	private void removeExpiredEntries() {
+		long now = clock.currentTimeMillis();
+		entries.values().removeIf(entry -> now >= entry.expiresAt);
+	}
+
+	private long getTimeToLiveMillis(PrismObject<SystemConfigurationType> systemConfiguration) {
+		Integer seconds = SystemConfigurationTypeUtil.getPrincipalCacheTimeToLive(systemConfiguration);
+		return seconds != null ? seconds * 1000L : 0;
+	}
+
+	private PrismObject<UserType> stripUser(PrismObject<UserType> user) {
+		PrismObject<UserType> stripped = user.clone();
+		stripped.removeContainer(UserType.F_CREDENTIALS);
+		return stripped;
+	}
+
+	private static final class Entry {
+
+		private final PrismObject<UserType> user;           // without credentials
+		private final Collection<Authorization> authorizations;
+		private final AdminGuiConfigurationType adminGuiConfiguration;
+		private final SecurityPolicyType securityPolicy;
+		private final List<DelegatorWithOtherPrivilegesLimitations> delegators;
+		private final Set<String> delegatorOids = new HashSet<>();
+		private final long expiresAt;
+
+		private Entry(PrismObject<UserType> user, MidPointPrincipal principal, long expiresAt) {
+			this.user = user;
+			this.authorizations = new ArrayList<>(principal.getAuthorities());
+			this.adminGuiConfiguration = principal.getAdminGuiConfiguration() != null ?
+					principal.getAdminGuiConfiguration().clone() : null;
+			this.securityPolicy = principal.getApplicableSecurityPolicy() != null ?
+					principal.getApplicableSecurityPolicy().clone() : null;
+			this.delegators = new ArrayList<>(principal.getDelegatorWithOtherPrivilegesLimitationsCollection());
+			for (DelegatorWithOtherPrivilegesLimitations delegator : delegators) {
+				delegatorOids.add(delegator.getDelegator().getOid());
+			}
+			this.expiresAt = expiresAt;
+		}
+	}
+}
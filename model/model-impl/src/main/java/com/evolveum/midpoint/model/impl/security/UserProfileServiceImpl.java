@@ -116,6 +116,7 @@ public class UserProfileServiceImpl implements UserProfileService, UserDetailsSe
 	@Autowired private Clock clock;
 	@Autowired private PrismContext prismContext;
 	@Autowired private TaskManager taskManager;
+	@Autowired private PrincipalCache principalCache;
 
 	private MessageSourceAccessor messages;
 
@@ -168,7 +169,16 @@ public class UserProfileServiceImpl implements UserProfileService, UserDetailsSe
     	
 		userComputer.recompute(user, lifecycleModel);
         MidPointPrincipal principal = new MidPointPrincipal(user.asObjectable());
-        initializePrincipalFromAssignments(principal, systemConfiguration, authorizationTransformer);
+        // transformed authorizations are specific to the caller, so they are not cached
+        if (authorizationTransformer == null && principalCache.isEnabled(systemConfiguration)) {
+        	if (!principalCache.initializePrincipal(principal)) {
+        		long generation = principalCache.getGeneration();
+        		initializePrincipalFromAssignments(principal, systemConfiguration, null);
+        		principalCache.put(principal, generation, systemConfiguration);
+        	}
+        } else {
+        	initializePrincipalFromAssignments(principal, systemConfiguration, authorizationTransformer);
+        }
         return principal;
     }
     
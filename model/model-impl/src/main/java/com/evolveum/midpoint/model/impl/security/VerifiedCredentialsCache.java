@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.impl.security;
+
+import com.evolveum.midpoint.common.Clock;
+import com.evolveum.midpoint.model.common.SystemObjectCache;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.util.SystemConfigurationTypeUtil;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.prism.xml.ns._public.types_3.ProtectedStringType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers successfully verified hashed passwords for a short time (internals/verifiedCredentialsCacheTimeToLive),
+ * so clients that send the same password with each request do not pay for computing the hash every time.
+ *
+ * The entered password is not stored: only its HMAC computed with a key that is generated at startup and never
+ * leaves the memory. The HMAC covers the stored password hash as well, so an entry cannot be used after the
+ * password is changed. Only successful verifications are cached; a wrong password is always checked the usual way.
+ */
+@Component
+public class VerifiedCredentialsCache {
+
+	private static final Trace LOGGER = TraceManager.getTrace(VerifiedCredentialsCache.class);
+
+	private static final String OPERATION_GET_TIME_TO_LIVE = VerifiedCredentialsCache.class.getName() + ".getTimeToLive";
+
+	private static final String MAC_ALGORITHM = "HmacSHA256";
+	private static final int MAX_ENTRIES = 10000;
+
+	@Autowired private SystemObjectCache systemObjectCache;
+	@Autowired private Clock clock;
+
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+	private final SecretKey key;
+
+	public VerifiedCredentialsCache() {
+		try {
+			key = KeyGenerator.getInstance(MAC_ALGORITHM).generateKey();
+		} catch (GeneralSecurityException e) {
+			throw new SystemException("Couldn't generate key for verified credentials cache: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @return true if the password was verified against the stored (hashed) value recently
+	 */
+	public boolean isVerified(String userOid, ProtectedStringType storedValue, String enteredPassword) {
+		if (userOid == null || !isCacheable(storedValue)) {
+			return false;
+		}
+		Entry entry = entries.get(userOid);
+		if (entry == null) {
+			return false;
+		}
+		if (clock.currentTimeMillis() >= entry.expiresAt || getTimeToLiveMillis() <= 0) {
+			entries.remove(userOid, entry);
+			return false;
+		}
+		boolean verified = MessageDigest.isEqual(entry.mac, computeMac(storedValue, enteredPassword));
+		LOGGER.trace("Cache {}: verified credentials of {}", verified ? "HIT" : "MISS", userOid);
+		return verified;
+	}
+
+	public void recordVerified(String userOid, ProtectedStringType storedValue, String enteredPassword) {
+		if (userOid == null || !isCacheable(storedValue)) {
+			return;
+		}
+		long timeToLive = getTimeToLiveMillis();
+		if (timeToLive <= 0) {
+			return;
+		}
+		long now = clock.currentTimeMillis();
+		if (entries.size() >= MAX_ENTRIES) {
+			entries.values().removeIf(entry -> now >= entry.expiresAt);
+			if (entries.size() >= MAX_ENTRIES) {
+				return;
+			}
+		}
+		entries.put(userOid, new Entry(computeMac(storedValue, enteredPassword), now + timeToLive));
+	}
+
+	// encrypted and clear values are compared quickly, there is nothing to save
+	private boolean isCacheable(ProtectedStringType storedValue) {
+		return storedValue != null && storedValue.isHashed() && storedValue.getHashedDataType().getDigestValue() != null;
+	}
+
+	private byte[] computeMac(ProtectedStringType storedValue, String enteredPassword) {
+		try {
+			Mac mac = Mac.getInstance(MAC_ALGORITHM);
+			mac.init(key);
+			mac.update(storedValue.getHashedDataType().getDigestValue());
+			return mac.doFinal(enteredPassword.getBytes(StandardCharsets.UTF_8));
+		} catch (GeneralSecurityException e) {
+			throw new SystemException("Couldn't compute MAC of entered credentials: " + e.getMessage(), e);
+		}
+	}
+
+	private long getTimeToLiveMillis() {
+		try {
+			Integer seconds = SystemConfigurationTypeUtil.getVerifiedCredentialsCacheTimeToLive(
+					systemObjectCache.getSystemConfiguration(new OperationResult(OPERATION_GET_TIME_TO_LIVE)));
+			return seconds != null ? seconds * 1000L : 0;
+		} catch (SchemaException e) {
+			LOGGER.warn("Couldn't get system configuration, not caching verified credentials: {}", e.getMessage(), e);
+			return 0;
+		}
+	}
+
+	private static final class Entry {
+
+		private final byte[] mac;
+		private final long expiresAt;
+
+		private Entry(byte[] mac, long expiresAt) {
+			this.mac = mac;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
@@ -52,6 +52,9 @@ import java.util.List;
  *  This handler takes care of executing live synchronization "runs". It means that the handler "run" method will
  *  be called every few seconds. The responsibility is to scan for changes that happened since the last run.
  *
+ *  If the workerThreads extension property is set, the changes are processed by that number of worker threads
+ *  (lightweight subtasks). Changes of the same resource object are always processed by the same thread, in order.
+ *
  * @author Radovan Semancik
  *
  */
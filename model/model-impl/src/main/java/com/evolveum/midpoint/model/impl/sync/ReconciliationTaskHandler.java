@@ -518,6 +518,9 @@ public class ReconciliationTaskHandler implements WorkBucketAwareTaskHandler {
 			if (handler.getProgress() > 0) {
 				message += ". Average time for one object: " + handler.getAverageTime() + " ms (wall clock time average: " + handler.getWallAverageTime() + " ms).";
 			}
+			if (handler.getRequestQueueStatistics() != null) {
+				message += " Worker threads queue: " + handler.getRequestQueueStatistics() + ".";
+			}
 
 			OperationResultStatus resultStatus = OperationResultStatus.SUCCESS;
 			if (handler.getErrors() > 0) {
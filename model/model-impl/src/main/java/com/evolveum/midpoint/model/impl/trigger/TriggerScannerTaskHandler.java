@@ -30,6 +30,10 @@ import com.evolveum.midpoint.prism.query.ObjectFilter;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.prism.query.builder.QueryBuilder;
 import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
+import com.evolveum.midpoint.repo.api.ScheduledTrigger;
+import com.evolveum.midpoint.schema.GetOperationOptions;
+import com.evolveum.midpoint.schema.ResultHandler;
+import com.evolveum.midpoint.schema.SelectorOptions;
 import com.evolveum.midpoint.schema.result.OperationConstants;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.util.MiscSchemaUtil;
@@ -70,6 +74,10 @@ public class TriggerScannerTaskHandler extends AbstractScannerTaskHandler<Object
 
 	private static final transient Trace LOGGER = TraceManager.getTrace(TriggerScannerTaskHandler.class);
 
+	private static final int DEFAULT_TRIGGER_BATCH_SIZE = 1000;
+
+	private int triggerBatchSize = DEFAULT_TRIGGER_BATCH_SIZE;      // not final only because of testing
+
 	@Autowired
 	private TriggerHandlerRegistry triggerHandlerRegistry;
 
@@ -145,6 +153,101 @@ public class TriggerScannerTaskHandler extends AbstractScannerTaskHandler<Object
 		return query;
 	}
 
+	// exists because of testing
+	public void setTriggerBatchSize(int triggerBatchSize) {
+		this.triggerBatchSize = triggerBatchSize > 0 ? triggerBatchSize : DEFAULT_TRIGGER_BATCH_SIZE;
+	}
+
+	/**
+	 * Objects are not counted: it would need the same search by an "exists" filter over the triggers that
+	 * searchIterative avoids. (If the task uses work buckets, the generic search is used, so objects are counted
+	 * as usual.)
+	 */
+	@Override
+	protected <O extends ObjectType> Integer countObjects(Class<O> type, ObjectQuery query,
+			Collection<SelectorOptions<GetOperationOptions>> queryOptions, Task coordinatorTask, OperationResult opResult)
+			throws SchemaException, ObjectNotFoundException, CommunicationException, ConfigurationException,
+			SecurityViolationException, ExpressionEvaluationException {
+		if (coordinatorTask.getWorkManagement() != null) {
+			return super.countObjects(type, query, queryOptions, coordinatorTask, opResult);
+		}
+		return null;
+	}
+
+	/**
+	 * Walks the due triggers in the order of their timestamps (using the trigger table and its timestamp index)
+	 * instead of searching for objects by an "exists" filter over their triggers. Objects are fetched in batches
+	 * and handed over in the order their first due trigger was found. Each object is handed over only once per
+	 * run, because all its hot triggers are fired at that time. Objects deleted in the meantime are skipped.
+	 *
+	 * The query is not used here: it is the one created by createQuery, which selects exactly the objects
+	 * having a trigger in the (lastScanTimestamp, thisScanTimestamp] interval, i.e. the owners of the triggers
+	 * found here.
+	 *
+	 * If the task uses work buckets, the query is narrowed for the bucket, so the generic search is used.
+	 */
+	@Override
+	protected <O extends ObjectType> void searchIterative(Class<O> type, ObjectQuery query,
+			Collection<SelectorOptions<GetOperationOptions>> searchOptions, ResultHandler<O> resultHandler,
+			Object coordinatorTask, OperationResult opResult)
+			throws SchemaException, ObjectNotFoundException, CommunicationException, ConfigurationException,
+			SecurityViolationException, ExpressionEvaluationException {
+		Task task = (Task) coordinatorTask;
+		if (task.getWorkManagement() != null || !(resultHandler instanceof AbstractScannerResultHandler)) {
+			super.searchIterative(type, query, searchOptions, resultHandler, coordinatorTask, opResult);
+			return;
+		}
+		AbstractScannerResultHandler<?> scannerHandler = (AbstractScannerResultHandler<?>) resultHandler;
+		Set<String> handedOver = new HashSet<>();
+		ScheduledTrigger last = null;
+		while (task.canRun()) {
+			List<ScheduledTrigger> triggers = repositoryService.searchTriggers(scannerHandler.getLastScanTimestamp(),
+					scannerHandler.getThisScanTimestamp(), last, triggerBatchSize, opResult);
+			if (triggers.isEmpty()) {
+				return;
+			}
+			last = triggers.get(triggers.size() - 1);
+			Set<String> oids = new LinkedHashSet<>();
+			for (ScheduledTrigger trigger : triggers) {
+				if (handedOver.add(trigger.getOwnerOid())) {
+					oids.add(trigger.getOwnerOid());
+				}
+			}
+			if (!oids.isEmpty() && !handleObjects(type, oids, searchOptions, resultHandler, task, opResult)) {
+				return;
+			}
+			if (triggers.size() < triggerBatchSize) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return false if the processing should be stopped
+	 */
+	private <O extends ObjectType> boolean handleObjects(Class<O> type, Set<String> oids,
+			Collection<SelectorOptions<GetOperationOptions>> searchOptions, ResultHandler<O> resultHandler,
+			Task task, OperationResult opResult) throws SchemaException {
+		ObjectQuery objectsQuery = QueryBuilder.queryFor(type, prismContext)
+				.id(oids.toArray(new String[0]))
+				.build();
+		Map<String, PrismObject<O>> objects = new HashMap<>();
+		for (PrismObject<O> object : repositoryService.searchObjects(type, objectsQuery, searchOptions, opResult)) {
+			objects.put(object.getOid(), object);
+		}
+		for (String oid : oids) {
+			PrismObject<O> object = objects.get(oid);
+			if (object == null) {
+				LOGGER.trace("Object {} with due triggers is gone, skipping it", oid);
+				continue;
+			}
+			if (!task.canRun() || !resultHandler.handle(object, opResult)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	@Override
 	protected void finish(AbstractScannerResultHandler<ObjectType> handler, TaskRunResult runResult, Task task, OperationResult opResult)
 			throws SchemaException {
@@ -179,27 +282,29 @@ public class TriggerScannerTaskHandler extends AbstractScannerTaskHandler<Object
 				LOGGER.warn("Strange thing, attempt to fire triggers on {}, but it does not have any triggers in trigger container", object);
 			} else {
 				LOGGER.trace("Firing triggers for {} ({} triggers)", object, triggerCVals.size());
-				List<TriggerType> triggers = getSortedTriggers(triggerCVals);
+				List<TriggerType> triggers = getSortedHotTriggers(handler, object, triggerCVals);
 				for (TriggerType trigger: triggers) {
-					XMLGregorianCalendar timestamp = trigger.getTimestamp();
-					if (timestamp == null) {
-						LOGGER.warn("Trigger without a timestamp in {}", object);
-					} else {
-						if (isHot(handler, timestamp)) {
-							fireTrigger(trigger, object, triggerContainer.getDefinition(), workerTask, coordinatorTask, result);
-						} else {
-							LOGGER.trace("Trigger {} is not hot (timestamp={}, thisScanTimestamp={}, lastScanTimestamp={})",
-									trigger, timestamp, handler.getThisScanTimestamp(), handler.getLastScanTimestamp());
-						}
-					}
+					fireTrigger(trigger, object, triggerContainer.getDefinition(), workerTask, coordinatorTask, result);
 				}
 			}
 		}
 	}
 
-	private List<TriggerType> getSortedTriggers(List<PrismContainerValue<TriggerType>> triggerCVals) {
+	// only hot triggers are cloned; objects can carry many triggers that are due much later
+	private List<TriggerType> getSortedHotTriggers(AbstractScannerResultHandler<ObjectType> handler, PrismObject<ObjectType> object,
+			List<PrismContainerValue<TriggerType>> triggerCVals) {
 		List<TriggerType> rv = new ArrayList<>();
-		triggerCVals.forEach(cval -> rv.add(cval.clone().asContainerable()));
+		for (PrismContainerValue<TriggerType> cval : triggerCVals) {
+			XMLGregorianCalendar timestamp = cval.asContainerable().getTimestamp();
+			if (timestamp == null) {
+				LOGGER.warn("Trigger without a timestamp in {}", object);
+			} else if (isHot(handler, timestamp)) {
+				rv.add(cval.clone().asContainerable());
+			} else {
+				LOGGER.trace("Trigger {} is not hot (timestamp={}, thisScanTimestamp={}, lastScanTimestamp={})",
+						cval, timestamp, handler.getThisScanTimestamp(), handler.getLastScanTimestamp());
+			}
+		}
 		rv.sort(Comparator.comparingLong(t -> XmlTypeConverter.toMillis(t.getTimestamp())));
 		return rv;
 	}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.impl.expr;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyCollection;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.Test;
+import org.xml.sax.SAXException;
+
+import com.evolveum.midpoint.model.common.expression.script.ScriptExpressionFactory;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.schema.MidPointPrismContextFactory;
+import com.evolveum.midpoint.schema.ResultHandler;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.test.util.TestUtil;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ScriptExpressionEvaluatorType;
+
+/**
+ * Script precompilation with the bounded queue of compiler threads. The repository and the script
+ * evaluators are mocked.
+ */
+public class TestScriptPrecompiler {
+
+	private static final int ROLES = 200;
+	private static final int SCRIPTS_PER_ROLE = 5;
+	private static final long TIMEOUT = 30000L;
+
+	// the same as in ScriptPrecompiler
+	private static final int THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+	private static final int QUEUE_SIZE = THREADS * 50;
+
+	@Mock private RepositoryService repositoryService;
+	@Mock private ScriptExpressionFactory scriptExpressionFactory;
+	@InjectMocks private ScriptPrecompiler precompiler;
+
+	private final Set<String> compiledCode = ConcurrentHashMap.newKeySet();
+
+	@BeforeSuite
+	public void setupPrismContext() throws SchemaException, SAXException, IOException {
+		PrismTestUtil.resetPrismContext(MidPointPrismContextFactory.FACTORY);
+	}
+
+	@BeforeMethod
+	public void createPrecompiler() {
+		precompiler = null;
+		compiledCode.clear();
+		MockitoAnnotations.initMocks(this);
+		ReflectionTestUtils.setField(precompiler, "prismContext", PrismTestUtil.getPrismContext());
+		precompiler.initialize();
+	}
+
+	@AfterMethod
+	public void shutdownPrecompiler() {
+		precompiler.shutdown();
+	}
+
+	/**
+	 * There are many more scripts than the queue can hold: none of them may be lost.
+	 */
+	@Test
+	public void test100WarmUp() throws Exception {
+		final String TEST_NAME = "test100WarmUp";
+		TestUtil.displayTestTitle(TEST_NAME);
+		when(scriptExpressionFactory.precompile(any(ScriptExpressionEvaluatorType.class), anyString())).thenAnswer(invocation -> {
+			Thread.sleep(1L);
+			return compiledCode.add(((ScriptExpressionEvaluatorType) invocation.getArguments()[0]).getCode());
+		});
+		doAnswer(invocation -> {
+			@SuppressWarnings("unchecked")
+			ResultHandler<RoleType> handler = (ResultHandler<RoleType>) invocation.getArguments()[2];
+			OperationResult result = (OperationResult) invocation.getArguments()[5];
+			for (int i = 0; i < ROLES; i++) {
+				handler.handle(createRole(i, SCRIPTS_PER_ROLE), result);
+			}
+			return null;
+		}).when(repositoryService).searchObjectsIterative(eq(RoleType.class), any(ObjectQuery.class),
+				any(ResultHandler.class), anyCollection(), anyBoolean(), any(OperationResult.class));
+
+		// WHEN
+		precompiler.startWarmUp();
+		waitForWarmUp();
+
+		// THEN
+		String statistics = precompiler.getStatistics();
+		System.out.println("Precompilation statistics: " + statistics);
+		int scripts = ROLES * SCRIPTS_PER_ROLE;
+		assertEquals("Wrong # of compiled scripts", scripts, compiledCode.size());
+		assertTrue("Wrong statistics: " + statistics, statistics.contains("objects=" + ROLES + ","));
+		assertTrue("Wrong statistics: " + statistics,
+				statistics.contains("scripts=" + scripts + "/" + scripts + " (compiled=" + scripts + ", skipped=0, failed=0)"));
+	}
+
+	/**
+	 * Scripts of imported objects are not compiled when the queue is full; they are compiled on first use.
+	 */
+	@Test
+	public void test200PrecompileAsyncQueueFull() throws Exception {
+		final String TEST_NAME = "test200PrecompileAsyncQueueFull";
+		TestUtil.displayTestTitle(TEST_NAME);
+		CountDownLatch release = new CountDownLatch(1);
+		when(scriptExpressionFactory.precompile(any(ScriptExpressionEvaluatorType.class), anyString())).thenAnswer(invocation -> {
+			release.await(TIMEOUT, TimeUnit.MILLISECONDS);
+			return compiledCode.add(((ScriptExpressionEvaluatorType) invocation.getArguments()[0]).getCode());
+		});
+		int overflow = 10;
+		int scripts = THREADS + QUEUE_SIZE + overflow;          // busy threads, full queue and some more
+
+		// WHEN
+		precompiler.precompileAsync(createRole(0, scripts));
+		release.countDown();
+
+		// THEN
+		int accepted = THREADS + QUEUE_SIZE;
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		while (!precompiler.getStatistics().contains("scripts=" + scripts + "/") && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10L);
+		}
+		String statistics = precompiler.getStatistics();
+		System.out.println("Precompilation statistics: " + statistics);
+		assertEquals("Wrong # of compiled scripts", accepted, compiledCode.size());
+		assertTrue("Wrong statistics: " + statistics,
+				statistics.contains("scripts=" + scripts + "/" + scripts + " (compiled=" + accepted + ", skipped=" + overflow + ","));
+	}
+
+	private void waitForWarmUp() throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		while (!precompiler.isWarmUpFinished() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10L);
+		}
+		assertTrue("Warm-up not finished: " + precompiler.getStatistics(), precompiler.isWarmUpFinished());
+	}
+
+	private PrismObject<RoleType> createRole(int number, int scripts) throws SchemaException {
+		StringBuilder xml = new StringBuilder();
+		xml.append("<role xmlns='http://midpoint.evolveum.com/xml/ns/public/common/common-3' oid='role-").append(number).append("'>")
+				.append("<name>role-").append(number).append("</name>");
+		for (int i = 0; i < scripts; i++) {
+			xml.append("<inducement><condition><expression><script><code>")
+					.append("role").append(number).append(" + ").append(i)
+					.append("</code></script></expression></condition></inducement>");
+		}
+		xml.append("</role>");
+		return PrismTestUtil.parseObject(xml.toString());
+	}
+}
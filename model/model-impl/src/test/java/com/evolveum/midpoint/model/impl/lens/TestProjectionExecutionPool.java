@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.impl.lens;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.test.util.TestUtil;
+
+/**
+ * Concurrent execution of tasks (projection groups) by ProjectionExecutionPool, especially the nested one:
+ * a task that executes tasks concurrently again (as a nested clockwork does) must not wait for the pool.
+ */
+public class TestProjectionExecutionPool {
+
+	private static final int THREADS = 2;
+	private static final int TASKS = 4;
+	private static final long TIMEOUT_SECONDS = 30;
+
+	private ProjectionExecutionPool pool;
+
+	@BeforeMethod
+	public void createPool() {
+		pool = new ProjectionExecutionPool();
+	}
+
+	@AfterMethod
+	public void shutdownPool() {
+		pool.shutdown();
+	}
+
+	@Test
+	public void test100Concurrent() throws Exception {
+		final String TEST_NAME = "test100Concurrent";
+		TestUtil.displayTestTitle(TEST_NAME);
+		Set<String> threadNames = Collections.synchronizedSet(new HashSet<>());
+		AtomicInteger executed = new AtomicInteger();
+		List<Runnable> tasks = new ArrayList<>();
+		for (int i = 0; i < TASKS; i++) {
+			tasks.add(() -> {
+				assertTrue("Not executing concurrently", ProjectionExecutionPool.isExecutingConcurrently());
+				threadNames.add(Thread.currentThread().getName());
+				executed.incrementAndGet();
+				pause(50);
+			});
+		}
+
+		pool.execute(tasks, THREADS);
+
+		assertEquals("Wrong # of tasks executed", TASKS, executed.get());
+		assertTrue("Calling thread not used", threadNames.contains(Thread.currentThread().getName()));
+		assertTrue("Pool threads not used: " + threadNames, threadNames.size() > 1);
+		assertFalse("Flag left set in the calling thread", ProjectionExecutionPool.isExecutingConcurrently());
+	}
+
+	/**
+	 * All the pool threads execute tasks that execute tasks concurrently again. Waiting for the pool
+	 * would block forever, so the nested tasks have to be executed in the thread of their parent task.
+	 * After the nested execution, the parent task must still be recognized as executing concurrently.
+	 */
+	@Test
+	public void test200Nested() throws Exception {
+		final String TEST_NAME = "test200Nested";
+		TestUtil.displayTestTitle(TEST_NAME);
+		AtomicInteger nestedExecuted = new AtomicInteger();
+		List<String> wrongThreads = Collections.synchronizedList(new ArrayList<>());
+		List<String> flagsLost = Collections.synchronizedList(new ArrayList<>());
+		List<Runnable> tasks = new ArrayList<>();
+		for (int i = 0; i < TASKS; i++) {
+			final String name = "task " + i;
+			tasks.add(() -> {
+				Thread parentThread = Thread.currentThread();
+				List<Runnable> nestedTasks = new ArrayList<>();
+				for (int j = 0; j < TASKS; j++) {
+					nestedTasks.add(() -> {
+						if (Thread.currentThread() != parentThread) {
+							wrongThreads.add(name);
+						}
+						nestedExecuted.incrementAndGet();
+						pause(10);
+					});
+				}
+				pool.execute(nestedTasks, THREADS);
+				if (!ProjectionExecutionPool.isExecutingConcurrently()) {
+					flagsLost.add(name);
+				}
+			});
+		}
+
+		// running in another thread, so a deadlock fails the test instead of hanging it
+		CompletableFuture<Void> execution = CompletableFuture.runAsync(() -> pool.execute(tasks, THREADS));
+		try {
+			execution.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		} catch (TimeoutException e) {
+			fail("Nested execution did not finish in " + TIMEOUT_SECONDS + " seconds (pool starvation?)");
+		}
+
+		assertEquals("Wrong # of nested tasks executed", TASKS * TASKS, nestedExecuted.get());
+		assertEquals("Nested tasks executed outside the thread of their parent", Collections.emptyList(), wrongThreads);
+		assertEquals("Concurrent execution flag lost after nested execution", Collections.emptyList(), flagsLost);
+	}
+
+	@Test
+	public void test300TaskException() throws Exception {
+		final String TEST_NAME = "test300TaskException";
+		TestUtil.displayTestTitle(TEST_NAME);
+		IllegalStateException exception = new IllegalStateException("broken");
+		AtomicInteger executed = new AtomicInteger();
+		List<Runnable> tasks = new ArrayList<>();
+		for (int i = 0; i < TASKS; i++) {
+			final int index = i;
+			tasks.add(() -> {
+				executed.incrementAndGet();
+				if (index == 0) {
+					throw exception;
+				}
+				pause(50);
+			});
+		}
+
+		try {
+			pool.execute(tasks, THREADS);
+			fail("Unexpected success");
+		} catch (IllegalStateException e) {
+			assertSame("Wrong exception", exception, e);
+		}
+		assertEquals("Not all tasks finished before the exception was thrown", TASKS, executed.get());
+		assertFalse("Flag left set in the calling thread", ProjectionExecutionPool.isExecutingConcurrently());
+	}
+
+	private void pause(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.impl.rest;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.test.util.TestUtil;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectDeltaOperationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OperationResultStatusType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OperationResultType;
+import com.evolveum.prism.xml.ns._public.types_3.ObjectDeltaType;
+
+/**
+ * Bulk execution of deltas with the model replaced by a simple execution that only records what it was given.
+ */
+public class TestBulkDeltaExecutor {
+
+	private static final int DELTAS = 100;
+	private static final int THREADS = 4;
+	private static final int FAILING_DELTA = 37;
+
+	@Test
+	public void test100ParallelKeepsOrder() throws Exception {
+		final String TEST_NAME = "test100ParallelKeepsOrder";
+		TestUtil.displayTestTitle(TEST_NAME);
+		List<ObjectDeltaType> deltas = createDeltas(DELTAS);
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		Set<String> threadNames = Collections.synchronizedSet(new HashSet<>());
+		List<ObjectDeltaOperationType> results = new ArrayList<>();
+
+		new BulkDeltaExecutor(THREADS).execute(deltas, delta -> {
+			int nowRunning = running.incrementAndGet();
+			maxRunning.accumulateAndGet(nowRunning, Math::max);
+			threadNames.add(Thread.currentThread().getName());
+			try {
+				pause(1);
+				return createResult(delta, getIndex(delta) == FAILING_DELTA);
+			} finally {
+				running.decrementAndGet();
+			}
+		}, results::add);
+
+		assertEquals("Wrong number of results", DELTAS, results.size());
+		for (int i = 0; i < DELTAS; i++) {
+			ObjectDeltaOperationType result = results.get(i);
+			assertSame("Results not in the order of deltas", deltas.get(i), result.getObjectDelta());
+			OperationResultStatusType expectedStatus = i == FAILING_DELTA ?
+					OperationResultStatusType.FATAL_ERROR : OperationResultStatusType.SUCCESS;
+			assertEquals("Wrong status of delta " + i, expectedStatus, result.getExecutionResult().getStatus());
+		}
+		assertTrue("Too many deltas executed at once: " + maxRunning.get(), maxRunning.get() <= THREADS);
+		assertEquals("Wrong threads used: " + threadNames, THREADS, threadNames.size());
+		assertTrue("Calling thread used", !threadNames.contains(Thread.currentThread().getName()));
+	}
+
+	@Test
+	public void test110SequentialInCallingThread() throws Exception {
+		final String TEST_NAME = "test110SequentialInCallingThread";
+		TestUtil.displayTestTitle(TEST_NAME);
+		List<ObjectDeltaType> deltas = createDeltas(DELTAS);
+		Thread callingThread = Thread.currentThread();
+		List<ObjectDeltaOperationType> results = new ArrayList<>();
+
+		new BulkDeltaExecutor(1).execute(deltas, delta -> {
+			assertSame("Not executed in the calling thread", callingThread, Thread.currentThread());
+			return createResult(delta, getIndex(delta) == FAILING_DELTA);
+		}, results::add);
+
+		assertEquals("Wrong number of results", DELTAS, results.size());
+		for (int i = 0; i < DELTAS; i++) {
+			assertSame("Results not in the order of deltas", deltas.get(i), results.get(i).getObjectDelta());
+		}
+	}
+
+	/**
+	 * While a result is being written, only a limited number of deltas may be started ahead of it.
+	 * The first write is slow, so all the deltas submitted by then have time to start.
+	 */
+	@Test
+	public void test200Backpressure() throws Exception {
+		final String TEST_NAME = "test200Backpressure";
+		TestUtil.displayTestTitle(TEST_NAME);
+		List<ObjectDeltaType> deltas = createDeltas(DELTAS);
+		AtomicInteger started = new AtomicInteger();
+		List<ObjectDeltaOperationType> results = new ArrayList<>();
+
+		new BulkDeltaExecutor(THREADS).execute(deltas, delta -> {
+			started.incrementAndGet();
+			return createResult(delta, false);
+		}, result -> {
+			if (results.isEmpty()) {
+				pause(200);
+			}
+			assertTrue("Started " + started.get() + " deltas while writing result " + results.size(),
+					started.get() <= results.size() + 2 * THREADS);
+			results.add(result);
+		});
+
+		assertEquals("Wrong number of results", DELTAS, results.size());
+		assertEquals("Wrong number of deltas executed", DELTAS, started.get());
+	}
+
+	/**
+	 * When the results cannot be written, no more deltas are started and the failure is propagated.
+	 */
+	@Test
+	public void test300WriterFailure() throws Exception {
+		final String TEST_NAME = "test300WriterFailure";
+		TestUtil.displayTestTitle(TEST_NAME);
+		List<ObjectDeltaType> deltas = createDeltas(DELTAS);
+		AtomicInteger started = new AtomicInteger();
+		List<ObjectDeltaOperationType> results = new ArrayList<>();
+		final int failingWrite = 10;
+
+		try {
+			new BulkDeltaExecutor(THREADS).execute(deltas, delta -> {
+				started.incrementAndGet();
+				pause(1);
+				return createResult(delta, false);
+			}, result -> {
+				if (results.size() == failingWrite) {
+					throw new IOException("Connection reset");
+				}
+				results.add(result);
+			});
+			fail("Unexpected success");
+		} catch (IOException e) {
+			assertEquals("Connection reset", e.getMessage());
+		}
+
+		// let the deltas that were running finish; the cancelled ones must not start
+		pause(200);
+		assertEquals("Wrong number of results", failingWrite, results.size());
+		assertTrue("Started " + started.get() + " deltas after the write failed",
+				started.get() <= failingWrite + 2 * THREADS);
+	}
+
+	/**
+	 * The execution should record failures in the result. If it throws an exception anyway, the execution stops.
+	 */
+	@Test
+	public void test310ExecutionException() throws Exception {
+		final String TEST_NAME = "test310ExecutionException";
+		TestUtil.displayTestTitle(TEST_NAME);
+		List<ObjectDeltaType> deltas = createDeltas(DELTAS);
+		List<ObjectDeltaOperationType> results = new ArrayList<>();
+
+		try {
+			new BulkDeltaExecutor(THREADS).execute(deltas, delta -> {
+				if (getIndex(delta) == FAILING_DELTA) {
+					throw new IllegalStateException("Delta " + FAILING_DELTA + " is broken");
+				}
+				return createResult(delta, false);
+			}, results::add);
+			fail("Unexpected success");
+		} catch (SystemException e) {
+			assertTrue("Wrong cause: " + e.getCause(), e.getCause() instanceof IllegalStateException);
+		}
+
+		assertEquals("Results after the failed delta written", FAILING_DELTA, results.size());
+	}
+
+	@Test
+	public void test400SecurityContextPropagated() throws Exception {
+		final String TEST_NAME = "test400SecurityContextPropagated";
+		TestUtil.displayTestTitle(TEST_NAME);
+		Authentication authentication = new TestingAuthenticationToken("administrator", null);
+		SecurityContextHolder.getContext().setAuthentication(authentication);
+		List<Authentication> authentications = Collections.synchronizedList(new ArrayList<>());
+		try {
+			new BulkDeltaExecutor(THREADS).execute(createDeltas(DELTAS), delta -> {
+				authentications.add(SecurityContextHolder.getContext().getAuthentication());
+				return createResult(delta, false);
+			}, result -> {});
+		} finally {
+			SecurityContextHolder.clearContext();
+		}
+
+		assertEquals("Wrong number of deltas executed", DELTAS, authentications.size());
+		for (Authentication executedWith : authentications) {
+			assertSame("Delta executed with a wrong authentication", authentication, executedWith);
+		}
+	}
+
+	private List<ObjectDeltaType> createDeltas(int count) {
+		List<ObjectDeltaType> deltas = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			ObjectDeltaType delta = new ObjectDeltaType();
+			delta.setOid(String.valueOf(i));
+			deltas.add(delta);
+		}
+		return deltas;
+	}
+
+	private int getIndex(ObjectDeltaType delta) {
+		return Integer.parseInt(delta.getOid());
+	}
+
+	private ObjectDeltaOperationType createResult(ObjectDeltaType delta, boolean failed) {
+		OperationResultType executionResult = new OperationResultType();
+		executionResult.setOperation("executeDelta");
+		executionResult.setStatus(failed ? OperationResultStatusType.FATAL_ERROR : OperationResultStatusType.SUCCESS);
+		ObjectDeltaOperationType deltaOperation = new ObjectDeltaOperationType();
+		deltaOperation.setObjectDelta(delta);
+		deltaOperation.setExecutionResult(executionResult);
+		return deltaOperation;
+	}
+
+	private void pause(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -17,9 +17,12 @@
 package com.evolveum.midpoint.model.impl.security;
 
 import com.evolveum.midpoint.model.impl.AbstractInternalModelIntegrationTest;
+import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.security.api.DelegatorWithOtherPrivilegesLimitations;
 import com.evolveum.midpoint.security.api.MidPointPrincipal;
+import com.evolveum.midpoint.task.api.Task;
 import com.evolveum.midpoint.test.util.TestUtil;
 import com.evolveum.midpoint.util.DebugUtil;
 import com.evolveum.midpoint.util.exception.CommonException;
@@ -38,6 +41,9 @@ import java.util.function.Consumer;
 
 import static com.evolveum.midpoint.xml.ns._public.common.common_3.ActivationStatusType.DISABLED;
 import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotSame;
+import static org.testng.AssertJUnit.assertSame;
 
 /**
  * @author mederly
@@ -86,6 +92,42 @@ public class TestUserProfileService extends AbstractInternalModelIntegrationTest
 				(a) -> a.limitOtherPrivileges(new OtherPrivilegesLimitationType()));
 	}
 
+	@Test
+	public void test200PrincipalCache() throws Exception {
+		final String TEST_NAME = "test200PrincipalCache";
+		TestUtil.displayTestTitle(this, TEST_NAME);
+
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+		ItemPath timeToLivePath = new ItemPath(SystemConfigurationType.F_INTERNALS,
+				InternalsConfigurationType.F_PRINCIPAL_CACHE_TIME_TO_LIVE);
+		modifyObjectReplaceProperty(SystemConfigurationType.class, SYSTEM_CONFIGURATION_OID, timeToLivePath,
+				task, result, 3600);
+		try {
+
+			// WHEN
+			TestUtil.displayWhen(TEST_NAME);
+			MidPointPrincipal first = userProfileService.getPrincipalByOid(userAdministrator.getOid());
+			MidPointPrincipal second = userProfileService.getPrincipalByOid(userAdministrator.getOid());
+			modifyObjectReplaceProperty(RoleType.class, ROLE_SUPERUSER_OID, RoleType.F_DESCRIPTION, task, result, "changed");
+			MidPointPrincipal third = userProfileService.getPrincipalByOid(userAdministrator.getOid());
+
+			// THEN
+			TestUtil.displayThen(TEST_NAME);
+			assertFalse("No authorizations", first.getAuthorities().isEmpty());
+			assertSame("Compiled authorizations were not reused", first.getAuthorities().iterator().next(),
+					second.getAuthorities().iterator().next());
+			assertNotSame("Compiled authorizations were reused after role change", first.getAuthorities().iterator().next(),
+					third.getAuthorities().iterator().next());
+			assertEquals("Wrong # of authorizations after role change", first.getAuthorities().size(), third.getAuthorities().size());
+
+		} finally {
+			modifyObjectReplaceProperty(SystemConfigurationType.class, SYSTEM_CONFIGURATION_OID, timeToLivePath,
+					task, result);
+		}
+	}
+
 	private void executeDeputyLimitationsTest(String TEST_NAME, List<OtherPrivilegesLimitationType> expectedLimitations,
 			Consumer<AssignmentType> assignmentModifier) throws CommonException {
 		TestUtil.displayTestTitle(this, TEST_NAME);
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.impl.security;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.Test;
+import org.xml.sax.SAXException;
+
+import com.evolveum.midpoint.common.Clock;
+import com.evolveum.midpoint.model.api.context.PasswordAuthenticationContext;
+import com.evolveum.midpoint.model.common.SystemObjectCache;
+import com.evolveum.midpoint.prism.crypto.Protector;
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.schema.MidPointPrismContextFactory;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.security.api.ConnectionEnvironment;
+import com.evolveum.midpoint.security.api.MidPointPrincipal;
+import com.evolveum.midpoint.test.util.TestUtil;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.InternalsConfigurationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.PasswordType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SystemConfigurationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import com.evolveum.prism.xml.ns._public.types_3.HashedDataType;
+import com.evolveum.prism.xml.ns._public.types_3.ProtectedStringType;
+
+/**
+ * Verified credentials cache, alone and as used by the password authentication evaluator.
+ * The system configuration and the protector are mocked.
+ */
+public class TestVerifiedCredentialsCache {
+
+	private static final String USER_OID = "c0c010c0-d34d-b33f-f00d-111111111111";
+	private static final String GOOD_PASSWORD = "deadmentellnotales";
+	private static final String BAD_PASSWORD = "thisIsNotMyPassword";
+	private static final int TIME_TO_LIVE = 60;
+
+	private SystemObjectCache systemObjectCache;
+	private Clock clock;
+	private VerifiedCredentialsCache cache;
+
+	@BeforeSuite
+	public void setupPrismContext() throws SchemaException, SAXException, IOException {
+		PrismTestUtil.resetPrismContext(MidPointPrismContextFactory.FACTORY);
+	}
+
+	@BeforeMethod
+	public void createCache() throws SchemaException {
+		systemObjectCache = mock(SystemObjectCache.class);
+		setTimeToLive(TIME_TO_LIVE);
+		clock = new Clock();
+		cache = new VerifiedCredentialsCache();
+		ReflectionTestUtils.setField(cache, "systemObjectCache", systemObjectCache);
+		ReflectionTestUtils.setField(cache, "clock", clock);
+	}
+
+	@Test
+	public void test100Hit() {
+		final String TEST_NAME = "test100Hit";
+		TestUtil.displayTestTitle(TEST_NAME);
+		ProtectedStringType stored = createHashedValue("hash1");
+
+		assertFalse("Verified before recording", cache.isVerified(USER_OID, stored, GOOD_PASSWORD));
+		cache.recordVerified(USER_OID, stored, GOOD_PASSWORD);
+
+		assertTrue("Recorded password not verified", cache.isVerified(USER_OID, stored, GOOD_PASSWORD));
+		assertFalse("Other password verified", cache.isVerified(USER_OID, stored, BAD_PASSWORD));
+		assertFalse("Other user verified", cache.isVerified("c0c010c0-d34d-b33f-f00d-222222222222", stored, GOOD_PASSWORD));
+	}
+
+	@Test
+	public void test110MissAfterPasswordChange() {
+		final String TEST_NAME = "test110MissAfterPasswordChange";
+		TestUtil.displayTestTitle(TEST_NAME);
+		cache.recordVerified(USER_OID, createHashedValue("hash1"), GOOD_PASSWORD);
+
+		// the same password set again gets a new salt, i.e. a new hash
+		assertFalse("Verified against a changed password", cache.isVerified(USER_OID, createHashedValue("hash2"), GOOD_PASSWORD));
+	}
+
+	@Test
+	public void test120MissAfterExpiry() {
+		final String TEST_NAME = "test120MissAfterExpiry";
+		TestUtil.displayTestTitle(TEST_NAME);
+		ProtectedStringType stored = createHashedValue("hash1");
+		cache.recordVerified(USER_OID, stored, GOOD_PASSWORD);
+
+		clock.overrideDuration((TIME_TO_LIVE - 1) * 1000L);
+		assertTrue("Expired too early", cache.isVerified(USER_OID, stored, GOOD_PASSWORD));
+
+		clock.overrideDuration(1000L);
+		assertFalse("Expired entry used", cache.isVerified(USER_OID, stored, GOOD_PASSWORD));
+
+		clock.resetOverride();
+		assertFalse("Expired entry not removed", cache.isVerified(USER_OID, stored, GOOD_PASSWORD));
+	}
+
+	@Test
+	public void test130Disabled() throws SchemaException {
+		final String TEST_NAME = "test130Disabled";
+		TestUtil.displayTestTitle(TEST_NAME);
+		ProtectedStringType stored = createHashedValue("hash1");
+		cache.recordVerified(USER_OID, stored, GOOD_PASSWORD);
+
+		setTimeToLive(null);
+
+		assertFalse("Used after the cache was disabled", cache.isVerified(USER_OID, stored, GOOD_PASSWORD));
+		cache.recordVerified(USER_OID, stored, GOOD_PASSWORD);
+		setTimeToLive(TIME_TO_LIVE);
+		assertFalse("Recorded while the cache was disabled", cache.isVerified(USER_OID, stored, GOOD_PASSWORD));
+	}
+
+	@Test
+	public void test140EncryptedNotCached() {
+		final String TEST_NAME = "test140EncryptedNotCached";
+		TestUtil.displayTestTitle(TEST_NAME);
+		ProtectedStringType stored = new ProtectedStringType();
+		stored.setClearValue(GOOD_PASSWORD);
+
+		cache.recordVerified(USER_OID, stored, GOOD_PASSWORD);
+
+		assertFalse("Not hashed value cached", cache.isVerified(USER_OID, stored, GOOD_PASSWORD));
+	}
+
+	/**
+	 * The evaluator records only successful verifications: a wrong password is compared with the stored value
+	 * each time it is entered, a good one only the first time.
+	 */
+	@Test
+	public void test200EvaluatorCachesOnlyGoodPassword() throws Exception {
+		final String TEST_NAME = "test200EvaluatorCachesOnlyGoodPassword";
+		TestUtil.displayTestTitle(TEST_NAME);
+		Protector protector = mock(Protector.class);
+		when(protector.compare(any(ProtectedStringType.class), any(ProtectedStringType.class))).thenAnswer(
+				invocation -> GOOD_PASSWORD.equals(((ProtectedStringType) invocation.getArguments()[0]).getClearValue()));
+		PasswordAuthenticationEvaluatorImpl evaluator = new PasswordAuthenticationEvaluatorImpl();
+		ReflectionTestUtils.setField(evaluator, "protector", protector);
+		ReflectionTestUtils.setField(evaluator, "verifiedCredentialsCache", cache);
+
+		UserType user = new UserType();
+		user.setOid(USER_OID);
+		MidPointPrincipal principal = new MidPointPrincipal(user);
+		PasswordType password = new PasswordType();
+		password.setValue(createHashedValue("hash1"));
+		ConnectionEnvironment connEnv = new ConnectionEnvironment();
+
+		assertFalse(evaluator.passwordMatches(connEnv, principal, password, new PasswordAuthenticationContext("jack", BAD_PASSWORD)));
+		assertFalse(evaluator.passwordMatches(connEnv, principal, password, new PasswordAuthenticationContext("jack", BAD_PASSWORD)));
+		verify(protector, times(2)).compare(any(ProtectedStringType.class), any(ProtectedStringType.class));
+		assertFalse("Wrong password cached", cache.isVerified(USER_OID, password.getValue(), BAD_PASSWORD));
+
+		assertTrue(evaluator.passwordMatches(connEnv, principal, password, new PasswordAuthenticationContext("jack", GOOD_PASSWORD)));
+		assertTrue(evaluator.passwordMatches(connEnv, principal, password, new PasswordAuthenticationContext("jack", GOOD_PASSWORD)));
+		verify(protector, times(3)).compare(any(ProtectedStringType.class), any(ProtectedStringType.class));
+
+		assertFalse(evaluator.passwordMatches(connEnv, principal, password, new PasswordAuthenticationContext("jack", BAD_PASSWORD)));
+		verify(protector, times(4)).compare(any(ProtectedStringType.class), any(ProtectedStringType.class));
+	}
+
+	private void setTimeToLive(Integer seconds) throws SchemaException {
+		SystemConfigurationType systemConfiguration = new SystemConfigurationType(PrismTestUtil.getPrismContext());
+		InternalsConfigurationType internals = new InternalsConfigurationType();
+		internals.setVerifiedCredentialsCacheTimeToLive(seconds);
+		systemConfiguration.setInternals(internals);
+		when(systemObjectCache.getSystemConfiguration(any(OperationResult.class))).thenReturn(systemConfiguration.asPrismObject());
+	}
+
+	private ProtectedStringType createHashedValue(String digest) {
+		HashedDataType hashedData = new HashedDataType();
+		hashedData.setDigestValue(digest.getBytes(StandardCharsets.UTF_8));
+		ProtectedStringType value = new ProtectedStringType();
+		value.setHashedData(hashedData);
+		return value;
+	}
+}
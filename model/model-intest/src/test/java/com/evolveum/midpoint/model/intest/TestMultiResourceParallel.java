@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.intest;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.Test;
+
+import com.evolveum.icf.dummy.resource.BreakMode;
+import com.evolveum.midpoint.model.impl.lens.ChangeExecutor;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.result.OperationResultStatus;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.test.util.TestUtil;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.InternalsConfigurationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SystemConfigurationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+
+/**
+ * The same as TestMultiResource, but projections that do not depend on each other
+ * are executed concurrently.
+ */
+@ContextConfiguration(locations = {"classpath:ctx-model-intest-test-main.xml"})
+@DirtiesContext(classMode = ClassMode.AFTER_CLASS)
+public class TestMultiResourceParallel extends TestMultiResource {
+
+	private static final int PROJECTION_EXECUTION_THREADS = 4;
+
+	private static final String USER_PARALLEL_NAME = "parallel";
+	private static final String USER_PARALLEL_FULL_NAME = "Parallel Projections";
+
+	private static final String OPERATION_EXECUTE_PROJECTION = ChangeExecutor.class.getName() + ".execute.projection.";
+
+	@Override
+	public void initSystem(Task initTask, OperationResult initResult) throws Exception {
+		super.initSystem(initTask, initResult);
+
+		modifyObjectReplaceProperty(SystemConfigurationType.class, SYSTEM_CONFIGURATION_OID,
+				new ItemPath(SystemConfigurationType.F_INTERNALS, InternalsConfigurationType.F_PROJECTION_EXECUTION_THREADS),
+				initTask, initResult, PROJECTION_EXECUTION_THREADS);
+	}
+
+	/**
+	 * Accounts on three independent resources are created concurrently, one of them fails.
+	 * The other two must be created and linked, the failure must be recorded only in the result
+	 * of the failed projection.
+	 */
+	@Test
+	public void test900AssignAccountsOneFailing() throws Exception {
+		final String TEST_NAME = "test900AssignAccountsOneFailing";
+		displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+		dummyAuditService.clear();
+
+		String userOid = addObject(createUser(USER_PARALLEL_NAME, USER_PARALLEL_FULL_NAME, true), task, result);
+
+		ObjectDelta<UserType> userDelta = createAccountAssignmentUserDelta(userOid, RESOURCE_DUMMY_OID, null, true);
+		userDelta.merge(createAccountAssignmentUserDelta(userOid, RESOURCE_DUMMY_RED_OID, null, true));
+		userDelta.merge(createAccountAssignmentUserDelta(userOid, RESOURCE_DUMMY_BLUE_OID, null, true));
+
+		getDummyResource(RESOURCE_DUMMY_BLUE_NAME).setAddBreakMode(BreakMode.SCHEMA);
+		try {
+
+			// WHEN
+			displayWhen(TEST_NAME);
+			executeChanges(userDelta, null, task, result);
+
+		} finally {
+			getDummyResource(RESOURCE_DUMMY_BLUE_NAME).resetBreakMode();
+		}
+
+		// THEN
+		displayThen(TEST_NAME);
+		result.computeStatus();
+		display("Result", result);
+		TestUtil.assertPartialError(result);
+
+		List<OperationResult> projectionResults = new ArrayList<>();
+		collectProjectionResults(result, projectionResults);
+		int failed = 0;
+		int succeeded = 0;
+		for (OperationResult projectionResult : projectionResults) {
+			if (projectionResult.getStatus() == OperationResultStatus.FATAL_ERROR) {
+				failed++;
+			} else if (projectionResult.isSuccess()) {
+				succeeded++;
+			}
+		}
+		assertEquals("Wrong # of failed projections in " + projectionResults, 1, failed);
+		assertTrue("Wrong # of successful projections in " + projectionResults, succeeded >= 2);
+
+		PrismObject<UserType> userAfter = getUser(userOid);
+		display("User after", userAfter);
+		assertAssignments(userAfter, 3);
+		assertLinks(userAfter, 2);
+
+		assertDummyAccount(null, USER_PARALLEL_NAME, USER_PARALLEL_FULL_NAME, true);
+		assertDummyAccount(RESOURCE_DUMMY_RED_NAME, USER_PARALLEL_NAME);
+		assertNoDummyAccount(RESOURCE_DUMMY_BLUE_NAME, USER_PARALLEL_NAME);
+	}
+
+	private void collectProjectionResults(OperationResult result, List<OperationResult> projectionResults) {
+		if (result.getOperation().startsWith(OPERATION_EXECUTE_PROJECTION)) {
+			projectionResults.add(result);
+		}
+		for (OperationResult subresult : result.getSubresults()) {
+			collectProjectionResults(subresult, projectionResults);
+		}
+	}
+}
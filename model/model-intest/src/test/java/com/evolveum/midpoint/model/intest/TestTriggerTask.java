@@ -33,14 +33,18 @@ import org.springframework.test.context.ContextConfiguration;
 import org.testng.annotations.Test;
 
 import com.evolveum.midpoint.model.impl.trigger.TriggerHandlerRegistry;
+import com.evolveum.midpoint.model.impl.trigger.TriggerScannerTaskHandler;
 import com.evolveum.midpoint.model.intest.util.MockTriggerHandler;
 import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.task.api.Task;
 import com.evolveum.midpoint.test.util.TestUtil;
+import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * @author Radovan Semancik
@@ -55,6 +59,8 @@ public class TestTriggerTask extends AbstractInitializedModelIntegrationTest {
 
 	private static final XMLGregorianCalendar LONG_LONG_TIME_AGO = XmlTypeConverter.createXMLGregorianCalendar(1111, 1, 1, 12, 00, 00);
 
+	private static final int TRIGGER_OWNERS = 5;
+
 	private MockTriggerHandler testTriggerHandler;
 
 	private XMLGregorianCalendar drakeValidFrom;
@@ -63,6 +69,9 @@ public class TestTriggerTask extends AbstractInitializedModelIntegrationTest {
 	@Autowired
 	private TriggerHandlerRegistry triggerHandlerRegistry;
 
+	@Autowired
+	private TriggerScannerTaskHandler triggerScannerTaskHandler;
+
 	@Override
 	protected ConflictResolutionActionType getDefaultConflictResolutionAction() {
 		// addTrigger call can overlap with trigger execution on slower machines, leading to positive conflict check result
@@ -266,6 +275,72 @@ public class TestTriggerTask extends AbstractInitializedModelIntegrationTest {
 		assertLastScanTimestamp(TASK_TRIGGER_SCANNER_OID, startCal, endCal);
 	}
 
+	/**
+	 * Due triggers are read in batches (of 2 here). Each owner has two hot triggers: both must be fired, once.
+	 * An owner that is deleted while the scanner is running (by the first trigger handler invocation) must be skipped.
+	 */
+	@Test
+	public void test205TriggersOfManyOwners() throws Exception {
+		final String TEST_NAME = "test205TriggersOfManyOwners";
+		TestUtil.displayTestTitle(this, TEST_NAME);
+
+		// GIVEN
+		Task task = createTask(TestTriggerTask.class.getName() + "." + TEST_NAME);
+		OperationResult result = task.getResult();
+		testTriggerHandler.reset();
+
+		// to have all the triggers processed in one run
+		boolean suspended = taskManager.suspendTasks(singleton(TASK_TRIGGER_SCANNER_OID), 20000L, result);
+		assertTrue("trigger scanner task was not suspended", suspended);
+
+		XMLGregorianCalendar startCal = clock.currentTimeXMLGregorianCalendar();
+		XMLGregorianCalendar startCalPlus5ms = XmlTypeConverter.createXMLGregorianCalendar(startCal);
+		startCalPlus5ms.add(XmlTypeConverter.createDuration(5L));
+		XMLGregorianCalendar startCalPlus10ms = XmlTypeConverter.createXMLGregorianCalendar(startCal);
+		startCalPlus10ms.add(XmlTypeConverter.createDuration(10L));
+
+		List<String> ownerOids = new ArrayList<>();
+		for (int i = 0; i < TRIGGER_OWNERS; i++) {
+			String oid = addObject(createUser("trigger-owner-" + i, "Trigger Owner " + i, true), task, result);
+			addTriggers(oid, Arrays.asList(startCal, startCalPlus5ms), MockTriggerHandler.HANDLER_URI);
+			ownerOids.add(oid);
+		}
+		// the last trigger, so it is in a later batch than the first one fired
+		String doomedOid = addObject(createUser("trigger-owner-doomed", "Doomed Trigger Owner", true), task, result);
+		addTrigger(doomedOid, startCalPlus10ms, MockTriggerHandler.HANDLER_URI);
+
+		testTriggerHandler.setAction(object -> {
+			if (!object.getOid().equals(doomedOid)) {
+				try {
+					repositoryService.deleteObject(UserType.class, doomedOid, new OperationResult("deleteDoomedOwner"));
+				} catch (ObjectNotFoundException e) {
+					// already deleted
+				}
+			}
+		});
+		triggerScannerTaskHandler.setTriggerBatchSize(2);
+		try {
+
+			/// WHEN
+			TestUtil.displayWhen(TEST_NAME);
+			taskManager.resumeTasks(singleton(TASK_TRIGGER_SCANNER_OID), result);
+			waitForTaskNextRunAssertSuccess(TASK_TRIGGER_SCANNER_OID, true);
+
+		} finally {
+			triggerScannerTaskHandler.setTriggerBatchSize(0);
+			testTriggerHandler.setAction(null);
+		}
+
+		// THEN
+		TestUtil.displayThen(TEST_NAME);
+		for (String oid : ownerOids) {
+			assertEquals("Triggers of " + oid + " fired wrong number of times", 2, testTriggerHandler.getInvocationCount(oid));
+			assertNoTrigger(UserType.class, oid);
+		}
+		assertEquals("Trigger of deleted owner fired", 0, testTriggerHandler.getInvocationCount(doomedOid));
+		assertEquals("Trigger was called wrong number of times", 2 * TRIGGER_OWNERS, testTriggerHandler.getInvocationCount());
+	}
+
 	// MID-4474
 	@Test
 	public void test210InterruptedScanner() throws Exception {
@@ -97,6 +97,8 @@ public class TestScriptingBasic extends AbstractInitializedModelIntegrationTest
     private static final File NOTIFICATION_ABOUT_JACK_FILE = new File(TEST_DIR, "notification-about-jack.xml");
     private static final File NOTIFICATION_ABOUT_JACK_TYPE2_FILE = new File(TEST_DIR, "notification-about-jack-type2.xml");
 	private static final File SCRIPTING_USERS_FILE = new File(TEST_DIR, "scripting-users.xml");
+	private static final File SCRIPTING_USERS_STREAMED_FILE = new File(TEST_DIR, "scripting-users-streamed.xml");
+	private static final File SCRIPTING_USERS_STREAMED_WHOLE_INPUT_FILE = new File(TEST_DIR, "scripting-users-streamed-whole-input.xml");
 	private static final File SCRIPTING_USERS_IN_BACKGROUND_FILE = new File(TEST_DIR, "scripting-users-in-background.xml");
 	private static final File SCRIPTING_USERS_IN_BACKGROUND_ASSIGN_FILE = new File(TEST_DIR, "scripting-users-in-background-assign.xml");
 	private static final File SCRIPTING_USERS_IN_BACKGROUND_TASK_FILE = new File(TEST_DIR, "scripting-users-in-background-task.xml");
@@ -754,6 +756,69 @@ public class TestScriptingBasic extends AbstractInitializedModelIntegrationTest
 				realOids);
 	}
 
+	/**
+	 * Users are sent through the pipeline in batches of 2, the action is executed by 2 worker threads.
+	 */
+	@Test
+	public void test502ScriptingUsersStreamed() throws Exception {
+		final String TEST_NAME = "test502ScriptingUsersStreamed";
+		TestUtil.displayTestTitle(this, TEST_NAME);
+
+		// GIVEN
+		Task task = createTask(DOT_CLASS + TEST_NAME);
+		task.setOwner(getUser(USER_ADMINISTRATOR_OID));
+		OperationResult result = task.getResult();
+		ExecuteScriptType executeScript = parseRealValue(SCRIPTING_USERS_STREAMED_FILE);
+
+		// WHEN
+		ExecutionContext output = scriptingExpressionEvaluator.evaluateExpression(executeScript, emptyMap(), false, task, result);
+
+		// THEN
+		dumpOutput(output, result);
+		result.computeStatus();
+		TestUtil.assertSuccess(result);
+		assertEquals("Unexpected # of worker threads", 2, task.getLightweightAsynchronousSubtasks().size());
+		PipelineData data = output.getFinalOutput();
+		assertEquals("Unexpected # of items in output", 5, data.getData().size());
+		Set<String> realOids = new HashSet<>();
+		for (PipelineItem item : data.getData()) {
+			PrismValue value = item.getValue();
+			PrismObject<UserType> user = ((PrismObjectValue<UserType>) value).asPrismObject();
+			assertEquals("Description not set", "Streamed", user.asObjectable().getDescription());
+			realOids.add(user.getOid());
+			assertSuccess(item.getResult());
+		}
+		assertEquals("Unexpected OIDs in output",
+				Sets.newHashSet(Arrays.asList(USER_ADMINISTRATOR_OID, USER_JACK_OID, USER_BARBOSSA_OID, USER_GUYBRUSH_OID, USER_ELAINE_OID)),
+				realOids);
+	}
+
+	/**
+	 * Streaming is requested, but the action needs the whole input: it must see all the users at once.
+	 */
+	@Test
+	public void test503ScriptingUsersStreamedForWholeInput() throws Exception {
+		final String TEST_NAME = "test503ScriptingUsersStreamedForWholeInput";
+		TestUtil.displayTestTitle(this, TEST_NAME);
+
+		// GIVEN
+		Task task = createTask(DOT_CLASS + TEST_NAME);
+		OperationResult result = task.getResult();
+		ExecuteScriptType executeScript = parseRealValue(SCRIPTING_USERS_STREAMED_WHOLE_INPUT_FILE);
+
+		// WHEN
+		ExecutionContext output = scriptingExpressionEvaluator.evaluateExpression(executeScript, emptyMap(), false, task, result);
+
+		// THEN
+		dumpOutput(output, result);
+		result.computeStatus();
+		TestUtil.assertSuccess(result);
+		PipelineData data = output.getFinalOutput();
+		assertEquals("Action executed more than once (for each batch?)", 1, data.getData().size());
+		String returned = data.getData().get(0).getValue().getRealValue();
+		assertEquals("Action did not see the whole input", "5", returned);
+	}
+
     @Test
 	public void test505ScriptingUsersInBackground() throws Exception {
 		final String TEST_NAME = "test505ScriptingUsersInBackground";
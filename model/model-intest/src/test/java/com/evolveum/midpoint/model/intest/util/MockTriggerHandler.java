@@ -26,7 +26,10 @@ import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.TriggerType;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * @author Radovan Semancik
@@ -40,7 +43,9 @@ public class MockTriggerHandler implements TriggerHandler {
 
 	private PrismObject<?> lastObject;
 	private AtomicInteger invocationCount = new AtomicInteger(0);
+	private Map<String, AtomicInteger> invocationCountByOid = new ConcurrentHashMap<>();
 	private long delay;
+	private Consumer<PrismObject<?>> action;
 
 	public PrismObject<?> getLastObject() {
 		return lastObject;
@@ -50,6 +55,11 @@ public class MockTriggerHandler implements TriggerHandler {
 		return invocationCount.get();
 	}
 
+	public int getInvocationCount(String oid) {
+		AtomicInteger count = invocationCountByOid.get(oid);
+		return count != null ? count.get() : 0;
+	}
+
 	public long getDelay() {
 		return delay;
 	}
@@ -58,6 +68,13 @@ public class MockTriggerHandler implements TriggerHandler {
 		this.delay = delay;
 	}
 
+	/**
+	 * Action to be executed on each invocation (e.g. to modify other objects while the scanner is running).
+	 */
+	public void setAction(Consumer<PrismObject<?>> action) {
+		this.action = action;
+	}
+
 	/* (non-Javadoc)
 	 * @see com.evolveum.midpoint.model.trigger.TriggerHandler#handle(com.evolveum.midpoint.prism.PrismObject)
 	 */
@@ -66,6 +83,10 @@ public class MockTriggerHandler implements TriggerHandler {
 		IntegrationTestTools.display("Mock trigger handler called with " + object);
 		lastObject = object.clone();
 		invocationCount.incrementAndGet();
+		invocationCountByOid.computeIfAbsent(object.getOid(), k -> new AtomicInteger()).incrementAndGet();
+		if (action != null) {
+			action.accept(object);
+		}
 		long start = System.currentTimeMillis();
 		while (System.currentTimeMillis() - start < delay && task.canRun()) {
 			try {
@@ -79,7 +100,9 @@ public class MockTriggerHandler implements TriggerHandler {
 	public void reset() {
 		lastObject = null;
 		invocationCount.set(0);
+		invocationCountByOid.clear();
 		delay = 0;
+		action = null;
 	}
 
 }
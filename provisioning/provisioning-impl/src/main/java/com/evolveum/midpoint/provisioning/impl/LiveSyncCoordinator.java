@@ -0,0 +1,402 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.provisioning.impl;
+
+import com.evolveum.midpoint.prism.PrismProperty;
+import com.evolveum.midpoint.prism.crypto.EncryptionException;
+import com.evolveum.midpoint.provisioning.ucf.api.Change;
+import com.evolveum.midpoint.provisioning.ucf.api.GenericFrameworkException;
+import com.evolveum.midpoint.repo.cache.RepositoryCache;
+import com.evolveum.midpoint.schema.ResourceShadowDiscriminator;
+import com.evolveum.midpoint.schema.processor.ObjectClassComplexTypeDefinition;
+import com.evolveum.midpoint.schema.processor.ResourceAttribute;
+import com.evolveum.midpoint.schema.processor.ResourceAttributeDefinition;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.result.OperationResultStatus;
+import com.evolveum.midpoint.task.api.LightweightTaskHandler;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.task.api.TaskManager;
+import com.evolveum.midpoint.util.exception.CommonException;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.exception.TunnelException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+
+import javax.xml.namespace.QName;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Distributes live sync changes among worker threads (lightweight subtasks of the live sync task).
+ *
+ * Changes are partitioned by primary identifier of the resource object: all changes of a given object go to
+ * the same worker, so they are processed in the order in which the resource provided them. Changes of different
+ * objects are processed concurrently.
+ *
+ * Each change gets a sequence number when received. The token stored in the task is the token of the highest
+ * change such that this change and all changes before it were fully processed. Changes that failed (and should
+ * be retried) stop the token from advancing, so they are fetched again in the next live sync run.
+ */
+class LiveSyncCoordinator {
+
+	private static final transient Trace LOGGER = TraceManager.getTrace(LiveSyncCoordinator.class);
+
+	private static final String OP_PROCESS_CHANGE = LiveSyncCoordinator.class.getName() + ".processChange";
+	private static final String OP_HANDLE_ASYNCHRONOUSLY = LiveSyncCoordinator.class.getName() + ".handleAsynchronously";
+	private static final String OP_EXECUTE_WORKER = LiveSyncCoordinator.class.getName() + ".executeWorker";
+
+	private static final int WORKER_THREAD_WAIT_FOR_REQUEST = 500;
+	private static final long REQUEST_QUEUE_OFFER_TIMEOUT = 1000L;
+	private static final int REQUEST_QUEUE_SIZE = 10;
+
+	enum ChangeProcessingOutcome {
+		/**
+		 * Change was processed and should be counted as such.
+		 */
+		PROCESSED,
+
+		/**
+		 * Change was not relevant and was ignored (but there is no need to see it again).
+		 */
+		SKIPPED,
+
+		/**
+		 * Change was not processed successfully and should be retried.
+		 */
+		FAILED
+	}
+
+	@FunctionalInterface
+	interface ChangeProcessor {
+		ChangeProcessingOutcome process(ProvisioningContext workerCtx, Change change, OperationResult result)
+				throws CommonException, GenericFrameworkException, EncryptionException;
+	}
+
+	@FunctionalInterface
+	interface WorkerContextFactory {
+		ProvisioningContext create(ResourceShadowDiscriminator coords, Task workerTask, OperationResult result)
+				throws CommonException;
+	}
+
+	private final Task coordinatorTask;
+	private final ResourceShadowDiscriminator shadowCoordinates;
+	private final TaskManager taskManager;
+	private final WorkerContextFactory workerContextFactory;
+	private final ChangeProcessor changeProcessor;
+
+	private final List<BlockingQueue<ProcessingRequest>> requestQueues = new ArrayList<>();
+	private final List<OperationResult> workerSpecificResults = new ArrayList<>();
+
+	// guarded by coordinatorTask
+	private final TokenTracker tokenTracker = new TokenTracker();
+
+	private long nextSequenceNumber = 0;
+	private final AtomicInteger changesProcessed = new AtomicInteger();
+	private volatile boolean allChangesSubmitted = false;
+	private volatile Throwable failure;
+
+	LiveSyncCoordinator(Task coordinatorTask, ResourceShadowDiscriminator shadowCoordinates, TaskManager taskManager,
+			WorkerContextFactory workerContextFactory, ChangeProcessor changeProcessor) {
+		this.coordinatorTask = coordinatorTask;
+		this.shadowCoordinates = shadowCoordinates;
+		this.taskManager = taskManager;
+		this.workerContextFactory = workerContextFactory;
+		this.changeProcessor = changeProcessor;
+	}
+
+	void createWorkerThreads(int threadsCount) {
+		for (int i = 0; i < threadsCount; i++) {
+			BlockingQueue<ProcessingRequest> queue = new ArrayBlockingQueue<>(REQUEST_QUEUE_SIZE);
+			requestQueues.add(queue);
+
+			// we intentionally do not put worker specific result under main operation result until the processing is done
+			// (because of concurrency issues)
+			OperationResult workerSpecificResult = new OperationResult(OP_HANDLE_ASYNCHRONOUSLY);
+			workerSpecificResult.addContext("subtaskIndex", i+1);
+			workerSpecificResults.add(workerSpecificResult);
+
+			Task subtask = coordinatorTask.createSubtask(new WorkerHandler(queue, workerSpecificResult));
+			subtask.resetIterativeTaskInformation(null);
+			subtask.resetSynchronizationInformation(null);
+			subtask.resetActionsExecutedInformation(null);
+			subtask.setCategory(coordinatorTask.getCategory());
+			subtask.setResult(new OperationResult(OP_EXECUTE_WORKER, OperationResultStatus.IN_PROGRESS, (String) null));
+			subtask.setName("Worker thread " + (i+1) + " of " + threadsCount);
+			subtask.startLightweightHandler();
+			LOGGER.trace("Live sync worker subtask {} created", subtask);
+		}
+	}
+
+	/**
+	 * Submits a change for processing. Called from the coordinator thread only.
+	 *
+	 * @return false if the processing should stop
+	 */
+	boolean submit(Change change) {
+		long sequenceNumber = nextSequenceNumber++;
+		if (change.isTokenOnly()) {
+			LOGGER.trace("Found token-only change: {}", change);
+			try {
+				markDone(sequenceNumber, change.getToken(), false);
+			} catch (SchemaException e) {
+				throw new TunnelException(e);
+			}
+			return shouldContinue();
+		}
+
+		BlockingQueue<ProcessingRequest> queue = requestQueues.get(
+				Math.floorMod(getPartitionKey(change).hashCode(), requestQueues.size()));
+		ProcessingRequest request = new ProcessingRequest(sequenceNumber, change);
+		try {
+			while (!queue.offer(request, REQUEST_QUEUE_OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+				if (!shouldContinue()) {
+					return false;
+				}
+			}
+		} catch (InterruptedException e) {
+			LOGGER.trace("Interrupted when submitting change {}", change, e);
+			return false;
+		}
+		return shouldContinue();
+	}
+
+	private boolean shouldContinue() {
+		if (failure != null) {
+			return false;
+		}
+		if (!coordinatorTask.canRun()) {
+			LOGGER.trace("Task was suspended, stopping processing of changes");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Waits until all submitted changes are processed (or the workers are stopped) and collects worker results.
+	 */
+	void completeProcessing(OperationResult result) {
+		allChangesSubmitted = true;
+		taskManager.waitForTransientChildren(coordinatorTask, result);
+		for (OperationResult workerSpecificResult : workerSpecificResults) {
+			workerSpecificResult.computeStatus();
+			workerSpecificResult.summarize();
+			result.addSubresult(workerSpecificResult);
+		}
+	}
+
+	int getChangesProcessed() {
+		return changesProcessed.get();
+	}
+
+	/**
+	 * The first exception that occurred in worker threads (if any). Processing of changes stops after it.
+	 */
+	Throwable getFailure() {
+		return failure;
+	}
+
+	private void markDone(long sequenceNumber, PrismProperty<?> token, boolean processed) throws SchemaException {
+		synchronized (coordinatorTask) {
+			if (tokenTracker.markDone(sequenceNumber, token)) {
+				PrismProperty<?> newToken = tokenTracker.getToken();
+				LOGGER.trace("Advancing token to {} (sequence number {})", newToken, tokenTracker.getLastDone());
+				coordinatorTask.setExtensionProperty(newToken);
+			}
+			if (processed) {
+				coordinatorTask.incrementProgressAndStoreStatsIfNeeded();		// includes savePendingModifications
+			}
+		}
+	}
+
+	/**
+	 * The token cannot advance past a failed change in this run, so changes after it need not be tracked any more.
+	 */
+	private void markFailed(long sequenceNumber) {
+		synchronized (coordinatorTask) {
+			tokenTracker.markFailed(sequenceNumber);
+			LOGGER.trace("Change #{} failed, token stays at {} (sequence number {})", sequenceNumber,
+					tokenTracker.getToken(), tokenTracker.getLastDone());
+		}
+	}
+
+	/**
+	 * Changes to the same resource object must get the same key. We use primary identifiers only,
+	 * because secondary ones (e.g. name) can change, and also an object class - if known - because
+	 * identifiers need not be unique across object classes.
+	 */
+	private Object getPartitionKey(Change change) {
+		ObjectClassComplexTypeDefinition objectClassDefinition = change.getObjectClassDefinition();
+		Set<QName> primaryIdentifierNames = new HashSet<>();
+		if (objectClassDefinition != null) {
+			for (ResourceAttributeDefinition<?> primaryIdentifier : objectClassDefinition.getPrimaryIdentifiers()) {
+				primaryIdentifierNames.add(primaryIdentifier.getName());
+			}
+		}
+		Map<QName, Set<?>> key = new HashMap<>();
+		Collection<ResourceAttribute<?>> identifiers = change.getIdentifiers();
+		if (identifiers != null) {
+			for (ResourceAttribute<?> identifier : identifiers) {
+				if (primaryIdentifierNames.isEmpty() || primaryIdentifierNames.contains(identifier.getElementName())) {
+					key.put(identifier.getElementName(), new HashSet<>(identifier.getRealValues()));
+				}
+			}
+		}
+		return key;
+	}
+
+	private class WorkerHandler implements LightweightTaskHandler {
+
+		private final BlockingQueue<ProcessingRequest> queue;
+		private final OperationResult workerSpecificResult;
+
+		private WorkerHandler(BlockingQueue<ProcessingRequest> queue, OperationResult workerSpecificResult) {
+			this.queue = queue;
+			this.workerSpecificResult = workerSpecificResult;
+		}
+
+		@Override
+		public void run(Task workerTask) {
+			ProvisioningContext workerCtx;
+			try {
+				workerCtx = workerContextFactory.create(shadowCoordinates, workerTask, workerSpecificResult);
+			} catch (CommonException | RuntimeException e) {
+				recordFailure(e, workerSpecificResult);
+				return;
+			}
+
+			while (workerTask.canRun()) {
+				ProcessingRequest request;
+				try {
+					request = queue.poll(WORKER_THREAD_WAIT_FOR_REQUEST, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					LOGGER.trace("Interrupted when waiting for next change", e);
+					return;
+				}
+				if (request != null) {
+					if (failure != null) {
+						// no point in processing further changes of this object, the token cannot advance anyway
+						continue;
+					}
+					processRequest(request, workerCtx);
+				} else if (allChangesSubmitted) {
+					LOGGER.trace("Queue is empty and nothing more is expected - exiting");
+					return;
+				}
+			}
+		}
+
+		private void processRequest(ProcessingRequest request, ProvisioningContext workerCtx) {
+			OperationResult result = workerSpecificResult.createSubresult(OP_PROCESS_CHANGE);
+			result.addParam("sequenceNumber", request.sequenceNumber);
+			try {
+				RepositoryCache.enter();
+				ChangeProcessingOutcome outcome = changeProcessor.process(workerCtx, request.change, result);
+				LOGGER.trace("Change #{} processed with outcome {}", request.sequenceNumber, outcome);
+				if (outcome == ChangeProcessingOutcome.PROCESSED) {
+					changesProcessed.incrementAndGet();
+				}
+				if (outcome != ChangeProcessingOutcome.FAILED) {
+					markDone(request.sequenceNumber, request.change.getToken(), outcome == ChangeProcessingOutcome.PROCESSED);
+				} else {
+					markFailed(request.sequenceNumber);
+				}
+				result.computeStatusIfUnknown();
+			} catch (CommonException | GenericFrameworkException | EncryptionException | RuntimeException | Error e) {
+				markFailed(request.sequenceNumber);
+				recordFailure(e, result);
+			} finally {
+				RepositoryCache.exit();
+				workerSpecificResult.summarize();
+			}
+		}
+	}
+
+	private void recordFailure(Throwable t, OperationResult result) {
+		LOGGER.error("Live sync processing failed: {}", t.getMessage(), t);
+		result.recordFatalError(t);
+		synchronized (this) {
+			if (failure == null) {
+				failure = t;
+			}
+		}
+	}
+
+	private static class ProcessingRequest {
+		private final long sequenceNumber;
+		private final Change change;
+
+		private ProcessingRequest(long sequenceNumber, Change change) {
+			this.sequenceNumber = sequenceNumber;
+			this.change = change;
+		}
+	}
+
+	/**
+	 * Keeps track of the highest contiguous sequence number of changes that were fully processed.
+	 *
+	 * After a change fails, the token can advance only up to the change before it. Changes with higher sequence
+	 * numbers are then not remembered, so the number of tracked changes stays bounded by the changes in progress.
+	 */
+	static class TokenTracker {
+
+		private final SortedMap<Long, PrismProperty<?>> doneOutOfOrder = new TreeMap<>();
+		private long lastDone = -1;
+		private long firstFailed = Long.MAX_VALUE;
+		private PrismProperty<?> token;
+
+		/**
+		 * @return true if the token advanced
+		 */
+		boolean markDone(long sequenceNumber, PrismProperty<?> token) {
+			if (sequenceNumber > firstFailed) {
+				return false;
+			}
+			doneOutOfOrder.put(sequenceNumber, token);
+			boolean advanced = false;
+			while (!doneOutOfOrder.isEmpty() && doneOutOfOrder.firstKey() == lastDone + 1) {
+				PrismProperty<?> nextToken = doneOutOfOrder.remove(doneOutOfOrder.firstKey());
+				lastDone++;
+				if (nextToken != null) {
+					this.token = nextToken;
+					advanced = true;
+				}
+			}
+			return advanced;
+		}
+
+		void markFailed(long sequenceNumber) {
+			if (sequenceNumber < firstFailed) {
+				firstFailed = sequenceNumber;
+				doneOutOfOrder.tailMap(sequenceNumber).clear();
+			}
+		}
+
+		long getLastDone() {
+			return lastDone;
+		}
+
+		int getTrackedCount() {
+			return doneOutOfOrder.size();
+		}
+
+		PrismProperty<?> getToken() {
+			return token;
+		}
+	}
+}
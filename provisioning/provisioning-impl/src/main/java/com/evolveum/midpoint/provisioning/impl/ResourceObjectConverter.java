@@ -104,6 +104,7 @@ public class ResourceObjectConverter {
 	private static final String OPERATION_MODIFY_RESOURCE_OBJECT = DOT_CLASS + "modifyResourceObject";
 	private static final String OPERATION_DELETE_RESOURCE_OBJECT = DOT_CLASS + "deleteResourceObject";
 	private static final String OPERATION_REFRESH_OPERATION_STATUS = DOT_CLASS + "refreshOperationStatus";
+	private static final String OPERATION_PROCESS_SEARCH_RESULTS = DOT_CLASS + "processSearchResults";
 	
 	
 	@Autowired private EntitlementConverter entitlementConverter;
@@ -1214,6 +1215,24 @@ public class ResourceObjectConverter {
 
 	public SearchResultMetadata searchResourceObjects(final ProvisioningContext ctx,
 			final ResultHandler<ShadowType> resultHandler, ObjectQuery query, final boolean fetchAssociations,
+            final OperationResult parentResult) throws SchemaException,
+			CommunicationException, ObjectNotFoundException, ConfigurationException, SecurityViolationException, ExpressionEvaluationException {
+		return searchResourceObjects(ctx, resultHandler, query, fetchAssociations, 0, null, 0, parentResult);
+	}
+
+	/**
+	 * If batchSize is greater than 1 (and batchPreprocessor is set), objects returned by the connector are collected
+	 * into batches of this size. Each batch is passed to the batchPreprocessor first and then the objects are
+	 * post-processed and passed to the resultHandler one by one, just like without batching.
+	 *
+	 * If processingThreads is greater than 0 (and the context has a task), the batches (or single objects) are
+	 * pre-processed, post-processed and passed to the resultHandler in that many separate threads, so the connector
+	 * can read further objects in the meantime. The resultHandler must be thread-safe then. Each thread uses its own
+	 * operation result; these are put under parentResult when the search is over.
+	 */
+	public SearchResultMetadata searchResourceObjects(final ProvisioningContext ctx,
+			final ResultHandler<ShadowType> resultHandler, ObjectQuery query, final boolean fetchAssociations,
+			int batchSize, ResourceObjectBatchPreprocessor batchPreprocessor, int processingThreads,
             final OperationResult parentResult) throws SchemaException,
 			CommunicationException, ObjectNotFoundException, ConfigurationException, SecurityViolationException, ExpressionEvaluationException {
 		
@@ -1240,39 +1259,47 @@ public class ResourceObjectConverter {
 		ConnectorInstance connector = ctx.getConnector(ReadCapabilityType.class, parentResult);
 		
 		SearchResultMetadata metadata = null;
+		ResourceObjectProcessingStage processingStage = null;
 		try {
 		
-			metadata = connector.search(objectClassDef, query, 
-					(shadow) -> {
-						// in order to utilize the cache right from the beginning...
-						RepositoryCache.enter();
-						
-						OperationResult objResult = parentResult.createMinorSubresult(OperationConstants.OPERATION_SEARCH_RESULT);
-						
-						try {
-							try {
-								shadow = postProcessResourceObjectRead(ctx, shadow, fetchAssociations, objResult);
-							} catch (SchemaException | CommunicationException | ConfigurationException | SecurityViolationException | ObjectNotFoundException | ExpressionEvaluationException e) {
-								throw new TunnelException(e);
-							}
-							Validate.notNull(shadow, "null shadow");
-							boolean doContinue;
-							try {
-								doContinue = resultHandler.handle(shadow, objResult);
-								objResult.computeStatus();
-							} catch (Throwable t) {
-								if (objResult.isUnknown()) {
-									objResult.recordFatalError(t);
-								}
-								throw t;
-							}
-							return doContinue;
-						} finally {
-							RepositoryCache.exit();
-						}
-					},
+			ShadowResultHandler objectHandler = createObjectHandler(ctx, resultHandler, fetchAssociations, parentResult);
+
+			List<PrismObject<ShadowType>> batch = new ArrayList<>();
+			ShadowResultHandler connectorHandler;
+			if (processingThreads > 0 && ctx.getTask() != null) {
+				int stageBatchSize = batchSize > 1 && batchPreprocessor != null ? batchSize : 1;
+				ResourceObjectBatchPreprocessor stagePreprocessor = stageBatchSize > 1 ? batchPreprocessor : null;
+				ResourceObjectProcessingStage stage = new ResourceObjectProcessingStage(ctx.getTask(), processingThreads);
+				processingStage = stage;
+				stage.start((objects, threadResult) -> processBatch(objects, stagePreprocessor,
+						createObjectHandler(ctx, resultHandler, fetchAssociations, threadResult), threadResult),
+						OPERATION_PROCESS_SEARCH_RESULTS);
+				connectorHandler = (shadow) -> {
+					batch.add(shadow);
+					return batch.size() < stageBatchSize || submitBatch(batch, stage);
+				};
+			} else if (batchSize > 1 && batchPreprocessor != null) {
+				connectorHandler = (shadow) -> {
+					batch.add(shadow);
+					return batch.size() < batchSize || processBatch(batch, batchPreprocessor, objectHandler, parentResult);
+				};
+			} else {
+				connectorHandler = objectHandler;
+			}
+
+			metadata = connector.search(objectClassDef, query, connectorHandler,
 					attributesToReturn, objectClassDef.getPagedSearches(ctx.getResource()), searchHierarchyConstraints, 
 					ctx, parentResult);
+
+			// the rest of the objects (if the search was stopped by the handler, the batch is empty)
+			if (processingStage != null) {
+				if (!batch.isEmpty()) {
+					submitBatch(batch, processingStage);
+				}
+				processingStage.finish(parentResult);
+			} else if (!batch.isEmpty()) {
+				processBatch(batch, batchPreprocessor, objectHandler, parentResult);
+			}
 			
 		} catch (GenericFrameworkException e) {
 			parentResult.recordFatalError("Generic error in the connector: " + e.getMessage(), e);
@@ -1307,6 +1334,10 @@ public class ResourceObjectConverter {
 			} else {
 				throw new SystemException(cause.getMessage(), cause);
 			}
+		} finally {
+			if (processingStage != null) {
+				processingStage.stop(parentResult);
+			}
 		}
 
 		computeResultStatus(parentResult);
@@ -1316,6 +1347,73 @@ public class ResourceObjectConverter {
 		return metadata;
 	}
 
+	private ShadowResultHandler createObjectHandler(ProvisioningContext ctx, ResultHandler<ShadowType> resultHandler,
+			boolean fetchAssociations, OperationResult parentResult) {
+		return (shadow) -> {
+			// in order to utilize the cache right from the beginning...
+			RepositoryCache.enter();
+			
+			OperationResult objResult = parentResult.createMinorSubresult(OperationConstants.OPERATION_SEARCH_RESULT);
+			
+			try {
+				try {
+					shadow = postProcessResourceObjectRead(ctx, shadow, fetchAssociations, objResult);
+				} catch (SchemaException | CommunicationException | ConfigurationException | SecurityViolationException | ObjectNotFoundException | ExpressionEvaluationException e) {
+					throw new TunnelException(e);
+				}
+				Validate.notNull(shadow, "null shadow");
+				boolean doContinue;
+				try {
+					doContinue = resultHandler.handle(shadow, objResult);
+					objResult.computeStatus();
+				} catch (Throwable t) {
+					if (objResult.isUnknown()) {
+						objResult.recordFatalError(t);
+					}
+					throw t;
+				}
+				return doContinue;
+			} finally {
+				RepositoryCache.exit();
+			}
+		};
+	}
+
+	/**
+	 * Hands over a copy of the batch (and clears it), as the processing stage threads use it asynchronously.
+	 *
+	 * @return false if the search should be stopped
+	 */
+	private boolean submitBatch(List<PrismObject<ShadowType>> batch, ResourceObjectProcessingStage stage) {
+		List<PrismObject<ShadowType>> batchCopy = new ArrayList<>(batch);
+		batch.clear();
+		return stage.submit(batchCopy);
+	}
+
+	/**
+	 * @return false if the handler requested to stop the search
+	 */
+	private boolean processBatch(List<PrismObject<ShadowType>> batch, ResourceObjectBatchPreprocessor batchPreprocessor,
+			ShadowResultHandler objectHandler, OperationResult parentResult) {
+		try {
+			if (batchPreprocessor != null) {
+				try {
+					batchPreprocessor.preprocess(batch, parentResult);
+				} catch (SchemaException | CommunicationException | ConfigurationException | ObjectNotFoundException | ExpressionEvaluationException e) {
+					throw new TunnelException(e);
+				}
+			}
+			for (PrismObject<ShadowType> shadow : batch) {
+				if (!objectHandler.handle(shadow)) {
+					return false;
+				}
+			}
+			return true;
+		} finally {
+			batch.clear();
+		}
+	}
+
 	@SuppressWarnings("rawtypes")
 	public PrismProperty fetchCurrentToken(ProvisioningContext ctx, OperationResult parentResult)
 			throws ObjectNotFoundException, CommunicationException, SchemaException, ConfigurationException, ExpressionEvaluationException {
@@ -1738,94 +1836,117 @@ public class ResourceObjectConverter {
 		return new ItemPath(ShadowType.F_ATTRIBUTES).equivalent(itemDelta.getParentPath());
 	}
 
-	public List<Change> fetchChanges(ProvisioningContext ctx, PrismProperty<?> lastToken,
+	/**
+	 * Fetches changes from the resource and passes them to the handler one by one, as they come from the connector.
+	 * Each change is completed (current shadow fetched and post-processed) just before it is passed to the handler.
+	 * Changes of objects that no longer exist on the resource are skipped.
+	 *
+	 * Checked exceptions thrown while completing the changes are wrapped in TunnelException (just like the ones
+	 * thrown by the handler), because they have to pass through the connector framework.
+	 */
+	public void fetchChanges(ProvisioningContext ctx, PrismProperty<?> lastToken, ChangeHandler handler,
 			OperationResult parentResult) throws SchemaException,
 			CommunicationException, ConfigurationException, SecurityViolationException, GenericFrameworkException, ObjectNotFoundException, ExpressionEvaluationException {
 		Validate.notNull(parentResult, "Operation result must not be null.");
 
 		LOGGER.trace("START fetch changes, objectClass: {}", ctx.getObjectClassDefinition());
-		AttributesToReturn attrsToReturn = null;
+		AttributesToReturn attrsToReturn;
 		if (!ctx.isWildcard()) {
 			attrsToReturn = ProvisioningUtil.createAttributesToReturn(ctx);
+		} else {
+			attrsToReturn = null;
 		}
 		
 		ConnectorInstance connector = ctx.getConnector(LiveSyncCapabilityType.class, parentResult);
 		
 		// get changes from the connector
-		List<Change> changes = connector.fetchChanges(ctx.getObjectClassDefinition(), lastToken, attrsToReturn, ctx, parentResult);
-
-		Iterator<Change> iterator = changes.iterator();
-		while (iterator.hasNext()) {
-			Change change = iterator.next();
-			LOGGER.trace("Original change:\n{}", change.debugDump());
-			if (change.isTokenOnly()) {
-				continue;
+		Holder<Integer> countHolder = new Holder<>(0);
+		connector.fetchChanges(ctx.getObjectClassDefinition(), lastToken, attrsToReturn, ctx, change -> {
+			countHolder.setValue(countHolder.getValue() + 1);
+			boolean relevant;
+			try {
+				relevant = preProcessChange(ctx, change, attrsToReturn, connector, parentResult);
+			} catch (SchemaException | CommunicationException | ConfigurationException | SecurityViolationException |
+					GenericFrameworkException | ObjectNotFoundException | ExpressionEvaluationException e) {
+				throw new TunnelException(e);
 			}
-			ProvisioningContext shadowCtx = ctx;
-			AttributesToReturn shadowAttrsToReturn = attrsToReturn;
-			PrismObject<ShadowType> currentShadow = change.getCurrentShadow();
-			ObjectClassComplexTypeDefinition changeObjectClassDefinition = change.getObjectClassDefinition();
-			if (changeObjectClassDefinition == null) {
-				if (!ctx.isWildcard() || change.getObjectDelta() == null || !change.getObjectDelta().isDelete()) {
-					throw new SchemaException("No object class definition in change "+change);
-				}
+			return !relevant || handler.handleChange(change);
+		}, parentResult);
+
+		computeResultStatus(parentResult);
+		
+		LOGGER.trace("END fetch changes ({} changes)", countHolder.getValue());
+	}
+
+	/**
+	 * @return false if the change should be skipped
+	 */
+	private boolean preProcessChange(ProvisioningContext ctx, Change change, AttributesToReturn attrsToReturn,
+			ConnectorInstance connector, OperationResult parentResult) throws SchemaException,
+			CommunicationException, ConfigurationException, SecurityViolationException, GenericFrameworkException, ObjectNotFoundException, ExpressionEvaluationException {
+		LOGGER.trace("Original change:\n{}", change.debugDump());
+		if (change.isTokenOnly()) {
+			return true;
+		}
+		ProvisioningContext shadowCtx = ctx;
+		AttributesToReturn shadowAttrsToReturn = attrsToReturn;
+		PrismObject<ShadowType> currentShadow = change.getCurrentShadow();
+		ObjectClassComplexTypeDefinition changeObjectClassDefinition = change.getObjectClassDefinition();
+		if (changeObjectClassDefinition == null) {
+			if (!ctx.isWildcard() || change.getObjectDelta() == null || !change.getObjectDelta().isDelete()) {
+				throw new SchemaException("No object class definition in change "+change);
 			}
-			if (ctx.isWildcard() && changeObjectClassDefinition != null) {
-				shadowCtx = ctx.spawn(changeObjectClassDefinition.getTypeName());
-				if (shadowCtx.isWildcard()) {
-					String message = "Unkown object class "+changeObjectClassDefinition.getTypeName()+" found in synchronization delta";
-					parentResult.recordFatalError(message);
-					throw new SchemaException(message);
-				}
-				change.setObjectClassDefinition(shadowCtx.getObjectClassDefinition());
-				
-				shadowAttrsToReturn = ProvisioningUtil.createAttributesToReturn(shadowCtx);
+		}
+		if (ctx.isWildcard() && changeObjectClassDefinition != null) {
+			shadowCtx = ctx.spawn(changeObjectClassDefinition.getTypeName());
+			if (shadowCtx.isWildcard()) {
+				String message = "Unkown object class "+changeObjectClassDefinition.getTypeName()+" found in synchronization delta";
+				parentResult.recordFatalError(message);
+				throw new SchemaException(message);
 			}
+			change.setObjectClassDefinition(shadowCtx.getObjectClassDefinition());
 			
-			if (change.getObjectDelta() == null || !change.getObjectDelta().isDelete()) {
-				if (currentShadow == null) {
-					// There is no current shadow in a change. Add it by fetching it explicitly.
-					try {
-						
-						LOGGER.trace("Re-fetching object {} because it is not in the change", change.getIdentifiers());
-						currentShadow = fetchResourceObject(shadowCtx, 
-								change.getIdentifiers(), shadowAttrsToReturn, true, parentResult);	// todo consider whether it is always necessary to fetch the entitlements
-						change.setCurrentShadow(currentShadow);
-						
-					} catch (ObjectNotFoundException ex) {
-						parentResult.recordHandledError(
-								"Object detected in change log no longer exist on the resource. Skipping processing this object.", ex);
-						LOGGER.warn("Object detected in change log no longer exist on the resource. Skipping processing this object "
-								+ ex.getMessage());
-						// TODO: Maybe change to DELETE instead of this?
-						iterator.remove();
-						continue;
-					}
-				} else {
-					if (ctx.isWildcard()) {
-						if (!MiscUtil.equals(shadowAttrsToReturn, attrsToReturn)) {
-							// re-fetch the shadow if necessary (if attributesToGet does not match)
-							ResourceObjectIdentification identification = ResourceObjectIdentification.create(shadowCtx.getObjectClassDefinition(), 
-									change.getIdentifiers());
-							identification.validatePrimaryIdenfiers();
-							LOGGER.trace("Re-fetching object {} because of attrsToReturn", identification);
-							currentShadow = connector.fetchObject(identification, shadowAttrsToReturn, ctx, parentResult);
-						}
-						
+			shadowAttrsToReturn = ProvisioningUtil.createAttributesToReturn(shadowCtx);
+		}
+		
+		if (change.getObjectDelta() == null || !change.getObjectDelta().isDelete()) {
+			if (currentShadow == null) {
+				// There is no current shadow in a change. Add it by fetching it explicitly.
+				try {
+					
+					LOGGER.trace("Re-fetching object {} because it is not in the change", change.getIdentifiers());
+					currentShadow = fetchResourceObject(shadowCtx, 
+							change.getIdentifiers(), shadowAttrsToReturn, true, parentResult);	// todo consider whether it is always necessary to fetch the entitlements
+					change.setCurrentShadow(currentShadow);
+					
+				} catch (ObjectNotFoundException ex) {
+					parentResult.recordHandledError(
+							"Object detected in change log no longer exist on the resource. Skipping processing this object.", ex);
+					LOGGER.warn("Object detected in change log no longer exist on the resource. Skipping processing this object "
+							+ ex.getMessage());
+					// TODO: Maybe change to DELETE instead of this?
+					return false;
+				}
+			} else {
+				if (ctx.isWildcard()) {
+					if (!MiscUtil.equals(shadowAttrsToReturn, attrsToReturn)) {
+						// re-fetch the shadow if necessary (if attributesToGet does not match)
+						ResourceObjectIdentification identification = ResourceObjectIdentification.create(shadowCtx.getObjectClassDefinition(), 
+								change.getIdentifiers());
+						identification.validatePrimaryIdenfiers();
+						LOGGER.trace("Re-fetching object {} because of attrsToReturn", identification);
+						currentShadow = connector.fetchObject(identification, shadowAttrsToReturn, ctx, parentResult);
 					}
-							
-					PrismObject<ShadowType> processedCurrentShadow = postProcessResourceObjectRead(shadowCtx,
-							currentShadow, true, parentResult);
-					change.setCurrentShadow(processedCurrentShadow);
+					
 				}
+						
+				PrismObject<ShadowType> processedCurrentShadow = postProcessResourceObjectRead(shadowCtx,
+						currentShadow, true, parentResult);
+				change.setCurrentShadow(processedCurrentShadow);
 			}
-			LOGGER.trace("Processed change\n:{}", change.debugDump());
 		}
-
-		computeResultStatus(parentResult);
-		
-		LOGGER.trace("END fetch changes ({} changes)", changes == null ? "null" : changes.size());
-		return changes;
+		LOGGER.trace("Processed change\n:{}", change.debugDump());
+		return true;
 	}
 	
 	/**
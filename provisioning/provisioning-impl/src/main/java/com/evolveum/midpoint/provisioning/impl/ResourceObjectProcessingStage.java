@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.provisioning.impl;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.result.OperationResultStatus;
+import com.evolveum.midpoint.schema.statistics.PipelineStageStatistics;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Processes resource objects returned by a connector search in separate threads (lightweight subtasks of the task
+ * that executes the search), so the connector does not have to wait for the processing and can continue reading.
+ *
+ * Objects are passed to the threads in batches through a bounded queue. If a batch processor requests the search
+ * to stop or fails, no more batches are accepted and the remaining ones are not processed. The first failure is
+ * re-thrown in the searching thread when the stage is finished.
+ *
+ * @see ResourceObjectConverter#searchResourceObjects
+ */
+class ResourceObjectProcessingStage {
+
+	private static final Trace LOGGER = TraceManager.getTrace(ResourceObjectProcessingStage.class);
+
+	static final String STAGE_NAME = "shadow processing";
+
+	private static final long QUEUE_OFFER_TIMEOUT = 1000L;
+	private static final long QUEUE_POLL_TIMEOUT = 500L;
+
+	@FunctionalInterface
+	interface BatchProcessor {
+
+		/**
+		 * @return false if the search should be stopped
+		 */
+		boolean process(List<PrismObject<ShadowType>> batch, OperationResult result);
+	}
+
+	private final Task coordinatorTask;
+	private final int threads;
+	private final BlockingQueue<List<PrismObject<ShadowType>>> queue;
+	private final PipelineStageStatistics statistics;
+	private final List<OperationResult> threadResults = new ArrayList<>();
+	private final CountDownLatch threadsFinished;
+	private final AtomicBoolean stopRequested = new AtomicBoolean(false);
+	private final AtomicReference<Throwable> failure = new AtomicReference<>();
+	private volatile boolean allBatchesSubmitted;
+	private boolean finished;
+
+	ResourceObjectProcessingStage(Task coordinatorTask, int threads) {
+		this.coordinatorTask = coordinatorTask;
+		this.threads = threads;
+		this.queue = new ArrayBlockingQueue<>(threads * 2);
+		this.statistics = new PipelineStageStatistics(STAGE_NAME, threads);
+		this.threadsFinished = new CountDownLatch(threads);
+	}
+
+	PipelineStageStatistics getStatistics() {
+		return statistics;
+	}
+
+	void start(BatchProcessor batchProcessor, String operationName) {
+		for (int i = 0; i < threads; i++) {
+			// thread results are put under the search result only after the threads finish (concurrency issues)
+			OperationResult threadResult = new OperationResult(operationName);
+			threadResult.addContext("subtaskIndex", i + 1);
+			threadResults.add(threadResult);
+
+			Task subtask = coordinatorTask.createSubtask(workerTask -> processBatches(batchProcessor, workerTask, threadResult));
+			subtask.setCategory(coordinatorTask.getCategory());
+			subtask.setResult(new OperationResult(operationName, OperationResultStatus.IN_PROGRESS, (String) null));
+			subtask.setName("Shadow processing thread " + (i + 1) + " of " + threads);
+			try {
+				subtask.startLightweightHandler();
+			} catch (RuntimeException e) {
+				// the threads that were not started must not be waited for
+				stopRequested.set(true);
+				for (int j = i; j < threads; j++) {
+					threadsFinished.countDown();
+				}
+				throw e;
+			}
+			LOGGER.trace("Shadow processing subtask {} created", subtask);
+		}
+	}
+
+	/**
+	 * Waits until there is a free space in the queue.
+	 *
+	 * @return false if the search should be stopped
+	 */
+	boolean submit(List<PrismObject<ShadowType>> batch) {
+		long waitStart = System.nanoTime();
+		try {
+			while (!queue.offer(batch, QUEUE_OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+				if (shouldStop()) {
+					return false;
+				}
+			}
+		} catch (InterruptedException e) {
+			LOGGER.trace("Interrupted when submitting a batch of resource objects", e);
+			stopRequested.set(true);
+			return false;
+		} finally {
+			statistics.recordItemSubmitted(System.nanoTime() - waitStart);
+		}
+		return !shouldStop();
+	}
+
+	/**
+	 * Waits for the threads to process all the submitted batches and re-throws the first failure (if any).
+	 */
+	void finish(OperationResult parentResult) {
+		waitForThreads(parentResult);
+		Throwable t = failure.get();
+		if (t instanceof RuntimeException) {
+			throw (RuntimeException) t;
+		} else if (t instanceof Error) {
+			throw (Error) t;
+		}
+	}
+
+	/**
+	 * Stops the threads (without processing the remaining batches) and waits for them. Does nothing if the stage
+	 * has been already finished.
+	 */
+	void stop(OperationResult parentResult) {
+		if (!finished) {
+			stopRequested.set(true);
+			waitForThreads(parentResult);
+		}
+	}
+
+	private boolean shouldStop() {
+		return stopRequested.get() || !coordinatorTask.canRun();
+	}
+
+	private void processBatches(BatchProcessor batchProcessor, Task workerTask, OperationResult threadResult) {
+		try {
+			while (workerTask.canRun() && !stopRequested.get()) {
+				List<PrismObject<ShadowType>> batch;
+				long waitStart = System.nanoTime();
+				try {
+					batch = queue.poll(QUEUE_POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					LOGGER.trace("Interrupted when waiting for next batch of resource objects", e);
+					return;
+				}
+				if (batch == null) {
+					statistics.recordConsumerWait(System.nanoTime() - waitStart);
+					// all batches are submitted before the flag is set, so the queue must be checked again
+					if (allBatchesSubmitted && queue.isEmpty()) {
+						LOGGER.trace("Queue is empty and nothing more is expected - exiting");
+						return;
+					}
+					continue;
+				}
+				statistics.recordItemsTaken(batch.size(), System.nanoTime() - waitStart);
+				try {
+					if (!batchProcessor.process(batch, threadResult)) {
+						stopRequested.set(true);
+					}
+				} catch (RuntimeException | Error e) {
+					failure.compareAndSet(null, e);
+					stopRequested.set(true);
+				} finally {
+					threadResult.summarize();
+				}
+			}
+		} finally {
+			threadsFinished.countDown();
+		}
+	}
+
+	private void waitForThreads(OperationResult parentResult) {
+		allBatchesSubmitted = true;
+		boolean interrupted = false;
+		while (threadsFinished.getCount() > 0) {
+			try {
+				threadsFinished.await();
+			} catch (InterruptedException e) {
+				// the threads stop soon, as no more batches are processed
+				stopRequested.set(true);
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		finished = true;
+		for (OperationResult threadResult : threadResults) {
+			threadResult.computeStatus();
+			threadResult.summarize();
+			parentResult.addSubresult(threadResult);
+		}
+		LOGGER.debug("Resource objects processed in {} by {}", statistics, coordinatorTask);
+	}
+}
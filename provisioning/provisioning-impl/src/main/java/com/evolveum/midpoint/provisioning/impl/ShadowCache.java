@@ -34,6 +34,7 @@ import com.evolveum.midpoint.provisioning.api.*;
 import com.evolveum.midpoint.provisioning.consistency.api.ErrorHandler;
 import com.evolveum.midpoint.provisioning.consistency.api.ErrorHandler.FailedOperation;
 import com.evolveum.midpoint.provisioning.consistency.impl.ErrorHandlerFactory;
+import com.evolveum.midpoint.provisioning.impl.LiveSyncCoordinator.ChangeProcessingOutcome;
 import com.evolveum.midpoint.provisioning.ucf.api.Change;
 import com.evolveum.midpoint.provisioning.ucf.api.ConnectorInstance;
 import com.evolveum.midpoint.provisioning.ucf.api.GenericFrameworkException;
@@ -82,7 +83,10 @@ import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.namespace.QName;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Shadow cache is a facade that covers all the operations with shadows. It
@@ -1597,6 +1601,12 @@ public abstract class ShadowCache {
 
 		ObjectQuery attributeQuery = createAttributeQuery(query);
 
+		// shadows looked up for the current batches of resource objects (if batching is used)
+		Map<PrismObject<ShadowType>, PrismObject<ShadowType>> preResolvedShadows =
+				Collections.synchronizedMap(new IdentityHashMap<>());
+		// with processing threads, object results are not created under parentResult (and it must not be touched)
+		int processingThreads = getTaskExtensionIntValue(ctx.getTask(), SchemaConstants.MODEL_EXTENSION_SHADOW_PROCESSING_THREADS);
+
 		ResultHandler<ShadowType> resultHandler = (PrismObject<ShadowType> resourceShadow, OperationResult objResult) -> {
 				if (LOGGER.isTraceEnabled()) {
 					LOGGER.trace("Found resource object\n{}", resourceShadow.debugDump(1));
@@ -1610,15 +1620,17 @@ public abstract class ShadowCache {
 					// Try to find shadow that corresponds to the resource
 					// object.
 					if (readFromRepository) {
-						PrismObject<ShadowType> repoShadow = lookupOrCreateShadowInRepository(
-								estimatedShadowCtx, resourceShadow, true, parentResult);
+						PrismObject<ShadowType> repoShadow = preResolvedShadows.remove(resourceShadow);
+						if (repoShadow == null) {
+							repoShadow = lookupOrCreateShadowInRepository(estimatedShadowCtx, resourceShadow, true, objResult);
+						}
 
 						// This determines the definitions exactly. How the repo
 						// shadow should have proper kind/intent
 						ProvisioningContext shadowCtx = shadowCaretaker.applyAttributesDefinition(ctx, repoShadow);
 
 						repoShadow = shadowManager.updateShadow(shadowCtx, resourceShadow, repoShadow,
-								parentResult);
+								objResult);
 						
 						resultShadow = completeShadow(shadowCtx, resourceShadow, repoShadow, objResult);
 						
@@ -1685,7 +1697,9 @@ public abstract class ShadowCache {
                     if (objResult.isSuccess()) {
                     	objResult.getSubresults().clear();
                     }
-                    parentResult.summarize();
+                    if (processingThreads <= 0) {
+                    	parentResult.summarize();
+                    }
                 }
 
 				return doContinue;
@@ -1693,11 +1707,52 @@ public abstract class ShadowCache {
 
 		boolean fetchAssociations = SelectorOptions.hasToLoadPath(ShadowType.F_ASSOCIATION, options);
 
+		int batchSize = readFromRepository ?
+				getTaskExtensionIntValue(ctx.getTask(), SchemaConstants.MODEL_EXTENSION_SHADOW_LOOKUP_BATCH_SIZE) : 0;
+		// entries are removed by the handler, so batches processed concurrently do not interfere
+		ResourceObjectBatchPreprocessor batchPreprocessor = (resourceObjects, result) ->
+				preResolvedShadows.putAll(lookupLiveShadowsInRepository(ctx, resourceObjects, result));
+
 		return resouceObjectConverter.searchResourceObjects(ctx, resultHandler, attributeQuery,
-				fetchAssociations, parentResult);
+				fetchAssociations, batchSize, batchPreprocessor, processingThreads, parentResult);
 
 	}
 
+	/**
+	 * Looks up shadows for a batch of resource objects. Only objects of the searched object class (without auxiliary
+	 * object classes) are looked up this way, so their definitions need not be re-applied; shadows for the other
+	 * objects (and for the objects that have no shadows yet) are looked up one by one, as usual.
+	 */
+	private Map<PrismObject<ShadowType>, PrismObject<ShadowType>> lookupLiveShadowsInRepository(ProvisioningContext ctx,
+			List<PrismObject<ShadowType>> resourceObjects, OperationResult parentResult)
+					throws SchemaException, ConfigurationException, ObjectNotFoundException, CommunicationException, ExpressionEvaluationException {
+		QName objectClassName = ctx.getObjectClassDefinition().getTypeName();
+		List<PrismObject<ShadowType>> objectsToLookUp = new ArrayList<>(resourceObjects.size());
+		for (PrismObject<ShadowType> resourceObject : resourceObjects) {
+			ShadowType resourceObjectType = resourceObject.asObjectable();
+			if (resourceObjectType.getAuxiliaryObjectClass().isEmpty()
+					&& objectClassName.equals(resourceObjectType.getObjectClass())) {
+				objectsToLookUp.add(resourceObject);
+			}
+		}
+		if (objectsToLookUp.size() < 2) {
+			return Collections.emptyMap();
+		}
+		return shadowManager.lookupLiveShadowsInRepository(ctx, objectsToLookUp, parentResult);
+	}
+
+	private int getTaskExtensionIntValue(Task task, QName propertyName) {
+		if (task == null) {
+			return 0;
+		}
+		PrismProperty<Integer> property = task.getExtensionProperty(propertyName);
+		if (property != null && property.getRealValue() != null) {
+			return property.getRealValue();
+		} else {
+			return 0;
+		}
+	}
+
 	ObjectQuery createAttributeQuery(ObjectQuery query) throws SchemaException {
 		ObjectFilter filter = null;
 		if (query != null) {
@@ -2070,92 +2125,81 @@ public abstract class ShadowCache {
 
 		final ProvisioningContext ctx = ctxFactory.create(shadowCoordinates, task, parentResult);
 
-		List<Change> changes;
-		try {
-
-			changes = resouceObjectConverter.fetchChanges(ctx, lastToken, parentResult);
-
-			LOGGER.trace("Found {} change(s). Start processing it (them).", changes.size());
+		boolean retryUnhandledError = isRetryUnhandledError(task);
+		Integer workerThreads = getWorkerThreadsCount(task);
 
-			int processedChanges = 0;
-
-			for (Change change : changes) {
+		// Changes are processed as they come from the resource; the token is stored (into pending
+		// task modifications, flushed periodically along with the statistics) after each processed change.
+		// So an interrupted live sync run continues from the last processed change.
+		Holder<Integer> changesHolder = new Holder<>(0);
+		Holder<Integer> processedChangesHolder = new Holder<>(0);
+		try {
 
-				if (change.isTokenOnly()) {
-					LOGGER.trace("Found token-only change: {}", change);
-					task.setExtensionProperty(change.getToken());
-					continue;
+			if (workerThreads != null && workerThreads > 0) {
+				LOGGER.trace("Processing changes on {} in {} worker threads", ctx.getResource(), workerThreads);
+				LiveSyncCoordinator coordinator = new LiveSyncCoordinator(task, shadowCoordinates, taskManager,
+						ctxFactory::create,
+						(workerCtx, change, result) -> processChangeFromResource(workerCtx, change, retryUnhandledError, result));
+				coordinator.createWorkerThreads(workerThreads);
+				try {
+					resouceObjectConverter.fetchChanges(ctx, lastToken, change -> {
+						changesHolder.setValue(changesHolder.getValue() + 1);
+						return coordinator.submit(change);
+					}, parentResult);
+				} catch (TunnelException e) {
+					unwrapSynchronizationException(e);
+				} finally {
+					coordinator.completeProcessing(parentResult);
 				}
-
-				ObjectClassComplexTypeDefinition changeObjectClassDefinition = change
-						.getObjectClassDefinition();
-
-				ProvisioningContext shadowCtx;
-				PrismObject<ShadowType> oldShadow = null;
-				if (changeObjectClassDefinition == null) {
-					if (change.getObjectDelta() != null && change.getObjectDelta().isDelete()) {
-						oldShadow = change.getOldShadow();
-						if (oldShadow == null) {
-							oldShadow = shadowManager.findOrAddShadowFromChangeGlobalContext(ctx, change,
-									parentResult);
+				processedChangesHolder.setValue(coordinator.getChangesProcessed());
+				Throwable failure = coordinator.getFailure();
+				if (failure instanceof RuntimeException) {
+					throw (RuntimeException) failure;
+				} else if (failure instanceof Error) {
+					throw (Error) failure;
+				} else if (failure != null) {
+					unwrapSynchronizationException(new TunnelException(failure));
+				}
+			} else {
+				try {
+					resouceObjectConverter.fetchChanges(ctx, lastToken, change -> {
+						changesHolder.setValue(changesHolder.getValue() + 1);
+						try {
+							if (change.isTokenOnly()) {
+								LOGGER.trace("Found token-only change: {}", change);
+								task.setExtensionProperty(change.getToken());
+							} else if (processChangeFromResource(ctx, change, retryUnhandledError, parentResult)
+									== ChangeProcessingOutcome.PROCESSED) {
+								// get updated token from change, create property modification from new token and replace old token with the new one
+								task.setExtensionProperty(change.getToken());
+								task.incrementProgressAndStoreStatsIfNeeded();
+								processedChangesHolder.setValue(processedChangesHolder.getValue() + 1);
+							}
+						} catch (SchemaException | CommunicationException | GenericFrameworkException | ConfigurationException |
+								ObjectNotFoundException | ObjectAlreadyExistsException | ExpressionEvaluationException |
+								SecurityViolationException | EncryptionException e) {
+							throw new TunnelException(e);
 						}
-						if (oldShadow == null) {
-							LOGGER.debug(
-									"No old shadow for delete synchronization event {}, we probably did not know about that object anyway, so well be ignoring this event",
-									change);
-							continue;
+						if (!task.canRun()) {
+							LOGGER.trace("Task was suspended, stopping processing of changes");
+							return false;
 						}
-						shadowCtx = ctx.spawn(oldShadow);
-					} else {
-						throw new SchemaException("No object class definition in change " + change);
-					}
-				} else {
-					shadowCtx = ctx.spawn(changeObjectClassDefinition.getTypeName());
-				}
-
-				processChange(shadowCtx, change, oldShadow, parentResult);
-
-				// this is the case,when we want to skip processing of change,
-				// because the shadow was not created or found to the resource
-				// object
-				// it may be caused with the fact, that the object which was
-				// created in the resource was deleted before the sync run
-				// such a change should be skipped to process consistent changes
-				if (change.getOldShadow() == null) {
-					PrismProperty<?> newToken = change.getToken();
-					task.setExtensionProperty(newToken);
-					processedChanges++;
-					task.incrementProgressAndStoreStatsIfNeeded();
-					LOGGER.debug(
-							"Skipping processing change. Can't find appropriate shadow (e.g. the object was deleted on the resource meantime).");
-					continue;
-				}
-				boolean isSuccess = processSynchronization(shadowCtx, change, parentResult);
-                                
-                                boolean retryUnhandledError = true;
-                                if (task.getExtension() != null) {
-                                      PrismProperty tokenRetryUnhandledErrProperty = task.getExtensionProperty(SchemaConstants.SYNC_TOKEN_RETRY_UNHANDLED);
-                                      
-                                      if (tokenRetryUnhandledErrProperty != null) {
-                                          retryUnhandledError = (boolean) tokenRetryUnhandledErrProperty.getRealValue(); 
-                                      }                                                                     
-                                }     
-                                
-				if (!retryUnhandledError || isSuccess) {                                    
-					// get updated token from change, create property modification from new token and replace old token with the new one
-					task.setExtensionProperty(change.getToken());
-					processedChanges++;
-					task.incrementProgressAndStoreStatsIfNeeded();
+						return true;
+					}, parentResult);
+				} catch (TunnelException e) {
+					unwrapSynchronizationException(e);
 				}
 			}
 
+			LOGGER.trace("Processed {} change(s) out of {}", processedChangesHolder.getValue(), changesHolder.getValue());
+
 			// also if no changes was detected, update token
-			if (changes.isEmpty() && lastToken != null) {
+			if (changesHolder.getValue() == 0 && lastToken != null) {
 				LOGGER.trace("No changes to synchronize on {}", ctx.getResource());
 				task.setExtensionProperty(lastToken);
 			}
 			task.savePendingModifications(parentResult);
-			return processedChanges;
+			return processedChangesHolder.getValue();
 
 		} catch (SchemaException | CommunicationException | GenericFrameworkException | ConfigurationException | 
 				ObjectNotFoundException | ObjectAlreadyExistsException | ExpressionEvaluationException | EncryptionException | RuntimeException | Error ex) {
@@ -2164,6 +2208,112 @@ public abstract class ShadowCache {
 		}
 	}
 
+	/**
+	 * Processes a single (non-token-only) change. The token is not updated here; it is the responsibility of the caller.
+	 * The context may be a worker-specific one, so the coordinator task must not be touched here.
+	 */
+	private ChangeProcessingOutcome processChangeFromResource(ProvisioningContext ctx, Change change,
+			boolean retryUnhandledError, OperationResult parentResult)
+			throws ObjectNotFoundException, CommunicationException, GenericFrameworkException, SchemaException,
+			ConfigurationException, SecurityViolationException, ObjectAlreadyExistsException, ExpressionEvaluationException,
+			EncryptionException {
+
+		ObjectClassComplexTypeDefinition changeObjectClassDefinition = change
+				.getObjectClassDefinition();
+
+		ProvisioningContext shadowCtx;
+		PrismObject<ShadowType> oldShadow = null;
+		if (changeObjectClassDefinition == null) {
+			if (change.getObjectDelta() != null && change.getObjectDelta().isDelete()) {
+				oldShadow = change.getOldShadow();
+				if (oldShadow == null) {
+					oldShadow = shadowManager.findOrAddShadowFromChangeGlobalContext(ctx, change,
+							parentResult);
+				}
+				if (oldShadow == null) {
+					LOGGER.debug(
+							"No old shadow for delete synchronization event {}, we probably did not know about that object anyway, so well be ignoring this event",
+							change);
+					return ChangeProcessingOutcome.SKIPPED;
+				}
+				shadowCtx = ctx.spawn(oldShadow);
+			} else {
+				throw new SchemaException("No object class definition in change " + change);
+			}
+		} else {
+			shadowCtx = ctx.spawn(changeObjectClassDefinition.getTypeName());
+		}
+
+		processChange(shadowCtx, change, oldShadow, parentResult);
+
+		// this is the case,when we want to skip processing of change,
+		// because the shadow was not created or found to the resource
+		// object
+		// it may be caused with the fact, that the object which was
+		// created in the resource was deleted before the sync run
+		// such a change should be skipped to process consistent changes
+		if (change.getOldShadow() == null) {
+			LOGGER.debug(
+					"Skipping processing change. Can't find appropriate shadow (e.g. the object was deleted on the resource meantime).");
+			return ChangeProcessingOutcome.PROCESSED;
+		}
+		boolean isSuccess = processSynchronization(shadowCtx, change, parentResult);
+
+		if (!retryUnhandledError || isSuccess) {
+			return ChangeProcessingOutcome.PROCESSED;
+		} else {
+			return ChangeProcessingOutcome.FAILED;
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	private boolean isRetryUnhandledError(Task task) {
+		if (task.getExtension() != null) {
+			PrismProperty tokenRetryUnhandledErrProperty = task.getExtensionProperty(SchemaConstants.SYNC_TOKEN_RETRY_UNHANDLED);
+
+			if (tokenRetryUnhandledErrProperty != null) {
+				return (boolean) tokenRetryUnhandledErrProperty.getRealValue();
+			}
+		}
+		return true;
+	}
+
+	private Integer getWorkerThreadsCount(Task task) {
+		PrismProperty<Integer> workerThreadsPrismProperty = task.getExtensionProperty(SchemaConstants.MODEL_EXTENSION_WORKER_THREADS);
+		if (workerThreadsPrismProperty != null && workerThreadsPrismProperty.getRealValue() != null) {
+			return workerThreadsPrismProperty.getRealValue();
+		} else {
+			return null;
+		}
+	}
+
+	private void unwrapSynchronizationException(TunnelException e) throws ObjectNotFoundException, CommunicationException,
+			GenericFrameworkException, SchemaException, ConfigurationException, SecurityViolationException,
+			ObjectAlreadyExistsException, ExpressionEvaluationException, EncryptionException {
+		Throwable cause = e.getCause();
+		if (cause instanceof ObjectNotFoundException) {
+			throw (ObjectNotFoundException) cause;
+		} else if (cause instanceof CommunicationException) {
+			throw (CommunicationException) cause;
+		} else if (cause instanceof GenericFrameworkException) {
+			throw (GenericFrameworkException) cause;
+		} else if (cause instanceof SchemaException) {
+			throw (SchemaException) cause;
+		} else if (cause instanceof ConfigurationException) {
+			throw (ConfigurationException) cause;
+		} else if (cause instanceof SecurityViolationException) {
+			throw (SecurityViolationException) cause;
+		} else if (cause instanceof ObjectAlreadyExistsException) {
+			throw (ObjectAlreadyExistsException) cause;
+		} else if (cause instanceof ExpressionEvaluationException) {
+			throw (ExpressionEvaluationException) cause;
+		} else if (cause instanceof EncryptionException) {
+			throw (EncryptionException) cause;
+		} else {
+			throw e;
+		}
+	}
+
 	@SuppressWarnings("rawtypes")
 	boolean processSynchronization(ProvisioningContext ctx, Change change, OperationResult parentResult)
 			throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException,
@@ -19,7 +19,11 @@ package com.evolveum.midpoint.provisioning.impl;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.namespace.QName;
@@ -208,7 +212,105 @@ public class ShadowManager {
 		 MiscSchemaUtil.reduceSearchResult(foundShadows);
 
 		LOGGER.trace("lookupShadow found {} objects", foundShadows.size());
-		
+
+		return selectLiveShadow(resourceShadow, foundShadows, parentResult);
+	}
+
+	/**
+	 * Looks up repository shadows for a batch of resource objects, just like lookupLiveShadowInRepository does
+	 * for a single object. But all objects of the same object class are looked up by one repository query.
+	 *
+	 * Only objects with existing shadows are in the returned map (keyed by resource object instances).
+	 * Objects that have no shadow yet are not there, because the shadow could be created by the time the object
+	 * is processed; nor are objects that cannot be looked up this way (e.g. without single-valued primary
+	 * identifier). Callers should look up these objects separately.
+	 */
+	public Map<PrismObject<ShadowType>, PrismObject<ShadowType>> lookupLiveShadowsInRepository(ProvisioningContext ctx,
+			List<PrismObject<ShadowType>> resourceShadows, OperationResult parentResult)
+					throws SchemaException, ConfigurationException, ObjectNotFoundException, CommunicationException, ExpressionEvaluationException {
+
+		Map<PrismObject<ShadowType>, PrismObject<ShadowType>> liveShadows = new IdentityHashMap<>();
+
+		// key is (object class, primary identifier name)
+		Map<List<QName>, List<PrismObject<ShadowType>>> groups = new LinkedHashMap<>();
+		for (PrismObject<ShadowType> resourceShadow : resourceShadows) {
+			QName objectClass = resourceShadow.getPropertyRealValue(ShadowType.F_OBJECT_CLASS, QName.class);
+			ResourceAttributeContainer attributesContainer = ShadowUtil.getAttributesContainer(resourceShadow);
+			PrismProperty<?> identifier = attributesContainer != null ? attributesContainer.getPrimaryIdentifier() : null;
+			if (objectClass != null && identifier != null && identifier.size() == 1) {
+				groups.computeIfAbsent(Arrays.asList(objectClass, identifier.getElementName()), k -> new ArrayList<>())
+						.add(resourceShadow);
+			}
+		}
+
+		int objects = 0;
+		int queries = 0;
+		for (Map.Entry<List<QName>, List<PrismObject<ShadowType>>> group : groups.entrySet()) {
+			QName objectClass = group.getKey().get(0);
+			QName identifierName = group.getKey().get(1);
+			Map<Object, PrismObject<ShadowType>> objectsByIdentifier = new HashMap<>();
+			List<PrismPropertyValue<?>> identifierValues = new ArrayList<>();
+			PrismPropertyDefinition<?> identifierDefinition = null;
+			for (PrismObject<ShadowType> resourceShadow : group.getValue()) {
+				PrismProperty<?> identifier = ShadowUtil.getAttributesContainer(resourceShadow).getPrimaryIdentifier();
+				PrismPropertyValue<?> normalizedValue = getNormalizedValue(identifier, ctx.getObjectClassDefinition()).get(0);
+				if (objectsByIdentifier.containsKey(normalizedValue.getValue())) {
+					continue;       // duplicate identifier in the batch; such objects are looked up separately
+				}
+				objectsByIdentifier.put(normalizedValue.getValue(), resourceShadow);
+				identifierValues.add(normalizedValue);
+				if (identifierDefinition == null) {
+					identifierDefinition = identifier.getDefinition();
+				}
+			}
+
+			ObjectQuery query = QueryBuilder.queryFor(ShadowType.class, prismContext)
+					.itemWithDef(identifierDefinition, ShadowType.F_ATTRIBUTES, identifierName).eq(identifierValues)
+					.and().item(ShadowType.F_OBJECT_CLASS).eq(objectClass)
+					.and().item(ShadowType.F_RESOURCE_REF).ref(ctx.getResourceOid())
+					.build();
+			if (LOGGER.isTraceEnabled()) {
+				LOGGER.trace("Searching for shadows of {} resource objects using filter:\n{}", identifierValues.size(),
+						query.debugDump());
+			}
+			List<PrismObject<ShadowType>> foundShadows = repositoryService.searchObjects(ShadowType.class, query, null, parentResult);
+			MiscSchemaUtil.reduceSearchResult(foundShadows);
+			queries++;
+			objects += identifierValues.size();
+
+			LOGGER.trace("lookupShadows found {} objects for {} resource objects", foundShadows.size(), identifierValues.size());
+
+			Map<PrismObject<ShadowType>, List<PrismObject<ShadowType>>> foundShadowsByObject = new IdentityHashMap<>();
+			for (PrismObject<ShadowType> foundShadow : foundShadows) {
+				PrismProperty<?> foundIdentifier = foundShadow.findProperty(new ItemPath(ShadowType.F_ATTRIBUTES, identifierName));
+				if (foundIdentifier == null) {
+					continue;
+				}
+				for (Object foundValue : foundIdentifier.getRealValues()) {
+					PrismObject<ShadowType> resourceShadow = objectsByIdentifier.get(foundValue);
+					if (resourceShadow != null) {
+						foundShadowsByObject.computeIfAbsent(resourceShadow, k -> new ArrayList<>()).add(foundShadow);
+					}
+				}
+			}
+			for (Map.Entry<PrismObject<ShadowType>, List<PrismObject<ShadowType>>> entry : foundShadowsByObject.entrySet()) {
+				PrismObject<ShadowType> liveShadow = selectLiveShadow(entry.getKey(), entry.getValue(), parentResult);
+				if (liveShadow != null) {
+					liveShadows.put(entry.getKey(), liveShadow);
+				}
+			}
+		}
+
+		if (queries > 0 && ctx.getTask() != null) {
+			ctx.getTask().recordShadowLookup(ctx.getResourceOid(), PolyString.getOrig(ctx.getResource().getName()),
+					ctx.getObjectClassDefinition() != null ? ctx.getObjectClassDefinition().getTypeName() : null,
+					objects, queries);
+		}
+		return liveShadows;
+	}
+
+	private PrismObject<ShadowType> selectLiveShadow(PrismObject<ShadowType> resourceShadow,
+			List<PrismObject<ShadowType>> foundShadows, OperationResult parentResult) throws SchemaException, ObjectNotFoundException {
 		PrismObject<ShadowType> liveShadow = null;
 		for (PrismObject<ShadowType> foundShadow : foundShadows) {
 			if (!Boolean.TRUE.equals(foundShadow.asObjectable().isDead())) {
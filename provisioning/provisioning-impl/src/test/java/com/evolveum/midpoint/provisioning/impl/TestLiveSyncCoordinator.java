@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.provisioning.impl;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.xml.namespace.QName;
+
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismProperty;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
+import com.evolveum.midpoint.provisioning.impl.LiveSyncCoordinator.ChangeProcessingOutcome;
+import com.evolveum.midpoint.provisioning.impl.LiveSyncCoordinator.ChangeProcessor;
+import com.evolveum.midpoint.provisioning.ucf.api.Change;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.schema.processor.ResourceAttribute;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.api.LightweightTaskHandler;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.task.api.TaskManager;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+
+/**
+ * Runs the live sync coordinator with real worker threads (the tasks are mocked) over a stream of changes
+ * of several objects, one of the changes failing.
+ */
+public class TestLiveSyncCoordinator {
+
+	private static final QName TOKEN_NAME = new QName("http://midpoint.evolveum.com/xml/ns/test", "token");
+
+	private static final int THREADS = 4;
+	private static final int OBJECTS = 7;
+	private static final int CHANGES = 300;
+	private static final int FAILING_CHANGE = 120;
+
+	private final List<Thread> workerThreads = Collections.synchronizedList(new ArrayList<>());
+	private final AtomicReference<PrismProperty<?>> storedToken = new AtomicReference<>();
+
+	@Test
+	public void testFailedChange() throws Exception {
+		System.out.println("===[ testFailedChange ]===");
+		Map<String, List<Integer>> processed = new HashMap<>();
+		LiveSyncCoordinator coordinator = createCoordinator((ctx, change, result) -> {
+			int number = (Integer) change.getToken().getRealValue();
+			synchronized (processed) {
+				processed.computeIfAbsent(getObjectName(change), k -> new ArrayList<>()).add(number);
+			}
+			return number == FAILING_CHANGE ? ChangeProcessingOutcome.FAILED : ChangeProcessingOutcome.PROCESSED;
+		});
+		OperationResult result = new OperationResult("testFailedChange");
+
+		for (int i = 0; i < CHANGES; i++) {
+			assertTrue("Processing stopped at change " + i, coordinator.submit(createChange(i)));
+		}
+		assertTrue(coordinator.submit(new Change((ObjectDelta<ShadowType>) null, createToken(CHANGES))));
+		coordinator.completeProcessing(result);
+
+		assertNull("Unexpected failure", coordinator.getFailure());
+		assertEquals("Wrong number of processed changes", CHANGES - 1, coordinator.getChangesProcessed());
+		int processedCount = 0;
+		for (Map.Entry<String, List<Integer>> entry : processed.entrySet()) {
+			List<Integer> numbers = entry.getValue();
+			for (int i = 1; i < numbers.size(); i++) {
+				assertTrue("Changes of " + entry.getKey() + " processed out of order: " + numbers,
+						numbers.get(i - 1) < numbers.get(i));
+			}
+			processedCount += numbers.size();
+		}
+		assertEquals("Wrong number of changes passed to the processor", CHANGES, processedCount);
+		assertNotNull("No token stored", storedToken.get());
+		assertEquals("Token advanced past the failed change", FAILING_CHANGE - 1, storedToken.get().getRealValue());
+	}
+
+	@Test
+	public void testExceptionInChange() throws Exception {
+		System.out.println("===[ testExceptionInChange ]===");
+		LiveSyncCoordinator coordinator = createCoordinator((ctx, change, result) -> {
+			if ((Integer) change.getToken().getRealValue() == FAILING_CHANGE) {
+				throw new SystemException("Simulated failure");
+			}
+			return ChangeProcessingOutcome.PROCESSED;
+		});
+		OperationResult result = new OperationResult("testExceptionInChange");
+
+		int submitted = 0;
+		while (submitted < CHANGES && coordinator.submit(createChange(submitted))) {
+			submitted++;
+		}
+		coordinator.completeProcessing(result);
+
+		assertNotNull("No failure", coordinator.getFailure());
+		assertTrue("Changes after the failed one were still fetched", submitted < CHANGES);
+		PrismProperty<?> token = storedToken.get();
+		assertTrue("Token advanced past the failed change: " + token,
+				token == null || (Integer) token.getRealValue() < FAILING_CHANGE);
+	}
+
+	private LiveSyncCoordinator createCoordinator(ChangeProcessor changeProcessor) throws Exception {
+		workerThreads.clear();
+		storedToken.set(null);
+
+		Task coordinatorTask = mock(Task.class);
+		when(coordinatorTask.canRun()).thenReturn(true);
+		when(coordinatorTask.createSubtask(any(LightweightTaskHandler.class))).thenAnswer(invocation -> {
+			LightweightTaskHandler handler = (LightweightTaskHandler) invocation.getArguments()[0];
+			Task subtask = mock(Task.class);
+			when(subtask.canRun()).thenReturn(true);
+			doAnswer(startInvocation -> {
+				Thread thread = new Thread(() -> handler.run(subtask));
+				workerThreads.add(thread);
+				thread.start();
+				return null;
+			}).when(subtask).startLightweightHandler();
+			return subtask;
+		});
+		doAnswer(invocation -> {
+			storedToken.set((PrismProperty<?>) invocation.getArguments()[0]);
+			return null;
+		}).when(coordinatorTask).setExtensionProperty(any(PrismProperty.class));
+
+		TaskManager taskManager = mock(TaskManager.class);
+		doAnswer(invocation -> {
+			for (Thread thread : new ArrayList<>(workerThreads)) {
+				thread.join();
+			}
+			return null;
+		}).when(taskManager).waitForTransientChildren(any(Task.class), any(OperationResult.class));
+
+		LiveSyncCoordinator coordinator = new LiveSyncCoordinator(coordinatorTask, null, taskManager,
+				(coords, workerTask, result) -> null, changeProcessor);
+		coordinator.createWorkerThreads(THREADS);
+		return coordinator;
+	}
+
+	private Change createChange(int number) {
+		ResourceAttribute<String> uid = new ResourceAttribute<>(SchemaConstants.ICFS_UID, null, null);
+		uid.setRealValue("object" + (number % OBJECTS));
+		Collection<ResourceAttribute<?>> identifiers = Collections.singletonList(uid);
+		return new Change(identifiers, (PrismObject<ShadowType>) null, createToken(number));
+	}
+
+	private PrismProperty<Integer> createToken(int value) {
+		PrismProperty<Integer> token = new PrismProperty<>(TOKEN_NAME);
+		token.setRealValue(value);
+		return token;
+	}
+
+	private String getObjectName(Change change) {
+		return (String) change.getIdentifiers().iterator().next().getRealValue();
+	}
+}
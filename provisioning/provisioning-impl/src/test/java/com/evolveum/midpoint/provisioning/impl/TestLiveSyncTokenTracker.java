@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.provisioning.impl;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import javax.xml.namespace.QName;
+
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.prism.PrismProperty;
+
+public class TestLiveSyncTokenTracker {
+
+	private static final QName TOKEN_NAME = new QName("http://midpoint.evolveum.com/xml/ns/test", "token");
+
+	@Test
+	public void testInOrder() {
+		System.out.println("===[ testInOrder ]===");
+		LiveSyncCoordinator.TokenTracker tracker = new LiveSyncCoordinator.TokenTracker();
+
+		assertTrue(tracker.markDone(0, token(10)));
+		assertToken(tracker, 10, 0);
+		assertTrue(tracker.markDone(1, token(11)));
+		assertToken(tracker, 11, 1);
+	}
+
+	@Test
+	public void testOutOfOrder() {
+		System.out.println("===[ testOutOfOrder ]===");
+		LiveSyncCoordinator.TokenTracker tracker = new LiveSyncCoordinator.TokenTracker();
+
+		assertFalse(tracker.markDone(2, token(12)));
+		assertFalse(tracker.markDone(1, token(11)));
+		assertNull(tracker.getToken());
+		assertEquals(-1, tracker.getLastDone());
+
+		assertTrue(tracker.markDone(0, token(10)));
+		assertToken(tracker, 12, 2);
+	}
+
+	@Test
+	public void testGap() {
+		System.out.println("===[ testGap ]===");
+		LiveSyncCoordinator.TokenTracker tracker = new LiveSyncCoordinator.TokenTracker();
+
+		assertTrue(tracker.markDone(0, token(10)));
+		// change #1 failed, so it is never marked as done
+		assertFalse(tracker.markDone(2, token(12)));
+		assertFalse(tracker.markDone(3, token(13)));
+		assertToken(tracker, 10, 0);
+	}
+
+	@Test
+	public void testFailure() {
+		System.out.println("===[ testFailure ]===");
+		LiveSyncCoordinator.TokenTracker tracker = new LiveSyncCoordinator.TokenTracker();
+
+		assertTrue(tracker.markDone(0, token(10)));
+		assertFalse(tracker.markDone(3, token(13)));
+		tracker.markFailed(2);
+		for (int i = 4; i < 1000; i++) {
+			assertFalse(tracker.markDone(i, token(10 + i)));
+		}
+		assertEquals("Changes after the failed one are tracked", 0, tracker.getTrackedCount());
+
+		// the change before the failed one can still complete
+		assertTrue(tracker.markDone(1, token(11)));
+		assertToken(tracker, 11, 1);
+		assertEquals(0, tracker.getTrackedCount());
+	}
+
+	@Test
+	public void testEarlierFailure() {
+		System.out.println("===[ testEarlierFailure ]===");
+		LiveSyncCoordinator.TokenTracker tracker = new LiveSyncCoordinator.TokenTracker();
+
+		tracker.markFailed(5);
+		assertFalse(tracker.markDone(2, token(12)));
+		tracker.markFailed(1);
+		assertEquals("Change after the earlier failure is tracked", 0, tracker.getTrackedCount());
+
+		assertTrue(tracker.markDone(0, token(10)));
+		assertToken(tracker, 10, 0);
+	}
+
+	private PrismProperty<Integer> token(int value) {
+		PrismProperty<Integer> token = new PrismProperty<>(TOKEN_NAME);
+		token.setRealValue(value);
+		return token;
+	}
+
+	private void assertToken(LiveSyncCoordinator.TokenTracker tracker, int expectedValue, long expectedLastDone) {
+		assertEquals("Wrong token", (Integer) expectedValue, tracker.getToken().getRealValue());
+		assertEquals("Wrong last done sequence number", expectedLastDone, tracker.getLastDone());
+	}
+}
@@ -29,9 +29,11 @@ import static org.testng.AssertJUnit.assertTrue;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.namespace.QName;
@@ -111,6 +113,8 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.OperationProvisionin
 import com.evolveum.midpoint.xml.ns._public.common.common_3.OperationResultStatusType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.OperationResultType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ProvisioningScriptType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ProvisioningStatisticsEntryType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ProvisioningStatisticsType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowKindType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
@@ -1170,6 +1174,105 @@ public class TestDummy extends AbstractBasicDummyTest {
 		syncServiceMock.assertNoNotifcations();		
 	}
 
+	/**
+	 * Found accounts are processed (in batches of 2) by separate threads. The result must be the same
+	 * as without them.
+	 */
+	@Test
+	public void test128SearchIterativeShadowProcessingThreads() throws Exception {
+		final String TEST_NAME = "test128SearchIterativeShadowProcessingThreads";
+		displayTestTitle(TEST_NAME);
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		task.setExtensionPropertyValue(SchemaConstants.MODEL_EXTENSION_SHADOW_PROCESSING_THREADS, 2);
+		task.setExtensionPropertyValue(SchemaConstants.MODEL_EXTENSION_SHADOW_LOOKUP_BATCH_SIZE, 2);
+		OperationResult result = task.getResult();
+
+		ObjectQuery query = ObjectQueryUtil.createResourceAndObjectClassQuery(RESOURCE_DUMMY_OID,
+				new QName(ResourceTypeUtil.getResourceNamespace(resourceType),
+						SchemaConstants.ACCOUNT_OBJECT_CLASS_LOCAL_NAME), prismContext);
+		int shadowsBefore = repositoryService.countObjects(ShadowType.class, null, null, result);
+		List<PrismObject<ShadowType>> foundObjects = Collections.synchronizedList(new ArrayList<>());
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		provisioningService.searchObjectsIterative(ShadowType.class, query, null,
+				(object, parentResult) -> foundObjects.add(object), task, result);
+
+		// THEN
+		displayThen(TEST_NAME);
+		assertSuccess(result);
+
+		display("Found shadows", foundObjects);
+		assertEquals(4, foundObjects.size());
+		checkConsistency(foundObjects);
+		assertProtected(foundObjects, 1);
+		assertEquals("Shadows were created", shadowsBefore, repositoryService.countObjects(ShadowType.class, null, null, result));
+		for (PrismObject<ShadowType> foundObject : foundObjects) {
+			assertNotNull("No OID in " + foundObject, foundObject.getOid());
+		}
+
+		ProvisioningStatisticsType statistics = task.getAggregatedLiveOperationStats()
+				.getEnvironmentalPerformanceInformation().getProvisioningStatistics();
+		display("Provisioning statistics", statistics);
+		ProvisioningStatisticsEntryType entry = statistics.getEntry().stream()
+				.filter(e -> e.getShadowLookups() != null)
+				.findFirst().orElseThrow(() -> new AssertionError("No shadow lookup statistics"));
+		assertEquals("Wrong number of shadow lookups", (Integer) 4, entry.getShadowLookups());
+		assertEquals("Wrong number of shadow lookup queries", (Integer) 2, entry.getShadowLookupQueries());
+
+		assertSteadyResource();
+	}
+
+	/**
+	 * The handler fails in one of the shadow processing threads. The search must stop and the exception
+	 * must be re-thrown to the searching (coordinator) thread.
+	 */
+	@Test
+	public void test128bSearchIterativeShadowProcessingThreadsHandlerFailure() throws Exception {
+		final String TEST_NAME = "test128bSearchIterativeShadowProcessingThreadsHandlerFailure";
+		displayTestTitle(TEST_NAME);
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		task.setExtensionPropertyValue(SchemaConstants.MODEL_EXTENSION_SHADOW_PROCESSING_THREADS, 2);
+		OperationResult result = task.getResult();
+
+		ObjectQuery query = ObjectQueryUtil.createResourceAndObjectClassQuery(RESOURCE_DUMMY_OID,
+				new QName(ResourceTypeUtil.getResourceNamespace(resourceType),
+						SchemaConstants.ACCOUNT_OBJECT_CLASS_LOCAL_NAME), prismContext);
+		Thread searchingThread = Thread.currentThread();
+		IllegalStateException handlerException = new IllegalStateException("Handler failure");
+		AtomicInteger handled = new AtomicInteger();
+		List<Thread> handlerThreads = Collections.synchronizedList(new ArrayList<>());
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		try {
+			provisioningService.searchObjectsIterative(ShadowType.class, query, null,
+					(object, parentResult) -> {
+						handlerThreads.add(Thread.currentThread());
+						if (handled.incrementAndGet() == 2) {
+							throw handlerException;
+						}
+						return true;
+					}, task, result);
+			AssertJUnit.fail("Unexpected success");
+		} catch (IllegalStateException e) {
+			// THEN
+			displayThen(TEST_NAME);
+			display("Expected exception", e);
+			AssertJUnit.assertSame("Wrong exception re-thrown", handlerException, e);
+		}
+
+		assertTrue("Handler was not called", handled.get() >= 2);
+		assertFalse("Handler called in the searching thread", handlerThreads.contains(searchingThread));
+		result.computeStatus();
+		display("Result", result);
+		assertFalse("Failure not recorded in the result", result.isSuccess());
+
+		assertSteadyResource();
+	}
+
 	/**
 	 * Set a null value to the (native) dummy attribute. The UCF layer should filter that out.
 	 */
@@ -1202,6 +1305,55 @@ public class TestDummy extends AbstractBasicDummyTest {
 		assertSteadyResource();
 	}
 
+	/**
+	 * Shadows of the found accounts are looked up in batches. The result must be the same as without batching.
+	 */
+	@Test
+	public void test130SearchIterativeBatchedShadowLookup() throws Exception {
+		final String TEST_NAME = "test130SearchIterativeBatchedShadowLookup";
+		displayTestTitle(TEST_NAME);
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		task.setExtensionPropertyValue(SchemaConstants.MODEL_EXTENSION_SHADOW_LOOKUP_BATCH_SIZE, 10);
+		OperationResult result = task.getResult();
+
+		ObjectQuery query = ObjectQueryUtil.createResourceAndObjectClassQuery(RESOURCE_DUMMY_OID,
+				new QName(ResourceTypeUtil.getResourceNamespace(resourceType),
+						SchemaConstants.ACCOUNT_OBJECT_CLASS_LOCAL_NAME), prismContext);
+		int shadowsBefore = repositoryService.countObjects(ShadowType.class, null, null, result);
+		List<PrismObject<ShadowType>> foundObjects = new ArrayList<>();
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		provisioningService.searchObjectsIterative(ShadowType.class, query, null,
+				(object, parentResult) -> foundObjects.add(object), task, result);
+
+		// THEN
+		displayThen(TEST_NAME);
+		assertSuccess(result);
+
+		display("Found shadows", foundObjects);
+		assertEquals(4, foundObjects.size());
+		checkConsistency(foundObjects);
+		assertProtected(foundObjects, 1);
+		assertEquals("Shadows were created", shadowsBefore, repositoryService.countObjects(ShadowType.class, null, null, result));
+		for (PrismObject<ShadowType> foundObject : foundObjects) {
+			assertNotNull("No OID in " + foundObject, foundObject.getOid());
+			getShadowRepo(foundObject.getOid());
+		}
+
+		ProvisioningStatisticsType statistics = task.getAggregatedLiveOperationStats()
+				.getEnvironmentalPerformanceInformation().getProvisioningStatistics();
+		display("Provisioning statistics", statistics);
+		ProvisioningStatisticsEntryType entry = statistics.getEntry().stream()
+				.filter(e -> e.getShadowLookups() != null)
+				.findFirst().orElseThrow(() -> new AssertionError("No shadow lookup statistics"));
+		assertEquals("Wrong number of shadow lookups", (Integer) 4, entry.getShadowLookups());
+		assertEquals("Wrong number of shadow lookup queries", (Integer) 1, entry.getShadowLookupQueries());
+
+		assertSteadyResource();
+	}
+
 	@Test
 	public void test131AddScript() throws Exception {
 		final String TEST_NAME = "test131AddScript";
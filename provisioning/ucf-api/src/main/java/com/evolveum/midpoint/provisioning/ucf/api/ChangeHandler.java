@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.provisioning.ucf.api;
+
+/**
+ * Classes implementing this interface are used to process changes (live sync deltas)
+ * one by one, as they are received from the resource.
+ *
+ * Changes are passed in the order in which the resource provided them. The last change
+ * may be a token-only one, carrying the token that should be stored after all changes are processed.
+ *
+ * Checked exceptions that occur while processing a change should be wrapped in TunnelException;
+ * they are propagated to the caller of the fetch operation.
+ */
+@FunctionalInterface
+public interface ChangeHandler {
+
+	/**
+	 * Handle a single change.
+	 * @param change Change to process.
+	 * @return true if the operation should proceed, false if it should stop
+	 */
+	boolean handleChange(Change change);
+
+}
@@ -313,6 +313,29 @@ public interface ConnectorInstance {
 	List<Change> fetchChanges(ObjectClassComplexTypeDefinition objectClass, PrismProperty<?> lastToken, AttributesToReturn attrsToReturn, StateReporter reporter,
 															   OperationResult parentResult) throws CommunicationException, GenericFrameworkException, SchemaException, ConfigurationException;
 
+	/**
+	 * Iterative variant of fetchChanges. Changes are passed to the handler as they are received from the resource,
+	 * so they do not need to be kept in memory all at once. If the resource provides the final token, it is passed
+	 * as the last (token-only) change.
+	 *
+	 * The default implementation fetches all the changes first and then passes them to the handler;
+	 * connectors that are able to stream the changes should override it.
+	 *
+	 * Token may be null. That means "from the beginning of history".
+	 */
+	default void fetchChanges(ObjectClassComplexTypeDefinition objectClass, PrismProperty<?> lastToken, AttributesToReturn attrsToReturn,
+			StateReporter reporter, ChangeHandler handler, OperationResult parentResult)
+			throws CommunicationException, GenericFrameworkException, SchemaException, ConfigurationException {
+		List<Change> changes = fetchChanges(objectClass, lastToken, attrsToReturn, reporter, parentResult);
+		if (changes != null) {
+			for (Change change : changes) {
+				if (!handler.handleChange(change)) {
+					break;
+				}
+			}
+		}
+	}
+
 	//public ValidationResult validateConfiguration(ResourceConfiguration newConfiguration);
 
 	//public void applyConfiguration(ResourceConfiguration newConfiguration) throws MisconfigurationException;
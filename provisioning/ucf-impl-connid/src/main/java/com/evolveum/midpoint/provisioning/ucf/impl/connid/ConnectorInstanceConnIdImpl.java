@@ -104,6 +104,7 @@ import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
 import com.evolveum.midpoint.prism.xml.XsdTypeMapper;
 import com.evolveum.midpoint.provisioning.ucf.api.AttributesToReturn;
 import com.evolveum.midpoint.provisioning.ucf.api.Change;
+import com.evolveum.midpoint.provisioning.ucf.api.ChangeHandler;
 import com.evolveum.midpoint.provisioning.ucf.api.ConnectorInstance;
 import com.evolveum.midpoint.provisioning.ucf.api.ExecuteProvisioningScriptOperation;
 import com.evolveum.midpoint.provisioning.ucf.api.ExecuteScriptArgument;
@@ -137,6 +138,7 @@ import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.util.exception.SecurityViolationException;
 import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.exception.TunnelException;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ActivationStatusType;
@@ -2056,6 +2058,15 @@ public class ConnectorInstanceConnIdImpl implements ConnectorInstance {
 	public List<Change>  fetchChanges(ObjectClassComplexTypeDefinition objectClass, PrismProperty<?> lastToken, AttributesToReturn attrsToReturn, StateReporter reporter,
 																OperationResult parentResult) throws CommunicationException, GenericFrameworkException,
 			SchemaException, ConfigurationException {
+		List<Change> changeList = new ArrayList<>();
+		fetchChanges(objectClass, lastToken, attrsToReturn, reporter, changeList::add, parentResult);
+		return changeList;
+	}
+
+	@Override
+	public void fetchChanges(ObjectClassComplexTypeDefinition objectClass, PrismProperty<?> lastToken, AttributesToReturn attrsToReturn,
+			StateReporter reporter, ChangeHandler handler, OperationResult parentResult) throws CommunicationException, GenericFrameworkException,
+			SchemaException, ConfigurationException {
 
 		OperationResult result = parentResult.createSubresult(ConnectorInstance.class.getName()
 				+ ".fetchChanges");
@@ -2072,7 +2083,6 @@ public class ConnectorInstanceConnIdImpl implements ConnectorInstance {
 			throw new SchemaException(ex.getMessage(), ex);
 		}
 
-		final List<SyncDelta> syncDeltas = new ArrayList<>();
 		// get icf object class
 		ObjectClass icfObjectClass;
 		if (objectClass == null) {
@@ -2087,11 +2097,40 @@ public class ConnectorInstanceConnIdImpl implements ConnectorInstance {
 		}
 		OperationOptions options = optionsBuilder.build();
 
+		QName objectClassName = connIdNameMapper.objectClassToQname(icfObjectClass, getSchemaNamespace(), legacySchema);
+		ObjectClassComplexTypeDefinition objectClassDefinition = null;
+		if (objectClassName != null) {
+			objectClassDefinition = (ObjectClassComplexTypeDefinition) resourceSchema.findComplexTypeDefinition(objectClassName);
+		}
+		final ObjectClassComplexTypeDefinition finalObjectClassDefinition = objectClassDefinition;
+
+		// Changes are converted and passed to the handler one by one, so we never hold the whole
+		// (possibly very large) set of sync deltas in memory.
+		final Holder<Integer> countHolder = new Holder<>(0);
+		final Holder<Boolean> stoppedHolder = new Holder<>(false);
 		SyncResultsHandler syncHandler = new SyncResultsHandler() {
 			@Override
 			public boolean handle(SyncDelta delta) {
+				if (stoppedHolder.getValue()) {
+					// connectors are not required to stop when asked to; the remaining deltas must not be processed
+					LOGGER.trace("Ignoring sync delta received after the processing was stopped: {}", delta);
+					return false;
+				}
 				LOGGER.trace("Detected sync delta: {}", delta);
-				return syncDeltas.add(delta);
+				recordIcfOperationSuspend(reporter, ProvisioningOperation.ICF_SYNC, objectClass);
+				try {
+					Change change = getChangeFromSyncDelta(icfObjectClass, objectClassName, finalObjectClassDefinition, delta);
+					countHolder.setValue(countHolder.getValue() + 1);
+					boolean cont = handler.handleChange(change);
+					if (!cont) {
+						stoppedHolder.setValue(true);
+					}
+					return cont;
+				} catch (SchemaException | GenericFrameworkException e) {
+					throw new IntermediateException(e);
+				} finally {
+					recordIcfOperationResume(reporter, ProvisioningOperation.ICF_SYNC, objectClass);
+				}
 			}
 		};
 
@@ -2109,7 +2148,23 @@ public class ConnectorInstanceConnIdImpl implements ConnectorInstance {
 					options);
 			recordIcfOperationEnd(reporter, ProvisioningOperation.ICF_SYNC, objectClass);
 			connIdResult.recordSuccess();
-			connIdResult.addReturn(OperationResult.RETURN_COUNT, syncDeltas.size());
+			connIdResult.addReturn(OperationResult.RETURN_COUNT, countHolder.getValue());
+		} catch (IntermediateException inex) {
+			recordIcfOperationEnd(reporter, ProvisioningOperation.ICF_SYNC, objectClass, inex);
+			Throwable cause = inex.getCause();
+			connIdResult.recordFatalError(cause);
+			result.recordFatalError(cause.getMessage(), cause);
+			if (cause instanceof SchemaException) {
+				throw new SchemaException(cause.getMessage(), cause);
+			} else {
+				throw (GenericFrameworkException) cause;
+			}
+		} catch (TunnelException tex) {
+			// exception thrown by the handler; to be unwrapped by the caller
+			recordIcfOperationEnd(reporter, ProvisioningOperation.ICF_SYNC, objectClass, tex);
+			connIdResult.recordFatalError(tex.getCause());
+			result.computeStatus();
+			throw tex;
 		} catch (Throwable ex) {
 			recordIcfOperationEnd(reporter, ProvisioningOperation.ICF_SYNC, objectClass, ex);
 			Throwable midpointEx = processConnIdException(ex, this, connIdResult);
@@ -2130,24 +2185,15 @@ public class ConnectorInstanceConnIdImpl implements ConnectorInstance {
 				throw new SystemException("Got unexpected exception: " + ex.getClass().getName() + ": " + ex.getMessage(), ex);
 			}
 		}
-		// convert changes from icf to midpoint Change
-		List<Change> changeList;
-		try {
-			changeList = getChangesFromSyncDeltas(icfObjectClass, syncDeltas, resourceSchema, result);
-		} catch (SchemaException ex) {
-			result.recordFatalError(ex.getMessage(), ex);
-			throw new SchemaException(ex.getMessage(), ex);
-		}
 
-		if (lastReceivedToken != null) {
+		if (lastReceivedToken != null && !stoppedHolder.getValue()) {
 			Change lastChange = new Change((ObjectDelta)null, getToken(lastReceivedToken));
 			LOGGER.trace("Adding last change: {}", lastChange);
-			changeList.add(lastChange);
+			handler.handleChange(lastChange);
 		}
 
 		result.recordSuccess();
-		result.addReturn(OperationResult.RETURN_COUNT, changeList == null ? 0 : changeList.size());
-		return changeList;
+		result.addReturn(OperationResult.RETURN_COUNT, countHolder.getValue());
 	}
 
 	@Override
@@ -2733,99 +2779,88 @@ public class ConnectorInstanceConnIdImpl implements ConnectorInstance {
 		attributes.add(ab.build());
 	}
 
-	private List<Change> getChangesFromSyncDeltas(ObjectClass connIdObjClass, Collection<SyncDelta> connIdDeltas,
-			PrismSchema schema, OperationResult parentResult)
+	private Change getChangeFromSyncDelta(ObjectClass connIdObjClass, QName objectClass,
+			ObjectClassComplexTypeDefinition objClassDefinition, SyncDelta icfDelta)
 			throws SchemaException, GenericFrameworkException {
-		List<Change> changeList = new ArrayList<>();
 
-		QName objectClass = connIdNameMapper.objectClassToQname(connIdObjClass, getSchemaNamespace(), legacySchema);
-		ObjectClassComplexTypeDefinition objClassDefinition = null;
-		if (objectClass != null) {
-			objClassDefinition = (ObjectClassComplexTypeDefinition) schema.findComplexTypeDefinition(objectClass);
-		}
-
-		Validate.notNull(connIdDeltas, "Sync result must not be null.");
-		for (SyncDelta icfDelta : connIdDeltas) {
+		Validate.notNull(icfDelta, "Sync delta must not be null.");
 
-			ObjectClass deltaIcfObjClass = connIdObjClass;
-			QName deltaObjectClass = objectClass;
-			ObjectClassComplexTypeDefinition deltaObjClassDefinition = objClassDefinition;
-			if (objectClass == null) {
-				deltaIcfObjClass = icfDelta.getObjectClass();
-				deltaObjectClass = connIdNameMapper.objectClassToQname(deltaIcfObjClass, getSchemaNamespace(), legacySchema);
-				if (deltaIcfObjClass != null) {
-					deltaObjClassDefinition = (ObjectClassComplexTypeDefinition) schema.findComplexTypeDefinition(deltaObjectClass);
-				}
+		ObjectClass deltaIcfObjClass = connIdObjClass;
+		QName deltaObjectClass = objectClass;
+		ObjectClassComplexTypeDefinition deltaObjClassDefinition = objClassDefinition;
+		if (objectClass == null) {
+			deltaIcfObjClass = icfDelta.getObjectClass();
+			deltaObjectClass = connIdNameMapper.objectClassToQname(deltaIcfObjClass, getSchemaNamespace(), legacySchema);
+			if (deltaIcfObjClass != null) {
+				deltaObjClassDefinition = (ObjectClassComplexTypeDefinition) resourceSchema.findComplexTypeDefinition(deltaObjectClass);
 			}
-			if (deltaObjClassDefinition == null) {
-				if (icfDelta.getDeltaType() == SyncDeltaType.DELETE) {
-					// tolerate this. E.g. LDAP changelogs do not have objectclass in delete deltas.
-				} else {
-					throw new SchemaException("Got delta with object class "+deltaObjectClass+" ("+deltaIcfObjClass+") that has no definition in resource schema");
-				}
+		}
+		if (deltaObjClassDefinition == null) {
+			if (icfDelta.getDeltaType() == SyncDeltaType.DELETE) {
+				// tolerate this. E.g. LDAP changelogs do not have objectclass in delete deltas.
+			} else {
+				throw new SchemaException("Got delta with object class "+deltaObjectClass+" ("+deltaIcfObjClass+") that has no definition in resource schema");
 			}
+		}
 
-			SyncDeltaType icfDeltaType = icfDelta.getDeltaType();
-			if (SyncDeltaType.DELETE.equals(icfDeltaType)) {
-				LOGGER.trace("START creating delta of type DELETE");
-				ObjectDelta<ShadowType> objectDelta = new ObjectDelta<>(
-                    ShadowType.class, ChangeType.DELETE, prismContext);
-				Collection<ResourceAttribute<?>> identifiers = ConnIdUtil.convertToIdentifiers(icfDelta.getUid(),
-						deltaObjClassDefinition, resourceSchema);
-				Change change = new Change(identifiers, objectDelta, getToken(icfDelta.getToken()));
-				change.setObjectClassDefinition(deltaObjClassDefinition);
-				changeList.add(change);
-				LOGGER.trace("END creating delta of type DELETE");
+		SyncDeltaType icfDeltaType = icfDelta.getDeltaType();
+		if (SyncDeltaType.DELETE.equals(icfDeltaType)) {
+			LOGGER.trace("START creating delta of type DELETE");
+			ObjectDelta<ShadowType> objectDelta = new ObjectDelta<>(
+                ShadowType.class, ChangeType.DELETE, prismContext);
+			Collection<ResourceAttribute<?>> identifiers = ConnIdUtil.convertToIdentifiers(icfDelta.getUid(),
+					deltaObjClassDefinition, resourceSchema);
+			Change change = new Change(identifiers, objectDelta, getToken(icfDelta.getToken()));
+			change.setObjectClassDefinition(deltaObjClassDefinition);
+			LOGGER.trace("END creating delta of type DELETE");
+			return change;
 
-			} else if (SyncDeltaType.CREATE.equals(icfDeltaType)) {
-				PrismObjectDefinition<ShadowType> objectDefinition = toShadowDefinition(deltaObjClassDefinition);
-				LOGGER.trace("Object definition: {}", objectDefinition);
+		} else if (SyncDeltaType.CREATE.equals(icfDeltaType)) {
+			PrismObjectDefinition<ShadowType> objectDefinition = toShadowDefinition(deltaObjClassDefinition);
+			LOGGER.trace("Object definition: {}", objectDefinition);
 
-				LOGGER.trace("START creating delta of type CREATE");
-				PrismObject<ShadowType> currentShadow = connIdConvertor.convertToResourceObject(icfDelta.getObject(),
-						objectDefinition, false, caseIgnoreAttributeNames, legacySchema);
+			LOGGER.trace("START creating delta of type CREATE");
+			PrismObject<ShadowType> currentShadow = connIdConvertor.convertToResourceObject(icfDelta.getObject(),
+					objectDefinition, false, caseIgnoreAttributeNames, legacySchema);
 
-				if (LOGGER.isTraceEnabled()) {
-					LOGGER.trace("Got current shadow: {}", currentShadow.debugDump());
-				}
-
-				Collection<ResourceAttribute<?>> identifiers = ShadowUtil.getAllIdentifiers(currentShadow);
+			if (LOGGER.isTraceEnabled()) {
+				LOGGER.trace("Got current shadow: {}", currentShadow.debugDump());
+			}
 
-				ObjectDelta<ShadowType> objectDelta = new ObjectDelta<>(
-                    ShadowType.class, ChangeType.ADD, prismContext);
-				objectDelta.setObjectToAdd(currentShadow);
+			Collection<ResourceAttribute<?>> identifiers = ShadowUtil.getAllIdentifiers(currentShadow);
 
-				Change change = new Change(identifiers, objectDelta, getToken(icfDelta.getToken()));
-				change.setObjectClassDefinition(deltaObjClassDefinition);
-				changeList.add(change);
-				LOGGER.trace("END creating delta of type CREATE");
+			ObjectDelta<ShadowType> objectDelta = new ObjectDelta<>(
+                ShadowType.class, ChangeType.ADD, prismContext);
+			objectDelta.setObjectToAdd(currentShadow);
 
-			} else if (SyncDeltaType.CREATE_OR_UPDATE.equals(icfDeltaType) ||
-					SyncDeltaType.UPDATE.equals(icfDeltaType)) {
-				PrismObjectDefinition<ShadowType> objectDefinition = toShadowDefinition(deltaObjClassDefinition);
-				LOGGER.trace("Object definition: {}", objectDefinition);
+			Change change = new Change(identifiers, objectDelta, getToken(icfDelta.getToken()));
+			change.setObjectClassDefinition(deltaObjClassDefinition);
+			LOGGER.trace("END creating delta of type CREATE");
+			return change;
 
-				LOGGER.trace("START creating delta of type {}", icfDeltaType);
-				PrismObject<ShadowType> currentShadow = connIdConvertor.convertToResourceObject(icfDelta.getObject(),
-						objectDefinition, false, caseIgnoreAttributeNames, legacySchema);
+		} else if (SyncDeltaType.CREATE_OR_UPDATE.equals(icfDeltaType) ||
+				SyncDeltaType.UPDATE.equals(icfDeltaType)) {
+			PrismObjectDefinition<ShadowType> objectDefinition = toShadowDefinition(deltaObjClassDefinition);
+			LOGGER.trace("Object definition: {}", objectDefinition);
 
-				if (LOGGER.isTraceEnabled()) {
-					LOGGER.trace("Got current shadow: {}", currentShadow.debugDump());
-				}
+			LOGGER.trace("START creating delta of type {}", icfDeltaType);
+			PrismObject<ShadowType> currentShadow = connIdConvertor.convertToResourceObject(icfDelta.getObject(),
+					objectDefinition, false, caseIgnoreAttributeNames, legacySchema);
 
-				Collection<ResourceAttribute<?>> identifiers = ShadowUtil.getAllIdentifiers(currentShadow);
+			if (LOGGER.isTraceEnabled()) {
+				LOGGER.trace("Got current shadow: {}", currentShadow.debugDump());
+			}
 
-				Change change = new Change(identifiers, currentShadow, getToken(icfDelta.getToken()));
-				change.setObjectClassDefinition(deltaObjClassDefinition);
-				changeList.add(change);
-				LOGGER.trace("END creating delta of type {}:\n{}", icfDeltaType, change.debugDump());
+			Collection<ResourceAttribute<?>> identifiers = ShadowUtil.getAllIdentifiers(currentShadow);
 
-			} else {
-				throw new GenericFrameworkException("Unexpected sync delta type " + icfDeltaType);
-			}
+			Change change = new Change(identifiers, currentShadow, getToken(icfDelta.getToken()));
+			change.setObjectClassDefinition(deltaObjClassDefinition);
+			LOGGER.trace("END creating delta of type {}:\n{}", icfDeltaType, change.debugDump());
+			return change;
 
+		} else {
+			throw new GenericFrameworkException("Unexpected sync delta type " + icfDeltaType);
 		}
-		return changeList;
 	}
 
 	private SyncToken getSyncToken(PrismProperty tokenProperty) throws SchemaException {
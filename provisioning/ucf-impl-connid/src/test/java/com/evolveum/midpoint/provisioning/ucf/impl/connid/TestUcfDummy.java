@@ -450,6 +450,67 @@ public class TestUcfDummy extends AbstractUcfDummyTest {
 
 	}
 
+	/**
+	 * Changes are streamed to the handler. The processing is stopped in the middle of the stream
+	 * and then resumed from the token of the last processed change, as live sync does after an interruption.
+	 */
+	@Test
+	public void test110FetchChangesStreamingStopAndResume() throws Exception {
+		final String TEST_NAME = "test110FetchChangesStreamingStopAndResume";
+		TestUtil.displayTestTitle(this, TEST_NAME);
+
+		OperationResult result = new OperationResult(this.getClass().getName() + "." + TEST_NAME);
+		ObjectClassComplexTypeDefinition accountDefinition = resourceSchema.findDefaultObjectClassDefinition(ShadowKindType.ACCOUNT);
+
+		PrismProperty<?> lastToken = cc.fetchCurrentToken(accountDefinition, null, result);
+		assertNotNull("No last sync token", lastToken);
+
+		dummyResource.setSyncStyle(DummySyncStyle.DUMB);
+		final int ACCOUNTS = 12;
+		final int STOP_AFTER = 5;
+		for (int i = 0; i < ACCOUNTS; i++) {
+			DummyAccount account = new DummyAccount("streamer" + i);
+			account.setEnabled(true);
+			dummyResource.addAccount(account);
+		}
+
+		// WHEN (first part)
+		List<Change> firstPart = new ArrayList<>();
+		cc.fetchChanges(accountDefinition, lastToken, null, null, change -> {
+			firstPart.add(change);
+			return firstPart.size() < STOP_AFTER;
+		}, result);
+
+		// THEN (first part)
+		assertEquals("Wrong number of changes before stop", STOP_AFTER, firstPart.size());
+		assertStreamedAccounts(firstPart, 0);
+
+		// WHEN (rest)
+		PrismProperty<?> resumeToken = firstPart.get(STOP_AFTER - 1).getToken();
+		assertNotNull("No token in the last processed change", resumeToken);
+		List<Change> rest = new ArrayList<>();
+		cc.fetchChanges(accountDefinition, resumeToken, null, null, change -> {
+			rest.add(change);
+			return true;
+		}, result);
+
+		// THEN (rest)
+		assertEquals("Wrong number of changes after resume", ACCOUNTS - STOP_AFTER + 1, rest.size());
+		Change tokenOnly = rest.remove(rest.size() - 1);
+		assertTrue("Last change is not token-only", tokenOnly.getObjectDelta() == null && tokenOnly.getCurrentShadow() == null);
+		assertEquals("Wrong final token", dummyResource.getLatestSyncToken(), tokenOnly.getToken().getRealValue());
+		assertStreamedAccounts(rest, STOP_AFTER);
+	}
+
+	private void assertStreamedAccounts(List<Change> changes, int firstIndex) throws Exception {
+		for (int i = 0; i < changes.size(); i++) {
+			PrismObject<ShadowType> currentShadow = changes.get(i).getCurrentShadow();
+			assertNotNull("No current shadow in change " + i, currentShadow);
+			assertEquals("Wrong account in change " + i, "streamer" + (firstIndex + i),
+					ShadowUtil.getAttributeValue(currentShadow, SchemaConstants.ICFS_NAME));
+		}
+	}
+
 	@Test
 	public void test500SelfTest() throws Exception {
 		final String TEST_NAME = "test500SelfTest";
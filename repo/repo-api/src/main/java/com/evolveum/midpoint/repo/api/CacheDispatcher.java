@@ -16,6 +16,7 @@
 
 package com.evolveum.midpoint.repo.api;
 
+import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 
 public interface CacheDispatcher {
@@ -23,5 +24,15 @@ public interface CacheDispatcher {
 	public void registerCacheListener(CacheListener cacheListener);
 	public void unregisterCacheListener(CacheListener cacheListener);
 	
+	/**
+	 * Notifies local listeners about the change of the object and (if a cache invalidation transport
+	 * is available) queues the event for other cluster nodes.
+	 */
 	public <O extends ObjectType> void dispatch(Class<O> type, String oid);
+
+	/**
+	 * Sends queued invalidation events to other nodes and dispatches events received from them to local listeners.
+	 * It is called periodically by the cluster manager thread.
+	 */
+	public void exchangeRemoteInvalidations(String nodeIdentifier, OperationResult result);
 }
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.repo.api;
+
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Objects;
+
+/**
+ * Information that an object (or all objects of given type, if oid is null or empty) has been changed
+ * and therefore should be removed from caches.
+ */
+public class CacheInvalidationEvent {
+
+	@NotNull private final Class<? extends ObjectType> type;
+	private final String oid;
+
+	public CacheInvalidationEvent(@NotNull Class<? extends ObjectType> type, String oid) {
+		this.type = type;
+		this.oid = oid;
+	}
+
+	@NotNull
+	public Class<? extends ObjectType> getType() {
+		return type;
+	}
+
+	public String getOid() {
+		return oid;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		CacheInvalidationEvent that = (CacheInvalidationEvent) o;
+		return type.equals(that.type) && Objects.equals(oid, that.oid);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(type, oid);
+	}
+
+	@Override
+	public String toString() {
+		return "CacheInvalidationEvent{" + type.getSimpleName() + "[" + oid + "]}";
+	}
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.repo.api;
+
+import com.evolveum.midpoint.schema.result.OperationResult;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Carries cache invalidation events between cluster nodes.
+ *
+ * The transport is never called from the thread that modifies an object. Events are queued by CacheDispatcher
+ * and exchanged periodically by the cluster manager thread, so an implementation may use slow (e.g. database
+ * or network) channels. Events originating at a node must not be returned back to the same node.
+ */
+public interface CacheInvalidationTransport {
+
+	/**
+	 * Sends events that originated at the given node to other nodes.
+	 */
+	void publish(String nodeIdentifier, Collection<CacheInvalidationEvent> events, OperationResult result);
+
+	/**
+	 * Returns events published by other nodes since the last call.
+	 */
+	List<CacheInvalidationEvent> fetch(String nodeIdentifier, OperationResult result);
+}
@@ -21,5 +21,12 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 public interface CacheListener {
 
 	public <O extends ObjectType> void invalidateCache(Class<O> type, String oid);
-	
+
+	/**
+	 * Called when the object was changed on another cluster node. By default it is treated
+	 * the same way as a local change.
+	 */
+	default <O extends ObjectType> void invalidateCacheFromRemoteNode(Class<O> type, String oid) {
+		invalidateCache(type, oid);
+	}
 }
@@ -30,6 +30,7 @@ import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
 import org.jetbrains.annotations.NotNull;
 
+import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.namespace.QName;
 
 /**
@@ -138,6 +139,7 @@ public interface RepositoryService {
 	String ADVANCE_SEQUENCE = CLASS_NAME_WITH_DOT + "advanceSequence";
 	String RETURN_UNUSED_VALUES_TO_SEQUENCE = CLASS_NAME_WITH_DOT + "returnUnusedValuesToSequence";
 	String EXECUTE_QUERY_DIAGNOSTICS = CLASS_NAME_WITH_DOT + "executeQueryDiagnostics";
+	String SEARCH_TRIGGERS = CLASS_NAME_WITH_DOT + "searchTriggers";
 
 	String KEY_DIAG_DATA = "repositoryDiagData";			// see GetOperationOptions.attachDiagData
 
@@ -509,6 +511,21 @@ public interface RepositoryService {
 			Class<T> resourceObjectShadowType, OperationResult parentResult) throws ObjectNotFoundException,
             SchemaException;
 
+	/**
+	 * Returns triggers with the timestamp in the interval (from, to] ordered by timestamp, owner OID and trigger ID.
+	 * Only triggers that come after the specified one in this ordering are returned (if specified), and at most
+	 * maxSize of them. So the triggers that are due can be processed in batches without searching through
+	 * their owner objects.
+	 *
+	 * @param from lower bound of the timestamp (exclusive); null means no lower bound
+	 * @param to upper bound of the timestamp (inclusive)
+	 * @param after the last trigger of the previous batch; null for the first batch
+	 * @param maxSize maximum number of triggers to return
+	 */
+	@NotNull
+	List<ScheduledTrigger> searchTriggers(XMLGregorianCalendar from, @NotNull XMLGregorianCalendar to,
+			ScheduledTrigger after, int maxSize, OperationResult parentResult);
+
 	/**
 	 *
 	 * This operation is guaranteed to be atomic. If two threads or even two nodes request a value from
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.api;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+
+/**
+ * A trigger as stored in the repository trigger index, i.e. without its owner object.
+ * See {@link RepositoryService#searchTriggers}.
+ */
+public class ScheduledTrigger {
+
+	private final String ownerOid;
+	private final Long id;
+	private final String handlerUri;
+	private final XMLGregorianCalendar timestamp;
+
+	public ScheduledTrigger(String ownerOid, Long id, String handlerUri, XMLGregorianCalendar timestamp) {
+		this.ownerOid = ownerOid;
+		this.id = id;
+		this.handlerUri = handlerUri;
+		this.timestamp = timestamp;
+	}
+
+	public String getOwnerOid() {
+		return ownerOid;
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	public String getHandlerUri() {
+		return handlerUri;
+	}
+
+	public XMLGregorianCalendar getTimestamp() {
+		return timestamp;
+	}
+
+	@Override
+	public String toString() {
+		return "ScheduledTrigger{" + ownerOid + ":" + id + ", handlerUri='" + handlerUri + "', timestamp=" + timestamp + "}";
+	}
+}
@@ -17,14 +17,23 @@
 package com.evolveum.midpoint.repo.cache;
 
 import com.evolveum.midpoint.repo.api.CacheDispatcher;
+import com.evolveum.midpoint.repo.api.CacheInvalidationEvent;
+import com.evolveum.midpoint.repo.api.CacheInvalidationTransport;
 import com.evolveum.midpoint.repo.api.CacheListener;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 @Component
@@ -32,7 +41,29 @@ public class CacheDispatcherImpl implements CacheDispatcher {
 
     private static final Trace LOGGER = TraceManager.getTrace(CacheDispatcherImpl.class);
 
-    private List<CacheListener> cacheListeners = new ArrayList<>();
+    private static final String OPERATION_EXCHANGE_REMOTE_INVALIDATIONS = CacheDispatcherImpl.class.getName() + ".exchangeRemoteInvalidations";
+
+    /**
+     * If there are more events waiting to be sent to other nodes, new events are replaced
+     * by invalidation of the whole object type.
+     */
+    static final int MAX_PENDING_EVENTS = 10000;
+
+    private List<CacheListener> cacheListeners = new CopyOnWriteArrayList<>();
+
+    // optional; without it the invalidation events are distributed only within this node
+    @Autowired(required = false)
+    private CacheInvalidationTransport invalidationTransport;
+
+    // Queued whenever there is a transport, so invalidations made before the first exchange are not lost.
+    // On non-clustered nodes nobody drains the queue, but its size is bounded by MAX_PENDING_EVENTS
+    // plus one whole-type event per object type.
+    private final Set<CacheInvalidationEvent> pendingEvents = ConcurrentHashMap.newKeySet();
+
+    // exists because of testing
+    void setInvalidationTransport(CacheInvalidationTransport invalidationTransport) {
+        this.invalidationTransport = invalidationTransport;
+    }
 
     @Override
     public synchronized void registerCacheListener(CacheListener cacheListener) {
@@ -57,5 +88,52 @@ public class CacheDispatcherImpl implements CacheDispatcher {
         for (CacheListener listenter : cacheListeners) {
             listenter.invalidateCache(type, oid);
         }
+        if (invalidationTransport != null) {
+            if (pendingEvents.size() < MAX_PENDING_EVENTS) {
+                pendingEvents.add(new CacheInvalidationEvent(type, oid));
+            } else {
+                pendingEvents.add(new CacheInvalidationEvent(type, null));
+            }
+        }
+    }
+
+    @Override
+    public void exchangeRemoteInvalidations(String nodeIdentifier, OperationResult parentResult) {
+        if (invalidationTransport == null) {
+            return;
+        }
+        OperationResult result = parentResult.createMinorSubresult(OPERATION_EXCHANGE_REMOTE_INVALIDATIONS);
+        try {
+            List<CacheInvalidationEvent> outgoing = new ArrayList<>();
+            Iterator<CacheInvalidationEvent> iterator = pendingEvents.iterator();
+            while (iterator.hasNext()) {
+                outgoing.add(iterator.next());
+                iterator.remove();
+            }
+            if (!outgoing.isEmpty()) {
+                LOGGER.trace("Publishing {} cache invalidation event(s) to other nodes", outgoing.size());
+                try {
+                    invalidationTransport.publish(nodeIdentifier, outgoing, result);
+                } catch (RuntimeException e) {
+                    // let's try again in the next round
+                    pendingEvents.addAll(outgoing);
+                    throw e;
+                }
+            }
+
+            List<CacheInvalidationEvent> incoming = invalidationTransport.fetch(nodeIdentifier, result);
+            if (!incoming.isEmpty()) {
+                LOGGER.trace("Received {} cache invalidation event(s) from other nodes", incoming.size());
+            }
+            for (CacheInvalidationEvent event : incoming) {
+                for (CacheListener listener : cacheListeners) {
+                    listener.invalidateCacheFromRemoteNode(event.getType(), event.getOid());
+                }
+            }
+            result.recordSuccess();
+        } catch (RuntimeException e) {
+            LoggingUtils.logUnexpectedException(LOGGER, "Couldn't exchange cache invalidation events with other nodes", e);
+            result.recordFatalError("Couldn't exchange cache invalidation events with other nodes: " + e.getMessage(), e);
+        }
     }
 }
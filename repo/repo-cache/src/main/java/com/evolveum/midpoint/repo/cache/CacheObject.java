@@ -26,9 +26,17 @@ public class CacheObject<T extends ObjectType> {
 
     private PrismObject<T> object;
 
-    private long timeToLive;
+    private volatile long timeToLive;
 
+    private volatile long hits;
+
+    /**
+     * The object is made immutable, as it is shared by all threads using the cache.
+     *
+     * @param timeToLive time (in milliseconds since epoch) after which the object has to be checked against the repository
+     */
     public CacheObject(PrismObject<T> object, long timeToLive) {
+        object.setImmutable(true);
         this.object = object;
         this.timeToLive = timeToLive;
     }
@@ -49,8 +57,25 @@ public class CacheObject<T extends ObjectType> {
         return object.getVersion();
     }
 
+    /**
+     * Returns the cached (immutable) object itself. Callers are responsible for cloning it before handing it out
+     * to anyone who might want to modify it.
+     */
     public PrismObject<T> getObject() {
-        return object.clone();
+        return object;
+    }
+
+    public boolean isExpired(long now) {
+        return timeToLive < now;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    // called while holding the lock of the global cache region
+    void recordHit() {
+        hits++;
     }
 
     public void setTimeToLive(long timeToLive) {
@@ -61,6 +86,7 @@ public class CacheObject<T extends ObjectType> {
     public String toString() {
         final StringBuilder sb = new StringBuilder("CacheObject{");
         sb.append("ttl=").append(timeToLive);
+        sb.append(", hits=").append(hits);
         sb.append(", object=").append(object);
         sb.append('}');
         return sb.toString();
@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.cache;
+
+import com.evolveum.midpoint.schema.constants.ObjectTypes;
+import com.evolveum.midpoint.util.DebugDumpable;
+import com.evolveum.midpoint.util.DebugUtil;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Node-wide (second-level) object cache used by RepositoryCache.
+ *
+ * Objects are kept in separate regions, one for each object type. Each region has its own size limit,
+ * time to live and eviction policy, so e.g. a large number of roles cannot push system configuration
+ * or security policies out of the cache. Regions also keep hit/miss/eviction counters.
+ *
+ * Regions are synchronized individually. To keep the time spent under the lock bounded, LFU eviction
+ * does not scan the whole region: it evicts the least used one of the LFU_SAMPLE_SIZE least recently used entries.
+ * So entries that are used often but not recently can still be evicted, and entries that were used recently
+ * are never evicted unless the region is very small.
+ */
+public class GlobalObjectCache implements DebugDumpable {
+
+	private static final Trace LOGGER = TraceManager.getTrace(GlobalObjectCache.class);
+
+	public static final int DEFAULT_MAX_SIZE = 1000;
+
+	static final int LFU_SAMPLE_SIZE = 32;
+
+	private static final Set<Class<? extends ObjectType>> DEFAULT_CACHED_TYPES;
+
+	static {
+		Set<Class<? extends ObjectType>> set = new HashSet<>();
+		set.add(ConnectorType.class);
+		set.add(ObjectTemplateType.class);
+		set.add(SecurityPolicyType.class);
+		set.add(SystemConfigurationType.class);
+		set.add(ValuePolicyType.class);
+		set.add(RoleType.class);
+		set.add(OrgType.class);
+		set.add(ServiceType.class);
+		set.add(ResourceType.class);
+
+		DEFAULT_CACHED_TYPES = Collections.unmodifiableSet(set);
+	}
+
+	private final Map<Class<? extends ObjectType>, Region> regions = new ConcurrentHashMap<>();
+
+	private volatile long defaultTimeToLive;
+	private volatile int defaultMaxSize = DEFAULT_MAX_SIZE;
+
+	/**
+	 * (Re)configures the cache. Regions whose parameters did not change keep their content;
+	 * other regions are recreated empty.
+	 *
+	 * @param defaultTimeToLive TTL in milliseconds for types without explicit configuration
+	 * @param defaultMaxSize size limit for types without explicit configuration
+	 * @param configuration configuration from system configuration object (may be null)
+	 */
+	public synchronized void configure(long defaultTimeToLive, int defaultMaxSize, CachingConfigurationType configuration) {
+		this.defaultTimeToLive = defaultTimeToLive;
+		this.defaultMaxSize = defaultMaxSize;
+
+		Map<Class<? extends ObjectType>, GlobalCacheObjectTypeConfigurationType> typeConfigurations = new HashMap<>();
+		if (configuration != null) {
+			for (GlobalCacheObjectTypeConfigurationType typeConfiguration : configuration.getObjectType()) {
+				if (typeConfiguration.getType() == null) {
+					LOGGER.warn("Global cache configuration without object type, ignoring it: {}", typeConfiguration);
+					continue;
+				}
+				ObjectTypes objectType;
+				try {
+					objectType = ObjectTypes.getObjectTypeFromTypeQName(typeConfiguration.getType());
+				} catch (IllegalArgumentException e) {
+					LOGGER.warn("Unknown object type {} in global cache configuration, ignoring it", typeConfiguration.getType());
+					continue;
+				}
+				typeConfigurations.put(objectType.getClassDefinition(), typeConfiguration);
+			}
+		}
+
+		Set<Class<? extends ObjectType>> types = new HashSet<>(DEFAULT_CACHED_TYPES);
+		types.addAll(typeConfigurations.keySet());
+		for (Class<? extends ObjectType> type : types) {
+			GlobalCacheObjectTypeConfigurationType typeConfiguration = typeConfigurations.get(type);
+			long timeToLive = defaultTimeToLive;
+			int maxSize = defaultMaxSize;
+			CacheEvictionPolicyType evictionPolicy = CacheEvictionPolicyType.LEAST_RECENTLY_USED;
+			if (typeConfiguration != null) {
+				if (typeConfiguration.getTimeToLive() != null) {
+					timeToLive = typeConfiguration.getTimeToLive() * 1000L;
+				}
+				if (typeConfiguration.getMaxSize() != null) {
+					maxSize = typeConfiguration.getMaxSize();
+				}
+				if (typeConfiguration.getEvictionPolicy() != null) {
+					evictionPolicy = typeConfiguration.getEvictionPolicy();
+				}
+			}
+			Region existing = regions.get(type);
+			if (timeToLive <= 0 || maxSize <= 0) {
+				regions.remove(type);
+				LOGGER.trace("Global caching of {} is turned off", type.getSimpleName());
+			} else if (existing == null || !existing.hasParameters(timeToLive, maxSize, evictionPolicy)) {
+				regions.put(type, new Region(timeToLive, maxSize, evictionPolicy));
+				LOGGER.debug("Global cache for {}: TTL {} ms, max size {}, eviction {}", type.getSimpleName(),
+						timeToLive, maxSize, evictionPolicy);
+			}
+		}
+		regions.keySet().retainAll(types);
+	}
+
+	public long getDefaultTimeToLive() {
+		return defaultTimeToLive;
+	}
+
+	public int getDefaultMaxSize() {
+		return defaultMaxSize;
+	}
+
+	public boolean supportsType(Class<? extends ObjectType> type) {
+		return regions.containsKey(type);
+	}
+
+	/**
+	 * Returns TTL (in milliseconds) for given type, or 0 if the type is not cached.
+	 */
+	public long getTimeToLive(Class<? extends ObjectType> type) {
+		Region region = regions.get(type);
+		return region != null ? region.timeToLive : 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	public <T extends ObjectType> CacheObject<T> get(CacheKey key) {
+		Region region = regions.get(key.getType());
+		return region != null ? (CacheObject<T>) region.get(key.getOid()) : null;
+	}
+
+	public <T extends ObjectType> void put(CacheKey key, CacheObject<T> cacheObject) {
+		Region region = regions.get(key.getType());
+		if (region != null) {
+			region.put(key.getOid(), cacheObject);
+		}
+	}
+
+	public void remove(CacheKey key) {
+		Region region = regions.get(key.getType());
+		if (region != null) {
+			region.remove(key.getOid());
+		}
+	}
+
+	/**
+	 * Removes the object from all regions the type applies to. Modifications are sometimes
+	 * executed using a supertype (e.g. AbstractRoleType or ObjectType), so we cannot rely on exact type match.
+	 * If oid is null or empty, all objects of given type(s) are removed.
+	 */
+	public void remove(Class<? extends ObjectType> type, String oid) {
+		for (Map.Entry<Class<? extends ObjectType>, Region> entry : regions.entrySet()) {
+			if (type.isAssignableFrom(entry.getKey())) {
+				if (oid == null || oid.isEmpty()) {
+					entry.getValue().clear();
+				} else {
+					entry.getValue().remove(oid);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Records that a cached object had to be checked against the repository because its TTL expired.
+	 */
+	public void recordVersionCheck(Class<? extends ObjectType> type) {
+		Region region = regions.get(type);
+		if (region != null) {
+			region.versionChecks.incrementAndGet();
+		}
+	}
+
+	public void clear() {
+		for (Region region : regions.values()) {
+			region.clear();
+		}
+	}
+
+	public int size() {
+		int size = 0;
+		for (Region region : regions.values()) {
+			size += region.size();
+		}
+		return size;
+	}
+
+	@Override
+	public String debugDump(int indent) {
+		StringBuilder sb = new StringBuilder();
+		DebugUtil.debugDumpLabel(sb, "GlobalObjectCache", indent);
+		List<Class<? extends ObjectType>> types = new ArrayList<>(regions.keySet());
+		types.sort(Comparator.comparing(Class::getSimpleName));
+		for (Class<? extends ObjectType> type : types) {
+			sb.append("\n");
+			DebugUtil.debugDumpWithLabel(sb, type.getSimpleName(), regions.get(type).toString(), indent + 1);
+		}
+		return sb.toString();
+	}
+
+	private static class Region {
+
+		private final long timeToLive;
+		private final int maxSize;
+		private final CacheEvictionPolicyType evictionPolicy;
+
+		// access order is used for LRU; it is harmless for LFU
+		private final LinkedHashMap<String, CacheObject<?>> objects = new LinkedHashMap<>(16, 0.75f, true);
+
+		private final AtomicLong hits = new AtomicLong();
+		private final AtomicLong misses = new AtomicLong();
+		private final AtomicLong evictions = new AtomicLong();
+		private final AtomicLong versionChecks = new AtomicLong();
+
+		private Region(long timeToLive, int maxSize, CacheEvictionPolicyType evictionPolicy) {
+			this.timeToLive = timeToLive;
+			this.maxSize = maxSize;
+			this.evictionPolicy = evictionPolicy;
+		}
+
+		private boolean hasParameters(long timeToLive, int maxSize, CacheEvictionPolicyType evictionPolicy) {
+			return this.timeToLive == timeToLive && this.maxSize == maxSize && this.evictionPolicy == evictionPolicy;
+		}
+
+		private synchronized CacheObject<?> get(String oid) {
+			CacheObject<?> cacheObject = objects.get(oid);
+			if (cacheObject != null) {
+				cacheObject.recordHit();
+				hits.incrementAndGet();
+			} else {
+				misses.incrementAndGet();
+			}
+			return cacheObject;
+		}
+
+		private synchronized void put(String oid, CacheObject<?> cacheObject) {
+			if (objects.put(oid, cacheObject) == null) {
+				while (objects.size() > maxSize) {
+					evict(oid);
+				}
+			}
+		}
+
+		private void evict(String justAddedOid) {
+			String victim = null;
+			if (evictionPolicy == CacheEvictionPolicyType.LEAST_FREQUENTLY_USED) {
+				// iterating in access order, so at most LFU_SAMPLE_SIZE least recently used entries are considered
+				long minHits = Long.MAX_VALUE;
+				int sampled = 0;
+				for (Iterator<Map.Entry<String, CacheObject<?>>> iterator = objects.entrySet().iterator();
+						iterator.hasNext() && sampled < LFU_SAMPLE_SIZE; sampled++) {
+					Map.Entry<String, CacheObject<?>> entry = iterator.next();
+					if (!entry.getKey().equals(justAddedOid) && entry.getValue().getHits() < minHits) {
+						minHits = entry.getValue().getHits();
+						victim = entry.getKey();
+					}
+				}
+			} else {
+				// the eldest entry in access order
+				victim = objects.keySet().iterator().next();
+			}
+			if (victim == null) {
+				victim = justAddedOid;
+			}
+			objects.remove(victim);
+			evictions.incrementAndGet();
+		}
+
+		private synchronized void remove(String oid) {
+			objects.remove(oid);
+		}
+
+		private synchronized void clear() {
+			objects.clear();
+		}
+
+		private synchronized int size() {
+			return objects.size();
+		}
+
+		@Override
+		public String toString() {
+			return "size=" + size() + "/" + maxSize + ", ttl=" + timeToLive + "ms, eviction=" + evictionPolicy.value()
+					+ ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions
+					+ ", versionChecks=" + versionChecks;
+		}
+	}
+}
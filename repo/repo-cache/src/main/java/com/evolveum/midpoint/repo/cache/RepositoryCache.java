@@ -37,6 +37,7 @@ import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.Validate;
 import org.jetbrains.annotations.NotNull;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -44,10 +45,10 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
+import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.namespace.QName;
 import java.util.*;
 import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Read-through write-through per-session repository cache.
@@ -59,30 +60,20 @@ import java.util.concurrent.ConcurrentHashMap;
  *
  */
 @Component(value="cacheRepositoryService")
-public class RepositoryCache implements RepositoryService {
+public class RepositoryCache implements RepositoryService, CacheListener {
 
 	private static final Trace LOGGER = TraceManager.getTrace(RepositoryCache.class);
 	private static final Trace PERFORMANCE_ADVISOR = TraceManager.getPerformanceAdvisorTrace();
 
 	private static final String CONFIGURATION_COMPONENT = "midpoint.repository";
 	private static final String PROPERTY_CACHE_MAX_TTL = "cacheMaxTTL";
+	private static final String PROPERTY_CACHE_MAX_OBJECTS = "cacheMaxObjects";
 
-	private static final Set<Class<? extends ObjectType>> GLOBAL_CACHE_SUPPORTED_TYPES;
-
-	static {
-		Set<Class<? extends ObjectType>> set = new HashSet<>();
-		set.add(ConnectorType.class);
-		set.add(ObjectTemplateType.class);
-		set.add(SecurityPolicyType.class);
-		set.add(SystemConfigurationType.class);
-		set.add(ValuePolicyType.class);
-
-		GLOBAL_CACHE_SUPPORTED_TYPES = Collections.unmodifiableSet(set);
-	}
+	private static final String OPERATION_APPLY_CACHING_CONFIGURATION = RepositoryCache.class.getName() + ".applyCachingConfiguration";
 
 	private static final ThreadLocal<Cache> cacheInstance = new ThreadLocal<>();
 
-	private static final Map<CacheKey, CacheObject> globalCache = new ConcurrentHashMap<>();
+	private static final GlobalObjectCache globalCache = new GlobalObjectCache();
 
 	@Autowired private RepositoryService repositoryService;
 
@@ -95,6 +86,8 @@ public class RepositoryCache implements RepositoryService {
 
 	private long cacheMaxTTL;
 
+	private int cacheMaxObjects;
+
 	private static final Random RND = new Random();
 
 	private Integer modifyRandomDelayRange;
@@ -111,6 +104,10 @@ public class RepositoryCache implements RepositoryService {
 			cacheMaxTTL = 0;
 		}
 		this.cacheMaxTTL = cacheMaxTTL * 1000;
+		cacheMaxObjects = midpointConfiguration.getConfiguration(CONFIGURATION_COMPONENT)
+				.getInt(PROPERTY_CACHE_MAX_OBJECTS, GlobalObjectCache.DEFAULT_MAX_SIZE);
+		globalCache.configure(this.cacheMaxTTL, cacheMaxObjects, null);
+		cacheDispatcher.registerCacheListener(this);
 	}
 
 	private static Cache getCache() {
@@ -210,7 +207,7 @@ public class RepositoryCache implements RepositoryService {
                 } else {
 
                     // version matches, renew ttl
-                    cacheObject.setTimeToLive(System.currentTimeMillis() + cacheMaxTTL);
+                    cacheObject.setTimeToLive(System.currentTimeMillis() + globalCache.getTimeToLive(type));
 
                     log("Cache: Global HIT, version check {}", key);
                     object = cacheObject.getObject();
@@ -455,9 +452,12 @@ public class RepositoryCache implements RepositoryService {
 			cache.clearQueryResults(type);
 		}
 
-		globalCache.remove(new CacheKey(type, oid));
+		globalCache.remove(type, oid);
 		cacheDispatcher.dispatch(type, oid);
-		
+
+		if (SystemConfigurationType.class.equals(type)) {
+			applyCachingConfiguration(new OperationResult(OPERATION_APPLY_CACHING_CONFIGURATION));
+		}
 	}
 
 	@Override
@@ -700,6 +700,19 @@ public class RepositoryCache implements RepositoryService {
 		}
 	}
 
+	@NotNull
+	@Override
+	public List<ScheduledTrigger> searchTriggers(XMLGregorianCalendar from, @NotNull XMLGregorianCalendar to,
+			ScheduledTrigger after, int maxSize, OperationResult parentResult) {
+		// triggers are not cached: they are read by trigger scanner only, and they change with their owners
+		Long startTime = repoOpStart();
+		try {
+			return repositoryService.searchTriggers(from, to, after, maxSize, parentResult);
+		} finally {
+			repoOpEnd(startTime);
+		}
+	}
+
 	@Override
 	public RepositoryQueryDiagResponse executeQueryDiagnostics(RepositoryQueryDiagRequest request, OperationResult result) {
 		Long startTime = repoOpStart();
@@ -743,6 +756,56 @@ public class RepositoryCache implements RepositoryService {
 	@Override
 	public void postInit(OperationResult result) throws SchemaException {
 		repositoryService.postInit(result);
+		applyCachingConfiguration(result);
+	}
+
+	/**
+	 * Applies global cache configuration from the system configuration object. Defaults for types that are
+	 * not configured there are taken from config.xml.
+	 */
+	private void applyCachingConfiguration(OperationResult parentResult) {
+		OperationResult result = parentResult.createMinorSubresult(OPERATION_APPLY_CACHING_CONFIGURATION);
+		try {
+			CachingConfigurationType cachingConfiguration = null;
+			try {
+				SystemConfigurationType systemConfiguration = getObjectInternal(SystemConfigurationType.class,
+						SystemObjectsType.SYSTEM_CONFIGURATION.value(), null, result).asObjectable();
+				if (systemConfiguration.getInternals() != null) {
+					cachingConfiguration = systemConfiguration.getInternals().getCaching();
+				}
+			} catch (ObjectNotFoundException e) {
+				// ok, no problem e.g. for tests or initial startup
+				result.muteLastSubresultError();
+				LOGGER.debug("System configuration not found, using default global cache configuration");
+			}
+			globalCache.configure(cacheMaxTTL, cacheMaxObjects, cachingConfiguration);
+			result.recordSuccess();
+		} catch (SchemaException | RuntimeException e) {
+			LOGGER.error("Couldn't apply global cache configuration: {}", e.getMessage(), e);
+			result.recordFatalError("Couldn't apply global cache configuration: " + e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public <O extends ObjectType> void invalidateCache(Class<O> type, String oid) {
+		// changes made through this node were already processed in invalidateCacheEntry; here we only
+		// react to explicit requests (e.g. from GUI or REST) to clear all objects of given type
+		if (StringUtils.isEmpty(oid)) {
+			globalCache.remove(type, oid);
+		}
+	}
+
+	@Override
+	public <O extends ObjectType> void invalidateCacheFromRemoteNode(Class<O> type, String oid) {
+		log("Cache: Global INVALIDATE from remote node {} ({})", oid, type.getSimpleName());
+		globalCache.remove(type, oid);
+		if (type.isAssignableFrom(SystemConfigurationType.class)) {
+			applyCachingConfiguration(new OperationResult(OPERATION_APPLY_CACHING_CONFIGURATION));
+		}
+	}
+
+	public static String debugDumpGlobalCache() {
+		return globalCache.debugDump();
 	}
 
 	@Override
@@ -763,11 +826,7 @@ public class RepositoryCache implements RepositoryService {
 	private <T extends ObjectType> boolean supportsGlobalCaching(
 			Class<T> type, Collection<SelectorOptions<GetOperationOptions>> options) {
 
-		if (cacheMaxTTL <= 0) {
-			return false;
-		}
-
-		if (!GLOBAL_CACHE_SUPPORTED_TYPES.contains(type)) {
+		if (!globalCache.supportsType(type)) {
 			return false;
 		}
 
@@ -800,7 +859,11 @@ public class RepositoryCache implements RepositoryService {
 	}
 
 	private boolean shouldCheckVersion(CacheObject object) {
-		return object.getTimeToLive() < System.currentTimeMillis();
+		if (object.isExpired(System.currentTimeMillis())) {
+			globalCache.recordVersionCheck(object.getObjectType());
+			return true;
+		}
+		return false;
 	}
 
 	private <T extends ObjectType> PrismObject<T> reloadObject(
@@ -812,7 +875,7 @@ public class RepositoryCache implements RepositoryService {
 		try {
 			PrismObject object = getObjectInternal(key.getType(), key.getOid(), options, result);
 
-			long ttl = System.currentTimeMillis() + cacheMaxTTL;
+			long ttl = System.currentTimeMillis() + globalCache.getTimeToLive(key.getType());
 			CacheObject<T> cacheObject = new CacheObject<>(object, ttl);
 
 			globalCache.put(key, cacheObject);
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.repo.cache;
+package com.evolveum.midpoint.repo.cache;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.repo.api.CacheInvalidationEvent;
+import com.evolveum.midpoint.repo.api.CacheInvalidationTransport;
+import com.evolveum.midpoint.repo.api.CacheListener;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.test.util.TestUtil;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+
+/**
+ * Exchange of cache invalidation events with other nodes (CacheDispatcherImpl with a transport).
+ */
+public class TestCacheDispatcher {
+
+	private static final String NODE = "node1";
+
+	@Test
+	public void test100PublishQueuedEvents() throws Exception {
+		final String TEST_NAME = "test100PublishQueuedEvents";
+		TestUtil.displayTestTitle(TEST_NAME);
+		RecordingTransport transport = new RecordingTransport();
+		CacheDispatcherImpl dispatcher = createDispatcher(transport);
+		RecordingListener listener = new RecordingListener();
+		dispatcher.registerCacheListener(listener);
+
+		// dispatched before the first exchange, e.g. at startup
+		dispatcher.dispatch(UserType.class, "u1");
+		dispatcher.dispatch(RoleType.class, "r1");
+		dispatcher.dispatch(UserType.class, "u1");
+		assertEquals("Wrong local invalidations", 3, listener.local.size());
+
+		dispatcher.exchangeRemoteInvalidations(NODE, new OperationResult(TEST_NAME));
+
+		assertEquals("Wrong node", NODE, transport.publishedBy);
+		assertEquals("Wrong published events",
+				set(new CacheInvalidationEvent(UserType.class, "u1"), new CacheInvalidationEvent(RoleType.class, "r1")),
+				new HashSet<>(transport.published));
+
+		// nothing is published twice
+		transport.published.clear();
+		dispatcher.exchangeRemoteInvalidations(NODE, new OperationResult(TEST_NAME));
+		assertTrue("Events published again: " + transport.published, transport.published.isEmpty());
+	}
+
+	@Test
+	public void test110ReceiveEvents() throws Exception {
+		final String TEST_NAME = "test110ReceiveEvents";
+		TestUtil.displayTestTitle(TEST_NAME);
+		RecordingTransport transport = new RecordingTransport();
+		CacheDispatcherImpl dispatcher = createDispatcher(transport);
+		RecordingListener listener = new RecordingListener();
+		dispatcher.registerCacheListener(listener);
+		List<CacheInvalidationEvent> events = new ArrayList<>();
+		events.add(new CacheInvalidationEvent(UserType.class, "u2"));
+		events.add(new CacheInvalidationEvent(RoleType.class, null));
+		transport.incoming.addAll(events);
+
+		dispatcher.exchangeRemoteInvalidations(NODE, new OperationResult(TEST_NAME));
+
+		assertEquals("Wrong remote invalidations", events, listener.remote);
+		assertTrue("Remote events treated as local ones", listener.local.isEmpty());
+		assertTrue("Remote events published back", transport.published.isEmpty());
+	}
+
+	/**
+	 * Events that could not be published are kept for the next exchange.
+	 */
+	@Test
+	public void test120PublishFailure() throws Exception {
+		final String TEST_NAME = "test120PublishFailure";
+		TestUtil.displayTestTitle(TEST_NAME);
+		RecordingTransport transport = new RecordingTransport();
+		CacheDispatcherImpl dispatcher = createDispatcher(transport);
+		dispatcher.dispatch(UserType.class, "u1");
+
+		transport.failing = true;
+		OperationResult result = new OperationResult(TEST_NAME);
+		dispatcher.exchangeRemoteInvalidations(NODE, result);
+		result.computeStatus();
+		assertTrue("Failure not recorded", result.isError());
+
+		transport.failing = false;
+		dispatcher.exchangeRemoteInvalidations(NODE, new OperationResult(TEST_NAME));
+		assertEquals("Wrong published events", Collections.singletonList(new CacheInvalidationEvent(UserType.class, "u1")),
+				transport.published);
+	}
+
+	/**
+	 * Above the limit, events for individual objects are replaced by invalidation of the whole type.
+	 */
+	@Test
+	public void test200Overflow() throws Exception {
+		final String TEST_NAME = "test200Overflow";
+		TestUtil.displayTestTitle(TEST_NAME);
+		RecordingTransport transport = new RecordingTransport();
+		CacheDispatcherImpl dispatcher = createDispatcher(transport);
+		int overflow = 5;
+		for (int i = 0; i < CacheDispatcherImpl.MAX_PENDING_EVENTS + overflow; i++) {
+			dispatcher.dispatch(UserType.class, "u" + i);
+		}
+		dispatcher.dispatch(RoleType.class, "r1");
+
+		dispatcher.exchangeRemoteInvalidations(NODE, new OperationResult(TEST_NAME));
+
+		Set<CacheInvalidationEvent> published = new HashSet<>(transport.published);
+		assertEquals("Wrong # of published events", CacheDispatcherImpl.MAX_PENDING_EVENTS + 2, published.size());
+		assertTrue("Whole-type event for users missing", published.contains(new CacheInvalidationEvent(UserType.class, null)));
+		assertTrue("Whole-type event for roles missing", published.contains(new CacheInvalidationEvent(RoleType.class, null)));
+		assertTrue("Event before the limit missing", published.contains(new CacheInvalidationEvent(UserType.class, "u0")));
+
+		// the queue is empty again, so individual events are published
+		transport.published.clear();
+		dispatcher.dispatch(UserType.class, "u1");
+		dispatcher.exchangeRemoteInvalidations(NODE, new OperationResult(TEST_NAME));
+		assertEquals("Wrong published events", Collections.singletonList(new CacheInvalidationEvent(UserType.class, "u1")),
+				transport.published);
+	}
+
+	@Test
+	public void test300NoTransport() throws Exception {
+		final String TEST_NAME = "test300NoTransport";
+		TestUtil.displayTestTitle(TEST_NAME);
+		CacheDispatcherImpl dispatcher = createDispatcher(null);
+		RecordingListener listener = new RecordingListener();
+		dispatcher.registerCacheListener(listener);
+
+		dispatcher.dispatch(UserType.class, "u1");
+		OperationResult result = new OperationResult(TEST_NAME);
+		dispatcher.exchangeRemoteInvalidations(NODE, result);
+
+		assertEquals("Wrong local invalidations", 1, listener.local.size());
+		assertTrue("Subresult created without transport", result.getSubresults().isEmpty());
+	}
+
+	private CacheDispatcherImpl createDispatcher(CacheInvalidationTransport transport) {
+		CacheDispatcherImpl dispatcher = new CacheDispatcherImpl();
+		dispatcher.setInvalidationTransport(transport);
+		return dispatcher;
+	}
+
+	@SafeVarargs
+	private static <T> Set<T> set(T... values) {
+		Set<T> set = new HashSet<>();
+		Collections.addAll(set, values);
+		return set;
+	}
+
+	private static class RecordingTransport implements CacheInvalidationTransport {
+		private final List<CacheInvalidationEvent> published = new ArrayList<>();
+		private final List<CacheInvalidationEvent> incoming = new ArrayList<>();
+		private String publishedBy;
+		private boolean failing;
+
+		@Override
+		public void publish(String nodeIdentifier, Collection<CacheInvalidationEvent> events, OperationResult result) {
+			if (failing) {
+				throw new IllegalStateException("Transport failure");
+			}
+			publishedBy = nodeIdentifier;
+			published.addAll(events);
+		}
+
+		@Override
+		public List<CacheInvalidationEvent> fetch(String nodeIdentifier, OperationResult result) {
+			List<CacheInvalidationEvent> events = new ArrayList<>(incoming);
+			incoming.clear();
+			return events;
+		}
+	}
+
+	private static class RecordingListener implements CacheListener {
+		private final List<CacheInvalidationEvent> local = new ArrayList<>();
+		private final List<CacheInvalidationEvent> remote = new ArrayList<>();
+
+		@Override
+		public <O extends ObjectType> void invalidateCache(Class<O> type, String oid) {
+			local.add(new CacheInvalidationEvent(type, oid));
+		}
+
+		@Override
+		public <O extends ObjectType> void invalidateCacheFromRemoteNode(Class<O> type, String oid) {
+			remote.add(new CacheInvalidationEvent(type, oid));
+		}
+	}
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.repo.cache;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.IOException;
+
+import javax.xml.namespace.QName;
+
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.Test;
+import org.xml.sax.SAXException;
+
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.schema.MidPointPrismContextFactory;
+import com.evolveum.midpoint.test.util.TestUtil;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.CacheEvictionPolicyType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.CachingConfigurationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.GlobalCacheObjectTypeConfigurationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SystemConfigurationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+
+/**
+ * Eviction, expiration and reconfiguration of the global object cache regions.
+ */
+public class TestGlobalObjectCache {
+
+	private static final long TTL = 60000L;
+	private static final int MAX_SIZE = 3;
+
+	@BeforeSuite
+	public void setup() throws SchemaException, SAXException, IOException {
+		PrismTestUtil.resetPrismContext(MidPointPrismContextFactory.FACTORY);
+	}
+
+	@Test
+	public void test100LeastRecentlyUsed() throws Exception {
+		final String TEST_NAME = "test100LeastRecentlyUsed";
+		TestUtil.displayTestTitle(TEST_NAME);
+		GlobalObjectCache cache = new GlobalObjectCache();
+		cache.configure(TTL, GlobalObjectCache.DEFAULT_MAX_SIZE,
+				createConfiguration(RoleType.COMPLEX_TYPE, null, MAX_SIZE, CacheEvictionPolicyType.LEAST_RECENTLY_USED));
+
+		putRole(cache, "1");
+		putRole(cache, "2");
+		putRole(cache, "3");
+		assertNotNull("Role 1 not cached", getRole(cache, "1"));
+		putRole(cache, "4");
+
+		assertCached(cache, "1", "3", "4");
+		assertNotCached(cache, "2");
+	}
+
+	@Test
+	public void test110LeastFrequentlyUsed() throws Exception {
+		final String TEST_NAME = "test110LeastFrequentlyUsed";
+		TestUtil.displayTestTitle(TEST_NAME);
+		GlobalObjectCache cache = new GlobalObjectCache();
+		cache.configure(TTL, GlobalObjectCache.DEFAULT_MAX_SIZE,
+				createConfiguration(RoleType.COMPLEX_TYPE, null, MAX_SIZE, CacheEvictionPolicyType.LEAST_FREQUENTLY_USED));
+
+		putRole(cache, "1");
+		putRole(cache, "2");
+		putRole(cache, "3");
+		getRole(cache, "1");
+		getRole(cache, "1");
+		getRole(cache, "3");
+		// role 2 is the least frequently used one, although role 1 was used less recently
+		putRole(cache, "4");
+		assertNotCached(cache, "2");
+
+		// the just added role is never the victim; role 4 is now the least used one of the others
+		putRole(cache, "5");
+		assertNotCached(cache, "4");
+		assertCached(cache, "1", "3", "5");
+	}
+
+	/**
+	 * Only LFU_SAMPLE_SIZE least recently used entries are considered when looking for the LFU victim.
+	 */
+	@Test
+	public void test120LeastFrequentlyUsedBounded() throws Exception {
+		final String TEST_NAME = "test120LeastFrequentlyUsedBounded";
+		TestUtil.displayTestTitle(TEST_NAME);
+		int size = GlobalObjectCache.LFU_SAMPLE_SIZE * 2;
+		GlobalObjectCache cache = new GlobalObjectCache();
+		cache.configure(TTL, GlobalObjectCache.DEFAULT_MAX_SIZE,
+				createConfiguration(RoleType.COMPLEX_TYPE, null, size, CacheEvictionPolicyType.LEAST_FREQUENTLY_USED));
+
+		for (int i = 0; i < size; i++) {
+			putRole(cache, String.valueOf(i));
+		}
+		// the first half is used twice, then the second half once; so the second half is used more recently
+		for (int i = 0; i < size / 2; i++) {
+			getRole(cache, String.valueOf(i));
+			getRole(cache, String.valueOf(i));
+		}
+		for (int i = size / 2; i < size; i++) {
+			getRole(cache, String.valueOf(i));
+		}
+		putRole(cache, "new");
+
+		// the less used entries of the second half are not in the sample, so the victim is taken from the first half
+		assertNotCached(cache, "0");
+		assertCached(cache, String.valueOf(size / 2), "new");
+		assertEquals("Wrong size", size, cache.size());
+	}
+
+	@Test
+	public void test200TimeToLive() throws Exception {
+		final String TEST_NAME = "test200TimeToLive";
+		TestUtil.displayTestTitle(TEST_NAME);
+		GlobalObjectCache cache = new GlobalObjectCache();
+		cache.configure(TTL, GlobalObjectCache.DEFAULT_MAX_SIZE,
+				createConfiguration(RoleType.COMPLEX_TYPE, 10, null, null));
+
+		assertEquals("Wrong TTL of roles", 10000L, cache.getTimeToLive(RoleType.class));
+		assertEquals("Wrong TTL of system configuration", TTL, cache.getTimeToLive(SystemConfigurationType.class));
+		assertEquals("Wrong TTL of users", 0L, cache.getTimeToLive(UserType.class));
+
+		long now = System.currentTimeMillis();
+		CacheObject<RoleType> fresh = new CacheObject<>(createRole("1"), now + cache.getTimeToLive(RoleType.class));
+		CacheObject<RoleType> expired = new CacheObject<>(createRole("2"), now - 1);
+		assertFalse("Fresh object expired", fresh.isExpired(now));
+		assertTrue("Old object not expired", expired.isExpired(now));
+
+		expired.setTimeToLive(now + cache.getTimeToLive(RoleType.class));
+		assertFalse("Renewed object expired", expired.isExpired(now));
+	}
+
+	@Test
+	public void test300Reconfigure() throws Exception {
+		final String TEST_NAME = "test300Reconfigure";
+		TestUtil.displayTestTitle(TEST_NAME);
+		GlobalObjectCache cache = new GlobalObjectCache();
+		cache.configure(TTL, GlobalObjectCache.DEFAULT_MAX_SIZE, null);
+		assertTrue("Roles not cached by default", cache.supportsType(RoleType.class));
+		assertFalse("Users cached by default", cache.supportsType(UserType.class));
+		putRole(cache, "1");
+
+		// the same parameters: content is kept
+		cache.configure(TTL, GlobalObjectCache.DEFAULT_MAX_SIZE, null);
+		assertCached(cache, "1");
+
+		// other parameters: the region is recreated
+		cache.configure(TTL, GlobalObjectCache.DEFAULT_MAX_SIZE,
+				createConfiguration(RoleType.COMPLEX_TYPE, null, MAX_SIZE, null));
+		assertNotCached(cache, "1");
+
+		// types can be added
+		cache.configure(TTL, GlobalObjectCache.DEFAULT_MAX_SIZE,
+				createConfiguration(UserType.COMPLEX_TYPE, null, MAX_SIZE, null));
+		assertTrue("Users not cached", cache.supportsType(UserType.class));
+
+		// and turned off
+		cache.configure(TTL, GlobalObjectCache.DEFAULT_MAX_SIZE,
+				createConfiguration(RoleType.COMPLEX_TYPE, 0, null, null));
+		assertFalse("Roles still cached", cache.supportsType(RoleType.class));
+		assertFalse("Users still cached", cache.supportsType(UserType.class));
+		putRole(cache, "2");
+		assertEquals("Objects of unsupported type cached", 0, cache.size());
+	}
+
+	/**
+	 * Cached objects are shared by all threads, so they must not be modifiable.
+	 */
+	@Test
+	public void test400CachedObjectImmutable() throws Exception {
+		final String TEST_NAME = "test400CachedObjectImmutable";
+		TestUtil.displayTestTitle(TEST_NAME);
+		GlobalObjectCache cache = new GlobalObjectCache();
+		cache.configure(TTL, GlobalObjectCache.DEFAULT_MAX_SIZE, null);
+		putRole(cache, "1");
+
+		CacheObject<RoleType> cacheObject = getRole(cache, "1");
+		assertTrue("Cached object is not immutable", cacheObject.getObject().isImmutable());
+		assertFalse("Clone of cached object is immutable", cacheObject.getObject().clone().isImmutable());
+	}
+
+	private CachingConfigurationType createConfiguration(QName type, Integer timeToLive, Integer maxSize,
+			CacheEvictionPolicyType evictionPolicy) {
+		GlobalCacheObjectTypeConfigurationType typeConfiguration = new GlobalCacheObjectTypeConfigurationType();
+		typeConfiguration.setType(type);
+		typeConfiguration.setTimeToLive(timeToLive);
+		typeConfiguration.setMaxSize(maxSize);
+		typeConfiguration.setEvictionPolicy(evictionPolicy);
+		CachingConfigurationType configuration = new CachingConfigurationType();
+		configuration.getObjectType().add(typeConfiguration);
+		return configuration;
+	}
+
+	private PrismObject<RoleType> createRole(String oid) {
+		PrismContext prismContext = PrismTestUtil.getPrismContext();
+		return new RoleType(prismContext)
+				.oid(oid)
+				.version("1")
+				.name("role " + oid)
+				.asPrismObject();
+	}
+
+	private void putRole(GlobalObjectCache cache, String oid) {
+		cache.put(new CacheKey(RoleType.class, oid),
+				new CacheObject<>(createRole(oid), System.currentTimeMillis() + cache.getTimeToLive(RoleType.class)));
+	}
+
+	private CacheObject<RoleType> getRole(GlobalObjectCache cache, String oid) {
+		return cache.get(new CacheKey(RoleType.class, oid));
+	}
+
+	private void assertCached(GlobalObjectCache cache, String... oids) {
+		for (String oid : oids) {
+			assertNotNull("Role " + oid + " not cached", getRole(cache, oid));
+		}
+	}
+
+	private void assertNotCached(GlobalObjectCache cache, String oid) {
+		assertNull("Role " + oid + " still cached", getRole(cache, oid));
+	}
+}
@@ -59,6 +59,10 @@ public class CacheRegistry implements CacheListener {
 		
 		if (FunctionLibraryType.class.equals(type)) {
 			clearAllCaches();
+		} else {
+			for (Cacheable cacheableService : cacheableServices) {
+				cacheableService.invalidate(type, oid);
+			}
 		}
 	}
 }
@@ -16,8 +16,16 @@
 
 package com.evolveum.midpoint.repo.common;
 
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 
 public interface Cacheable {
 
 	public void clearCache();
+
+	/**
+	 * Called when an object was changed. Services that can tell which cached data depend
+	 * on the object can drop only these. If oid is null, any object of given type may have changed.
+	 */
+	default <O extends ObjectType> void invalidate(Class<O> type, String oid) {
+	}
 }
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.repo.common.expression;
+
+import com.evolveum.midpoint.util.DebugDumpable;
+import com.evolveum.midpoint.util.DebugUtil;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of parsed expressions used by ExpressionFactory. It is shared by all threads.
+ *
+ * The number of entries is limited. Eviction is an approximate LRU: each entry remembers when it was last
+ * accessed (a logical clock) and the least recently used one of EVICTION_SAMPLE_SIZE entries is evicted.
+ * Each entry remembers oids of the objects the expression came from (if known), so the entries can be
+ * invalidated when such an object changes.
+ *
+ * Lookups take no locks. The source oid index refers to the entries themselves (not keys), so an entry that
+ * replaced an evicted or invalidated one under the same key is never confused with it. An entry gets new
+ * sources only while it is in the cache (checked under the entry monitor), and the index sets are changed
+ * only by atomic compute operations, so no source oid is left pointing to a removed entry.
+ */
+public class ExpressionCache<K> implements DebugDumpable {
+
+	public static final int DEFAULT_MAX_SIZE = 10000;
+
+	static final int EVICTION_SAMPLE_SIZE = 32;
+
+	private static final int ENTRIES_TO_DUMP = 20;
+
+	private final ConcurrentHashMap<K, Entry<K>> entries = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, Set<Entry<K>>> entriesBySourceOid = new ConcurrentHashMap<>();
+
+	private final AtomicLong accessClock = new AtomicLong();
+	// only one thread evicts at a time, otherwise the cache could be shrunk below its size limit
+	private final Object evictionLock = new Object();
+
+	private volatile int maxSize = DEFAULT_MAX_SIZE;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder invalidations = new LongAdder();
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+		evictIfNeeded();
+	}
+
+	/**
+	 * Returns cached expression (or null). If sourceOid is not null, it is recorded as a source of the expression.
+	 */
+	public Expression<?, ?> get(K key, String sourceOid) {
+		Entry<K> entry = entries.get(key);
+		if (entry == null) {
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		entry.hits.increment();
+		entry.lastAccess = accessClock.incrementAndGet();
+		addSource(entry, sourceOid);
+		return entry.expression;
+	}
+
+	/**
+	 * Puts the expression into the cache. If there is already an expression under the key (created by another
+	 * thread in the meantime) it is kept and returned; otherwise the one provided is returned.
+	 */
+	public Expression<?, ?> put(K key, Expression<?, ?> expression, String sourceOid) {
+		if (maxSize <= 0) {
+			return expression;
+		}
+		Entry<K> newEntry = new Entry<>(key, expression, accessClock.incrementAndGet());
+		Entry<K> existing = entries.putIfAbsent(key, newEntry);
+		Entry<K> entry = existing != null ? existing : newEntry;
+		addSource(entry, sourceOid);
+		if (existing == null) {
+			evictIfNeeded();
+		}
+		return entry.expression;
+	}
+
+	/**
+	 * Removes all expressions that came from given object. If oid is null, the whole cache is cleared,
+	 * because we do not know which object was changed.
+	 */
+	public void invalidate(String sourceOid) {
+		if (sourceOid == null || sourceOid.isEmpty()) {
+			for (Entry<K> entry : entries.values()) {
+				if (remove(entry, null)) {
+					invalidations.increment();
+				}
+			}
+			return;
+		}
+		Set<Entry<K>> sourceEntries = entriesBySourceOid.remove(sourceOid);
+		if (sourceEntries != null) {
+			for (Entry<K> entry : sourceEntries) {
+				if (remove(entry, sourceOid)) {
+					invalidations.increment();
+				}
+			}
+		}
+	}
+
+	public void clear() {
+		for (Entry<K> entry : entries.values()) {
+			remove(entry, null);
+		}
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	private void addSource(Entry<K> entry, String sourceOid) {
+		if (sourceOid == null) {
+			return;
+		}
+		synchronized (entry) {
+			if (!entry.removed && entry.sourceOids.add(sourceOid)) {
+				entriesBySourceOid.compute(sourceOid, (oid, set) -> {
+					Set<Entry<K>> updated = set != null ? set : new HashSet<>();
+					updated.add(entry);
+					return updated;
+				});
+			}
+		}
+	}
+
+	/**
+	 * Removes the entry from the cache and from the source index (except for the given source oid,
+	 * whose index set was already removed by the caller).
+	 *
+	 * @return false if the entry was not in the cache (e.g. removed by another thread)
+	 */
+	private boolean remove(Entry<K> entry, String exceptSourceOid) {
+		if (!entries.remove(entry.key, entry)) {
+			return false;
+		}
+		List<String> sourceOids;
+		synchronized (entry) {
+			entry.removed = true;
+			sourceOids = new ArrayList<>(entry.sourceOids);
+		}
+		for (String oid : sourceOids) {
+			if (!oid.equals(exceptSourceOid)) {
+				entriesBySourceOid.computeIfPresent(oid, (o, set) -> {
+					set.remove(entry);
+					return set.isEmpty() ? null : set;
+				});
+			}
+		}
+		return true;
+	}
+
+	private void evictIfNeeded() {
+		if (entries.size() <= Math.max(maxSize, 0)) {
+			return;
+		}
+		synchronized (evictionLock) {
+			while (entries.size() > Math.max(maxSize, 0)) {
+				Entry<K> victim = null;
+				int sampled = 0;
+				for (Entry<K> entry : entries.values()) {
+					if (victim == null || entry.lastAccess < victim.lastAccess) {
+						victim = entry;
+					}
+					if (++sampled >= EVICTION_SAMPLE_SIZE) {
+						break;
+					}
+				}
+				if (victim == null) {
+					break;
+				}
+				if (remove(victim, null)) {
+					evictions.increment();
+				}
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "size=" + entries.size() + "/" + maxSize + ", hits=" + hits + ", misses=" + misses
+				+ ", evictions=" + evictions + ", invalidations=" + invalidations
+				+ ", sources=" + entriesBySourceOid.size();
+	}
+
+	/**
+	 * Dumps overall statistics and the most frequently used entries.
+	 */
+	@Override
+	public String debugDump(int indent) {
+		StringBuilder sb = new StringBuilder();
+		DebugUtil.debugDumpLabel(sb, "ExpressionCache", indent);
+		sb.append(" ").append(this);
+		// hits are copied, as they can change while sorting
+		List<Map.Entry<Long, Entry<K>>> mostUsed = new ArrayList<>();
+		for (Entry<K> entry : entries.values()) {
+			mostUsed.add(new AbstractMap.SimpleImmutableEntry<>(entry.hits.sum(), entry));
+		}
+		mostUsed.sort((e1, e2) -> Long.compare(e2.getKey(), e1.getKey()));
+		long now = System.currentTimeMillis();
+		for (Map.Entry<Long, Entry<K>> used : mostUsed.subList(0, Math.min(ENTRIES_TO_DUMP, mostUsed.size()))) {
+			Entry<K> entry = used.getValue();
+			List<String> sourceOids;
+			synchronized (entry) {
+				sourceOids = new ArrayList<>(entry.sourceOids);
+			}
+			sb.append("\n");
+			DebugUtil.debugDumpWithLabel(sb, String.valueOf(entry.expression),
+					"hits=" + used.getKey() + ", age=" + (now - entry.created) + "ms, sources=" + sourceOids, indent + 1);
+		}
+		return sb.toString();
+	}
+
+	private static class Entry<K> {
+		private final K key;
+		private final Expression<?, ?> expression;
+		private final long created = System.currentTimeMillis();
+		private final LongAdder hits = new LongAdder();
+		private volatile long lastAccess;
+		// guarded by the entry monitor
+		private final Set<String> sourceOids = new HashSet<>(2);
+		private boolean removed;
+
+		private Entry(K key, Expression<?, ?> expression, long lastAccess) {
+			this.key = key;
+			this.expression = expression;
+			this.lastAccess = lastAccess;
+		}
+	}
+}
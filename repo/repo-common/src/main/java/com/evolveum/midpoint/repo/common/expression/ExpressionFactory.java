@@ -34,6 +34,7 @@ import com.evolveum.midpoint.task.api.Task;
 import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ExpressionType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 
 /**
  * Factory for expressions and registry for expression evaluator factories.
@@ -45,7 +46,7 @@ public class ExpressionFactory implements Cacheable {
 
 	private Map<QName,ExpressionEvaluatorFactory> evaluatorFactoriesMap = new HashMap<>();
 	private ExpressionEvaluatorFactory defaultEvaluatorFactory;
-	private Map<ExpressionIdentifier, Expression<?,?>> cache = new HashMap<>();
+	private final ExpressionCache<ExpressionIdentifier> cache = new ExpressionCache<>();
 	final private PrismContext prismContext;
 	private ObjectResolver objectResolver;					// using setter to allow Spring to handle circular references
 	final private SecurityContextManager securityContextManager;
@@ -78,6 +79,18 @@ public class ExpressionFactory implements Cacheable {
 	public CacheRegistry getCacheRegistry() {
 		return cacheRegistry;
 	}
+
+	/**
+	 * Maximal number of parsed expressions kept in the cache (0 turns the caching off).
+	 * Configured by expressionCacheMaxSize in the system section of config.xml.
+	 */
+	public void setCacheMaxSize(int cacheMaxSize) {
+		cache.setMaxSize(cacheMaxSize);
+	}
+
+	public ExpressionCache<?> getCache() {
+		return cache;
+	}
 	
 	@PostConstruct
 	public void register() {
@@ -87,11 +100,23 @@ public class ExpressionFactory implements Cacheable {
 	public <V extends PrismValue,D extends ItemDefinition> Expression<V,D> makeExpression(ExpressionType expressionType,
 			D outputDefinition, String shortDesc, Task task, OperationResult result)
 					throws SchemaException, ObjectNotFoundException {
+		return makeExpression(expressionType, outputDefinition, null, shortDesc, task, result);
+	}
+
+	/**
+	 * @param sourceObject Object the expression comes from (e.g. role, object template or resource), if known.
+	 *                     The cached expression is discarded when this object changes.
+	 */
+	public <V extends PrismValue,D extends ItemDefinition> Expression<V,D> makeExpression(ExpressionType expressionType,
+			D outputDefinition, ObjectType sourceObject, String shortDesc, Task task, OperationResult result)
+					throws SchemaException, ObjectNotFoundException {
 		ExpressionIdentifier eid = new ExpressionIdentifier(expressionType, outputDefinition);
-		Expression<V,D> expression = (Expression<V,D>) cache.get(eid);
+		String sourceOid = sourceObject != null ? sourceObject.getOid() : null;
+		Expression<V,D> expression = (Expression<V,D>) cache.get(eid, sourceOid);
 		if (expression == null) {
+			// parsed outside of the cache lock; if another thread was faster, its expression is used
 			expression = createExpression(expressionType, outputDefinition, shortDesc, task, result);
-			cache.put(eid, expression);
+			expression = (Expression<V,D>) cache.put(eid, expression, sourceOid);
 		}
 		return expression;
 	}
@@ -187,7 +212,12 @@ public class ExpressionFactory implements Cacheable {
 	
 	@Override
 	public void clearCache() {
-		cache = new HashMap<>();
+		cache.clear();
+	}
+
+	@Override
+	public <O extends ObjectType> void invalidate(Class<O> type, String oid) {
+		cache.invalidate(oid);
 	}
 
 }
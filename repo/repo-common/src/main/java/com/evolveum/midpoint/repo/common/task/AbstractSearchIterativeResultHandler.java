@@ -21,6 +21,7 @@ import com.evolveum.midpoint.repo.api.PreconditionViolationException;
 import com.evolveum.midpoint.repo.cache.RepositoryCache;
 import com.evolveum.midpoint.schema.constants.SchemaConstants;
 import com.evolveum.midpoint.schema.result.OperationResultStatus;
+import com.evolveum.midpoint.schema.statistics.PipelineStageStatistics;
 import com.evolveum.midpoint.schema.statistics.StatisticsUtil;
 import com.evolveum.midpoint.task.api.LightweightTaskHandler;
 import com.evolveum.midpoint.task.api.TaskManager;
@@ -70,6 +71,8 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 	private boolean enableSynchronizationStatistics = false;		// whether we want to collect sync statistics
 	private boolean enableActionsExecutedStatistics = false;		// whether we want to collect repo objects statistics
 	private BlockingQueue<ProcessingRequest> requestQueue;
+	private PipelineStageStatistics requestQueueStatistics;
+	private final Object coordinatorProcessingLock = new Object();
 	private AtomicBoolean stopRequestedByAnyWorker = new AtomicBoolean(false);
 	private final long startTime;
 
@@ -169,6 +172,7 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 		ProcessingRequest request = new ProcessingRequest(object);
 		if (requestQueue != null) {
 			// by not putting anything in the parent result we hope the status will be SUCCESS
+			long waitStart = System.nanoTime();
 			try {
 				while (!requestQueue.offer(request, REQUEST_QUEUE_OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
 					if (shouldStop(parentResult)) {
@@ -178,9 +182,15 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 			} catch (InterruptedException e) {
 				recordInterrupted(parentResult);
 				return false;
+			} finally {
+				requestQueueStatistics.recordItemSubmitted(System.nanoTime() - waitStart);
 			}
 		} else {
-			processRequest(request, coordinatorTask, parentResult);			// coordinator is also a worker here
+			// Coordinator is also a worker here. Objects can be handed over by more threads at once (e.g. by the shadow
+			// processing threads in provisioning), but the coordinator task can process only one of them at a time.
+			synchronized (coordinatorProcessingLock) {
+				processRequest(request, coordinatorTask, parentResult);
+			}
 		}
 
 		return !shouldStop(parentResult);
@@ -254,6 +264,13 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 		}
 	}
 
+	/**
+	 * Statistics of the queue feeding the worker threads. Null if there are no worker threads.
+	 */
+	public PipelineStageStatistics getRequestQueueStatistics() {
+		return requestQueueStatistics;
+	}
+
 	public void completeProcessing(Task task, OperationResult result) {
 		signalAllItemsSubmitted();
 		waitForCompletion(result);      		// in order to provide correct statistics results, we have to wait until all child tasks finish
@@ -276,6 +293,7 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 
 			while (workerTask.canRun()) {
 				ProcessingRequest request;
+				long waitStart = System.nanoTime();
 				try {
 					request = requestQueue.poll(WORKER_THREAD_WAIT_FOR_REQUEST, TimeUnit.MILLISECONDS);
 				} catch (InterruptedException e) {
@@ -283,8 +301,10 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 					return;
 				}
 				if (request != null) {
+					requestQueueStatistics.recordItemsTaken(1, System.nanoTime() - waitStart);
 					processRequest(request, workerTask, workerSpecificResult);
 				} else {
+					requestQueueStatistics.recordConsumerWait(System.nanoTime() - waitStart);
 					if (allItemsSubmitted) {
 						LOGGER.trace("queue is empty and nothing more is expected - exiting");
 						return;
@@ -479,6 +499,7 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 
 		int queueSize = threadsCount*2;				// actually, size of threadsCount should be sufficient but it doesn't hurt if queue is larger
 		requestQueue = new ArrayBlockingQueue<>(queueSize);
+		requestQueueStatistics = new PipelineStageStatistics(getProcessShortName(), threadsCount);
 
 		workerSpecificResults = new ArrayList<>(threadsCount);
 
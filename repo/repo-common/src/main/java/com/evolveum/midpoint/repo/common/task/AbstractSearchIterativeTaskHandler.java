@@ -292,6 +292,9 @@ public abstract class AbstractSearchIterativeTaskHandler<O extends ObjectType, H
 					statistics += " Average time for one object: " + resultHandler.getAverageTime() + " milliseconds" +
 							" (wall clock time average: " + resultHandler.getWallAverageTime() + " ms).";
 				}
+				if (resultHandler.getRequestQueueStatistics() != null) {
+					statistics += " Worker threads queue: " + resultHandler.getRequestQueueStatistics() + ".";
+				}
 				if (!localCoordinatorTask.canRun()) {
 					statistics += " Task was interrupted during processing.";
 				}
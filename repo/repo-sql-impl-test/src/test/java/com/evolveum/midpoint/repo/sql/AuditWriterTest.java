@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.audit.api.AuditEventRecord;
+import com.evolveum.midpoint.audit.api.AuditEventStage;
+import com.evolveum.midpoint.audit.api.AuditEventType;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
+import com.evolveum.midpoint.repo.sql.data.audit.RAuditEventRecord;
+import com.evolveum.midpoint.repo.sql.data.audit.RObjectDeltaOperation;
+import com.evolveum.midpoint.repo.sql.util.SimpleTaskAdapter;
+import com.evolveum.midpoint.schema.ObjectDeltaOperation;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import org.hibernate.Session;
+import org.hibernate.query.Query;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * Audit records written asynchronously, in batches (SqlAuditWriter).
+ */
+@ContextConfiguration(locations = {"../../../../../ctx-test.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class AuditWriterTest extends BaseSQLRepoTest {
+
+    private static final Trace LOGGER = TraceManager.getTrace(AuditWriterTest.class);
+
+    private static final int RECORDS = 95;
+
+    @Autowired private SqlAuditWriter auditWriter;
+
+    @AfterMethod
+    public void stopWriter() {
+        auditWriter.shutdown();
+    }
+
+    @Test
+    public void test100WriteInBatches() throws Exception {
+        LOGGER.info("===[ test100WriteInBatches ]===");
+
+        auditWriter.start(50, 10, 200L, true);
+        assertTrue("Audit writer is not enabled", auditWriter.isEnabled());
+
+        // WHEN
+        for (int i = 0; i < RECORDS; i++) {
+            auditService.audit(createRecord("batch-" + i, i % 2 == 0), new SimpleTaskAdapter());
+        }
+        auditWriter.shutdown();
+
+        // THEN
+        assertFalse("Audit writer is still enabled", auditWriter.isEnabled());
+        assertEquals("Queue not drained", 0, auditWriter.getQueueDepth());
+        List<RAuditEventRecord> records = getRecords("batch-");
+        assertEquals("Wrong # of records written", RECORDS, records.size());
+        Set<String> identifiers = new HashSet<>();
+        for (RAuditEventRecord record : records) {
+            identifiers.add(record.getEventIdentifier());
+            assertEquals("Wrong # of properties in " + record.getEventIdentifier(), 1, record.getPropertyValues().size());
+        }
+        assertEquals("Duplicate or missing records", RECORDS, identifiers.size());
+        assertEquals("Wrong # of deltas written", (RECORDS + 1) / 2, countDeltas("batch-"));
+    }
+
+    @Test
+    public void test110RecordModifiedAfterAudit() throws Exception {
+        LOGGER.info("===[ test110RecordModifiedAfterAudit ]===");
+
+        // a long flush interval, so the record is still waiting in the queue when it is modified
+        auditWriter.start(50, 10, 5000L, true);
+        AuditEventRecord record = createRecord("modified-0", false);
+
+        // WHEN
+        auditService.audit(record, new SimpleTaskAdapter());
+        record.addPropertyValue("addedLater", "value");
+        record.setEventIdentifier("modified-1");
+        auditWriter.shutdown();
+
+        // THEN
+        List<RAuditEventRecord> records = getRecords("modified-");
+        assertEquals("Wrong # of records written", 1, records.size());
+        assertEquals("Wrong event identifier", "modified-0", records.get(0).getEventIdentifier());
+        assertEquals("Wrong # of properties", 1, records.get(0).getPropertyValues().size());
+    }
+
+    @Test
+    public void test120WriteSynchronouslyWhenFull() throws Exception {
+        LOGGER.info("===[ test120WriteSynchronouslyWhenFull ]===");
+
+        // the queue is full most of the time, the records that do not fit are written by the caller
+        auditWriter.start(1, 1, 5000L, false);
+
+        // WHEN
+        for (int i = 0; i < RECORDS; i++) {
+            auditService.audit(createRecord("full-" + i, true), new SimpleTaskAdapter());
+        }
+        String statistics = auditWriter.getStatistics();
+        auditWriter.shutdown();
+
+        // THEN
+        LOGGER.info("Audit writer statistics: {}", statistics);
+        assertEquals("Wrong # of records written", RECORDS, getRecords("full-").size());
+        assertEquals("Wrong # of deltas written", RECORDS, countDeltas("full-"));
+    }
+
+    private AuditEventRecord createRecord(String identifier, boolean withDelta) {
+        AuditEventRecord record = new AuditEventRecord();
+        record.setEventIdentifier(identifier);
+        record.setEventStage(AuditEventStage.EXECUTION);
+        record.setEventType(AuditEventType.MODIFY_OBJECT);
+        record.addPropertyValue("identifier", identifier);
+        if (withDelta) {
+            ObjectDeltaOperation delta = new ObjectDeltaOperation();
+            delta.setObjectDelta(ObjectDelta.createModificationAddReference(UserType.class, identifier,
+                    UserType.F_LINK_REF, prismContext, identifier + "-link"));
+            record.getDeltas().add(delta);
+        }
+        return record;
+    }
+
+    private List<RAuditEventRecord> getRecords(String identifierPrefix) {
+        Session session = getFactory().openSession();
+        try {
+            session.beginTransaction();
+            Query<RAuditEventRecord> query = session.createQuery("from " + RAuditEventRecord.class.getSimpleName()
+                    + " r where r.eventIdentifier like :prefix order by r.id", RAuditEventRecord.class);
+            query.setParameter("prefix", identifierPrefix + "%");
+            List<RAuditEventRecord> records = query.list();
+            records.forEach(record -> record.getPropertyValues().size());      // initializing lazy collections
+            session.getTransaction().commit();
+            return records;
+        } finally {
+            session.close();
+        }
+    }
+
+    private long countDeltas(String identifierPrefix) {
+        Session session = getFactory().openSession();
+        try {
+            session.beginTransaction();
+            Query<Long> query = session.createQuery("select count(*) from " + RObjectDeltaOperation.class.getSimpleName()
+                    + " d where d.record.eventIdentifier like :prefix", Long.class);
+            query.setParameter("prefix", identifierPrefix + "%");
+            long count = query.uniqueResult();
+            session.getTransaction().commit();
+            return count;
+        } finally {
+            session.close();
+        }
+    }
+}
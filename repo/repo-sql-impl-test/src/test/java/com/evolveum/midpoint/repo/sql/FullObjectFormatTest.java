@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.repo.sql.helpers.FullObjectCodec;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.TaskType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import org.hibernate.Session;
+import org.hibernate.query.Query;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.testng.AssertJUnit.*;
+
+/**
+ * Tests switching between XML and binary full object formats, including migration of existing rows.
+ */
+@ContextConfiguration(locations = {"../../../../../ctx-test.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class FullObjectFormatTest extends BaseSQLRepoTest {
+
+    private static final File USER_FILE = new File(FOLDER_BASIC, "user-big.xml");
+    private static final File ROLE_FILE = new File(FOLDER_BASIC, "role-resource-filter.xml");
+    private static final File TASK_FILE = new File(FOLDER_BASIC, "task.xml");
+    private static final File RESOURCE_FILE = new File(FOLDER_BASIC, "resource-opendj.xml");
+
+    private static final long MIGRATION_TIMEOUT = 30000L;
+
+    @Autowired private FullObjectMigrator fullObjectMigrator;
+
+    private final Map<String, Class<? extends ObjectType>> objects = new LinkedHashMap<>();
+    private final Map<String, PrismObject<? extends ObjectType>> expectedObjects = new LinkedHashMap<>();
+    private String userOid;
+
+    @AfterClass
+    public void resetFormat() {
+        fullObjectMigrator.shutdown();
+        getConfiguration().setFullObjectFormat(FullObjectFormat.XML);
+    }
+
+    @Test
+    public void test100AddInXmlFormat() throws Exception {
+        OperationResult result = new OperationResult("test100AddInXmlFormat");
+        getConfiguration().setFullObjectFormat(FullObjectFormat.XML);
+
+        userOid = add(UserType.class, USER_FILE, result);
+        add(RoleType.class, ROLE_FILE, result);
+        add(TaskType.class, TASK_FILE, result);
+        add(ResourceType.class, RESOURCE_FILE, result);
+        assertSuccess(result);
+
+        for (Map.Entry<String, Class<? extends ObjectType>> entry : objects.entrySet()) {
+            expectedObjects.put(entry.getKey(), getObject(entry.getValue(), entry.getKey()));
+        }
+        assertFormat(false);
+    }
+
+    @Test
+    public void test110ReadXmlWhenBinaryIsConfigured() throws Exception {
+        getConfiguration().setFullObjectFormat(FullObjectFormat.BINARY);
+
+        assertObjectsUnchanged();
+        assertFormat(false);
+    }
+
+    @Test
+    public void test120ModifyInBinaryFormat() throws Exception {
+        OperationResult result = new OperationResult("test120ModifyInBinaryFormat");
+
+        List<ItemDelta<?, ?>> modifications = deltaFor(UserType.class)
+                .item(UserType.F_DESCRIPTION).replace("stored in binary format")
+                .asItemDeltas();
+        repositoryService.modifyObject(UserType.class, userOid, modifications, result);
+        assertSuccess(result);
+
+        assertTrue("User is not stored in binary format", FullObjectCodec.isBinary(getFullObject(userOid)));
+        PrismObject<UserType> user = getObject(UserType.class, userOid);
+        assertEquals("Wrong description", "stored in binary format", user.asObjectable().getDescription());
+
+        UserType expectedUser = (UserType) expectedObjects.get(userOid).asObjectable();
+        PrismObject<UserType> expected = expectedUser.clone().description("stored in binary format").asPrismObject();
+        expected.setVersion(user.getVersion());
+        assertTrue("User differs: " + expected.diff(user), expected.equivalent(user));
+        expectedObjects.put(userOid, user);
+    }
+
+    @Test
+    public void test200MigrateToBinary() throws Exception {
+        migrate();
+
+        assertFormat(true);
+        assertObjectsUnchanged();
+    }
+
+    @Test
+    public void test210MigrateBackToXml() throws Exception {
+        getConfiguration().setFullObjectFormat(FullObjectFormat.XML);
+
+        migrate();
+
+        assertFormat(false);
+        assertObjectsUnchanged();
+    }
+
+    private <O extends ObjectType> String add(Class<O> type, File file, OperationResult result) throws Exception {
+        PrismObject<O> object = PrismTestUtil.parseObject(file);
+        String oid = repositoryService.addObject(object, null, result);
+        objects.put(oid, type);
+        return oid;
+    }
+
+    private void migrate() throws Exception {
+        fullObjectMigrator.start(2, 0L);
+        long deadline = System.currentTimeMillis() + MIGRATION_TIMEOUT;
+        while (!fullObjectMigrator.isFinished()) {
+            assertTrue("Migration did not finish in time: " + fullObjectMigrator.getStatistics(),
+                    System.currentTimeMillis() < deadline);
+            Thread.sleep(100);
+        }
+        System.out.println("Migration statistics: " + fullObjectMigrator.getStatistics());
+    }
+
+    private void assertObjectsUnchanged() throws Exception {
+        for (Map.Entry<String, PrismObject<? extends ObjectType>> entry : expectedObjects.entrySet()) {
+            PrismObject<? extends ObjectType> expected = entry.getValue();
+            PrismObject<? extends ObjectType> actual = getObject(objects.get(entry.getKey()), entry.getKey());
+            assertEquals("Object " + entry.getKey() + " differs", expected, actual);
+        }
+    }
+
+    private void assertFormat(boolean binary) {
+        List<String> wrong = new ArrayList<>();
+        for (String oid : objects.keySet()) {
+            if (FullObjectCodec.isBinary(getFullObject(oid)) != binary) {
+                wrong.add(oid);
+            }
+        }
+        assertTrue("Objects not in " + (binary ? "binary" : "XML") + " format: " + wrong, wrong.isEmpty());
+    }
+
+    private byte[] getFullObject(String oid) {
+        Session session = open();
+        try {
+            Query<?> query = session.createQuery("select o.fullObject from RObject o where o.oid = :oid");
+            query.setParameter("oid", oid);
+            return (byte[]) query.uniqueResult();
+        } finally {
+            close(session);
+        }
+    }
+
+    private SqlRepositoryConfiguration getConfiguration() {
+        return ((SqlRepositoryServiceImpl) repositoryService).getConfiguration();
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.polystring.PolyString;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.query.builder.QueryBuilder;
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
+import com.evolveum.midpoint.repo.sql.util.FullObjectPatcher;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
+import com.evolveum.prism.xml.ns._public.types_3.ChangeTypeType;
+import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+import java.io.File;
+import java.util.List;
+
+import static org.testng.AssertJUnit.*;
+
+/**
+ * Checks that modifications applied by patching the stored full object (FullObjectPatcher) give the same
+ * results as the ones applied to the whole parsed object.
+ *
+ * Each object is added twice: the "patched" copy is modified with patching enabled, the "reference" copy
+ * with patching disabled.
+ */
+@ContextConfiguration(locations = {"../../../../../ctx-test.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class FullObjectPatchingTest extends BaseSQLRepoTest {
+
+    private static final File USER_FILE = new File(FOLDER_BASIC, "user-big.xml");
+    private static final File TASK_FILE = new File(FOLDER_BASIC, "task.xml");
+
+    private String patchedUserOid;
+    private String referenceUserOid;
+    private String patchedTaskOid;
+    private String referenceTaskOid;
+
+    private boolean originalPatching;
+
+    @BeforeClass
+    public void rememberPatching() {
+        originalPatching = getConfiguration().isFullObjectPatching();
+    }
+
+    @AfterClass
+    public void resetPatching() {
+        getConfiguration().setFullObjectPatching(originalPatching);
+    }
+
+    @Test
+    public void test100AddObjects() throws Exception {
+        OperationResult result = new OperationResult("test100AddObjects");
+
+        patchedUserOid = add(USER_FILE, "patched", result);
+        referenceUserOid = add(USER_FILE, "reference", result);
+        patchedTaskOid = add(TASK_FILE, "patched", result);
+        referenceTaskOid = add(TASK_FILE, "reference", result);
+        assertSuccess(result);
+    }
+
+    @Test
+    public void test110ModifyMetadata() throws Exception {
+        List<ItemDelta<?, ?>> modifications = deltaFor(UserType.class)
+                .item(UserType.F_METADATA, MetadataType.F_MODIFY_TIMESTAMP).replace(now())
+                .item(UserType.F_METADATA, MetadataType.F_MODIFIER_REF).replace(
+                        new ObjectReferenceType().oid(SystemObjectsType.USER_ADMINISTRATOR.value()).type(UserType.COMPLEX_TYPE)
+                                .asReferenceValue())
+                .item(UserType.F_METADATA, MetadataType.F_MODIFY_CHANNEL).replace("http://midpoint.evolveum.com/xml/ns/public/gui/channels-3#user")
+                .asItemDeltas();
+
+        modifyAndCompare(UserType.class, patchedUserOid, referenceUserOid, modifications);
+    }
+
+    @Test
+    public void test120ModifyActivationAndLogin() throws Exception {
+        XMLGregorianCalendar now = now();
+        List<ItemDelta<?, ?>> modifications = deltaFor(UserType.class)
+                .item(UserType.F_ACTIVATION, ActivationType.F_ENABLE_TIMESTAMP).replace(now)
+                .item(UserType.F_CREDENTIALS, CredentialsType.F_PASSWORD, PasswordType.F_LAST_SUCCESSFUL_LOGIN)
+                        .replace(new LoginEventType().timestamp(now).from("127.0.0.1"))
+                .item(UserType.F_CREDENTIALS, CredentialsType.F_PASSWORD, PasswordType.F_FAILED_LOGINS).replace(0)
+                .asItemDeltas();
+
+        modifyAndCompare(UserType.class, patchedUserOid, referenceUserOid, modifications);
+
+        // activation/enableTimestamp is stored in a column
+        ObjectQuery query = QueryBuilder.queryFor(UserType.class, prismContext)
+                .item(UserType.F_ACTIVATION, ActivationType.F_ENABLE_TIMESTAMP).eq(now)
+                .build();
+        OperationResult result = new OperationResult("test120ModifyActivationAndLogin");
+        assertEquals("Wrong number of users found", 2, repositoryService.searchObjects(UserType.class, query, null, result).size());
+    }
+
+    @Test
+    public void test130DeleteMetadata() throws Exception {
+        List<ItemDelta<?, ?>> modifications = deltaFor(UserType.class)
+                .item(UserType.F_METADATA).replace()
+                .asItemDeltas();
+
+        modifyAndCompare(UserType.class, patchedUserOid, referenceUserOid, modifications);
+        assertNull("Metadata not deleted", getObject(UserType.class, patchedUserOid).asObjectable().getMetadata());
+    }
+
+    @Test
+    public void test140AddMetadata() throws Exception {
+        List<ItemDelta<?, ?>> modifications = deltaFor(UserType.class)
+                .item(UserType.F_METADATA, MetadataType.F_CREATE_TIMESTAMP).replace(now())
+                .asItemDeltas();
+
+        modifyAndCompare(UserType.class, patchedUserOid, referenceUserOid, modifications);
+    }
+
+    @Test
+    public void test200ModifyTaskProgress() throws Exception {
+        OperationStatsType operationStats = new OperationStatsType()
+                .iterativeTaskInformation(new IterativeTaskInformationType()
+                        .totalSuccessCount(10)
+                        .lastSuccessObjectName("jack"))
+                .actionsExecutedInformation(new ActionsExecutedInformationType()
+                        .objectActionsEntry(new ObjectActionsExecutedEntryType()
+                                .objectType(UserType.COMPLEX_TYPE)
+                                .operation(ChangeTypeType.MODIFY)
+                                .totalSuccessCount(10)))
+                .timestamp(now());
+        List<ItemDelta<?, ?>> modifications = deltaFor(TaskType.class)
+                .item(TaskType.F_PROGRESS).replace(10L)
+                .item(TaskType.F_EXPECTED_TOTAL).replace(100L)
+                .item(TaskType.F_OPERATION_STATS).replace(operationStats)
+                .item(TaskType.F_LAST_RUN_START_TIMESTAMP).replace(now())
+                .asItemDeltas();
+
+        modifyAndCompare(TaskType.class, patchedTaskOid, referenceTaskOid, modifications);
+    }
+
+    @Test
+    public void test210NotPatchable() throws Exception {
+        List<ItemDelta<?, ?>> modifications = deltaFor(TaskType.class)
+                .item(TaskType.F_PROGRESS).replace(20L)
+                .item(TaskType.F_DESCRIPTION).replace("not patchable")
+                .asItemDeltas();
+        assertFalse("Modifications should not be patchable", FullObjectPatcher.isPatchable(TaskType.class, modifications));
+
+        // the results should be the same anyway
+        modifyAndCompare(TaskType.class, patchedTaskOid, referenceTaskOid, modifications);
+    }
+
+    private String add(File file, String nameSuffix, OperationResult result) throws Exception {
+        PrismObject<? extends ObjectType> object = PrismTestUtil.parseObject(file);
+        object.setOid(null);
+        object.asObjectable().setName(new PolyStringType(new PolyString(object.getName().getOrig() + "-" + nameSuffix)));
+        if (object.asObjectable() instanceof TaskType) {
+            TaskType task = (TaskType) object.asObjectable();
+            task.setTaskIdentifier(task.getTaskIdentifier() + "-" + nameSuffix);
+        }
+        return repositoryService.addObject(object, null, result);
+    }
+
+    private <O extends ObjectType> void modifyAndCompare(Class<O> type, String patchedOid, String referenceOid,
+            List<ItemDelta<?, ?>> modifications) throws Exception {
+        OperationResult result = new OperationResult("modifyAndCompare");
+        boolean patchable = FullObjectPatcher.isPatchable(type, modifications);
+
+        getConfiguration().setFullObjectPatching(true);
+        repositoryService.modifyObject(type, patchedOid, ItemDelta.cloneCollection(modifications), result);
+        getConfiguration().setFullObjectPatching(false);
+        repositoryService.modifyObject(type, referenceOid, ItemDelta.cloneCollection(modifications), result);
+        getConfiguration().setFullObjectPatching(true);
+        assertSuccess(result);
+
+        PrismObject<O> patched = getObject(type, patchedOid);
+        PrismObject<O> reference = getObject(type, referenceOid);
+        display("Patched object (patchable modifications: " + patchable + ")", patched);
+
+        PrismObject<O> expected = reference.clone();
+        expected.setOid(patchedOid);
+        expected.asObjectable().setName(patched.asObjectable().getName());
+        if (expected.asObjectable() instanceof TaskType) {
+            ((TaskType) expected.asObjectable()).setTaskIdentifier(((TaskType) patched.asObjectable()).getTaskIdentifier());
+        }
+        assertEquals("Wrong version", reference.getVersion(), patched.getVersion());
+        assertTrue("Objects differ: " + expected.diff(patched), expected.equivalent(patched));
+    }
+
+    private XMLGregorianCalendar now() {
+        return XmlTypeConverter.createXMLGregorianCalendar(System.currentTimeMillis());
+    }
+
+    private SqlRepositoryConfiguration getConfiguration() {
+        return ((SqlRepositoryServiceImpl) repositoryService).getConfiguration();
+    }
+}
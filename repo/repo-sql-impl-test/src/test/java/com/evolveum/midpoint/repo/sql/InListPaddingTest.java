@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.query.builder.QueryBuilder;
+import com.evolveum.midpoint.repo.sql.query2.hqm.RootHibernateQuery;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertSame;
+
+/**
+ * Collection-valued query parameters are padded (see RootHibernateQuery.padParameterList), so that 'in' lists
+ * of similar sizes share the hibernate query plan. Padding must not change the results.
+ */
+@ContextConfiguration(locations = {"../../../../../ctx-test.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class InListPaddingTest extends BaseSQLRepoTest {
+
+    @Test
+    public void test100PaddedSizes() {
+        assertPadded(0, 0);
+        assertPadded(1, 1);
+        assertPadded(2, 2);
+        assertPadded(3, 4);
+        assertPadded(5, 8);
+        assertPadded(8, 8);
+        assertPadded(9, 16);
+        assertPadded(600, 1000);
+        assertPadded(1000, 1000);
+        assertPadded(1001, 1001);
+    }
+
+    @Test
+    public void test110PaddedWithLastValue() {
+        List<String> values = Arrays.asList("a", "b", "c");
+
+        Collection<?> padded = RootHibernateQuery.padParameterList(values);
+
+        assertEquals("Wrong padded values", Arrays.asList("a", "b", "c", "c"), new ArrayList<>(padded));
+    }
+
+    @Test
+    public void test120NotPaddedIfSizeFits() {
+        List<String> values = Arrays.asList("a", "b", "c", "d");
+
+        assertSame("Collection of power-of-two size was copied", values, RootHibernateQuery.padParameterList(values));
+    }
+
+    @Test
+    public void test200SearchByPaddedOidList() throws Exception {
+        OperationResult result = new OperationResult("test200SearchByPaddedOidList");
+
+        Set<String> oids = new HashSet<>();
+        for (int i = 0; i < 5; i++) {
+            PrismObject<UserType> user = prismContext.createObjectable(UserType.class)
+                    .name("in-list-padding-" + i)
+                    .asPrismObject();
+            oids.add(repositoryService.addObject(user, null, result));
+        }
+
+        // 3 and 5 values are padded to 4 and 8, 2 is not padded
+        for (int size : new int[] { 3, 5, 2 }) {
+            List<String> queried = new ArrayList<>(oids).subList(0, size);
+            ObjectQuery query = QueryBuilder.queryFor(UserType.class, prismContext)
+                    .id(queried.toArray(new String[0]))
+                    .build();
+
+            List<PrismObject<UserType>> users = repositoryService.searchObjects(UserType.class, query, null, result);
+
+            Set<String> found = new HashSet<>();
+            users.forEach(user -> found.add(user.getOid()));
+            assertEquals("Wrong users found for " + size + " OIDs", new HashSet<>(queried), found);
+            assertEquals("Wrong count for " + size + " OIDs", size,
+                    repositoryService.countObjects(UserType.class, query, null, result));
+        }
+        assertSuccess(result);
+    }
+
+    private void assertPadded(int size, int expectedSize) {
+        List<Integer> values = new ArrayList<>(Collections.nCopies(size, 0));
+        for (int i = 0; i < size; i++) {
+            values.set(i, i);
+        }
+
+        Collection<?> padded = RootHibernateQuery.padParameterList(values);
+
+        assertEquals("Wrong padded size of " + size + " values", expectedSize, padded.size());
+        assertEquals("Wrong distinct values in padded collection of " + size, size, new HashSet<>(padded).size());
+    }
+}
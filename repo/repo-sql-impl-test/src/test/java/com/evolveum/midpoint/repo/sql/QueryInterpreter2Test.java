@@ -3025,6 +3025,33 @@ public class QueryInterpreter2Test extends BaseSQLRepoTest {
         }
     }
 
+    @Test
+    public void test0625QueryGenericStringMultipleValues() throws Exception {
+        Session session = open();
+        try {
+            ObjectQuery query = QueryBuilder.queryFor(GenericObjectType.class, prismContext)
+                    .item(ObjectType.F_EXTENSION, new QName("http://example.com/p", "stringType")).eq("asdf", "qwer")
+                    .build();
+            String real = getInterpretedQuery2(session, GenericObjectType.class, query);
+            String expected = "select\n" +
+                    "  g.oid, g.fullObject,\n" +
+                    "  g.stringsCount,\n" +
+                    "  g.longsCount,\n" +
+                    "  g.datesCount,\n" +
+                    "  g.referencesCount,\n" +
+                    "  g.polysCount,\n" +
+                    "  g.booleansCount\n" +
+                    "from\n" +
+                    "  RGenericObject g\n" +
+                    "    left join g.strings s with ( s.ownerType = :ownerType and s.itemId = :itemId )\n" +
+                    "where\n" +
+                    "  s.value in (:value)\n";
+            assertEqualsIgnoreWhitespace(expected, real);
+        } finally {
+            close(session);
+        }
+    }
+
 //    @Test(enabled = false)
 //    public void atest100() throws Exception {
 //        Session session = open();
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.query.builder.QueryBuilder;
+import com.evolveum.midpoint.repo.sql.query2.QueryPlanCache;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * Queries of the same shape reuse the cached HQL, with parameters rebound to their values (see QueryPlanCache).
+ * Reusing the HQL must not change the results.
+ */
+@ContextConfiguration(locations = {"../../../../../ctx-test.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class QueryPlanCacheTest extends BaseSQLRepoTest {
+
+    private static final int USERS = 5;
+
+    @Autowired private QueryPlanCache queryPlanCache;
+
+    private final List<String> oids = new ArrayList<>();
+
+    @Override
+    public void initSystem() throws Exception {
+        OperationResult result = new OperationResult("initSystem");
+        for (int i = 0; i < USERS; i++) {
+            PrismObject<UserType> user = prismContext.createObjectable(UserType.class)
+                    .name("query-plan-cache-" + i)
+                    .employeeNumber("EMP-" + i)
+                    .asPrismObject();
+            oids.add(repositoryService.addObject(user, null, result));
+        }
+        assertSuccess(result);
+    }
+
+    @Test
+    public void test100SameShapeDifferentValues() throws Exception {
+        OperationResult result = new OperationResult("test100SameShapeDifferentValues");
+        assertTrue("Query plan cache is not enabled", queryPlanCache.isEnabled());
+
+        long hitsBefore = queryPlanCache.getHits();
+        for (int i = 0; i < USERS; i++) {
+            ObjectQuery query = QueryBuilder.queryFor(UserType.class, prismContext)
+                    .item(UserType.F_NAME).eqPoly("query-plan-cache-" + i).matchingOrig()
+                    .build();
+
+            assertFound(query, result, oids.get(i));
+        }
+
+        // the first query may have been cached by another test already
+        assertTrue("Cached HQL was not reused", queryPlanCache.getHits() - hitsBefore >= USERS - 1);
+        assertSuccess(result);
+    }
+
+    @Test
+    public void test110SameShapeDifferentOids() throws Exception {
+        OperationResult result = new OperationResult("test110SameShapeDifferentOids");
+
+        long hitsBefore = queryPlanCache.getHits();
+        for (int i = 0; i + 1 < USERS; i++) {
+            ObjectQuery query = QueryBuilder.queryFor(UserType.class, prismContext)
+                    .id(oids.get(i), oids.get(i + 1))
+                    .build();
+
+            assertFound(query, result, oids.get(i), oids.get(i + 1));
+            assertEquals("Wrong count", 2, repositoryService.countObjects(UserType.class, query, null, result));
+        }
+
+        assertTrue("Cached HQL was not reused", queryPlanCache.getHits() - hitsBefore >= 2 * (USERS - 2));
+        assertSuccess(result);
+    }
+
+    /**
+     * Values that are transformed before being used as parameters (here: lowercased) must not be rebound.
+     * Each of them gets its own HQL variant.
+     */
+    @Test
+    public void test120TransformedValuesNotRebound() throws Exception {
+        OperationResult result = new OperationResult("test120TransformedValuesNotRebound");
+
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < USERS; i++) {
+                ObjectQuery query = QueryBuilder.queryFor(UserType.class, prismContext)
+                        .item(UserType.F_EMPLOYEE_NUMBER).eq("emp-" + i).matchingCaseIgnore()
+                        .build();
+
+                assertFound(query, result, oids.get(i));
+            }
+        }
+        assertSuccess(result);
+    }
+
+    @Test
+    public void test200Statistics() throws Exception {
+        String statistics = queryPlanCache.getStatistics();
+        System.out.println("Query plan cache statistics: " + statistics);
+
+        assertTrue("No hits", queryPlanCache.getHits() > 0);
+        assertTrue("No misses", queryPlanCache.getMisses() > 0);
+        assertTrue("No shapes", queryPlanCache.getShapesCount() > 0);
+        assertTrue("Wrong statistics: " + statistics, statistics.startsWith("hits: " + queryPlanCache.getHits()));
+    }
+
+    private void assertFound(ObjectQuery query, OperationResult result, String... expectedOids) throws Exception {
+        List<PrismObject<UserType>> users = repositoryService.searchObjects(UserType.class, query, null, result);
+
+        Set<String> found = new HashSet<>();
+        users.forEach(user -> found.add(user.getOid()));
+        Set<String> expected = new HashSet<>();
+        for (String oid : expectedOids) {
+            expected.add(oid);
+        }
+        assertEquals("Wrong users found for " + query, expected, found);
+    }
+}
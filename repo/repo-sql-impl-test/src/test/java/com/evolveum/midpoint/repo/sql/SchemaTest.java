@@ -65,6 +65,7 @@ public class SchemaTest {
         addAnnotatedClasses("com.evolveum.midpoint.repo.sql.data.common.other", metadata);
         addAnnotatedClasses("com.evolveum.midpoint.repo.sql.data.common.type", metadata);
         addAnnotatedClasses("com.evolveum.midpoint.repo.sql.data.audit", metadata);
+        addAnnotatedClasses("com.evolveum.midpoint.repo.sql.data.cluster", metadata);
 
         metadata.addPackage("com.evolveum.midpoint.repo.sql.type");
 
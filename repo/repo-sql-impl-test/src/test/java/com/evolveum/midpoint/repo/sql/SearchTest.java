@@ -27,6 +27,8 @@ import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.prism.query.OrderDirection;
 import com.evolveum.midpoint.prism.query.builder.QueryBuilder;
 import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
+import com.evolveum.midpoint.repo.api.ScheduledTrigger;
 import com.evolveum.midpoint.schema.*;
 import com.evolveum.midpoint.schema.constants.SchemaConstants;
 import com.evolveum.midpoint.schema.result.OperationResult;
@@ -41,6 +43,7 @@ import org.springframework.test.context.ContextConfiguration;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
+import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.namespace.QName;
 import java.io.File;
 import java.util.*;
@@ -969,4 +972,41 @@ public class SearchTest extends BaseSQLRepoTest {
         assertTrue(result.isSuccess());
         assertEquals("Should find 1 object", 1, collections.size());
     }
+
+    @Test
+    public void testSearchTriggers() throws Exception {
+        OperationResult result = new OperationResult("search triggers");
+
+        XMLGregorianCalendar to = XmlTypeConverter.createXMLGregorianCalendar("2016-01-01T00:00:00.000+01:00");
+        List<ScheduledTrigger> first = repositoryService.searchTriggers(null, to, null, 2, result);
+        List<ScheduledTrigger> second = repositoryService.searchTriggers(null, to, first.get(first.size() - 1), 2, result);
+        List<ScheduledTrigger> third = repositoryService.searchTriggers(null, to, second.get(second.size() - 1), 2, result);
+        result.recomputeStatus();
+        assertTrue(result.isSuccess());
+
+        assertEquals("Wrong # of triggers in first page", 2, first.size());
+        assertEquals("Wrong # of triggers in second page", 2, second.size());
+        assertEquals("Wrong # of triggers in third page", 0, third.size());
+        assertEquals("Wrong first trigger", Long.valueOf(4), first.get(0).getId());
+        assertEquals("Wrong second trigger", Long.valueOf(677504622), first.get(1).getId());
+        assertEquals("Wrong third trigger", Long.valueOf(677504623), second.get(0).getId());
+        assertEquals("Wrong fourth trigger", Long.valueOf(677504621), second.get(1).getId());
+    }
+
+    @Test
+    public void testSearchTriggersInInterval() throws Exception {
+        OperationResult result = new OperationResult("search triggers in interval");
+
+        XMLGregorianCalendar from = XmlTypeConverter.createXMLGregorianCalendar("2015-01-01T00:00:00.000+01:00");
+        XMLGregorianCalendar to = XmlTypeConverter.createXMLGregorianCalendar("2015-12-17T00:00:00.000+01:00");
+        List<ScheduledTrigger> triggers = repositoryService.searchTriggers(from, to, null, 10, result);
+        result.recomputeStatus();
+        assertTrue(result.isSuccess());
+
+        assertEquals("Wrong # of triggers", 1, triggers.size());
+        assertEquals("Wrong trigger", Long.valueOf(677504622), triggers.get(0).getId());
+        assertEquals("Wrong handler URI",
+                "http://midpoint.evolveum.com/xml/ns/public/certification/trigger/close-stage-approaching/handler-3",
+                triggers.get(0).getHandlerUri());
+    }
 }
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+
+import com.evolveum.midpoint.repo.api.CacheInvalidationEvent;
+import com.evolveum.midpoint.repo.sql.data.cluster.RCacheInvalidationEvent;
+import com.evolveum.midpoint.repo.sql.data.common.other.RObjectType;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.Test;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * Publishing and fetching cache invalidation events through the m_cache_invalidation table.
+ * Both nodes share one transport here; it is fine, as events are filtered by the node that fetches them.
+ */
+@ContextConfiguration(locations = {"../../../../../ctx-test.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class SqlCacheInvalidationTransportTest extends BaseSQLRepoTest {
+
+    private static final String NODE_1 = "node1";
+    private static final String NODE_2 = "node2";
+
+    private static final long OLD_EVENT_AGE = 3600000L;
+
+    @Autowired private SqlCacheInvalidationTransport transport;
+
+    @Test
+    public void test100PublishAndFetch() throws Exception {
+        OperationResult result = createResult("test100PublishAndFetch");
+
+        // the first fetch only starts the tracking
+        transport.fetch(NODE_2, result);
+
+        CacheInvalidationEvent userEvent = new CacheInvalidationEvent(UserType.class, "u1");
+        CacheInvalidationEvent roleTypeEvent = new CacheInvalidationEvent(RoleType.class, null);
+        transport.publish(NODE_1, Arrays.asList(userEvent, roleTypeEvent), result);
+
+        List<CacheInvalidationEvent> fetched = transport.fetch(NODE_2, result);
+        assertEquals("Wrong fetched events", new HashSet<>(Arrays.asList(userEvent, roleTypeEvent)), new HashSet<>(fetched));
+        assertEquals("Wrong # of fetched events", 2, fetched.size());
+
+        // the rows are still within the fetch window, but they were already processed
+        fetched = transport.fetch(NODE_2, result);
+        assertTrue("Events fetched again: " + fetched, fetched.isEmpty());
+
+        result.computeStatus();
+        assertSuccess(result);
+    }
+
+    @Test
+    public void test110SkipOwnEvents() throws Exception {
+        OperationResult result = createResult("test110SkipOwnEvents");
+
+        transport.publish(NODE_2, Arrays.asList(new CacheInvalidationEvent(UserType.class, "u2")), result);
+
+        List<CacheInvalidationEvent> fetched = transport.fetch(NODE_2, result);
+        assertTrue("Own events fetched: " + fetched, fetched.isEmpty());
+
+        result.computeStatus();
+        assertSuccess(result);
+    }
+
+    @Test
+    public void test200Cleanup() throws Exception {
+        OperationResult result = createResult("test200Cleanup");
+
+        Timestamp oldTimestamp = new Timestamp(System.currentTimeMillis() - OLD_EVENT_AGE);
+        Session session = open();
+        try {
+            RCacheInvalidationEvent row = new RCacheInvalidationEvent();
+            row.setNodeIdentifier(NODE_1);
+            row.setObjectType(RObjectType.USER);
+            row.setOid("old");
+            row.setTimestamp(oldTimestamp);
+            session.save(row);
+        } finally {
+            close(session);
+        }
+        long recentBefore = countEvents(false, oldTimestamp);
+        assertEquals("Old event not stored", 1, countEvents(true, oldTimestamp));
+
+        transport.requestCleanup();
+        List<CacheInvalidationEvent> fetched = transport.fetch(NODE_2, result);
+
+        assertTrue("Old or already processed events fetched: " + fetched, fetched.isEmpty());
+        assertEquals("Old event not deleted", 0, countEvents(true, oldTimestamp));
+        assertEquals("Recent events deleted", recentBefore, countEvents(false, oldTimestamp));
+
+        result.computeStatus();
+        assertSuccess(result);
+    }
+
+    private long countEvents(boolean old, Timestamp oldTimestamp) {
+        Session session = open();
+        try {
+            return (Long) session.createQuery("select count(*) from RCacheInvalidationEvent e where e.timestamp "
+                    + (old ? "<=" : ">") + " :timestamp")
+                    .setParameter("timestamp", oldTimestamp)
+                    .uniqueResult();
+        } finally {
+            close(session);
+        }
+    }
+}
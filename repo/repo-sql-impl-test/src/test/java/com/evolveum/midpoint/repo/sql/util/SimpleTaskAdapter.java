@@ -731,6 +731,10 @@ public class SimpleTaskAdapter implements Task {
     public void recordProvisioningOperation(String resourceOid, String resourceName, QName objectClassName, ProvisioningOperation operation, boolean success, int count, long duration) {
     }
 
+    @Override
+    public void recordShadowLookup(String resourceOid, String resourceName, QName objectClassName, int objects, int queries) {
+    }
+
     @Override
     public void recordNotificationOperation(String transportName, boolean success, long duration) {
     }
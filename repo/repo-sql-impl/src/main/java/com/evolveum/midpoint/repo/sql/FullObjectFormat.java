@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.repo.sql;
+
+/**
+ * Format in which the full object (m_object.fullObject) is written. Rows written in other formats remain readable.
+ */
+public enum FullObjectFormat {
+
+    /**
+     * XML text, gzipped if useZip is set.
+     */
+    XML("xml"),
+
+    /**
+     * Binary XNode encoding compressed by LZ4, prefixed with a marker byte.
+     */
+    BINARY("binary");
+
+    private final String value;
+
+    FullObjectFormat(String value) {
+        this.value = value;
+    }
+
+    public String value() {
+        return value;
+    }
+
+    public static FullObjectFormat fromValue(String v) {
+        for (FullObjectFormat f : FullObjectFormat.values()) {
+            if (f.value.equals(v)) {
+                return f;
+            }
+        }
+        throw new IllegalArgumentException(v);
+    }
+}
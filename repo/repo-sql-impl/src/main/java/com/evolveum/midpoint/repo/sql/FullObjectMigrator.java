@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.repo.sql.helpers.BaseHelper;
+import com.evolveum.midpoint.repo.sql.helpers.FullObjectCodec;
+import com.evolveum.midpoint.util.DebugDumpable;
+import com.evolveum.midpoint.util.DebugUtil;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import org.hibernate.Session;
+import org.hibernate.query.NativeQuery;
+import org.hibernate.query.Query;
+import org.hibernate.type.MaterializedBlobType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background rewriting of full objects (m_object.fullObject) into the configured format (optional, turned on
+ * by fullObjectMigration repository configuration property).
+ *
+ * Objects are processed in batches ordered by OID. Rows that are not in the configured format are converted
+ * (at the XNode level, so nothing is lost even for objects not conforming to the current schema) and written back
+ * only if their version did not change in the meantime; objects modified concurrently are written in the configured
+ * format by the modification itself. Between batches, the migrator pauses to keep the load on the database low.
+ * The migration is not persistent: after a restart it starts from the beginning, quickly skipping rows that are
+ * already migrated.
+ */
+@Component
+public class FullObjectMigrator implements DebugDumpable {
+
+	private static final Trace LOGGER = TraceManager.getTrace(FullObjectMigrator.class);
+
+	public static final int DEFAULT_BATCH_SIZE = 100;
+	public static final long DEFAULT_PAUSE = 1000L;
+
+	private static final long SHUTDOWN_TIMEOUT = 60000L;
+	private static final String OPERATION_MIGRATE_BATCH = "migrateFullObjects";
+
+	private static final String QUERY_SELECT_BATCH = "select o.oid, o.fullObject, o.version from RObject o where o.oid > :oid order by o.oid";
+	private static final String QUERY_UPDATE = "update m_object set fullObject = :fullObject where oid = :oid and version = :version";
+
+	@Autowired private BaseHelper baseHelper;
+	@Autowired private FullObjectCodec fullObjectCodec;
+
+	private volatile boolean enabled;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private long pause = DEFAULT_PAUSE;
+
+	private Thread migratorThread;
+	private volatile boolean running;
+	private volatile boolean finished;
+	private volatile String lastOid = "";
+	private final Object pauseLock = new Object();
+
+	private final AtomicLong objectsScanned = new AtomicLong();
+	private final AtomicLong objectsMigrated = new AtomicLong();
+	private final AtomicLong objectsChangedConcurrently = new AtomicLong();
+	private final AtomicLong objectsFailed = new AtomicLong();
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong totalBatchTime = new AtomicLong();
+
+	/**
+	 * Starts the migration, after the repository is initialized. It can be started again after it finishes
+	 * or is stopped; in that case it starts from the beginning.
+	 */
+	public synchronized void start(int batchSize, long pause) {
+		if (running) {
+			LOGGER.warn("Full object migration is already running, ignoring new configuration");
+			return;
+		}
+		this.batchSize = batchSize;
+		this.pause = pause;
+		this.running = true;
+		this.finished = false;
+		this.lastOid = "";
+		resetStatistics();
+
+		migratorThread = new Thread(this::migrateLoop, "midPoint full object migrator");
+		migratorThread.setDaemon(true);
+		migratorThread.setPriority(Thread.MIN_PRIORITY);
+		migratorThread.start();
+		enabled = true;
+
+		LOGGER.info("Full object migration to {} format started (batch size {}, pause {} ms)",
+				baseHelper.getConfiguration().getFullObjectFormat().value(), batchSize, pause);
+	}
+
+	/**
+	 * Stops the migration after the current batch is processed.
+	 */
+	@PreDestroy
+	public synchronized void shutdown() {
+		if (!enabled) {
+			return;
+		}
+		running = false;
+		// not interrupting the thread, as it could be in the middle of JDBC call
+		synchronized (pauseLock) {
+			pauseLock.notifyAll();
+		}
+		try {
+			migratorThread.join(SHUTDOWN_TIMEOUT);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (migratorThread.isAlive()) {
+			LOGGER.warn("Full object migrator did not finish the current batch in {} ms", SHUTDOWN_TIMEOUT);
+		}
+		LOGGER.info("Full object migration stopped: {}", getStatistics());
+		enabled = false;
+	}
+
+	public boolean isFinished() {
+		return finished;
+	}
+
+	private void migrateLoop() {
+		while (running) {
+			long start = System.currentTimeMillis();
+			int processed;
+			try {
+				processed = migrateBatchWithRetries();
+			} catch (Throwable t) {
+				LOGGER.error("Unexpected error in full object migrator, stopping the migration: {}", t.getMessage(), t);
+				running = false;
+				return;
+			}
+			long duration = System.currentTimeMillis() - start;
+			batches.incrementAndGet();
+			totalBatchTime.addAndGet(duration);
+			if (processed < batchSize) {
+				finished = true;
+				running = false;
+				LOGGER.info("Full object migration finished: {}", getStatistics());
+				return;
+			}
+			LOGGER.trace("Migrated batch of {} objects in {} ms, last OID: {}", processed, duration, lastOid);
+			try {
+				synchronized (pauseLock) {
+					if (running && pause > 0) {
+						pauseLock.wait(pause);
+					}
+				}
+			} catch (InterruptedException e) {
+				LOGGER.debug("Full object migrator thread interrupted, stopping");
+				running = false;
+			}
+		}
+	}
+
+	private int migrateBatchWithRetries() {
+		int attempt = 1;
+		while (true) {
+			try {
+				return migrateBatchAttempt();
+			} catch (RuntimeException ex) {
+				attempt = baseHelper.logOperationAttempt(null, OPERATION_MIGRATE_BATCH, attempt, ex, null);
+			}
+		}
+	}
+
+	/**
+	 * @return number of objects processed (i.e. selected, regardless whether they needed migration or not)
+	 */
+	private int migrateBatchAttempt() {
+		int processed = 0;
+		long migrated = 0, changedConcurrently = 0, failed = 0;
+		String batchLastOid = lastOid;
+		Session session = null;
+		try {
+			session = baseHelper.beginTransaction();
+			Query<?> select = session.createQuery(QUERY_SELECT_BATCH);
+			select.setParameter("oid", batchLastOid);
+			select.setMaxResults(batchSize);
+			@SuppressWarnings("unchecked")
+			List<Object[]> rows = (List<Object[]>) select.list();
+
+			for (Object[] row : rows) {
+				String oid = (String) row[0];
+				byte[] fullObject = (byte[]) row[1];
+				int version = (Integer) row[2];
+				processed++;
+				batchLastOid = oid;
+				if (fullObjectCodec.isInConfiguredFormat(fullObject)) {
+					continue;
+				}
+				byte[] converted;
+				try {
+					converted = fullObjectCodec.convertToConfiguredFormat(fullObject);
+				} catch (SchemaException | RuntimeException e) {
+					failed++;
+					LOGGER.warn("Couldn't convert full object of {}, leaving it unchanged: {}", oid, e.getMessage(), e);
+					continue;
+				}
+				NativeQuery<?> update = session.createNativeQuery(QUERY_UPDATE);
+				update.setParameter("fullObject", converted, MaterializedBlobType.INSTANCE);
+				update.setParameter("oid", oid);
+				update.setParameter("version", version);
+				if (update.executeUpdate() > 0) {
+					migrated++;
+				} else {
+					changedConcurrently++;
+				}
+			}
+
+			session.getTransaction().commit();
+		} catch (RuntimeException ex) {
+			baseHelper.handleGeneralRuntimeException(ex, session, null);
+		} finally {
+			baseHelper.cleanupSessionAndResult(session, null);
+		}
+		// counters are updated only after successful commit, as the batch can be retried
+		lastOid = batchLastOid;
+		objectsScanned.addAndGet(processed);
+		objectsMigrated.addAndGet(migrated);
+		objectsChangedConcurrently.addAndGet(changedConcurrently);
+		objectsFailed.addAndGet(failed);
+		return processed;
+	}
+
+	private void resetStatistics() {
+		objectsScanned.set(0);
+		objectsMigrated.set(0);
+		objectsChangedConcurrently.set(0);
+		objectsFailed.set(0);
+		batches.set(0);
+		totalBatchTime.set(0);
+	}
+
+	public String getStatistics() {
+		if (!enabled) {
+			return "disabled";
+		}
+		long batches = this.batches.get();
+		return String.format(Locale.US, "%s, scanned=%d, migrated=%d, changedConcurrently=%d, failed=%d, lastOid=%s, "
+						+ "batches=%d, batchTime: avg=%.1f ms",
+				finished ? "finished" : running ? "running" : "stopped", objectsScanned.get(), objectsMigrated.get(),
+				objectsChangedConcurrently.get(), objectsFailed.get(), lastOid, batches,
+				batches > 0 ? (double) totalBatchTime.get() / batches : 0.0);
+	}
+
+	@Override
+	public String toString() {
+		return "FullObjectMigrator(" + getStatistics() + ")";
+	}
+
+	@Override
+	public String debugDump(int indent) {
+		StringBuilder sb = new StringBuilder();
+		DebugUtil.debugDumpLabelLn(sb, "FullObjectMigrator", indent);
+		DebugUtil.debugDumpWithLabelLn(sb, "batchSize", batchSize, indent + 1);
+		DebugUtil.debugDumpWithLabelLn(sb, "pause", pause, indent + 1);
+		DebugUtil.debugDumpWithLabel(sb, "statistics", getStatistics(), indent + 1);
+		return sb.toString();
+	}
+}
@@ -23,6 +23,7 @@ import com.evolveum.midpoint.repo.api.RepositoryServiceFactoryException;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import org.apache.commons.configuration.Configuration;
+import org.springframework.beans.factory.annotation.Autowired;
 
 /**
  * @author lazyman
@@ -30,8 +31,18 @@ import org.apache.commons.configuration.Configuration;
 public class SqlAuditServiceFactory implements AuditServiceFactory {
 
     private static final Trace LOGGER = TraceManager.getTrace(SqlAuditServiceFactory.class);
+
+    public static final String PROPERTY_ASYNCHRONOUS = "asynchronous";
+    public static final String PROPERTY_ASYNC_QUEUE_SIZE = "asyncQueueSize";
+    public static final String PROPERTY_ASYNC_BATCH_SIZE = "asyncBatchSize";
+    public static final String PROPERTY_ASYNC_FLUSH_INTERVAL = "asyncFlushInterval";
+    public static final String PROPERTY_ASYNC_BLOCK_WHEN_FULL = "asyncBlockWhenFull";
+
     private SqlRepositoryFactory repositoryFactory;
 
+    @Autowired
+    private SqlAuditWriter auditWriter;
+
     public SqlRepositoryFactory getRepositoryFactory() {
         return repositoryFactory;
     }
@@ -43,6 +54,7 @@ public class SqlAuditServiceFactory implements AuditServiceFactory {
     @Override
     public synchronized void destroy() throws AuditServiceFactoryException {
         LOGGER.info("Destroying Sql audit service factory.");
+        auditWriter.shutdown();
         try {
             repositoryFactory.destroy();
         } catch (RepositoryServiceFactoryException ex) {
@@ -59,6 +71,13 @@ public class SqlAuditServiceFactory implements AuditServiceFactory {
         } catch (RepositoryServiceFactoryException ex) {
             throw new AuditServiceFactoryException(ex.getMessage(), ex);
         }
+        if (config.getBoolean(PROPERTY_ASYNCHRONOUS, false)) {
+            auditWriter.start(
+                    config.getInt(PROPERTY_ASYNC_QUEUE_SIZE, SqlAuditWriter.DEFAULT_QUEUE_SIZE),
+                    config.getInt(PROPERTY_ASYNC_BATCH_SIZE, SqlAuditWriter.DEFAULT_BATCH_SIZE),
+                    config.getLong(PROPERTY_ASYNC_FLUSH_INTERVAL, SqlAuditWriter.DEFAULT_FLUSH_INTERVAL),
+                    config.getBoolean(PROPERTY_ASYNC_BLOCK_WHEN_FULL, true));
+        }
         LOGGER.info("Sql audit service factory initialization complete.");
     }
 
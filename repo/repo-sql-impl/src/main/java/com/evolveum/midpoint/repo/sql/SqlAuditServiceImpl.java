@@ -16,14 +16,16 @@
 package com.evolveum.midpoint.repo.sql;
 
 import com.evolveum.midpoint.audit.api.*;
+import com.evolveum.midpoint.prism.ParsingContext;
 import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.marshaller.XNodeProcessorEvaluationMode;
 import com.evolveum.midpoint.repo.sql.data.audit.*;
 import com.evolveum.midpoint.repo.sql.data.common.enums.ROperationResultStatus;
 import com.evolveum.midpoint.repo.sql.data.common.other.RObjectType;
 import com.evolveum.midpoint.repo.sql.helpers.BaseHelper;
+import com.evolveum.midpoint.repo.sql.helpers.FullObjectCodec;
 import com.evolveum.midpoint.repo.sql.util.DtoTranslationException;
 import com.evolveum.midpoint.repo.sql.util.GetObjectResult;
-import com.evolveum.midpoint.repo.sql.util.RUtil;
 import com.evolveum.midpoint.repo.sql.util.TemporaryTableDialect;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.task.api.Task;
@@ -70,6 +72,12 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
     @Autowired
     private BaseHelper baseHelper;
 
+    @Autowired
+    private SqlAuditWriter auditWriter;
+
+    @Autowired
+    private FullObjectCodec fullObjectCodec;
+
     private static final Trace LOGGER = TraceManager.getTrace(SqlAuditServiceImpl.class);
     private static final Integer CLEANUP_AUDIT_BATCH_SIZE = 500;
 
@@ -85,6 +93,12 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
         Validate.notNull(record, "Audit event record must not be null.");
         Validate.notNull(task, "Task must not be null.");
 
+        if (auditWriter.isEnabled()) {
+            // the caller can modify the record after this method returns
+            auditWriter.submit(record.clone());
+            return;
+        }
+
         final String operation = "audit";
         int attempt = 1;
 
@@ -327,8 +341,7 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
 
         PrismObject result;
         if (object != null) {
-            String xml = RUtil.getXmlFromByteArray(object.getFullObject(), getConfiguration().isUseZip());
-            result = getPrismContext().parserFor(xml).compat().parse();
+            result = fullObjectCodec.decode(object.getFullObject(), ParsingContext.forMode(XNodeProcessorEvaluationMode.COMPAT));
         } else if (defaultType != null) {
             result = getPrismContext().createObject(defaultType.getJaxbClass());
             result.asObjectable().setName(PolyStringType.fromOrig(defaultName != null ? defaultName : oid));
@@ -0,0 +1,316 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.audit.api.AuditEventRecord;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.repo.sql.data.audit.RAuditEventRecord;
+import com.evolveum.midpoint.repo.sql.data.audit.RAuditItem;
+import com.evolveum.midpoint.repo.sql.data.audit.RObjectDeltaOperation;
+import com.evolveum.midpoint.repo.sql.helpers.BaseHelper;
+import com.evolveum.midpoint.repo.sql.util.DtoTranslationException;
+import com.evolveum.midpoint.util.DebugDumpable;
+import com.evolveum.midpoint.util.DebugUtil;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous writer of audit records (optional, turned on in the SQL audit service configuration).
+ *
+ * Copies of audit records are put into a bounded queue. A single writer thread takes them in batches
+ * (up to batchSize records, waiting at most flushInterval after the first one), converts them to their
+ * repository form and stores each batch in one transaction. Audit event rows (as well as property and
+ * reference values) get their IDs from the database (identity columns), so they are inserted one by one;
+ * deltas and changed items are inserted grouped by table, using JDBC batches.
+ *
+ * When the queue is full, the caller either waits until there is a free place (blockWhenFull = true),
+ * or writes the record synchronously in its own thread. Audit records are never dropped.
+ */
+@Component
+public class SqlAuditWriter implements DebugDumpable {
+
+	private static final Trace LOGGER = TraceManager.getTrace(SqlAuditWriter.class);
+
+	public static final int DEFAULT_QUEUE_SIZE = 10000;
+	public static final int DEFAULT_BATCH_SIZE = 100;
+	public static final long DEFAULT_FLUSH_INTERVAL = 1000L;
+
+	private static final long SHUTDOWN_TIMEOUT = 60000L;
+	private static final String OPERATION_AUDIT_BATCH = "auditBatch";
+
+	@Autowired private BaseHelper baseHelper;
+	@Autowired private PrismContext prismContext;
+
+	private volatile boolean enabled;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private long flushInterval = DEFAULT_FLUSH_INTERVAL;
+	private boolean blockWhenFull = true;
+
+	private BlockingQueue<AuditEventRecord> queue;
+	private Thread writerThread;
+	private volatile boolean running;
+
+	private final AtomicLong recordsWritten = new AtomicLong();
+	private final AtomicLong recordsWrittenSynchronously = new AtomicLong();
+	private final AtomicLong recordsFailed = new AtomicLong();
+	private final AtomicLong flushes = new AtomicLong();
+	private final AtomicLong totalFlushTime = new AtomicLong();
+	private final AtomicLong maxFlushTime = new AtomicLong();
+	private volatile long lastFlushTime;
+
+	/**
+	 * Turns on asynchronous writing. Should be called at most once, before the audit service is used.
+	 */
+	public synchronized void start(int queueSize, int batchSize, long flushInterval, boolean blockWhenFull) {
+		if (enabled) {
+			LOGGER.warn("Asynchronous audit writer is already running, ignoring new configuration");
+			return;
+		}
+		this.batchSize = batchSize;
+		this.flushInterval = flushInterval;
+		this.blockWhenFull = blockWhenFull;
+		this.queue = new ArrayBlockingQueue<>(queueSize);
+		this.running = true;
+
+		writerThread = new Thread(this::writeLoop, "midPoint audit writer");
+		writerThread.setDaemon(true);
+		writerThread.start();
+		enabled = true;
+
+		LOGGER.info("Asynchronous audit writer started (queue size {}, batch size {}, flush interval {} ms, block when full: {})",
+				queueSize, batchSize, flushInterval, blockWhenFull);
+	}
+
+	/**
+	 * Stops the writer thread after all queued records are written.
+	 */
+	@PreDestroy
+	public synchronized void shutdown() {
+		if (!enabled) {
+			return;
+		}
+		running = false;
+		try {
+			writerThread.join(SHUTDOWN_TIMEOUT);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (writerThread.isAlive()) {
+			LOGGER.error("Asynchronous audit writer did not finish in {} ms, {} audit records may be lost",
+					SHUTDOWN_TIMEOUT, queue.size());
+		}
+		enabled = false;
+		LOGGER.info("Asynchronous audit writer stopped: {}", getStatistics());
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @param record Record to be written. It must not be modified afterwards (i.e. the caller should pass a copy).
+	 */
+	public void submit(AuditEventRecord record) {
+		if (blockWhenFull) {
+			try {
+				queue.put(record);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				LOGGER.debug("Interrupted while waiting for free place in audit queue, writing the record directly");
+				writeSynchronously(record);
+			}
+		} else if (!queue.offer(record)) {
+			LOGGER.trace("Audit queue is full, writing the record directly");
+			writeSynchronously(record);
+		}
+	}
+
+	private void writeSynchronously(AuditEventRecord record) {
+		writeBatchWithRetries(Collections.singletonList(record));
+		recordsWrittenSynchronously.incrementAndGet();
+	}
+
+	private void writeLoop() {
+		List<AuditEventRecord> batch = new ArrayList<>(batchSize);
+		while (running || !queue.isEmpty()) {
+			try {
+				collectBatch(batch);
+			} catch (InterruptedException e) {
+				LOGGER.debug("Audit writer thread interrupted, writing the remaining records and stopping");
+				running = false;
+			}
+			if (!batch.isEmpty()) {
+				try {
+					write(batch);
+				} catch (Throwable t) {
+					LOGGER.error("Unexpected error in audit writer thread: {}", t.getMessage(), t);
+				} finally {
+					batch.clear();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Waits for the first record (at most flushInterval) and then collects other ones until the batch
+	 * is full or flushInterval since the first record elapses.
+	 */
+	private void collectBatch(List<AuditEventRecord> batch) throws InterruptedException {
+		AuditEventRecord first = queue.poll(flushInterval, TimeUnit.MILLISECONDS);
+		if (first == null) {
+			return;
+		}
+		batch.add(first);
+		long deadline = System.currentTimeMillis() + flushInterval;
+		while (batch.size() < batchSize && running) {
+			queue.drainTo(batch, batchSize - batch.size());
+			long remaining = deadline - System.currentTimeMillis();
+			if (batch.size() >= batchSize || remaining <= 0) {
+				break;
+			}
+			AuditEventRecord next = queue.poll(remaining, TimeUnit.MILLISECONDS);
+			if (next == null) {
+				break;
+			}
+			batch.add(next);
+		}
+		queue.drainTo(batch, batchSize - batch.size());
+	}
+
+	private void write(List<AuditEventRecord> batch) {
+		long start = System.currentTimeMillis();
+		try {
+			writeBatchWithRetries(batch);
+		} catch (RuntimeException e) {
+			LOGGER.warn("Couldn't write batch of {} audit records, writing them one by one: {}", batch.size(), e.getMessage(), e);
+			for (AuditEventRecord record : batch) {
+				try {
+					writeBatchWithRetries(Collections.singletonList(record));
+				} catch (RuntimeException e1) {
+					recordsFailed.incrementAndGet();
+					LOGGER.error("Couldn't write audit record {}: {}", record, e1.getMessage(), e1);
+				}
+			}
+		}
+		long duration = System.currentTimeMillis() - start;
+		flushes.incrementAndGet();
+		totalFlushTime.addAndGet(duration);
+		maxFlushTime.accumulateAndGet(duration, Math::max);
+		lastFlushTime = duration;
+		LOGGER.trace("Wrote {} audit records in {} ms, {} records waiting", batch.size(), duration, queue.size());
+	}
+
+	private void writeBatchWithRetries(List<AuditEventRecord> records) {
+		int attempt = 1;
+		while (true) {
+			try {
+				recordsWritten.addAndGet(writeBatchAttempt(records));
+				return;
+			} catch (RuntimeException ex) {
+				attempt = baseHelper.logOperationAttempt(null, OPERATION_AUDIT_BATCH, attempt, ex, null);
+			}
+		}
+	}
+
+	/**
+	 * @return number of records written
+	 */
+	private int writeBatchAttempt(List<AuditEventRecord> records) {
+		// conversion is repeated in each attempt, as hibernate sets IDs into the repository objects
+		List<RAuditEventRecord> repoRecords = new ArrayList<>(records.size());
+		for (AuditEventRecord record : records) {
+			try {
+				repoRecords.add(RAuditEventRecord.toRepo(record, prismContext, true));
+			} catch (DtoTranslationException ex) {
+				recordsFailed.incrementAndGet();
+				LOGGER.error("Couldn't convert audit record {}, skipping it: {}", record, ex.getMessage(), ex);
+			}
+		}
+
+		Session session = null;
+		try {
+			session = baseHelper.beginTransaction();
+			session.setJdbcBatchSize(batchSize);
+
+			// Event rows are inserted immediately (identity IDs). Deltas and changed items are saved afterwards,
+			// table by table, so that hibernate can put them into JDBC batches when flushing at commit.
+			List<RObjectDeltaOperation> deltas = new ArrayList<>();
+			List<RAuditItem> changedItems = new ArrayList<>();
+			for (RAuditEventRecord repoRecord : repoRecords) {
+				deltas.addAll(repoRecord.getDeltas());
+				changedItems.addAll(repoRecord.getChangedItems());
+				repoRecord.getDeltas().clear();
+				repoRecord.getChangedItems().clear();
+				session.save(repoRecord);
+			}
+			deltas.forEach(session::save);
+			changedItems.forEach(session::save);
+
+			session.getTransaction().commit();
+		} catch (RuntimeException ex) {
+			baseHelper.handleGeneralRuntimeException(ex, session, null);
+		} finally {
+			baseHelper.cleanupSessionAndResult(session, null);
+		}
+		return repoRecords.size();
+	}
+
+	public int getQueueDepth() {
+		return queue != null ? queue.size() : 0;
+	}
+
+	public String getStatistics() {
+		if (!enabled) {
+			return "disabled";
+		}
+		long flushes = this.flushes.get();
+		return String.format(Locale.US, "queue=%d/%d, written=%d (synchronously: %d), failed=%d, flushes=%d, "
+						+ "flushTime: avg=%.1f ms, max=%d ms, last=%d ms",
+				queue.size(), queue.size() + queue.remainingCapacity(), recordsWritten.get(),
+				recordsWrittenSynchronously.get(), recordsFailed.get(), flushes,
+				flushes > 0 ? (double) totalFlushTime.get() / flushes : 0.0, maxFlushTime.get(), lastFlushTime);
+	}
+
+	@Override
+	public String toString() {
+		return "SqlAuditWriter(" + getStatistics() + ")";
+	}
+
+	@Override
+	public String debugDump(int indent) {
+		StringBuilder sb = new StringBuilder();
+		DebugUtil.debugDumpLabelLn(sb, "SqlAuditWriter", indent);
+		DebugUtil.debugDumpWithLabelLn(sb, "batchSize", batchSize, indent + 1);
+		DebugUtil.debugDumpWithLabelLn(sb, "flushInterval", flushInterval, indent + 1);
+		DebugUtil.debugDumpWithLabelLn(sb, "blockWhenFull", blockWhenFull, indent + 1);
+		DebugUtil.debugDumpWithLabel(sb, "statistics", getStatistics(), indent + 1);
+		return sb.toString();
+	}
+}
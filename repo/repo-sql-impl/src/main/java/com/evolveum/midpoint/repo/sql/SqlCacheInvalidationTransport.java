@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.repo.api.CacheInvalidationEvent;
+import com.evolveum.midpoint.repo.api.CacheInvalidationTransport;
+import com.evolveum.midpoint.repo.sql.data.cluster.RCacheInvalidationEvent;
+import com.evolveum.midpoint.repo.sql.data.common.other.RObjectType;
+import com.evolveum.midpoint.repo.sql.helpers.BaseHelper;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import org.hibernate.Session;
+import org.hibernate.query.Query;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.util.*;
+
+/**
+ * Default cluster-wide cache invalidation transport. Events are written into the m_cache_invalidation
+ * table (an "outbox") and other nodes poll it from their cluster manager threads.
+ *
+ * Rows are selected by their timestamp with some overlap, so that events committed late or written by a node
+ * with slightly different clock are not missed. Already processed rows are remembered by their IDs.
+ * Old rows are deleted by the polling nodes themselves.
+ */
+@Component
+public class SqlCacheInvalidationTransport implements CacheInvalidationTransport {
+
+	private static final Trace LOGGER = TraceManager.getTrace(SqlCacheInvalidationTransport.class);
+
+	private static final String CLASS_DOT = SqlCacheInvalidationTransport.class.getName() + ".";
+	private static final String OPERATION_PUBLISH = CLASS_DOT + "publish";
+	private static final String OPERATION_FETCH = CLASS_DOT + "fetch";
+
+	private static final long FETCH_OVERLAP = 60000L;
+	private static final long RETENTION_TIME = 600000L;
+	private static final long CLEANUP_INTERVAL = 60000L;
+
+	@Autowired private BaseHelper baseHelper;
+
+	private long lastFetchTime;
+	private long lastCleanupTime;
+	// id -> timestamp of events that were already returned by fetch
+	private final Map<Long, Long> processedEvents = new HashMap<>();
+
+	@Override
+	public void publish(String nodeIdentifier, Collection<CacheInvalidationEvent> events, OperationResult parentResult) {
+		OperationResult result = parentResult.createMinorSubresult(OPERATION_PUBLISH);
+		result.addParam("events", events.size());
+		Session session = null;
+		try {
+			session = baseHelper.beginTransaction();
+			Timestamp now = new Timestamp(System.currentTimeMillis());
+			for (CacheInvalidationEvent event : events) {
+				RCacheInvalidationEvent row = new RCacheInvalidationEvent();
+				row.setNodeIdentifier(nodeIdentifier);
+				row.setObjectType(toRepoType(event.getType()));
+				row.setOid(event.getOid());
+				row.setTimestamp(now);
+				session.save(row);
+			}
+			session.getTransaction().commit();
+		} catch (RuntimeException ex) {
+			baseHelper.handleGeneralRuntimeException(ex, session, result);
+		} finally {
+			baseHelper.cleanupSessionAndResult(session, result);
+		}
+	}
+
+	@Override
+	public synchronized List<CacheInvalidationEvent> fetch(String nodeIdentifier, OperationResult parentResult) {
+		OperationResult result = parentResult.createMinorSubresult(OPERATION_FETCH);
+		long now = System.currentTimeMillis();
+		if (lastFetchTime == 0) {
+			// caches of this node were empty until now, so earlier events are not interesting
+			lastFetchTime = now;
+			lastCleanupTime = now;
+			result.recordNotApplicableIfUnknown();
+			return Collections.emptyList();
+		}
+
+		List<CacheInvalidationEvent> events = new ArrayList<>();
+		Session session = null;
+		try {
+			session = baseHelper.beginTransaction();
+			Query<RCacheInvalidationEvent> query = session.createQuery(
+					"from RCacheInvalidationEvent e where e.timestamp >= :from and e.nodeIdentifier <> :node order by e.id",
+					RCacheInvalidationEvent.class);
+			query.setParameter("from", new Timestamp(lastFetchTime - FETCH_OVERLAP));
+			query.setParameter("node", nodeIdentifier);
+			for (RCacheInvalidationEvent row : query.list()) {
+				if (processedEvents.put(row.getId(), row.getTimestamp().getTime()) == null) {
+					events.add(new CacheInvalidationEvent(fromRepoType(row.getObjectType()), row.getOid()));
+				}
+			}
+
+			if (now - lastCleanupTime > CLEANUP_INTERVAL) {
+				int deleted = session.createQuery("delete from RCacheInvalidationEvent e where e.timestamp < :to")
+						.setParameter("to", new Timestamp(now - RETENTION_TIME))
+						.executeUpdate();
+				LOGGER.trace("Deleted {} old cache invalidation event(s)", deleted);
+				lastCleanupTime = now;
+			}
+			session.getTransaction().commit();
+		} catch (RuntimeException ex) {
+			baseHelper.handleGeneralRuntimeException(ex, session, result);
+		} finally {
+			baseHelper.cleanupSessionAndResult(session, result);
+		}
+
+		lastFetchTime = now;
+		processedEvents.values().removeIf(timestamp -> timestamp < now - 2 * FETCH_OVERLAP);
+		return events;
+	}
+
+	// exists because of testing
+	synchronized void requestCleanup() {
+		lastCleanupTime = 0;
+	}
+
+	private RObjectType toRepoType(Class<? extends ObjectType> type) {
+		try {
+			return RObjectType.getByJaxbType(type);
+		} catch (IllegalArgumentException e) {
+			// not a repository type we know about; other nodes will invalidate the object regardless of its type
+			return RObjectType.OBJECT;
+		}
+	}
+
+	private Class<? extends ObjectType> fromRepoType(RObjectType type) {
+		return type != null ? type.getJaxbClass() : ObjectType.class;
+	}
+}
@@ -19,6 +19,7 @@ package com.evolveum.midpoint.repo.sql;
 import java.util.Properties;
 
 import com.evolveum.midpoint.repo.sql.data.common.dictionary.ExtItemDictionary;
+import com.evolveum.midpoint.repo.sql.query2.QueryPlanCache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -44,6 +45,11 @@ public class SqlRepositoryBeanConfig {
         return new ExtItemDictionary();
     }
 
+    @Bean
+    public QueryPlanCache queryPlanCache() {
+        return new QueryPlanCache(sqlRepositoryFactory.getSqlConfiguration().getQueryShapeCacheSize());
+    }
+
     @Bean
     public DataSourceFactory dataSourceFactory() {
         DataSourceFactory df = new DataSourceFactory();
@@ -84,6 +90,9 @@ public class SqlRepositoryBeanConfig {
         hibernateProperties.setProperty("javax.persistence.validation.mode", "none");
         hibernateProperties.setProperty("hibernate.transaction.coordinator_class", "jdbc");
         hibernateProperties.setProperty("hibernate.hql.bulk_id_strategy", "org.hibernate.hql.spi.id.inline.InlineIdsOrClauseBulkIdStrategy");
+        if (configuration.getQueryPlanCacheSize() > 0) {
+            hibernateProperties.setProperty("hibernate.query.plan_cache_max_size", String.valueOf(configuration.getQueryPlanCacheSize()));
+        }
 
         bean.setHibernateProperties(hibernateProperties);
         bean.setImplicitNamingStrategy(midPointImplicitNamingStrategy());
@@ -98,7 +107,8 @@ public class SqlRepositoryBeanConfig {
                 "com.evolveum.midpoint.repo.sql.data.common.id",
                 "com.evolveum.midpoint.repo.sql.data.common.other",
                 "com.evolveum.midpoint.repo.sql.data.common.type",
-                "com.evolveum.midpoint.repo.sql.data.audit");
+                "com.evolveum.midpoint.repo.sql.data.audit",
+                "com.evolveum.midpoint.repo.sql.data.cluster");
         bean.setEntityInterceptor(entityStateInterceptor());
 
         return bean;
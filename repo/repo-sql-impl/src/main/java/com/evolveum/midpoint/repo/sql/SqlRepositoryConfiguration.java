@@ -157,6 +157,11 @@ public class SqlRepositoryConfiguration {
     public static final String PROPERTY_JDBC_URL = "jdbcUrl";
     public static final String PROPERTY_DATASOURCE = "dataSource";
     public static final String PROPERTY_USE_ZIP = "useZip";
+    public static final String PROPERTY_FULL_OBJECT_FORMAT = "fullObjectFormat";
+    public static final String PROPERTY_FULL_OBJECT_MIGRATION = "fullObjectMigration";
+    public static final String PROPERTY_FULL_OBJECT_MIGRATION_BATCH_SIZE = "fullObjectMigrationBatchSize";
+    public static final String PROPERTY_FULL_OBJECT_MIGRATION_PAUSE = "fullObjectMigrationPause";
+    public static final String PROPERTY_FULL_OBJECT_PATCHING = "fullObjectPatching";
     public static final String PROPERTY_MIN_POOL_SIZE = "minPoolSize";
     public static final String PROPERTY_MAX_POOL_SIZE = "maxPoolSize";
 
@@ -171,6 +176,8 @@ public class SqlRepositoryConfiguration {
     //other
     public static final String PROPERTY_ITERATIVE_SEARCH_BY_PAGING = "iterativeSearchByPaging";
     public static final String PROPERTY_ITERATIVE_SEARCH_BY_PAGING_BATCH_SIZE = "iterativeSearchByPagingBatchSize";
+    public static final String PROPERTY_QUERY_PLAN_CACHE_SIZE = "queryPlanCacheSize";
+    public static final String PROPERTY_QUERY_SHAPE_CACHE_SIZE = "queryShapeCacheSize";
 
     //closure
     public static final String PROPERTY_IGNORE_ORG_CLOSURE = "ignoreOrgClosure";
@@ -215,6 +222,11 @@ public class SqlRepositoryConfiguration {
     private final int minPoolSize;
     private final int maxPoolSize;
     private final boolean useZip;
+    private FullObjectFormat fullObjectFormat;                  // not final only because of testing
+    private final boolean fullObjectMigration;
+    private final int fullObjectMigrationBatchSize;
+    private final long fullObjectMigrationPause;
+    private boolean fullObjectPatching;                         // not final only because of testing
 
     private TransactionIsolation defaultTransactionIsolation;
     private boolean defaultLockForUpdateViaHibernate;
@@ -235,6 +247,9 @@ public class SqlRepositoryConfiguration {
     private final boolean iterativeSearchByPaging;
     private int iterativeSearchByPagingBatchSize;               // not final only because of testing
 
+    private final int queryPlanCacheSize;                       // 0 = hibernate default
+    private final int queryShapeCacheSize;                      // 0 = HQL is not cached
+
     private final boolean ignoreOrgClosure;
     private final OrgClosureManager.StartupAction orgClosureStartupAction;
     private final boolean skipOrgClosureStructureCheck;
@@ -300,6 +315,15 @@ public class SqlRepositoryConfiguration {
         minPoolSize = configuration.getInt(PROPERTY_MIN_POOL_SIZE, DEFAULT_MIN_POOL_SIZE);
         maxPoolSize = configuration.getInt(PROPERTY_MAX_POOL_SIZE, DEFAULT_MAX_POOL_SIZE);
         useZip = configuration.getBoolean(PROPERTY_USE_ZIP, false);
+        fullObjectFormat = FullObjectFormat.fromValue(
+                configuration.getString(PROPERTY_FULL_OBJECT_FORMAT, FullObjectFormat.XML.value()));
+        fullObjectMigration = configuration.getBoolean(PROPERTY_FULL_OBJECT_MIGRATION, false);
+        fullObjectMigrationBatchSize = configuration.getInt(PROPERTY_FULL_OBJECT_MIGRATION_BATCH_SIZE,
+                FullObjectMigrator.DEFAULT_BATCH_SIZE);
+        fullObjectMigrationPause = configuration.getLong(PROPERTY_FULL_OBJECT_MIGRATION_PAUSE,
+                FullObjectMigrator.DEFAULT_PAUSE);
+        // off by default until verified by FullObjectPatchingTest and measured by the performance tests
+        fullObjectPatching = configuration.getBoolean(PROPERTY_FULL_OBJECT_PATCHING, false);
 
         // requires asServer, baseDir, fileName, port
 	    jdbcUrl = configuration.getString(PROPERTY_JDBC_URL, embedded ? getDefaultEmbeddedJdbcUrl() : null);
@@ -319,6 +343,8 @@ public class SqlRepositoryConfiguration {
         computeDefaultIterativeSearchParameters();
         iterativeSearchByPaging = configuration.getBoolean(PROPERTY_ITERATIVE_SEARCH_BY_PAGING, defaultIterativeSearchByPaging);
         iterativeSearchByPagingBatchSize = configuration.getInt(PROPERTY_ITERATIVE_SEARCH_BY_PAGING_BATCH_SIZE, defaultIterativeSearchByPagingBatchSize);
+        queryPlanCacheSize = configuration.getInt(PROPERTY_QUERY_PLAN_CACHE_SIZE, 0);
+        queryShapeCacheSize = configuration.getInt(PROPERTY_QUERY_SHAPE_CACHE_SIZE, 1000);
 
         ignoreOrgClosure = configuration.getBoolean(PROPERTY_IGNORE_ORG_CLOSURE, false);
         orgClosureStartupAction = OrgClosureManager.StartupAction.fromValue(
@@ -517,6 +543,10 @@ public class SqlRepositoryConfiguration {
         if (minPoolSize > maxPoolSize) {
             throw new RepositoryServiceFactoryException("Max. pool size must be greater than min. pool size.");
         }
+
+        if (fullObjectMigrationBatchSize <= 0) {
+            throw new RepositoryServiceFactoryException("Full object migration batch size must be greater than zero.");
+        }
     }
 
     @SuppressWarnings("SameParameterValue")
@@ -664,6 +694,14 @@ public class SqlRepositoryConfiguration {
         this.iterativeSearchByPagingBatchSize = iterativeSearchByPagingBatchSize;
     }
 
+    public int getQueryPlanCacheSize() {
+        return queryPlanCacheSize;
+    }
+
+    public int getQueryShapeCacheSize() {
+        return queryShapeCacheSize;
+    }
+
     public String getDataSource() {
         return dataSource;
     }
@@ -680,6 +718,34 @@ public class SqlRepositoryConfiguration {
         return useZip;
     }
 
+    public FullObjectFormat getFullObjectFormat() {
+        return fullObjectFormat;
+    }
+
+    public void setFullObjectFormat(FullObjectFormat fullObjectFormat) {
+        this.fullObjectFormat = fullObjectFormat;
+    }
+
+    public boolean isFullObjectMigration() {
+        return fullObjectMigration;
+    }
+
+    public int getFullObjectMigrationBatchSize() {
+        return fullObjectMigrationBatchSize;
+    }
+
+    public long getFullObjectMigrationPause() {
+        return fullObjectMigrationPause;
+    }
+
+    public boolean isFullObjectPatching() {
+        return fullObjectPatching;
+    }
+
+    public void setFullObjectPatching(boolean fullObjectPatching) {
+        this.fullObjectPatching = fullObjectPatching;
+    }
+
     public boolean isIgnoreOrgClosure() {
         return ignoreOrgClosure;
     }
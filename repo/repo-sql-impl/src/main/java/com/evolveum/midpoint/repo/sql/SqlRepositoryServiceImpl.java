@@ -41,6 +41,7 @@ import com.evolveum.midpoint.prism.query.QueryJaxbConvertor;
 import com.evolveum.midpoint.repo.api.*;
 import com.evolveum.midpoint.repo.api.query.ObjectFilterExpressionEvaluator;
 import com.evolveum.midpoint.repo.sql.helpers.*;
+import com.evolveum.midpoint.repo.sql.query2.QueryPlanCache;
 import com.evolveum.midpoint.repo.sql.query2.matcher.DefaultMatcher;
 import com.evolveum.midpoint.repo.sql.query2.matcher.PolyStringMatcher;
 import com.evolveum.midpoint.repo.sql.query2.matcher.StringMatcher;
@@ -89,6 +90,7 @@ import java.util.*;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
+import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.namespace.QName;
 
 import static org.apache.commons.collections4.CollectionUtils.emptyIfNull;
@@ -119,6 +121,9 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
     private static final String DETAILS_DATA_SOURCE = "dataSource";
     private static final String DETAILS_HIBERNATE_DIALECT = "hibernateDialect";
     private static final String DETAILS_HIBERNATE_HBM_2_DDL = "hibernateHbm2ddl";
+    private static final String DETAILS_AUDIT_WRITER = "auditWriter";
+    private static final String DETAILS_FULL_OBJECT_MIGRATOR = "fullObjectMigrator";
+    private static final String DETAILS_QUERY_PLAN_CACHE = "queryPlanCache";
 
     @Autowired private SequenceHelper sequenceHelper;
     @Autowired private ObjectRetriever objectRetriever;
@@ -128,6 +133,9 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
     @Autowired private MatchingRuleRegistry matchingRuleRegistry;
     @Autowired private MidpointConfiguration midpointConfiguration;
     @Autowired private PrismContext prismContext;
+    @Autowired private SqlAuditWriter auditWriter;
+    @Autowired private FullObjectMigrator fullObjectMigrator;
+    @Autowired private QueryPlanCache queryPlanCache;
 
     private final ThreadLocal<List<ConflictWatcherImpl>> conflictWatchersThreadLocal = new ThreadLocal<>();
 
@@ -656,6 +664,9 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         details.add(new LabeledString(DETAILS_DATA_SOURCE, config.getDataSource()));
         details.add(new LabeledString(DETAILS_HIBERNATE_DIALECT, config.getHibernateDialect()));
         details.add(new LabeledString(DETAILS_HIBERNATE_HBM_2_DDL, config.getHibernateHbm2ddl()));
+        details.add(new LabeledString(DETAILS_AUDIT_WRITER, auditWriter.getStatistics()));
+        details.add(new LabeledString(DETAILS_FULL_OBJECT_MIGRATOR, fullObjectMigrator.getStatistics()));
+        details.add(new LabeledString(DETAILS_QUERY_PLAN_CACHE, queryPlanCache.getStatistics()));
 
         readDetailsFromConnection(diag, config);
 
@@ -916,6 +927,31 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
     }
 
 
+    @NotNull
+    @Override
+    public List<ScheduledTrigger> searchTriggers(XMLGregorianCalendar from, @NotNull XMLGregorianCalendar to,
+            ScheduledTrigger after, int maxSize, OperationResult parentResult) {
+        Validate.notNull(to, "Upper bound of trigger timestamps must not be null.");
+        Validate.isTrue(maxSize > 0, "Maximal number of triggers must be positive.");
+        Validate.notNull(parentResult, "Operation result must not be null.");
+
+        LOGGER.debug("Searching triggers from {} to {} after {} (max {}).", from, to, after, maxSize);
+
+        OperationResult result = parentResult.createMinorSubresult(SEARCH_TRIGGERS);
+        result.addArbitraryObjectAsParam("from", from);
+        result.addArbitraryObjectAsParam("to", to);
+        result.addArbitraryObjectAsParam("after", after);
+        result.addParam("maxSize", maxSize);
+
+        try {
+            return executeAttempts(null, "searchTriggers", "searching triggers",
+                    result, () -> objectRetriever.searchTriggersAttempt(from, to, after, maxSize, result)
+            );
+        } catch (ObjectNotFoundException|SchemaException e) {
+            throw new AssertionError("Should not occur; no such exceptions are thrown by searchTriggersAttempt.", e);
+        }
+    }
+
 	@Override
 	public long advanceSequence(String oid, OperationResult parentResult) throws ObjectNotFoundException,
 			SchemaException {
@@ -1128,6 +1164,11 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
 	@Override
 	public void postInit(OperationResult result) throws SchemaException {
 
+		SqlRepositoryConfiguration config = getConfiguration();
+		if (config.isFullObjectMigration()) {
+			fullObjectMigrator.start(config.getFullObjectMigrationBatchSize(), config.getFullObjectMigrationPause());
+		}
+
 		SystemConfigurationType systemConfiguration;
 		try {
 			systemConfiguration = getObject(SystemConfigurationType.class,
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.data.cluster;
+
+import com.evolveum.midpoint.repo.sql.data.common.other.RObjectType;
+import com.evolveum.midpoint.repo.sql.helpers.modify.Ignore;
+import com.evolveum.midpoint.repo.sql.util.RUtil;
+
+import javax.persistence.*;
+import java.sql.Timestamp;
+
+/**
+ * Cache invalidation event waiting in the outbox table to be picked up by other cluster nodes.
+ */
+@Ignore
+@Entity
+@Table(name = RCacheInvalidationEvent.TABLE_NAME, indexes = {
+		@Index(name = "iCacheInvalidationTimestamp", columnList = RCacheInvalidationEvent.COLUMN_TIMESTAMP)})
+public class RCacheInvalidationEvent {
+
+	public static final String TABLE_NAME = "m_cache_invalidation";
+	public static final String COLUMN_TIMESTAMP = "timestampValue";
+
+	private long id;
+	private String nodeIdentifier;
+	private RObjectType objectType;
+	private String oid;
+	private Timestamp timestamp;
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	public long getId() {
+		return id;
+	}
+
+	public String getNodeIdentifier() {
+		return nodeIdentifier;
+	}
+
+	@Enumerated(EnumType.ORDINAL)
+	public RObjectType getObjectType() {
+		return objectType;
+	}
+
+	@Column(length = RUtil.COLUMN_LENGTH_OID)
+	public String getOid() {
+		return oid;
+	}
+
+	@Column(name = COLUMN_TIMESTAMP)
+	public Timestamp getTimestamp() {
+		return timestamp;
+	}
+
+	public void setId(long id) {
+		this.id = id;
+	}
+
+	public void setNodeIdentifier(String nodeIdentifier) {
+		this.nodeIdentifier = nodeIdentifier;
+	}
+
+	public void setObjectType(RObjectType objectType) {
+		this.objectType = objectType;
+	}
+
+	public void setOid(String oid) {
+		this.oid = oid;
+	}
+
+	public void setTimestamp(Timestamp timestamp) {
+		this.timestamp = timestamp;
+	}
+
+	@Override
+	public String toString() {
+		return "RCacheInvalidationEvent{id=" + id + ", node=" + nodeIdentifier + ", type=" + objectType
+				+ ", oid=" + oid + ", timestamp=" + timestamp + "}";
+	}
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.repo.sql.helpers;
+
+import com.evolveum.midpoint.prism.ParsingContext;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.lex.binary.BinaryLexicalProcessor;
+import com.evolveum.midpoint.prism.xnode.RootXNode;
+import com.evolveum.midpoint.repo.sql.FullObjectFormat;
+import com.evolveum.midpoint.repo.sql.SqlRepositoryConfiguration;
+import com.evolveum.midpoint.repo.sql.util.RUtil;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Arrays;
+
+/**
+ * Writes and reads the full object column (m_object.fullObject) in the configured format.
+ *
+ * Binary format is: marker byte (BINARY_MARKER), uncompressed length (4 bytes, big endian), and LZ4 block
+ * containing the object encoded by BinaryLexicalProcessor. Other data are treated as (optionally gzipped) XML,
+ * as written by previous versions. Gzip data start with 0x1f and XML with '<' (or whitespace or BOM),
+ * so the formats can be distinguished by the first byte.
+ */
+@Component
+public class FullObjectCodec {
+
+    public static final byte BINARY_MARKER = 0x02;
+    private static final int BINARY_HEADER_LENGTH = 5;
+
+    @Autowired private PrismContext prismContext;
+    @Autowired private BaseHelper baseHelper;
+
+    private BinaryLexicalProcessor binaryProcessor;
+    private LZ4Compressor compressor;
+    private LZ4SafeDecompressor decompressor;
+
+    @PostConstruct
+    public void init() {
+        binaryProcessor = new BinaryLexicalProcessor(prismContext.getSchemaRegistry());
+        LZ4Factory lz4Factory = LZ4Factory.fastestInstance();
+        compressor = lz4Factory.fastCompressor();
+        decompressor = lz4Factory.safeDecompressor();
+    }
+
+    public static boolean isBinary(byte[] fullObject) {
+        return fullObject != null && fullObject.length > 0 && fullObject[0] == BINARY_MARKER;
+    }
+
+    public boolean isInConfiguredFormat(byte[] fullObject) {
+        return isBinary(fullObject) == (getConfiguration().getFullObjectFormat() == FullObjectFormat.BINARY);
+    }
+
+    public <T extends ObjectType> byte[] encode(PrismObject<T> object) throws SchemaException {
+        if (getConfiguration().getFullObjectFormat() == FullObjectFormat.BINARY) {
+            return compress(binaryProcessor.write(prismContext.xnodeSerializer().serialize(object), null));
+        } else {
+            return RUtil.getByteArrayFromXml(prismContext.xmlSerializer().serialize(object), getConfiguration().isUseZip());
+        }
+    }
+
+    public <T extends ObjectType> PrismObject<T> decode(byte[] fullObject, ParsingContext parsingContext)
+            throws SchemaException {
+        if (isBinary(fullObject)) {
+            return prismContext.parserFor(binaryProcessor.read(decompress(fullObject))).context(parsingContext).parse();
+        } else {
+            String xml = RUtil.getXmlFromByteArray(fullObject, getConfiguration().isUseZip());
+            return prismContext.parserFor(xml).context(parsingContext).parse();
+        }
+    }
+
+    /**
+     * Encodes the object given as XNode tree. Used when the stored object is changed without parsing it
+     * (see FullObjectPatcher).
+     */
+    public byte[] encode(RootXNode object) throws SchemaException {
+        if (getConfiguration().getFullObjectFormat() == FullObjectFormat.BINARY) {
+            return compress(binaryProcessor.write(object, null));
+        } else {
+            return RUtil.getByteArrayFromXml(prismContext.xmlSerializer().serialize(object), getConfiguration().isUseZip());
+        }
+    }
+
+    /**
+     * Reads the stored object only to the XNode level, i.e. without parsing it using the schema.
+     */
+    public RootXNode decodeToXNode(byte[] fullObject) throws SchemaException {
+        if (isBinary(fullObject)) {
+            return binaryProcessor.read(decompress(fullObject));
+        } else {
+            return prismContext.parserFor(RUtil.getXmlFromByteArray(fullObject, getConfiguration().isUseZip())).parseToXNode();
+        }
+    }
+
+    /**
+     * Creates a copy of the object by serializing and parsing it in the configured format (without compression),
+     * so the copy contains exactly what will be read back from the repository.
+     */
+    public <T extends ObjectType> PrismObject<T> reparse(PrismObject<T> object) throws SchemaException {
+        if (getConfiguration().getFullObjectFormat() == FullObjectFormat.BINARY) {
+            RootXNode xnode = binaryProcessor.read(binaryProcessor.write(prismContext.xnodeSerializer().serialize(object), null));
+            return prismContext.parserFor(xnode).parse();
+        } else {
+            return prismContext.parseObject(prismContext.xmlSerializer().serialize(object));
+        }
+    }
+
+    /**
+     * Converts full object data to the configured format. The conversion is done at the XNode level, so no information
+     * is lost (even if the object does not conform to the current schema).
+     *
+     * @return converted data; or the original data if they are already in the configured format
+     */
+    public byte[] convertToConfiguredFormat(byte[] fullObject) throws SchemaException {
+        if (fullObject == null || isInConfiguredFormat(fullObject)) {
+            return fullObject;
+        }
+        return encode(decodeToXNode(fullObject));
+    }
+
+    /**
+     * Returns human-readable (XML) form of the data, to be used in error messages.
+     */
+    public String toDiagnosticString(byte[] fullObject) {
+        if (!isBinary(fullObject)) {
+            return RUtil.getXmlFromByteArray(fullObject, getConfiguration().isUseZip());
+        }
+        try {
+            return prismContext.xmlSerializer().serialize(binaryProcessor.read(decompress(fullObject)));
+        } catch (SchemaException | RuntimeException e) {
+            return "(binary data of " + fullObject.length + " bytes that couldn't be converted to XML: " + e.getMessage() + ")";
+        }
+    }
+
+    private byte[] compress(byte[] data) {
+        int maxLength = compressor.maxCompressedLength(data.length);
+        byte[] compressed = new byte[BINARY_HEADER_LENGTH + maxLength];
+        compressed[0] = BINARY_MARKER;
+        compressed[1] = (byte) (data.length >>> 24);
+        compressed[2] = (byte) (data.length >>> 16);
+        compressed[3] = (byte) (data.length >>> 8);
+        compressed[4] = (byte) data.length;
+        int length = compressor.compress(data, 0, data.length, compressed, BINARY_HEADER_LENGTH, maxLength);
+        return Arrays.copyOf(compressed, BINARY_HEADER_LENGTH + length);
+    }
+
+    private byte[] decompress(byte[] fullObject) throws SchemaException {
+        if (fullObject.length < BINARY_HEADER_LENGTH) {
+            throw new SchemaException("Binary full object is too short: " + fullObject.length + " bytes");
+        }
+        int length = (fullObject[1] & 0xFF) << 24 | (fullObject[2] & 0xFF) << 16 | (fullObject[3] & 0xFF) << 8
+                | (fullObject[4] & 0xFF);
+        byte[] data = new byte[length];
+        try {
+            int decompressed = decompressor.decompress(fullObject, BINARY_HEADER_LENGTH,
+                    fullObject.length - BINARY_HEADER_LENGTH, data, 0, length);
+            if (decompressed != length) {
+                throw new SchemaException("Binary full object is corrupted: expected " + length + " bytes, got " + decompressed);
+            }
+        } catch (LZ4Exception e) {
+            throw new SchemaException("Binary full object is corrupted: " + e.getMessage(), e);
+        }
+        return data;
+    }
+
+    private SqlRepositoryConfiguration getConfiguration() {
+        return baseHelper.getConfiguration();
+    }
+}
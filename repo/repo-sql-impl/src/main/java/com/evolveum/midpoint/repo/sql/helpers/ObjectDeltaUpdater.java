@@ -88,6 +88,19 @@ public class ObjectDeltaUpdater {
      */
     public <T extends ObjectType> RObject<T> modifyObject(Class<T> type, String oid, Collection<? extends ItemDelta> modifications,
                                                           PrismObject<T> prismObject, Session session) throws SchemaException {
+        PrismIdentifierGenerator<T> idGenerator = new PrismIdentifierGenerator<>(PrismIdentifierGenerator.Operation.MODIFY);
+        idGenerator.collectUsedIds(prismObject);
+        return modifyObject(type, oid, modifications, prismObject, idGenerator, session);
+    }
+
+    /**
+     * The same as above, only with ID generator provided by the caller. Used when prismObject contains
+     * only a part of the object (see FullObjectPatcher), so container IDs used in the rest of the object
+     * have to be collected elsewhere.
+     */
+    public <T extends ObjectType> RObject<T> modifyObject(Class<T> type, String oid, Collection<? extends ItemDelta> modifications,
+                                                          PrismObject<T> prismObject, PrismIdentifierGenerator<T> idGenerator,
+                                                          Session session) throws SchemaException {
 
         LOGGER.trace("Starting to build entity changes for {}, {}, \n{}", type, oid, DebugUtil.debugDumpLazily(modifications));
 
@@ -106,9 +119,6 @@ public class ObjectDeltaUpdater {
 
         // validate metadata/*, assignment/metadata/*, assignment/construction/resourceRef changes
 
-        PrismIdentifierGenerator<T> idGenerator = new PrismIdentifierGenerator<>(PrismIdentifierGenerator.Operation.MODIFY);
-        idGenerator.collectUsedIds(prismObject);
-
         // preprocess modifications
         Collection<? extends ItemDelta> processedModifications = prismObject.narrowModifications((Collection<? extends ItemDelta<?, ?>>) modifications);
         if (LOGGER.isTraceEnabled()) {
@@ -335,7 +345,7 @@ public class ObjectDeltaUpdater {
         // full object column will be updated later
     }
 
-    private <T extends ObjectType> boolean isObjectTextInfoRecomputationNeeded(Class<T> type, Collection<? extends ItemDelta> modifications) {
+    public <T extends ObjectType> boolean isObjectTextInfoRecomputationNeeded(Class<T> type, Collection<? extends ItemDelta> modifications) {
         FullTextSearchConfigurationType config = repositoryService.getFullTextSearchConfiguration();
         if (!FullTextSearchConfigurationUtil.isEnabled(config)) {
             return false;
@@ -21,8 +21,10 @@ import com.evolveum.midpoint.prism.*;
 import com.evolveum.midpoint.prism.marshaller.XNodeProcessorEvaluationMode;
 import com.evolveum.midpoint.prism.query.ObjectPaging;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.xnode.RootXNode;
 import com.evolveum.midpoint.repo.api.RepositoryObjectDiagnosticData;
 import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.repo.api.ScheduledTrigger;
 import com.evolveum.midpoint.repo.sql.ObjectPagingAfterOid;
 import com.evolveum.midpoint.repo.sql.SqlRepositoryConfiguration;
 import com.evolveum.midpoint.repo.sql.SqlRepositoryServiceImpl;
@@ -36,6 +38,7 @@ import com.evolveum.midpoint.repo.sql.data.common.type.RObjectExtensionType;
 import com.evolveum.midpoint.repo.sql.query.QueryException;
 import com.evolveum.midpoint.repo.sql.query.RQuery;
 import com.evolveum.midpoint.repo.sql.query2.QueryEngine2;
+import com.evolveum.midpoint.repo.sql.query2.QueryPlanCache;
 import com.evolveum.midpoint.repo.sql.query2.RQueryImpl;
 import com.evolveum.midpoint.repo.sql.query2.hqm.QueryParameterValue;
 import com.evolveum.midpoint.repo.sql.util.*;
@@ -62,6 +65,7 @@ import org.springframework.stereotype.Component;
 
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
+import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.namespace.QName;
 import java.util.*;
 
@@ -85,7 +89,9 @@ public class ObjectRetriever {
 	@Autowired private BaseHelper baseHelper;
 	@Autowired private NameResolutionHelper nameResolutionHelper;
 	@Autowired private PrismContext prismContext;
+	@Autowired private FullObjectCodec fullObjectCodec;
 	@Autowired private ExtItemDictionary extItemDictionary;
+	@Autowired private QueryPlanCache queryPlanCache;
 	@Autowired
 	@Qualifier("repositoryService")
 	private RepositoryService repositoryService;
@@ -129,6 +135,43 @@ public class ObjectRetriever {
 			boolean lockForUpdate, OperationResult operationResult)
             throws ObjectNotFoundException, SchemaException, DtoTranslationException {
 
+		GetObjectResult fullObject = loadObjectInternal(session, type, oid, lockForUpdate);
+
+		LOGGER.trace("Transforming data to JAXB type.");
+		PrismObject<T> prismObject = updateLoadedObject(fullObject, type, oid, options, null, session, operationResult);
+		validateObjectType(prismObject, type);
+
+		// this was implemented to allow report parsing errors as warnings to upper layers;
+		// however, it causes problems when serialization problems are encountered: in such cases, we put
+		// FATAL_ERROR to the result here, and it should be then removed or muted (which is a complication)
+		// -- so, as the parsing errors are not implemented, we disabled this code as well
+
+		//			subResult.computeStatusIfUnknown();
+		//			if (subResult.isWarning() || subResult.isError() || subResult.isInProgress()) {
+		//				prismObject.asObjectable().setFetchResult(subResult.createOperationResultType());
+		//			}
+
+		return prismObject;
+    }
+
+	/**
+	 * Reads the stored object (locked for update) only to the XNode level, to be changed by FullObjectPatcher.
+	 */
+	public <T extends ObjectType> RootXNode getObjectXNodeForUpdateInternal(Session session, Class<T> type, String oid)
+			throws ObjectNotFoundException, SchemaException {
+		byte[] fullObject = loadObjectInternal(session, type, oid, true).getFullObject();
+		try {
+			return fullObjectCodec.decodeToXNode(fullObject);
+		} catch (SchemaException | RuntimeException e) {
+			LOGGER.error("Couldn't read object {} {}: {}: {}\n{}", type.getSimpleName(), oid, e.getClass().getName(),
+					e.getMessage(), fullObjectCodec.toDiagnosticString(fullObject), e);
+			throw e;
+		}
+	}
+
+	private <T extends ObjectType> GetObjectResult loadObjectInternal(Session session, Class<T> type, String oid,
+			boolean lockForUpdate) throws ObjectNotFoundException {
+
 		boolean lockedForUpdateViaHibernate = false;
 		boolean lockedForUpdateViaSql = false;
 
@@ -145,7 +188,7 @@ public class ObjectRetriever {
 				q.setParameter(1, oid);
 				Object result = q.uniqueResult();
 				if (result == null) {
-					return throwObjectNotFoundException(type, oid);
+					throwObjectNotFoundException(type, oid);
 				}
 				if (LOGGER.isTraceEnabled()) {
 					LOGGER.trace("Locked via SQL (in {} ms)", System.currentTimeMillis() - time);
@@ -199,23 +242,8 @@ public class ObjectRetriever {
 		if (fullObject == null) {
 			throwObjectNotFoundException(type, oid);
 		}
-
-		LOGGER.trace("Transforming data to JAXB type.");
-		PrismObject<T> prismObject = updateLoadedObject(fullObject, type, oid, options, null, session, operationResult);
-		validateObjectType(prismObject, type);
-
-		// this was implemented to allow report parsing errors as warnings to upper layers;
-		// however, it causes problems when serialization problems are encountered: in such cases, we put
-		// FATAL_ERROR to the result here, and it should be then removed or muted (which is a complication)
-		// -- so, as the parsing errors are not implemented, we disabled this code as well
-
-		//			subResult.computeStatusIfUnknown();
-		//			if (subResult.isWarning() || subResult.isError() || subResult.isInProgress()) {
-		//				prismObject.asObjectable().setFetchResult(subResult.createOperationResultType());
-		//			}
-
-		return prismObject;
-    }
+		return fullObject;
+	}
 
     protected SqlRepositoryConfiguration getConfiguration() {
         return baseHelper.getConfiguration();
@@ -320,7 +348,7 @@ public class ObjectRetriever {
                 longCount = (Number) sqlQuery.uniqueResult();
             } else {
                 RQuery rQuery;
-				QueryEngine2 engine = new QueryEngine2(getConfiguration(), extItemDictionary, prismContext);
+				QueryEngine2 engine = new QueryEngine2(getConfiguration(), extItemDictionary, prismContext, queryPlanCache);
 				rQuery = engine.interpret(query, type, options, true, session);
 
                 longCount = (Number) rQuery.uniqueResult();
@@ -352,7 +380,7 @@ public class ObjectRetriever {
 		try {
 			session = baseHelper.beginReadOnlyTransaction();
 
-			QueryEngine2 engine = new QueryEngine2(getConfiguration(), extItemDictionary, prismContext);
+			QueryEngine2 engine = new QueryEngine2(getConfiguration(), extItemDictionary, prismContext, queryPlanCache);
 			RQuery rQuery = engine.interpret(query, type, options, true, session);
 			Number longCount = (Number) rQuery.uniqueResult();
 			LOGGER.trace("Found {} objects.", longCount);
@@ -376,7 +404,7 @@ public class ObjectRetriever {
             session = baseHelper.beginReadOnlyTransaction();
             RQuery rQuery;
 
-			QueryEngine2 engine = new QueryEngine2(getConfiguration(), extItemDictionary, prismContext);
+			QueryEngine2 engine = new QueryEngine2(getConfiguration(), extItemDictionary, prismContext, queryPlanCache);
 			rQuery = engine.interpret(query, type, options, false, session);
 
 			@SuppressWarnings({"unchecked", "raw"})
@@ -440,7 +468,7 @@ public class ObjectRetriever {
         try {
             session = baseHelper.beginReadOnlyTransaction();
 
-            QueryEngine2 engine = new QueryEngine2(getConfiguration(), extItemDictionary, prismContext);
+            QueryEngine2 engine = new QueryEngine2(getConfiguration(), extItemDictionary, prismContext, queryPlanCache);
             RQuery rQuery = engine.interpret(query, type, options, false, session);
 
             if (cases) {
@@ -505,12 +533,11 @@ public class ObjectRetriever {
 			Session session, OperationResult operationResult) throws SchemaException {
 
 		byte[] fullObject = result.getFullObject();
-		String xml = RUtil.getXmlFromByteArray(fullObject, getConfiguration().isUseZip());
         PrismObject<T> prismObject;
         try {
             // "Postel mode": be tolerant what you read. We need this to tolerate (custom) schema changes
 			ParsingContext parsingContext = ParsingContext.forMode(XNodeProcessorEvaluationMode.COMPAT);
-            prismObject = prismContext.parserFor(xml).context(parsingContext).parse();
+            prismObject = fullObjectCodec.decode(fullObject, parsingContext);
 			if (parsingContext.hasWarnings()) {
 				LOGGER.warn("Object {} parsed with {} warnings", ObjectTypeUtil.toShortString(prismObject), parsingContext.getWarnings().size());
 				// TODO enable if needed
@@ -522,7 +549,8 @@ public class ObjectRetriever {
         	// This is a serious thing. We have corrupted XML in the repo. This may happen even
         	// during system init. We want really loud and detailed error here.
             LOGGER.error("Couldn't parse object {} {}: {}: {}\n{}",
-            		type.getSimpleName(), oid, e.getClass().getName(), e.getMessage(), xml, e);
+            		type.getSimpleName(), oid, e.getClass().getName(), e.getMessage(),
+		            fullObjectCodec.toDiagnosticString(fullObject), e);
             throw e;
         }
         attachDiagDataIfRequested(prismObject, fullObject, options);
@@ -739,7 +767,7 @@ public class ObjectRetriever {
         try {
             session = baseHelper.beginReadOnlyTransaction();
             RQuery rQuery;
-			QueryEngine2 engine = new QueryEngine2(getConfiguration(), extItemDictionary, prismContext);
+			QueryEngine2 engine = new QueryEngine2(getConfiguration(), extItemDictionary, prismContext, queryPlanCache);
 			rQuery = engine.interpret(query, type, options, false, session);
 
             ScrollableResults results = rQuery.scroll(ScrollMode.FORWARD_ONLY);
@@ -926,6 +954,54 @@ main:       for (;;) {
         throw new SystemException("isAnySubordinateAttempt failed somehow, this really should not happen.");
     }
 
+    public List<ScheduledTrigger> searchTriggersAttempt(XMLGregorianCalendar from, XMLGregorianCalendar to,
+            ScheduledTrigger after, int maxSize, OperationResult result) {
+        LOGGER_PERFORMANCE.debug("> search triggers from {} to {} after {}, max {}", from, to, after, maxSize);
+
+        List<ScheduledTrigger> triggers = new ArrayList<>();
+        Session session = null;
+        try {
+            session = baseHelper.beginReadOnlyTransaction();
+
+            // the order corresponds to iTriggerTimestamp index; owner oid and id make the paging stable
+            StringBuilder hql = new StringBuilder(
+                    "select t.ownerOid, t.id, t.handlerUri, t.timestamp from RTrigger t where t.timestamp <= :to");
+            if (from != null) {
+                hql.append(" and t.timestamp > :from");
+            }
+            if (after != null) {
+                hql.append(" and (t.timestamp > :afterTimestamp or (t.timestamp = :afterTimestamp and")
+                        .append(" (t.ownerOid > :afterOid or (t.ownerOid = :afterOid and t.id > :afterId))))");
+            }
+            hql.append(" order by t.timestamp, t.ownerOid, t.id");
+
+            Query query = session.createQuery(hql.toString());
+            query.setParameter("to", to);
+            if (from != null) {
+                query.setParameter("from", from);
+            }
+            if (after != null) {
+                query.setParameter("afterTimestamp", after.getTimestamp());
+                query.setParameter("afterOid", after.getOwnerOid());
+                query.setParameter("afterId", RUtil.toInteger(after.getId()));
+            }
+            query.setMaxResults(maxSize);
+
+            List<Object[]> rows = query.list();
+            for (Object[] row : rows) {
+                triggers.add(new ScheduledTrigger((String) row[0], RUtil.toLong((Integer) row[1]), (String) row[2],
+                        (XMLGregorianCalendar) row[3]));
+            }
+            session.getTransaction().commit();
+        } catch (RuntimeException ex) {
+            baseHelper.handleGeneralException(ex, session, result);
+        } finally {
+            baseHelper.cleanupSessionAndResult(session, result);
+        }
+
+        return triggers;
+    }
+
     public RepositoryQueryDiagResponse executeQueryDiagnosticsRequest(RepositoryQueryDiagRequest request, OperationResult result) {
         LOGGER_PERFORMANCE.debug("> execute query diagnostics {}", request);
 
@@ -938,6 +1014,7 @@ main:       for (;;) {
 			final org.hibernate.Query query;
 			final boolean isMidpointQuery = request.getImplementationLevelQuery() == null;
 			if (isMidpointQuery) {
+				// not cached: the query source is needed to show the parameters
 				QueryEngine2 engine = new QueryEngine2(getConfiguration(), extItemDictionary, prismContext);
 				RQueryImpl rQuery = (RQueryImpl) engine.interpret(request.getQuery(), request.getType(), null, false, session);
 				query = rQuery.getQuery();
@@ -22,6 +22,7 @@ import com.evolveum.midpoint.prism.delta.ObjectDelta;
 import com.evolveum.midpoint.prism.delta.ReferenceDelta;
 import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.prism.util.CloneUtil;
+import com.evolveum.midpoint.prism.xnode.RootXNode;
 import com.evolveum.midpoint.repo.api.*;
 import com.evolveum.midpoint.repo.sql.SerializationRelatedException;
 import com.evolveum.midpoint.repo.sql.SqlRepositoryConfiguration;
@@ -31,6 +32,7 @@ import com.evolveum.midpoint.repo.sql.data.common.RObject;
 import com.evolveum.midpoint.repo.sql.data.common.dictionary.ExtItemDictionary;
 import com.evolveum.midpoint.repo.sql.util.ClassMapper;
 import com.evolveum.midpoint.repo.sql.util.DtoTranslationException;
+import com.evolveum.midpoint.repo.sql.util.FullObjectPatcher;
 import com.evolveum.midpoint.repo.sql.util.IdGeneratorResult;
 import com.evolveum.midpoint.repo.sql.util.PrismIdentifierGenerator;
 import com.evolveum.midpoint.repo.sql.util.RUtil;
@@ -100,6 +102,9 @@ public class ObjectUpdater {
     @Autowired
     private ExtItemDictionary extItemDictionary;
 
+    @Autowired
+    private FullObjectCodec fullObjectCodec;
+
     public <T extends ObjectType> String addObjectAttempt(PrismObject<T> object, RepoAddOptions options,
             OperationResult result) throws ObjectAlreadyExistsException, SchemaException {
 
@@ -251,8 +256,7 @@ public class ObjectUpdater {
         // Its' because we're removing some properties during save operation and if save fails,
         // overwrite attempt (for example using object importer) might try to delete existing object
         // and then try to save this object one more time.
-        String xml = prismContext.xmlSerializer().serialize(savedObject);
-        savedObject = prismContext.parseObject(xml);
+        savedObject = fullObjectCodec.reparse(savedObject);
 
         if (FocusType.class.isAssignableFrom(savedObject.getCompileTimeClass())) {
             savedObject.removeProperty(FocusType.F_JPEG_PHOTO);
@@ -264,13 +268,12 @@ public class ObjectUpdater {
             savedObject.removeProperty(TaskType.F_RESULT);
         }
 
-        xml = prismContext.xmlSerializer().serialize(savedObject);
-        byte[] fullObject = RUtil.getByteArrayFromXml(xml, getConfiguration().isUseZip());
+        byte[] fullObject = fullObjectCodec.encode(savedObject);
 
         object.setFullObject(fullObject);
 
         if (LOGGER.isTraceEnabled()) {
-            LOGGER.trace("Updating full object xml column finished. Xml:\n{}", xml);
+            LOGGER.trace("Updating full object xml column finished. Xml:\n{}", fullObjectCodec.toDiagnosticString(fullObject));
         }
     }
 
@@ -385,7 +388,9 @@ public class ObjectUpdater {
             Collection<? extends ItemDelta> campaignCaseModifications = caseHelper.filterCampaignCaseModifications(type, modifications);
 
             boolean reindex = RepoModifyOptions.isExecuteIfNoChanges(modifyOptions);
-            if (!modifications.isEmpty() || reindex) {
+            if (!reindex && precondition == null && isPatchable(type, modifications)) {
+                patchObject(type, oid, modifications, session, sqlRepositoryService);
+            } else if (!modifications.isEmpty() || reindex) {
 
                 // JpegPhoto (RFocusPhoto) is a special kind of entity. First of all, it is lazily loaded, because photos are really big.
                 // Each RFocusPhoto naturally belongs to one RFocus, so it would be appropriate to set orphanRemoval=true for focus-photo
@@ -508,6 +513,45 @@ public class ObjectUpdater {
         }
     }
 
+    private <T extends ObjectType> boolean isPatchable(Class<T> type, Collection<? extends ItemDelta> modifications) {
+        return getConfiguration().isFullObjectPatching()
+                && FullObjectPatcher.isPatchable(type, modifications)
+                && !(closureManager.isEnabled() && OrgType.class.isAssignableFrom(type))
+                && !objectDeltaUpdater.isObjectTextInfoRecomputationNeeded(type, modifications);
+    }
+
+    /**
+     * Modifies the object without parsing and serializing the whole full object (see FullObjectPatcher).
+     * Only the items touched by the modifications are parsed; indexed columns are updated the same way
+     * as for other modifications.
+     */
+    private <T extends ObjectType> void patchObject(Class<T> type, String oid, Collection<? extends ItemDelta> modifications,
+            Session session, SqlRepositoryServiceImpl sqlRepositoryService) throws ObjectNotFoundException, SchemaException {
+        FullObjectPatcher patcher = new FullObjectPatcher(prismContext);
+        RootXNode storedObject = objectRetriever.getObjectXNodeForUpdateInternal(session, type, oid);
+        PrismObject<T> partialObject = patcher.parsePartialObject(storedObject, modifications);
+        sqlRepositoryService.invokeConflictWatchers(w -> w.beforeModifyObject(partialObject));
+        LOGGER.trace("Patching full object, partial object before:\n{}", partialObject.debugDumpLazily());
+
+        // container IDs have to be unique in the whole object, not only in the partial one
+        PrismIdentifierGenerator<T> idGenerator = new PrismIdentifierGenerator<>(PrismIdentifierGenerator.Operation.MODIFY);
+        idGenerator.addUsedIds(FullObjectPatcher.collectContainerIds(storedObject));
+        RObject rObject = objectDeltaUpdater.modifyObject(type, oid, modifications, partialObject, idGenerator, session);
+        LOGGER.trace("Partial object after:\n{}", partialObject.debugDumpLazily());
+
+        partialObject.setVersion(Integer.toString(rObject.getVersion()));
+        patcher.patch(storedObject, partialObject, modifications);
+        byte[] fullObject = fullObjectCodec.encode(storedObject);
+        rObject.setFullObject(fullObject);
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("Patched full object:\n{}", fullObjectCodec.toDiagnosticString(fullObject));
+        }
+
+        LOGGER.trace("Starting save.");
+        session.save(rObject);
+        LOGGER.trace("Save finished.");
+    }
+
     private <T extends ObjectType> boolean containsPhotoModification(Collection<? extends ItemDelta> modifications) {
         ItemPath photoPath = new ItemPath(FocusType.F_JPEG_PHOTO);
         for (ItemDelta delta : modifications) {
@@ -44,17 +44,41 @@ public class QueryEngine2 {
     private SqlRepositoryConfiguration repoConfiguration;
     private ExtItemDictionary extItemDictionary;
     private PrismContext prismContext;
+    private QueryPlanCache queryPlanCache;
 
     public QueryEngine2(SqlRepositoryConfiguration config, ExtItemDictionary extItemDictionary, PrismContext prismContext) {
+        this(config, extItemDictionary, prismContext, null);
+    }
+
+    /**
+     * @param queryPlanCache Cache of HQL for query shapes. Queries found there are not interpreted, so the resulting
+     *                       RQueryImpl has no query source. Null means no caching.
+     */
+    public QueryEngine2(SqlRepositoryConfiguration config, ExtItemDictionary extItemDictionary, PrismContext prismContext,
+            QueryPlanCache queryPlanCache) {
         this.repoConfiguration = config;
         this.extItemDictionary = extItemDictionary;
         this.prismContext = prismContext;
+        this.queryPlanCache = queryPlanCache;
     }
 
     public RQuery interpret(ObjectQuery query, Class<? extends Containerable> type,
             Collection<SelectorOptions<GetOperationOptions>> options,
             boolean countingObjects, Session session) throws QueryException {
 
+        QueryShape shape = queryPlanCache != null && queryPlanCache.isEnabled() ?
+                QueryShape.create(query, type, options, countingObjects) : null;
+        if (shape != null) {
+            QueryPlan plan = queryPlanCache.find(shape);
+            if (plan != null) {
+                if (LOGGER.isTraceEnabled()) {
+                    LOGGER.trace("Query:\n{}\n--- with options: {}\n--- has cached HQL:\n{}",
+                            DebugUtil.debugDump(query), options, plan.getHqlText());
+                }
+                return new RQueryImpl(plan.createQuery(session, shape, query, countingObjects), null);
+            }
+        }
+
         QueryInterpreter2 interpreter = new QueryInterpreter2(repoConfiguration, extItemDictionary);
         RootHibernateQuery hibernateQuery = interpreter.interpret(query, type, options, prismContext, countingObjects, session);
         Query hqlQuery = hibernateQuery.getAsHqlQuery(session);
@@ -64,6 +88,9 @@ public class QueryEngine2 {
                     DebugUtil.debugDump(query), options, hqlQuery.getQueryString());
 
         }
+        if (shape != null) {
+            queryPlanCache.store(shape, hibernateQuery, hqlQuery.getQueryString());
+        }
         return new RQueryImpl(hqlQuery, hibernateQuery);
     }
 }
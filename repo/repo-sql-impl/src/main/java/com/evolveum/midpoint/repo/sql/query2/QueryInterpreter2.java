@@ -173,6 +173,7 @@ public class QueryInterpreter2 {
 				wrapperQuery.getConditions().add(wrapperQuery.createIn(inVariablesString, subqueryText));
 			}
 			wrapperQuery.addParametersFrom(hibernateQuery.getParameters());
+			wrapperQuery.addCacheabilityFrom(hibernateQuery);
 			return wrapperQuery;
 		} else {
 			interpretPagingAndSorting(context, query, false);
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.query2;
+
+import com.evolveum.midpoint.prism.query.ObjectPaging;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.repo.sql.query2.hqm.RootHibernateQuery;
+import org.hibernate.Session;
+import org.hibernate.query.Query;
+import org.hibernate.transform.ResultTransformer;
+import org.hibernate.type.Type;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * HQL generated for a query shape, with the information how to bind its parameters for another query
+ * of the same shape. Immutable.
+ *
+ * @author mederly
+ */
+public class QueryPlan {
+
+	/**
+	 * Parameter either bound to values of the query (leaves of its shape), or a constant.
+	 */
+	static class Parameter {
+		private final String name;
+		private final Type type;
+		private final int[] leafIndexes;        // null for constants
+		private final boolean collection;
+		private final Object constantValue;
+
+		private Parameter(String name, Type type, int[] leafIndexes, boolean collection, Object constantValue) {
+			this.name = name;
+			this.type = type;
+			this.leafIndexes = leafIndexes;
+			this.collection = collection;
+			this.constantValue = constantValue;
+		}
+
+		static Parameter bound(String name, Type type, int[] leafIndexes, boolean collection) {
+			return new Parameter(name, type, leafIndexes, collection, null);
+		}
+
+		static Parameter constant(String name, Type type, Object value) {
+			return new Parameter(name, type, null, false, value);
+		}
+
+		Object getValue(List<Object> leaves) {
+			if (leafIndexes == null) {
+				return constantValue;
+			} else if (collection) {
+				List<Object> values = new ArrayList<>(leafIndexes.length);
+				for (int leafIndex : leafIndexes) {
+					values.add(leaves.get(leafIndex));
+				}
+				return values;
+			} else {
+				return leaves.get(leafIndexes[0]);
+			}
+		}
+	}
+
+	private final String hqlText;
+	private final List<Parameter> parameters;
+	private final ResultTransformer resultTransformer;
+
+	QueryPlan(String hqlText, List<Parameter> parameters, ResultTransformer resultTransformer) {
+		this.hqlText = hqlText;
+		this.parameters = parameters;
+		this.resultTransformer = resultTransformer;
+	}
+
+	public String getHqlText() {
+		return hqlText;
+	}
+
+	/**
+	 * Creates hibernate query for the given query, which must be of the shape for which this plan was created.
+	 * Offset and maximum size are not part of the HQL, so they are taken from the query directly
+	 * (in the same way as QueryInterpreter2 does).
+	 */
+	public Query createQuery(Session session, QueryShape shape, ObjectQuery query, boolean countingObjects) {
+		Query hqlQuery = session.createQuery(hqlText);
+		List<Object> leaves = shape.getLeaves();
+		for (Parameter parameter : parameters) {
+			RootHibernateQuery.setParameter(hqlQuery, parameter.name, parameter.getValue(leaves), parameter.type);
+		}
+		ObjectPaging paging = query != null ? query.getPaging() : null;
+		if (!countingObjects && paging != null) {
+			if (paging.getOffset() != null) {
+				hqlQuery.setFirstResult(paging.getOffset());
+			}
+			if (paging.getMaxSize() != null) {
+				hqlQuery.setMaxResults(paging.getMaxSize());
+			}
+		}
+		if (resultTransformer != null) {
+			hqlQuery.setResultTransformer(resultTransformer);
+		}
+		return hqlQuery;
+	}
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.query2;
+
+import com.evolveum.midpoint.prism.polystring.PolyString;
+import com.evolveum.midpoint.repo.sql.query2.hqm.QueryParameterValue;
+import com.evolveum.midpoint.repo.sql.query2.hqm.RootHibernateQuery;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+import javax.xml.namespace.QName;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps HQL generated for query shapes (see QueryShape), so that queries of a known shape are not interpreted again:
+ * the HQL is reused and only the parameters are bound to the values of the query.
+ *
+ * Which values of the query can be rebound is found out when the HQL is generated for the first time:
+ * a value can be rebound if it was used as a parameter as it is, i.e. the parameter holds the very same instance
+ * (in a collection or alone), and it was not transformed anywhere else (see RootHibernateQuery.markValueConsumed).
+ * Values that cannot be rebound (e.g. lowercased, normalized, converted enums) become part of the cache key,
+ * so for these the HQL is reused only for the same values. Parameters not coming from the query values
+ * (relations, object types, extension item IDs) are kept as constants.
+ *
+ * The number of shapes is limited; when exceeded, the least recently used 10 % of them are removed. The number
+ * of variants of a shape (differing in values that cannot be rebound) is limited as well; further variants are
+ * simply not cached.
+ *
+ * Thread-safe. Lookups are lock-free.
+ *
+ * @author mederly
+ */
+public class QueryPlanCache {
+
+	private static final Trace LOGGER = TraceManager.getTrace(QueryPlanCache.class);
+
+	static final int MAX_VARIANTS_PER_SHAPE = 16;
+
+	private static class ShapeEntry {
+		private final int leafCount;
+		private final BitSet rebindable;        // not modified after creation
+		private final Map<List<Object>, QueryPlan> variants = new ConcurrentHashMap<>();
+		private volatile long lastUsed;
+
+		private ShapeEntry(int leafCount, BitSet rebindable) {
+			this.leafCount = leafCount;
+			this.rebindable = rebindable;
+		}
+
+		private List<Object> getVariantKey(List<Object> leaves) {
+			List<Object> key = new ArrayList<>(leafCount - rebindable.cardinality());
+			for (int i = 0; i < leaves.size(); i++) {
+				if (!rebindable.get(i)) {
+					key.add(leaves.get(i));
+				}
+			}
+			return key;
+		}
+	}
+
+	private final int maxShapes;
+	private final Map<String, ShapeEntry> shapes = new ConcurrentHashMap<>();
+	private final AtomicLong useCounter = new AtomicLong();
+	private final ReentrantLock evictionLock = new ReentrantLock();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder notCacheable = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	public QueryPlanCache(int maxShapes) {
+		this.maxShapes = maxShapes;
+	}
+
+	public boolean isEnabled() {
+		return maxShapes > 0;
+	}
+
+	/**
+	 * Returns the plan for the query shape (and its values that cannot be rebound), or null if there is none.
+	 */
+	public QueryPlan find(QueryShape shape) {
+		ShapeEntry entry = shapes.get(shape.getKey());
+		QueryPlan plan = null;
+		if (entry != null && entry.leafCount == shape.getLeaves().size()) {
+			entry.lastUsed = useCounter.incrementAndGet();
+			plan = entry.variants.get(entry.getVariantKey(shape.getLeaves()));
+		}
+		if (plan != null) {
+			hits.increment();
+		} else {
+			misses.increment();
+		}
+		return plan;
+	}
+
+	/**
+	 * Stores the HQL generated for the query shape, if it can be reused for other queries of the same shape.
+	 * The HQL text must be already generated, because parameters are registered during that.
+	 */
+	public void store(QueryShape shape, RootHibernateQuery hibernateQuery, String hqlText) {
+		if (!isEnabled()) {
+			return;
+		}
+		List<Object> leaves = shape.getLeaves();
+		BitSet rebindable = hibernateQuery.isCacheable() ? findRebindableLeaves(leaves, hibernateQuery) : null;
+		if (rebindable == null) {
+			notCacheable.increment();
+			LOGGER.trace("HQL for query shape {} cannot be reused", shape);
+			return;
+		}
+		ShapeEntry entry = shapes.computeIfAbsent(shape.getKey(), k -> new ShapeEntry(leaves.size(), rebindable));
+		entry.lastUsed = useCounter.incrementAndGet();
+		BitSet notRebindableHere = (BitSet) entry.rebindable.clone();
+		notRebindableHere.andNot(rebindable);
+		QueryPlan plan = notRebindableHere.isEmpty() ? createPlan(entry, leaves, hibernateQuery, hqlText) : null;
+		if (plan == null) {
+			notCacheable.increment();
+			LOGGER.trace("HQL for query shape {} cannot be reused in the same way as before", shape);
+			return;
+		}
+		if (entry.variants.size() < MAX_VARIANTS_PER_SHAPE) {
+			entry.variants.put(entry.getVariantKey(leaves), plan);
+		}
+		if (shapes.size() > maxShapes) {
+			evict();
+		}
+	}
+
+	/**
+	 * Leaves that were used as parameters without any transformation. Returns null if a parameter
+	 * depends on the query values in a way that cannot be reproduced (a non-rebindable value of a type
+	 * without reliable equals).
+	 */
+	private BitSet findRebindableLeaves(List<Object> leaves, RootHibernateQuery hibernateQuery) {
+		Map<Object, Integer> leafIndexes = new IdentityHashMap<>();
+		BitSet excluded = new BitSet(leaves.size());
+		for (int i = 0; i < leaves.size(); i++) {
+			Integer previous = leafIndexes.put(leaves.get(i), i);
+			if (previous != null) {
+				// the same instance at two places: we would not know which one to bind
+				excluded.set(previous);
+				excluded.set(i);
+			}
+		}
+		for (Object consumed : hibernateQuery.getConsumedValues()) {
+			Integer index = leafIndexes.get(consumed);
+			if (index != null) {
+				excluded.set(index);
+			}
+		}
+		// a parameter that cannot be rebound makes the leaves it contains non-rebindable; this can affect other parameters
+		boolean changed;
+		do {
+			changed = false;
+			for (QueryParameterValue parameterValue : hibernateQuery.getParameters().values()) {
+				if (findLeafIndexes(parameterValue.getValue(), leafIndexes, excluded) == null) {
+					for (Object value : asCollection(parameterValue.getValue())) {
+						Integer index = leafIndexes.get(value);
+						if (index != null && !excluded.get(index)) {
+							excluded.set(index);
+							changed = true;
+						}
+					}
+				}
+			}
+		} while (changed);
+
+		BitSet rebindable = new BitSet(leaves.size());
+		for (QueryParameterValue parameterValue : hibernateQuery.getParameters().values()) {
+			int[] indexes = findLeafIndexes(parameterValue.getValue(), leafIndexes, excluded);
+			if (indexes != null) {
+				for (int index : indexes) {
+					rebindable.set(index);
+				}
+			} else if (!hasReliableEquals(parameterValue.getValue())) {
+				return null;
+			}
+		}
+		for (int i = 0; i < leaves.size(); i++) {
+			if (!rebindable.get(i) && !hasReliableEquals(leaves.get(i))) {
+				return null;
+			}
+		}
+		return rebindable;
+	}
+
+	/**
+	 * Binds the parameters to the leaves that are rebindable for the shape. All of them have to be rebindable
+	 * in this query as well.
+	 */
+	private QueryPlan createPlan(ShapeEntry entry, List<Object> leaves, RootHibernateQuery hibernateQuery, String hqlText) {
+		Map<Object, Integer> leafIndexes = new IdentityHashMap<>();
+		BitSet notRebindable = new BitSet(leaves.size());
+		for (int i = 0; i < leaves.size(); i++) {
+			leafIndexes.put(leaves.get(i), i);
+			if (!entry.rebindable.get(i)) {
+				notRebindable.set(i);
+			}
+		}
+		List<QueryPlan.Parameter> parameters = new ArrayList<>();
+		BitSet bound = new BitSet(leaves.size());
+		for (Map.Entry<String, QueryParameterValue> parameter : hibernateQuery.getParameters().entrySet()) {
+			String name = parameter.getKey();
+			QueryParameterValue parameterValue = parameter.getValue();
+			int[] indexes = findLeafIndexes(parameterValue.getValue(), leafIndexes, notRebindable);
+			if (indexes != null) {
+				parameters.add(QueryPlan.Parameter.bound(name, parameterValue.getType(), indexes,
+						parameterValue.getValue() instanceof Collection));
+				for (int index : indexes) {
+					bound.set(index);
+				}
+			} else if (hasReliableEquals(parameterValue.getValue())
+					&& !containsRebindableLeaf(parameterValue.getValue(), leafIndexes, entry.rebindable)) {
+				parameters.add(QueryPlan.Parameter.constant(name, parameterValue.getType(), parameterValue.getValue()));
+			} else {
+				return null;
+			}
+		}
+		if (!bound.equals(entry.rebindable)) {
+			// this query uses its values differently than the first one of this shape
+			return null;
+		}
+		return new QueryPlan(hqlText, parameters, hibernateQuery.getResultTransformer());
+	}
+
+	private int[] findLeafIndexes(Object value, Map<Object, Integer> leafIndexes, BitSet excluded) {
+		Collection<?> values = asCollection(value);
+		int[] indexes = new int[values.size()];
+		int i = 0;
+		for (Object v : values) {
+			Integer index = leafIndexes.get(v);
+			if (index == null || excluded.get(index)) {
+				return null;
+			}
+			indexes[i++] = index;
+		}
+		return indexes;
+	}
+
+	private boolean containsRebindableLeaf(Object value, Map<Object, Integer> leafIndexes, BitSet rebindable) {
+		for (Object v : asCollection(value)) {
+			Integer index = leafIndexes.get(v);
+			if (index != null && rebindable.get(index)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private Collection<?> asCollection(Object value) {
+		return value instanceof Collection ? (Collection<?>) value : Collections.singletonList(value);
+	}
+
+	private boolean hasReliableEquals(Object value) {
+		if (value instanceof Collection) {
+			for (Object item : (Collection<?>) value) {
+				if (!hasReliableEquals(item)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return value == null || value instanceof String || value instanceof Number || value instanceof Boolean
+				|| value instanceof Enum || value instanceof QName || value instanceof Date
+				|| value instanceof XMLGregorianCalendar || value instanceof PolyString;
+	}
+
+	private void evict() {
+		if (!evictionLock.tryLock()) {
+			return;         // someone else is evicting
+		}
+		try {
+			int toRemove = shapes.size() - maxShapes + maxShapes / 10;
+			if (toRemove <= 0) {
+				return;
+			}
+			// O(n log n), but done only once per (maxShapes / 10) new shapes
+			List<Map.Entry<String, ShapeEntry>> entries = new ArrayList<>(shapes.entrySet());
+			entries.sort(Comparator.comparingLong(e -> e.getValue().lastUsed));
+			for (int i = 0; i < toRemove && i < entries.size(); i++) {
+				shapes.remove(entries.get(i).getKey());
+				evictions.increment();
+			}
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	public void clear() {
+		shapes.clear();
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getNotCacheable() {
+		return notCacheable.sum();
+	}
+
+	public int getShapesCount() {
+		return shapes.size();
+	}
+
+	public String getStatistics() {
+		long hits = getHits();
+		long misses = getMisses();
+		long total = hits + misses;
+		int plans = shapes.values().stream().mapToInt(e -> e.variants.size()).sum();
+		return String.format("hits: %d, misses: %d, hit ratio: %.1f %%, not cacheable: %d, shapes: %d (max %d), plans: %d, evictions: %d",
+				hits, misses, total > 0 ? 100.0 * hits / total : 0.0, getNotCacheable(), shapes.size(), maxShapes,
+				plans, evictions.sum());
+	}
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.query2;
+
+import com.evolveum.midpoint.prism.Containerable;
+import com.evolveum.midpoint.prism.ItemDefinition;
+import com.evolveum.midpoint.prism.PrismPropertyValue;
+import com.evolveum.midpoint.prism.PrismReferenceValue;
+import com.evolveum.midpoint.prism.PrismValue;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.path.ItemPathSegment;
+import com.evolveum.midpoint.prism.path.NameItemPathSegment;
+import com.evolveum.midpoint.prism.polystring.PolyString;
+import com.evolveum.midpoint.prism.query.*;
+import com.evolveum.midpoint.repo.sql.ObjectPagingAfterOid;
+import com.evolveum.midpoint.schema.GetOperationOptions;
+import com.evolveum.midpoint.schema.SelectorOptions;
+import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Shape of a query: everything that influences the HQL generated for it, except for the values compared
+ * with the items (type, filter structure, paths, definitions, operators, matching rules, ordering, counting,
+ * distinct option). Values are collected separately as "leaves", in the order in which the filter is traversed.
+ *
+ * Queries of the same shape are translated to the same HQL as long as the leaves are used as parameters,
+ * without transformation. Which leaves are used this way is found out when the query is interpreted;
+ * see QueryPlanCache.
+ *
+ * Null values and sizes of value lists are part of the shape, as they change the HQL (e.g. 'is null' instead of '=',
+ * '=' instead of 'in').
+ *
+ * @author mederly
+ */
+public class QueryShape {
+
+	private final String key;
+	private final List<Object> leaves;
+
+	private QueryShape(String key, List<Object> leaves) {
+		this.key = key;
+		this.leaves = leaves;
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public List<Object> getLeaves() {
+		return leaves;
+	}
+
+	/**
+	 * Returns null if the query cannot be described by a shape (e.g. it contains an expression or an unknown filter).
+	 */
+	public static QueryShape create(ObjectQuery query, Class<? extends Containerable> type,
+			Collection<SelectorOptions<GetOperationOptions>> options, boolean countingObjects) {
+		StringBuilder sb = new StringBuilder();
+		List<Object> leaves = new ArrayList<>();
+		sb.append(type.getName());
+		sb.append(countingObjects ? "|count" : "|search");
+		if (GetOperationOptions.isDistinct(SelectorOptions.findRootOptions(options))) {
+			sb.append("|distinct");
+		}
+		if (query != null) {
+			if (query.getFilter() != null) {
+				sb.append("|");
+				if (!appendFilter(sb, leaves, query.getFilter())) {
+					return null;
+				}
+			}
+			if (query.getPaging() != null) {
+				sb.append("|");
+				appendPaging(sb, leaves, query.getPaging(), countingObjects);
+			}
+		}
+		return new QueryShape(sb.toString(), leaves);
+	}
+
+	private static boolean appendFilter(StringBuilder sb, List<Object> leaves, ObjectFilter filter) {
+		if (filter instanceof NaryLogicalFilter) {
+			sb.append(filter instanceof AndFilter ? "and(" : "or(");
+			for (ObjectFilter condition : ((NaryLogicalFilter) filter).getConditions()) {
+				if (!appendFilter(sb, leaves, condition)) {
+					return false;
+				}
+				sb.append(",");
+			}
+			sb.append(")");
+			return true;
+		} else if (filter instanceof NotFilter) {
+			sb.append("not(");
+			if (!appendFilter(sb, leaves, ((NotFilter) filter).getFilter())) {
+				return false;
+			}
+			sb.append(")");
+			return true;
+		} else if (filter instanceof TypeFilter) {
+			TypeFilter typeFilter = (TypeFilter) filter;
+			sb.append("type:").append(typeFilter.getType()).append("(");
+			if (typeFilter.getFilter() != null && !appendFilter(sb, leaves, typeFilter.getFilter())) {
+				return false;
+			}
+			sb.append(")");
+			return true;
+		} else if (filter instanceof ExistsFilter) {
+			ExistsFilter existsFilter = (ExistsFilter) filter;
+			sb.append("exists:");
+			appendPath(sb, existsFilter.getFullPath());
+			appendDefinition(sb, existsFilter.getDefinition());
+			sb.append("(");
+			if (existsFilter.getFilter() != null && !appendFilter(sb, leaves, existsFilter.getFilter())) {
+				return false;
+			}
+			sb.append(")");
+			return true;
+		} else if (filter instanceof InOidFilter) {
+			InOidFilter inOidFilter = (InOidFilter) filter;
+			if (inOidFilter.getExpression() != null || inOidFilter.getOids() == null) {
+				return false;
+			}
+			sb.append("inOid:").append(inOidFilter.isConsiderOwner()).append(":").append(inOidFilter.getOids().size());
+			leaves.addAll(inOidFilter.getOids());
+			return true;
+		} else if (filter instanceof OrgFilter) {
+			OrgFilter orgFilter = (OrgFilter) filter;
+			sb.append("org:").append(orgFilter.isRoot()).append(":").append(orgFilter.getScope());
+			PrismReferenceValue orgRef = orgFilter.getOrgRef();
+			if (orgRef != null) {
+				sb.append(":").append(orgRef.getOid() != null).append(":").append(orgRef.getRelation());
+				addLeaf(leaves, orgRef.getOid());
+			}
+			return true;
+		} else if (filter instanceof FullTextFilter) {
+			FullTextFilter fullTextFilter = (FullTextFilter) filter;
+			if (fullTextFilter.getExpression() != null || fullTextFilter.getValues() == null) {
+				return false;
+			}
+			sb.append("fullText:").append(fullTextFilter.getValues().size());
+			for (String value : fullTextFilter.getValues()) {
+				sb.append(":").append(value != null);
+				addLeaf(leaves, value);
+			}
+			return true;
+		} else if (filter instanceof RefFilter) {
+			RefFilter refFilter = (RefFilter) filter;
+			if (refFilter.getExpression() != null) {
+				return false;
+			}
+			sb.append("ref:");
+			appendPath(sb, refFilter.getFullPath());
+			appendDefinition(sb, refFilter.getDefinition());
+			List<PrismReferenceValue> values = refFilter.getValues();
+			sb.append(values != null ? values.size() : 0);
+			if (values != null) {
+				for (PrismReferenceValue value : values) {
+					sb.append(":").append(value.getOid() != null).append(",").append(value.getRelation())
+							.append(",").append(value.getTargetType());
+					addLeaf(leaves, value.getOid());
+				}
+			}
+			return true;
+		} else if (filter instanceof PropertyValueFilter) {
+			return appendPropertyValueFilter(sb, leaves, (PropertyValueFilter<?>) filter);
+		} else {
+			// trivial, undefined or unknown filters
+			return false;
+		}
+	}
+
+	private static boolean appendPropertyValueFilter(StringBuilder sb, List<Object> leaves, PropertyValueFilter<?> filter) {
+		if (filter.getExpression() != null) {
+			return false;
+		}
+		sb.append(filter.getClass().getSimpleName());
+		if (filter instanceof ComparativeFilter) {
+			sb.append(((ComparativeFilter<?>) filter).isEquals() ? "=" : "");
+		} else if (filter instanceof SubstringFilter) {
+			SubstringFilter<?> substringFilter = (SubstringFilter<?>) filter;
+			sb.append(substringFilter.isAnchorStart() ? "^" : "").append(substringFilter.isAnchorEnd() ? "$" : "");
+		}
+		sb.append(":");
+		appendPath(sb, filter.getFullPath());
+		appendDefinition(sb, filter.getDefinition());
+		sb.append(":").append(filter.getMatchingRule());
+		if (filter.getRightHandSidePath() != null) {
+			sb.append(":rhs:");
+			appendPath(sb, filter.getRightHandSidePath());
+			appendDefinition(sb, filter.getRightHandSideDefinition());
+			return true;
+		}
+		List<? extends PrismValue> values = filter.getValues();
+		sb.append(":").append(values != null ? values.size() : 0);
+		if (values != null) {
+			for (PrismValue value : values) {
+				if (!(value instanceof PrismPropertyValue)) {
+					return false;
+				}
+				Object realValue = ((PrismPropertyValue<?>) value).getValue();
+				if (realValue instanceof PolyString) {
+					// only the components are used by the query
+					PolyString polyString = (PolyString) realValue;
+					sb.append(":PolyString,").append(polyString.getOrig() != null).append(",").append(polyString.getNorm() != null);
+					addLeaf(leaves, polyString.getOrig());
+					addLeaf(leaves, polyString.getNorm());
+				} else if (realValue instanceof PolyStringType) {
+					PolyStringType polyString = (PolyStringType) realValue;
+					sb.append(":PolyStringType,").append(polyString.getOrig() != null).append(",").append(polyString.getNorm() != null);
+					addLeaf(leaves, polyString.getOrig());
+					addLeaf(leaves, polyString.getNorm());
+				} else {
+					sb.append(":").append(realValue != null ? realValue.getClass().getName() : null);
+					addLeaf(leaves, realValue);
+				}
+			}
+		}
+		return true;
+	}
+
+	private static void appendPaging(StringBuilder sb, List<Object> leaves, ObjectPaging paging, boolean countingObjects) {
+		if (paging instanceof ObjectPagingAfterOid) {
+			String oidGreaterThan = ((ObjectPagingAfterOid) paging).getOidGreaterThan();
+			sb.append("afterOid:").append(oidGreaterThan != null);
+			addLeaf(leaves, oidGreaterThan);
+		}
+		if (countingObjects) {
+			return;         // ordering and grouping are ignored when counting
+		}
+		// offset and maximum size are not part of the HQL
+		if (paging.hasOrdering()) {
+			for (ObjectOrdering ordering : paging.getOrderingInstructions()) {
+				sb.append("order:");
+				appendPath(sb, ordering.getOrderBy());
+				sb.append(":").append(ordering.getDirection()).append(",");
+			}
+		}
+		if (paging.hasGrouping()) {
+			for (ObjectGrouping grouping : paging.getGroupingInstructions()) {
+				sb.append("group:");
+				appendPath(sb, grouping.getGroupBy());
+				sb.append(",");
+			}
+		}
+	}
+
+	private static void appendPath(StringBuilder sb, ItemPath path) {
+		if (path == null) {
+			sb.append("-");
+			return;
+		}
+		for (ItemPathSegment segment : path.getSegments()) {
+			sb.append("/");
+			if (segment instanceof NameItemPathSegment) {
+				sb.append(((NameItemPathSegment) segment).getName());       // including the namespace
+			} else {
+				sb.append(segment);
+			}
+		}
+	}
+
+	private static void appendDefinition(StringBuilder sb, ItemDefinition<?> definition) {
+		if (definition == null) {
+			sb.append("[-]");
+		} else {
+			// these are used to find extension items
+			sb.append("[").append(definition.getClass().getSimpleName()).append(",").append(definition.getName())
+					.append(",").append(definition.getTypeName()).append(",").append(definition.isSingleValue()).append("]");
+		}
+	}
+
+	private static void addLeaf(List<Object> leaves, Object value) {
+		if (value != null) {
+			leaves.add(value);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return key + " with " + leaves.size() + " value(s)";
+	}
+}
@@ -31,7 +31,7 @@ import java.util.List;
  */
 public class RQueryImpl implements RQuery {
 
-	private RootHibernateQuery querySource;		// only for diagnostic purposes
+	private RootHibernateQuery querySource;		// only for diagnostic purposes; null if the HQL was taken from QueryPlanCache
     private org.hibernate.query.Query query;
 
     public RQueryImpl(Query query, RootHibernateQuery querySource) {
@@ -26,10 +26,14 @@ import org.hibernate.criterion.MatchMode;
 import org.hibernate.transform.ResultTransformer;
 import org.hibernate.type.Type;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * @author mederly
@@ -38,12 +42,18 @@ public class RootHibernateQuery extends HibernateQuery {
 
     private static final Trace LOGGER = TraceManager.getTrace(RootHibernateQuery.class);
 
+    private static final int IN_LIST_PADDING_LIMIT = 1000;
+
     private Map<String,QueryParameterValue> parameters = new HashMap<>();
     private Integer maxResults;
     private Integer firstResult;
     private ResultTransformer resultTransformer;
     private boolean distinct;
 
+    // for QueryPlanCache: values from the filter that were used other than as they are, and whether the HQL can be reused at all
+    private Set<Object> consumedValues = Collections.newSetFromMap(new IdentityHashMap<>());
+    private boolean cacheable = true;
+
     public RootHibernateQuery(JpaEntityDefinition primaryEntityDef) {
         super(primaryEntityDef);
     }
@@ -79,6 +89,38 @@ public class RootHibernateQuery extends HibernateQuery {
 		return parameters;
 	}
 
+    /**
+     * Marks a value (taken from the filter) that was transformed before it was used as a parameter (or instead of it),
+     * e.g. lowercased or normalized. Such a parameter cannot be simply rebound when the HQL is reused for another
+     * value; see QueryPlanCache.
+     */
+    public void markValueConsumed(Object value) {
+        if (value != null) {
+            consumedValues.add(value);
+        }
+    }
+
+    public Set<Object> getConsumedValues() {
+        return consumedValues;
+    }
+
+    /**
+     * Marks the query as depending on something else than the query itself (e.g. on the content of the extension
+     * item dictionary), so it must not be reused.
+     */
+    public void setNotCacheable() {
+        cacheable = false;
+    }
+
+    public boolean isCacheable() {
+        return cacheable;
+    }
+
+    public void addCacheabilityFrom(RootHibernateQuery other) {
+        consumedValues.addAll(other.consumedValues);
+        cacheable = cacheable && other.cacheable;
+    }
+
 	private String findFreeName(String prefix) {
         int i = 1;
         for (;;) {
@@ -98,20 +140,7 @@ public class RootHibernateQuery extends HibernateQuery {
             String name = parameter.getKey();
             QueryParameterValue parameterValue = parameter.getValue();
             LOGGER.trace("Parameter {} = {}", name, parameterValue.debugDump());
-
-            if (parameterValue.getValue() instanceof Collection) {
-                if (parameterValue.getType() != null) {
-                    query.setParameterList(name, (Collection) parameterValue.getValue(), parameterValue.getType());
-                } else {
-                    query.setParameterList(name, (Collection) parameterValue.getValue());
-                }
-            } else {
-                if (parameterValue.getType() != null) {
-                    query.setParameter(name, parameterValue.getValue(), parameterValue.getType());
-                } else {
-                    query.setParameter(name, parameterValue.getValue());
-                }
-            }
+            setParameter(query, name, parameterValue.getValue(), parameterValue.getType());
         }
         if (maxResults != null) {
             query.setMaxResults(maxResults);
@@ -125,6 +154,48 @@ public class RootHibernateQuery extends HibernateQuery {
         return query;
     }
 
+    public static void setParameter(Query query, String name, Object value, Type type) {
+        if (value instanceof Collection) {
+            Collection<?> values = padParameterList((Collection<?>) value);
+            if (type != null) {
+                query.setParameterList(name, values, type);
+            } else {
+                query.setParameterList(name, values);
+            }
+        } else {
+            if (type != null) {
+                query.setParameter(name, value, type);
+            } else {
+                query.setParameter(name, value);
+            }
+        }
+    }
+
+    /**
+     * Hibernate expands a collection-valued parameter into as many positional parameters as there are values,
+     * so each distinct size of the collection would result in a separate query plan. To keep the number of plans low
+     * we pad the collection (by repeating its last value) to the nearest power of two. This does not change
+     * the meaning of the 'in' clause. Sizes are capped at IN_LIST_PADDING_LIMIT (1000, the limit imposed by Oracle);
+     * larger collections are left as they are.
+     */
+    public static Collection<?> padParameterList(Collection<?> values) {
+        int size = values.size();
+        if (size <= 1 || size > IN_LIST_PADDING_LIMIT) {
+            return values;
+        }
+        int paddedSize = Math.min(Integer.highestOneBit(size - 1) << 1, IN_LIST_PADDING_LIMIT);
+        if (paddedSize == size) {
+            return values;
+        }
+        List<Object> padded = new ArrayList<>(paddedSize);
+        padded.addAll(values);
+        Object last = padded.get(size - 1);
+        while (padded.size() < paddedSize) {
+            padded.add(last);
+        }
+        return padded;
+    }
+
     @Override
     public RootHibernateQuery getRootQuery() {
         return this;
@@ -142,6 +213,10 @@ public class RootHibernateQuery extends HibernateQuery {
         this.resultTransformer = resultTransformer;
     }
 
+    public ResultTransformer getResultTransformer() {
+        return resultTransformer;
+    }
+
 	public void setDistinct(boolean distinct) {
 		this.distinct = distinct;
 	}
@@ -185,6 +260,7 @@ public class RootHibernateQuery extends HibernateQuery {
     }
 
     public Condition createLike(String propertyPath, String value, MatchMode matchMode, boolean ignoreCase) {
+        markValueConsumed(value);
         switch (matchMode) {
             case ANYWHERE: value = "%" + value + "%"; break;
             case START: value = value + "%"; break;
@@ -46,6 +46,7 @@ public class SimpleComparisonCondition extends PropertyCondition {
         Object finalPropertyValue;
         if (ignoreCase) {
             finalPropertyPath = "lower(" + propertyPath + ")";
+            rootHibernateQuery.markValueConsumed(value);
             if (value instanceof String) {
                 finalPropertyValue = ((String) value).toLowerCase();
             } else {
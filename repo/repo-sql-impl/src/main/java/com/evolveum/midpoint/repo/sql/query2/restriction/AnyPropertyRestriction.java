@@ -16,6 +16,8 @@
 
 package com.evolveum.midpoint.repo.sql.query2.restriction;
 
+import com.evolveum.midpoint.prism.PrismPropertyValue;
+import com.evolveum.midpoint.prism.query.EqualFilter;
 import com.evolveum.midpoint.prism.query.PropertyValueFilter;
 import com.evolveum.midpoint.repo.sql.data.common.any.RAnyConverter;
 import com.evolveum.midpoint.repo.sql.query.QueryException;
@@ -26,6 +28,9 @@ import com.evolveum.midpoint.repo.sql.query2.hqm.condition.Condition;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * @author lazyman
  */
@@ -45,10 +50,39 @@ public class AnyPropertyRestriction extends PropertyRestriction {
 
         if (filter.getRightHandSidePath() != null) {
             return createPropertyVsPropertyCondition(propertyValuePath);
+        } else if (filter instanceof EqualFilter && filter.getValues() != null && filter.getValues().size() > 1) {
+            return createPropertyVsConstantsCondition(propertyValuePath);
         } else {
-            Object value = RAnyConverter.getAggregatedRepoObject(getValue(filter));
+            Object value = getAggregatedRepoObject(getValue(filter));
             Condition c = createPropertyVsConstantCondition(propertyValuePath, value, filter);
             return addIsNotNullIfNecessary(c, propertyValuePath);
         }
     }
+
+    /**
+     * Equality filter with more than one value: the item has to be equal to any of them.
+     * Used e.g. to look up shadows for a batch of resource objects by one query.
+     */
+    private Condition createPropertyVsConstantsCondition(String propertyValuePath) throws QueryException {
+        if (filter.getMatchingRule() != null) {
+            throw new QueryException("Matching rules are not supported for equality filter with more than one value: " + filter);
+        }
+        List<Object> values = new ArrayList<>();
+        for (Object value : filter.getValues()) {
+            if (!(value instanceof PrismPropertyValue)) {
+                throw new QueryException("Non-property value in filter: " + filter + ": " + value.getClass());
+            }
+            values.add(getAggregatedRepoObject(((PrismPropertyValue<?>) value).getValue()));
+        }
+        Condition c = getContext().getHibernateQuery().createIn(propertyValuePath, values);
+        return addIsNotNullIfNecessary(c, propertyValuePath);
+    }
+
+    private Object getAggregatedRepoObject(Object value) {
+        Object repoValue = RAnyConverter.getAggregatedRepoObject(value);
+        if (repoValue != value) {
+            getContext().getHibernateQuery().markValueConsumed(value);
+        }
+        return repoValue;
+    }
 }
@@ -45,6 +45,7 @@ public class FullTextRestriction extends Restriction<FullTextFilter> {
 		    throw new QueryException("FullText filter currently supports only a single string");
 	    }
 	    String text = filter.getValues().iterator().next();
+	    getContext().getHibernateQuery().markValueConsumed(text);
 	    String normalized = getContext().getPrismContext().getDefaultPolyStringNormalizer().normalize(text);
 	    String[] words = StringUtils.split(normalized);
 	    List<Condition> conditions = new ArrayList<>(words.length);
@@ -62,6 +62,7 @@ public class InOidRestriction extends Restriction<InOidFilter> {
     private Collection<?> toIntList(Collection<String> ids) {
         List<Integer> rv = new ArrayList<>();
         for (String id : ids) {
+            getContext().getHibernateQuery().markValueConsumed(id);
             rv.add(Integer.parseInt(id));
         }
         return rv;
@@ -123,6 +123,7 @@ public class PropertyRestriction extends ItemValueRestriction<PropertyValueFilte
         value = checkValueType(value, filter);
 
         if (def.isEnumerated()) {
+            context.getHibernateQuery().markValueConsumed(value);
             value = getRepoEnumValue((Enum) value, def.getJpaClass());
         }
 
@@ -145,6 +146,7 @@ public class PropertyRestriction extends ItemValueRestriction<PropertyValueFilte
         if (PolyString.class.equals(expectedType) && (value instanceof String)) {
             LOGGER.debug("Trying to query PolyString value but filter contains String '{}'.", filter);
 			String orig = (String) value;
+			context.getHibernateQuery().markValueConsumed(orig);
 			value = new PolyString(orig, context.getPrismContext().getDefaultPolyStringNormalizer().normalize(orig));
         }
         //attempt to fix value type for polystring (if it was polystringtype in filter we create polystring from it)
@@ -156,10 +158,12 @@ public class PropertyRestriction extends ItemValueRestriction<PropertyValueFilte
 
         if (String.class.equals(expectedType) && (value instanceof QName)) {
             //eg. shadow/objectClass
+            context.getHibernateQuery().markValueConsumed(value);
             value = RUtil.qnameToString((QName) value);
         }
 
         if (value instanceof RawType) {     // MID-3850: but it's quite a workaround. Maybe we should treat RawType's earlier than this.
+            context.getHibernateQuery().markValueConsumed(value);
             try {
                 return ((RawType) value).getParsedRealValue(expectedType);
             } catch (SchemaException e) {
@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.repo.sql.util;
+
+import com.evolveum.midpoint.prism.ItemDefinition;
+import com.evolveum.midpoint.prism.ParsingContext;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismObjectDefinition;
+import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.marshaller.XNodeProcessorEvaluationMode;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.path.NameItemPathSegment;
+import com.evolveum.midpoint.prism.xnode.ListXNode;
+import com.evolveum.midpoint.prism.xnode.MapXNode;
+import com.evolveum.midpoint.prism.xnode.PrimitiveXNode;
+import com.evolveum.midpoint.prism.xnode.RootXNode;
+import com.evolveum.midpoint.prism.xnode.XNode;
+import com.evolveum.midpoint.util.QNameUtil;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AbstractCredentialType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ActivationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.CredentialsType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.FocusType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.TaskType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+
+import javax.xml.namespace.QName;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Applies modifications of frequently updated items (object metadata, activation timestamps, login information,
+ * task progress and statistics) to the stored full object without parsing and serializing the whole object.
+ *
+ * The stored object is read only to the XNode level. Top-level items touched by the modifications are parsed
+ * into a partial object (containing nothing else), the modifications are applied to it, and the resulting items
+ * are serialized back into the stored XNode tree, replacing the original ones. Everything else stays untouched.
+ *
+ * Only modifications below the paths listed in PATCHABLE_PATHS are eligible. These items are not stripped
+ * from the full object (as e.g. jpegPhoto or task result are), and they do not contain anything processed
+ * in a special way by the repository.
+ */
+public class FullObjectPatcher {
+
+	private static final List<PatchablePath> PATCHABLE_PATHS = Arrays.asList(
+			new PatchablePath(ObjectType.class, ObjectType.F_METADATA),
+			new PatchablePath(FocusType.class, FocusType.F_ACTIVATION, ActivationType.F_ENABLE_TIMESTAMP),
+			new PatchablePath(FocusType.class, FocusType.F_ACTIVATION, ActivationType.F_DISABLE_TIMESTAMP),
+			new PatchablePath(FocusType.class, FocusType.F_ACTIVATION, ActivationType.F_ARCHIVE_TIMESTAMP),
+			new PatchablePath(FocusType.class, FocusType.F_ACTIVATION, ActivationType.F_VALIDITY_CHANGE_TIMESTAMP),
+			new PatchablePath(UserType.class, UserType.F_CREDENTIALS, CredentialsType.F_PASSWORD, AbstractCredentialType.F_LAST_SUCCESSFUL_LOGIN),
+			new PatchablePath(UserType.class, UserType.F_CREDENTIALS, CredentialsType.F_PASSWORD, AbstractCredentialType.F_PREVIOUS_SUCCESSFUL_LOGIN),
+			new PatchablePath(UserType.class, UserType.F_CREDENTIALS, CredentialsType.F_PASSWORD, AbstractCredentialType.F_LAST_FAILED_LOGIN),
+			new PatchablePath(UserType.class, UserType.F_CREDENTIALS, CredentialsType.F_PASSWORD, AbstractCredentialType.F_FAILED_LOGINS),
+			new PatchablePath(TaskType.class, TaskType.F_PROGRESS),
+			new PatchablePath(TaskType.class, TaskType.F_EXPECTED_TOTAL),
+			new PatchablePath(TaskType.class, TaskType.F_OPERATION_STATS),
+			new PatchablePath(TaskType.class, TaskType.F_LAST_RUN_START_TIMESTAMP),
+			new PatchablePath(TaskType.class, TaskType.F_LAST_RUN_FINISH_TIMESTAMP),
+			new PatchablePath(TaskType.class, TaskType.F_COMPLETION_TIMESTAMP),
+			new PatchablePath(TaskType.class, TaskType.F_STALLED_SINCE),
+			new PatchablePath(TaskType.class, TaskType.F_NODE_AS_OBSERVED));
+
+	private final PrismContext prismContext;
+
+	public FullObjectPatcher(PrismContext prismContext) {
+		this.prismContext = prismContext;
+	}
+
+	/**
+	 * Returns true if all the modifications can be applied by patching the stored full object.
+	 */
+	public static boolean isPatchable(Class<? extends ObjectType> type, Collection<? extends ItemDelta> modifications) {
+		if (modifications.isEmpty()) {
+			return false;
+		}
+		for (ItemDelta<?, ?> modification : modifications) {
+			if (!isPatchable(type, modification.getPath())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isPatchable(Class<? extends ObjectType> type, ItemPath path) {
+		ItemPath namedPath = path.namedSegmentsOnly();
+		for (PatchablePath patchablePath : PATCHABLE_PATHS) {
+			if (patchablePath.type.isAssignableFrom(type) && namedPath.startsWith(patchablePath.path)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Parses the top-level items touched by the modifications (plus oid and version) from the stored object.
+	 * Modifications applied to the returned object have the same effect on these items as if they were applied
+	 * to the whole object.
+	 */
+	public <T extends ObjectType> PrismObject<T> parsePartialObject(RootXNode fullObject,
+			Collection<? extends ItemDelta> modifications) throws SchemaException {
+		MapXNode fullMap = getObjectMap(fullObject);
+		Set<QName> names = getTopLevelNames(modifications);
+		MapXNode partialMap = new MapXNode();
+		for (Map.Entry<QName, XNode> entry : fullMap.entrySet()) {
+			QName key = entry.getKey();
+			if (QNameUtil.match(key, XNode.KEY_OID) || QNameUtil.match(key, XNode.KEY_VERSION)
+					|| containsName(names, key)) {
+				partialMap.put(key, entry.getValue());
+			}
+		}
+		partialMap.setTypeQName(fullMap.getTypeQName());
+		partialMap.setExplicitTypeDeclaration(fullMap.isExplicitTypeDeclaration());
+		RootXNode partialRoot = new RootXNode(fullObject.getRootElementName(), partialMap);
+		partialRoot.setTypeQName(fullObject.getTypeQName());
+		partialRoot.setExplicitTypeDeclaration(fullObject.isExplicitTypeDeclaration());
+		// "Postel mode", as when reading the whole object
+		return prismContext.parserFor(partialRoot)
+				.context(ParsingContext.forMode(XNodeProcessorEvaluationMode.COMPAT))
+				.parse();
+	}
+
+	/**
+	 * Replaces the top-level items touched by the modifications (and the version) in the stored object
+	 * by the ones from the partial object. Items that are not present in the partial object are removed;
+	 * new items are inserted in the order given by the object definition.
+	 */
+	public <T extends ObjectType> void patch(RootXNode fullObject, PrismObject<T> partialObject,
+			Collection<? extends ItemDelta> modifications) throws SchemaException {
+		MapXNode fullMap = getObjectMap(fullObject);
+		MapXNode partialMap = getObjectMap(prismContext.xnodeSerializer().serialize(partialObject));
+
+		replaceOrPut(fullMap, XNode.KEY_VERSION, partialMap.get(XNode.KEY_VERSION));
+		List<QName> definedNames = getDefinedNames(partialObject.getDefinition());
+		for (QName name : getTopLevelNames(modifications)) {
+			QName fullKey = findKey(fullMap, name);
+			XNode newValue = partialMap.get(name);
+			if (newValue == null) {
+				if (fullKey != null) {
+					fullMap.remove(fullKey);
+				}
+			} else if (fullKey != null) {
+				fullMap.replace(fullKey, newValue);
+			} else {
+				insert(fullMap, name, newValue, definedNames);
+			}
+		}
+	}
+
+	/**
+	 * Returns container IDs used in the stored object, so that IDs of new container values created
+	 * in the partial object do not clash with the ones in the rest of the object.
+	 */
+	public static Set<Long> collectContainerIds(XNode xnode) {
+		Set<Long> ids = new HashSet<>();
+		collectContainerIds(xnode, ids);
+		return ids;
+	}
+
+	private static void collectContainerIds(XNode xnode, Set<Long> ids) {
+		if (xnode instanceof RootXNode) {
+			collectContainerIds(((RootXNode) xnode).getSubnode(), ids);
+		} else if (xnode instanceof ListXNode) {
+			for (XNode item : (ListXNode) xnode) {
+				collectContainerIds(item, ids);
+			}
+		} else if (xnode instanceof MapXNode) {
+			for (Map.Entry<QName, XNode> entry : ((MapXNode) xnode).entrySet()) {
+				if (QNameUtil.match(entry.getKey(), XNode.KEY_CONTAINER_ID) && entry.getValue() instanceof PrimitiveXNode) {
+					String value = ((PrimitiveXNode<?>) entry.getValue()).getStringValue();
+					try {
+						ids.add(Long.parseLong(value));
+					} catch (NumberFormatException e) {
+						// not a container ID (e.g. an item named 'id' in a structured property)
+					}
+				} else {
+					collectContainerIds(entry.getValue(), ids);
+				}
+			}
+		}
+	}
+
+	private MapXNode getObjectMap(RootXNode root) throws SchemaException {
+		if (!(root.getSubnode() instanceof MapXNode)) {
+			throw new SchemaException("Object is not a map: " + root.getSubnode());
+		}
+		return (MapXNode) root.getSubnode();
+	}
+
+	private static Set<QName> getTopLevelNames(Collection<? extends ItemDelta> modifications) {
+		Set<QName> names = new LinkedHashSet<>();
+		for (ItemDelta<?, ?> modification : modifications) {
+			ItemPath namedPath = modification.getPath().namedSegmentsOnly();
+			if (!namedPath.isEmpty()) {
+				names.add(((NameItemPathSegment) namedPath.first()).getName());
+			}
+		}
+		return names;
+	}
+
+	private static boolean containsName(Collection<QName> names, QName name) {
+		for (QName n : names) {
+			if (QNameUtil.match(n, name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static QName findKey(MapXNode map, QName name) {
+		for (QName key : map.keySet()) {
+			if (QNameUtil.match(key, name)) {
+				return key;
+			}
+		}
+		return null;
+	}
+
+	private static void replaceOrPut(MapXNode map, QName name, XNode value) {
+		QName key = findKey(map, name);
+		if (key != null) {
+			map.replace(key, value);
+		} else {
+			map.put(name, value);
+		}
+	}
+
+	private static List<QName> getDefinedNames(PrismObjectDefinition<?> definition) {
+		List<QName> names = new ArrayList<>();
+		for (ItemDefinition<?> itemDefinition : definition.getDefinitions()) {
+			names.add(itemDefinition.getName());
+		}
+		return names;
+	}
+
+	// MapXNode keeps insertion order, so the entries that should follow the new one are moved behind it
+	private static void insert(MapXNode map, QName name, XNode value, List<QName> definedNames) {
+		int index = indexOf(definedNames, name);
+		List<Map.Entry<QName, XNode>> following = new ArrayList<>();
+		for (Map.Entry<QName, XNode> entry : map.entrySet()) {
+			if (!following.isEmpty() || index >= 0 && indexOf(definedNames, entry.getKey()) > index) {
+				following.add(entry);
+			}
+		}
+		for (Map.Entry<QName, XNode> entry : following) {
+			map.remove(entry.getKey());
+		}
+		map.put(name, value);
+		for (Map.Entry<QName, XNode> entry : following) {
+			map.put(entry.getKey(), entry.getValue());
+		}
+	}
+
+	private static int indexOf(List<QName> names, QName name) {
+		for (int i = 0; i < names.size(); i++) {
+			if (QNameUtil.match(names.get(i), name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static class PatchablePath {
+		private final Class<? extends ObjectType> type;
+		private final ItemPath path;
+
+		private PatchablePath(Class<? extends ObjectType> type, QName... names) {
+			this.type = type;
+			this.path = new ItemPath(names);
+		}
+	}
+}
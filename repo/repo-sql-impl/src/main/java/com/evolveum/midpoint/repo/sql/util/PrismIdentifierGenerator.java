@@ -106,6 +106,10 @@ public class PrismIdentifierGenerator<O extends ObjectType> implements DebugDump
     public void collectUsedIds(@NotNull PrismObject<O> object) {
     	collectUsedIds(listAllPrismContainers(object));
     }
+
+    public void addUsedIds(@NotNull Collection<Long> ids) {
+        usedIds.addAll(ids);
+    }
     
     private void collectUsedIds(List<PrismContainer<?>> containers) {
         for (PrismContainer<?> c : containers) {
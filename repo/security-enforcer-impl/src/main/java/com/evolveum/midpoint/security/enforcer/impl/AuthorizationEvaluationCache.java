@@ -0,0 +1,69 @@
+/**
+ * Copyright (c) 2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.security.enforcer.impl;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.security.api.OwnerResolver;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.FocusType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OwnedObjectSelectorType;
+
+/**
+ * Results computed during one evaluation of authorizations (e.g. both phases of one isAuthorized call), so they
+ * are not computed again for each authorization: owners of the objects and applicability of the object/target
+ * selectors. Objects and selectors are compared by identity; they must not be changed during the evaluation.
+ *
+ * Not thread-safe. It must not be kept after the evaluation ends, as the owners may change.
+ */
+class AuthorizationEvaluationCache {
+
+	private final Map<List<OwnedObjectSelectorType>, Map<PrismObject<?>, Boolean>> applicability = new IdentityHashMap<>();
+	private final Map<PrismObject<?>, PrismObject<?>> owners = new IdentityHashMap<>();
+
+	Boolean getApplicability(List<OwnedObjectSelectorType> selectors, PrismObject<?> object) {
+		Map<PrismObject<?>, Boolean> objectApplicability = applicability.get(selectors);
+		return objectApplicability != null ? objectApplicability.get(object) : null;
+	}
+
+	void putApplicability(List<OwnedObjectSelectorType> selectors, PrismObject<?> object, boolean applicable) {
+		applicability.computeIfAbsent(selectors, k -> new IdentityHashMap<>()).put(object, applicable);
+	}
+
+	/**
+	 * @return owner resolver that remembers the owners resolved by the given one
+	 */
+	OwnerResolver memoize(OwnerResolver ownerResolver) {
+		if (ownerResolver == null) {
+			return null;
+		}
+		return new OwnerResolver() {
+			@SuppressWarnings("unchecked")
+			@Override
+			public <F extends FocusType, O extends ObjectType> PrismObject<F> resolveOwner(PrismObject<O> object) {
+				if (owners.containsKey(object)) {
+					return (PrismObject<F>) owners.get(object);
+				}
+				PrismObject<F> owner = ownerResolver.resolveOwner(object);
+				owners.put(object, owner);
+				return owner;
+			}
+		};
+	}
+}
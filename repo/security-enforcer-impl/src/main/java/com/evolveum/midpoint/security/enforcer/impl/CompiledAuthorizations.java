@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.security.enforcer.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.evolveum.midpoint.security.api.Authorization;
+import com.evolveum.midpoint.security.api.AuthorizationConstants;
+
+/**
+ * Authorizations of a principal indexed by action URL, so the evaluation of an operation does not need to go
+ * through all the authorizations of the principal. The lists are computed on first use of each action
+ * and keep the original order of the authorizations (which matters for the evaluation).
+ *
+ * The index is a snapshot. It has to be checked by {@link #isCompiledFrom(Collection)} before it is reused,
+ * as the authorities of a principal may be changed after it was built.
+ */
+class CompiledAuthorizations {
+
+	private final List<Authorization> authorizations;
+	private final Map<String, List<Authorization>> byAction = new ConcurrentHashMap<>();
+
+	CompiledAuthorizations(Collection<Authorization> authorities) {
+		this.authorizations = new ArrayList<>(authorities);
+	}
+
+	/**
+	 * @return authorizations that contain given action (or the "all" action), in their original order
+	 */
+	List<Authorization> getApplicable(String operationUrl) {
+		if (operationUrl == null) {
+			return Collections.emptyList();
+		}
+		return byAction.computeIfAbsent(operationUrl, this::collectApplicable);
+	}
+
+	boolean isCompiledFrom(Collection<Authorization> authorities) {
+		if (authorities.size() != authorizations.size()) {
+			return false;
+		}
+		Iterator<Authorization> iterator = authorizations.iterator();
+		for (Authorization authority : authorities) {
+			if (authority != iterator.next()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private List<Authorization> collectApplicable(String operationUrl) {
+		List<Authorization> applicable = new ArrayList<>();
+		for (Authorization autz : authorizations) {
+			if (autz.getAction().contains(operationUrl) || autz.getAction().contains(AuthorizationConstants.AUTZ_ALL_URL)) {
+				applicable.add(autz);
+			}
+		}
+		return Collections.unmodifiableList(applicable);
+	}
+}
@@ -17,7 +17,10 @@ package com.evolveum.midpoint.security.enforcer.impl;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.function.Consumer;
 
 import javax.xml.namespace.QName;
@@ -133,6 +136,9 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 	@Qualifier("securityContextManager")
 	private SecurityContextManager securityContextManager;
 
+	// authorizations of principals indexed by action; principals are compared by identity
+	private final Map<MidPointPrincipal, CompiledAuthorizations> compiledAuthorizations = Collections.synchronizedMap(new WeakHashMap<>());
+
 	@Override
 	public <O extends ObjectType, T extends ObjectType> boolean isAuthorized(String operationUrl, AuthorizationPhaseType phase,
 			AuthorizationParameters<O,T> params, OwnerResolver ownerResolver, Task task, OperationResult result)
@@ -145,19 +151,22 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 			AuthorizationParameters<O,T> params, OwnerResolver ownerResolver, 
 			Consumer<Authorization> applicableAutzConsumer, Task task, OperationResult result)
 			throws SchemaException, ObjectNotFoundException, ExpressionEvaluationException, CommunicationException, ConfigurationException, SecurityViolationException {
+		// Owners and selector applicability are the same for both phases (and all authorizations)
+		AuthorizationEvaluationCache evaluationCache = new AuthorizationEvaluationCache();
+		OwnerResolver memoizedOwnerResolver = evaluationCache.memoize(getOwnerResolver(ownerResolver));
 		if (phase == null) {
-			AccessDecision requestPhaseDecision = isAuthorizedPhase(midPointPrincipal, operationUrl, AuthorizationPhaseType.REQUEST, params, ownerResolver, applicableAutzConsumer, task, result);
+			AccessDecision requestPhaseDecision = isAuthorizedPhase(midPointPrincipal, operationUrl, AuthorizationPhaseType.REQUEST, params, memoizedOwnerResolver, evaluationCache, applicableAutzConsumer, task, result);
 			if (!requestPhaseDecision.equals(AccessDecision.ALLOW)) {
 				return requestPhaseDecision;
 			}
-			return isAuthorizedPhase(midPointPrincipal, operationUrl, AuthorizationPhaseType.EXECUTION, params, ownerResolver, applicableAutzConsumer, task, result);
+			return isAuthorizedPhase(midPointPrincipal, operationUrl, AuthorizationPhaseType.EXECUTION, params, memoizedOwnerResolver, evaluationCache, applicableAutzConsumer, task, result);
 		} else {
-			return isAuthorizedPhase(midPointPrincipal, operationUrl, phase, params, ownerResolver, applicableAutzConsumer, task, result);
+			return isAuthorizedPhase(midPointPrincipal, operationUrl, phase, params, memoizedOwnerResolver, evaluationCache, applicableAutzConsumer, task, result);
 		}
 	}
 
 	private <O extends ObjectType, T extends ObjectType> AccessDecision isAuthorizedPhase(MidPointPrincipal midPointPrincipal, String operationUrl, AuthorizationPhaseType phase,
-			AuthorizationParameters<O,T> params, OwnerResolver ownerResolver, 
+			AuthorizationParameters<O,T> params, OwnerResolver ownerResolver, AuthorizationEvaluationCache evaluationCache,
 			Consumer<Authorization> applicableAutzConsumer, Task task, OperationResult result)
 			throws SchemaException, ObjectNotFoundException, ExpressionEvaluationException, CommunicationException, ConfigurationException, SecurityViolationException {
 
@@ -174,7 +183,8 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 				getUsername(midPointPrincipal), operationUrl, phase, params.shortDump());
 		}
 		final AutzItemPaths allowedItems = new AutzItemPaths();
-		Collection<Authorization> authorities = getAuthorities(midPointPrincipal);
+		// only authorizations for this action (or all actions)
+		Collection<Authorization> authorities = getApplicableAuthorizations(midPointPrincipal, operationUrl);
 		if (authorities != null) {
 			for (GrantedAuthority authority: authorities) {
 				if (authority instanceof Authorization) {
@@ -183,12 +193,7 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 					LOGGER.trace("  Evaluating {}", autzHumanReadableDesc);
 
 					// First check if the authorization is applicable.
-
-					// action
-					if (!autz.getAction().contains(operationUrl) && !autz.getAction().contains(AuthorizationConstants.AUTZ_ALL_URL)) {
-						LOGGER.trace("    {} not applicable for operation {}", autzHumanReadableDesc, operationUrl);
-						continue;
-					}
+					// (action was already checked when the authorizations were indexed)
 
 					// phase
 					if (autz.getPhase() == null) {
@@ -209,7 +214,7 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 					}
 
 					// object
-					if (isApplicable(autz.getObject(), params.getObject(), midPointPrincipal, ownerResolver, "object", autzHumanReadableDesc, task, result)) {
+					if (isApplicable(autz.getObject(), params.getObject(), midPointPrincipal, ownerResolver, evaluationCache, "object", autzHumanReadableDesc, task, result)) {
 						LOGGER.trace("    {} applicable for object {} (continuing evaluation)", autzHumanReadableDesc, params.getObject());
 					} else {
 						LOGGER.trace("    {} not applicable for object {}, none of the object specifications match (breaking evaluation)",
@@ -218,7 +223,7 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 					}
 
 					// target
-					if (isApplicable(autz.getTarget(), params.getTarget(), midPointPrincipal, ownerResolver, "target", autzHumanReadableDesc, task, result)) {
+					if (isApplicable(autz.getTarget(), params.getTarget(), midPointPrincipal, ownerResolver, evaluationCache, "target", autzHumanReadableDesc, task, result)) {
 						LOGGER.trace("    {} applicable for target {} (continuing evaluation)", autzHumanReadableDesc, params.getObject());
 					} else {
 						LOGGER.trace("    {} not applicable for target {}, none of the target specifications match (breaking evaluation)",
@@ -531,6 +536,19 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 		throw e;
 	}
 
+	private <O extends ObjectType> boolean isApplicable(List<OwnedObjectSelectorType> objectSpecTypes, PrismObject<O> object,
+			MidPointPrincipal midPointPrincipal, OwnerResolver ownerResolver, AuthorizationEvaluationCache evaluationCache, String desc,
+			String autzHumanReadableDesc, Task task, OperationResult result) throws SchemaException, ObjectNotFoundException, ExpressionEvaluationException, CommunicationException, ConfigurationException, SecurityViolationException {
+		Boolean cached = evaluationCache.getApplicability(objectSpecTypes, object);
+		if (cached != null) {
+			LOGGER.trace("    {}: applicability for {} already evaluated: {}", autzHumanReadableDesc, desc, cached);
+			return cached;
+		}
+		boolean applicable = isApplicable(objectSpecTypes, object, midPointPrincipal, ownerResolver, desc, autzHumanReadableDesc, task, result);
+		evaluationCache.putApplicability(objectSpecTypes, object, applicable);
+		return applicable;
+	}
+
 	private <O extends ObjectType> boolean isApplicable(List<OwnedObjectSelectorType> objectSpecTypes, PrismObject<O> object,
 			MidPointPrincipal midPointPrincipal, OwnerResolver ownerResolver, String desc, String autzHumanReadableDesc, Task task, OperationResult result) throws SchemaException, ObjectNotFoundException, ExpressionEvaluationException, CommunicationException, ConfigurationException, SecurityViolationException {
 		if (objectSpecTypes != null && !objectSpecTypes.isEmpty()) {
@@ -943,6 +961,24 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 		}
 	}
 
+	private List<Authorization> getApplicableAuthorizations(MidPointPrincipal principal, String operationUrl) {
+		Collection<Authorization> authorities = getAuthorities(principal);
+		if (principal == null) {
+			// Anonymous access, the authorities are collected again for each call
+			return new CompiledAuthorizations(authorities).getApplicable(operationUrl);
+		}
+		CompiledAuthorizations compiled = compiledAuthorizations.get(principal);
+		if (compiled == null || !compiled.isCompiledFrom(authorities)) {
+			compiled = new CompiledAuthorizations(authorities);
+			compiledAuthorizations.put(principal, compiled);
+		}
+		return compiled.getApplicable(operationUrl);
+	}
+
+	private OwnerResolver getOwnerResolver(OwnerResolver ownerResolver) {
+		return ownerResolver != null ? ownerResolver : securityContextManager.getUserProfileService();
+	}
+
 	@Override
 	public <O extends ObjectType> ObjectSecurityConstraints compileSecurityConstraints(PrismObject<O> object, OwnerResolver ownerResolver, Task task, OperationResult result) throws SchemaException, ObjectNotFoundException, ExpressionEvaluationException, CommunicationException, ConfigurationException, SecurityViolationException {
 		MidPointPrincipal principal = getMidPointPrincipal();
@@ -953,6 +989,8 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 			LOGGER.trace("AUTZ: evaluating security constraints principal={}, object={}", getUsername(principal), object);
 		}
 		ObjectSecurityConstraintsImpl objectSecurityConstraints = new ObjectSecurityConstraintsImpl();
+		AuthorizationEvaluationCache evaluationCache = new AuthorizationEvaluationCache();
+		ownerResolver = evaluationCache.memoize(getOwnerResolver(ownerResolver));
 		Collection<Authorization> authorities = getAuthorities(principal);
 		if (authorities != null) {
 			for (Authorization autz: authorities) {
@@ -962,7 +1000,7 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 				// skip action applicability evaluation. We are interested in all actions
 
 				// object
-				if (isApplicable(autz.getObject(), object, principal, ownerResolver, "object", autzHumanReadableDesc, task, result)) {
+				if (isApplicable(autz.getObject(), object, principal, ownerResolver, evaluationCache, "object", autzHumanReadableDesc, task, result)) {
 					LOGGER.trace("    {} applicable for object {} (continuing evaluation)", autzHumanReadableDesc, object);
 				} else {
 					LOGGER.trace("    {} not applicable for object {}, none of the object specifications match (breaking evaluation)",
@@ -1057,7 +1095,10 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 			AuthorizationPhaseType phase, boolean includeNullPhase,
 			Class<T> objectType, PrismObject<O> object, boolean includeSpecial, ObjectFilter origFilter, String limitAuthorizationAction, String desc, Task task, OperationResult result) throws SchemaException, ObjectNotFoundException, ExpressionEvaluationException, CommunicationException, ConfigurationException, SecurityViolationException {
 
-		Collection<Authorization> authorities = getAuthorities(principal);
+		// only authorizations for this action (or all actions)
+		Collection<Authorization> authorities = getApplicableAuthorizations(principal, operationUrl);
+		AuthorizationEvaluationCache evaluationCache = new AuthorizationEvaluationCache();
+		OwnerResolver ownerResolver = evaluationCache.memoize(getOwnerResolver(null));
 
 		ObjectFilter securityFilterAllow = null;
 		ObjectFilter securityFilterDeny = null;
@@ -1076,12 +1117,6 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 					String autzHumanReadableDesc = autz.getHumanReadableDesc();
 					LOGGER.trace("  Evaluating {}", autzHumanReadableDesc);
 
-					// action
-					if (!autz.getAction().contains(operationUrl) && !autz.getAction().contains(AuthorizationConstants.AUTZ_ALL_URL)) {
-						LOGGER.trace("    Authorization not applicable for operation {}", operationUrl);
-						continue;
-					}
-
 					// phase
 					if (autz.getPhase() == phase || (includeNullPhase && autz.getPhase() == null)) {
 						LOGGER.trace("    Authorization is applicable for phases {} (continuing evaluation)", phase);
@@ -1109,7 +1144,7 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 						objectTargetSpec = "target";
 
 						// .. but we need to decide whether this authorization is applicable to the object
-						if (isApplicable(autz.getObject(), object, principal, null, "object", autzHumanReadableDesc, task, result)) {
+						if (isApplicable(autz.getObject(), object, principal, ownerResolver, evaluationCache, "object", autzHumanReadableDesc, task, result)) {
 							LOGGER.trace("    Authorization is applicable for object {}", object);
 						} else {
 							LOGGER.trace("    Authorization is not applicable for object {}", object);
@@ -1545,19 +1580,16 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 			String operationUrl, PrismObject<O> object, PrismObject<R> target, OwnerResolver ownerResolver, Task task, OperationResult result) throws SchemaException, ObjectNotFoundException, ExpressionEvaluationException, CommunicationException, ConfigurationException, SecurityViolationException {
 
 		ItemSecurityConstraintsImpl itemConstraints = new ItemSecurityConstraintsImpl();
+		AuthorizationEvaluationCache evaluationCache = new AuthorizationEvaluationCache();
+		ownerResolver = evaluationCache.memoize(getOwnerResolver(ownerResolver));
 
-		for(Authorization autz: getAuthorities(midPointPrincipal)) {
+		// only authorizations for this action (or all actions)
+		for(Authorization autz: getApplicableAuthorizations(midPointPrincipal, operationUrl)) {
 			String autzHumanReadableDesc = autz.getHumanReadableDesc();
 			LOGGER.trace("  Evaluating {}", autzHumanReadableDesc);
 
 			// First check if the authorization is applicable.
 
-			// action
-			if (!autz.getAction().contains(operationUrl) && !autz.getAction().contains(AuthorizationConstants.AUTZ_ALL_URL)) {
-				LOGGER.trace("    {} not applicable for operation {}", autzHumanReadableDesc, operationUrl);
-				continue;
-			}
-
 			// phase
 			if (autz.getPhase() != null && autz.getPhase() != AuthorizationPhaseType.REQUEST) {
 				LOGGER.trace("    {} is not applicable for phase {} (breaking evaluation)", autzHumanReadableDesc, AuthorizationPhaseType.REQUEST);
@@ -1565,7 +1597,7 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 			}
 
 			// object
-			if (isApplicable(autz.getObject(), object, midPointPrincipal, ownerResolver, "object", autzHumanReadableDesc, task, result)) {
+			if (isApplicable(autz.getObject(), object, midPointPrincipal, ownerResolver, evaluationCache, "object", autzHumanReadableDesc, task, result)) {
 				LOGGER.trace("    {} applicable for object {} (continuing evaluation)", autzHumanReadableDesc, object);
 			} else {
 				LOGGER.trace("    {} not applicable for object {}, none of the object specifications match (breaking evaluation)",
@@ -1574,7 +1606,7 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 			}
 
 			// target
-			if (isApplicable(autz.getTarget(), target, midPointPrincipal, ownerResolver, "target", autzHumanReadableDesc, task, result)) {
+			if (isApplicable(autz.getTarget(), target, midPointPrincipal, ownerResolver, evaluationCache, "target", autzHumanReadableDesc, task, result)) {
 				LOGGER.trace("    {} applicable for target {} (continuing evaluation)", autzHumanReadableDesc, object);
 			} else {
 				LOGGER.trace("    {} not applicable for target {}, none of the target specifications match (breaking evaluation)",
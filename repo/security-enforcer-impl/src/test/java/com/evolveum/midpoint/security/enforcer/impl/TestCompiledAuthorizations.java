@@ -0,0 +1,88 @@
+/**
+ * Copyright (c) 2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.security.enforcer.impl;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.security.api.Authorization;
+import com.evolveum.midpoint.security.api.AuthorizationConstants;
+import com.evolveum.midpoint.test.util.TestUtil;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AuthorizationDecisionType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AuthorizationType;
+
+/**
+ * Authorizations indexed by action.
+ */
+public class TestCompiledAuthorizations {
+
+	static final String ACTION_READ = AuthorizationConstants.NS_AUTHORIZATION_MODEL + "#read";
+	static final String ACTION_MODIFY = AuthorizationConstants.NS_AUTHORIZATION_MODEL + "#modify";
+	static final String ACTION_DELETE = AuthorizationConstants.NS_AUTHORIZATION_MODEL + "#delete";
+
+	@Test
+	public void test100KeepOrderAcrossAllAction() {
+		final String TEST_NAME = "test100KeepOrderAcrossAllAction";
+		TestUtil.displayTestTitle(TEST_NAME);
+		Authorization allowAll = createAuthorization(AuthorizationDecisionType.ALLOW, AuthorizationConstants.AUTZ_ALL_URL);
+		Authorization denyRead = createAuthorization(AuthorizationDecisionType.DENY, ACTION_READ);
+		Authorization allowModify = createAuthorization(AuthorizationDecisionType.ALLOW, ACTION_MODIFY, ACTION_READ);
+		Authorization denyAll = createAuthorization(AuthorizationDecisionType.DENY, AuthorizationConstants.AUTZ_ALL_URL);
+		CompiledAuthorizations compiled = new CompiledAuthorizations(Arrays.asList(allowAll, denyRead, allowModify, denyAll));
+
+		assertEquals(Arrays.asList(allowAll, denyRead, allowModify, denyAll), compiled.getApplicable(ACTION_READ));
+		assertEquals(Arrays.asList(allowAll, allowModify, denyAll), compiled.getApplicable(ACTION_MODIFY));
+		assertEquals(Arrays.asList(allowAll, denyAll), compiled.getApplicable(ACTION_DELETE));
+		assertTrue(compiled.getApplicable(null).isEmpty());
+
+		assertSame("Applicable authorizations not reused", compiled.getApplicable(ACTION_READ), compiled.getApplicable(ACTION_READ));
+	}
+
+	@Test
+	public void test200CompiledFrom() {
+		final String TEST_NAME = "test200CompiledFrom";
+		TestUtil.displayTestTitle(TEST_NAME);
+		Authorization allowRead = createAuthorization(AuthorizationDecisionType.ALLOW, ACTION_READ);
+		Authorization denyRead = createAuthorization(AuthorizationDecisionType.DENY, ACTION_READ);
+		List<Authorization> authorities = new ArrayList<>(Arrays.asList(allowRead, denyRead));
+		CompiledAuthorizations compiled = new CompiledAuthorizations(authorities);
+
+		assertTrue(compiled.isCompiledFrom(authorities));
+		assertTrue("Equal list not accepted", compiled.isCompiledFrom(Arrays.asList(allowRead, denyRead)));
+		assertFalse("Reordered authorizations accepted", compiled.isCompiledFrom(Arrays.asList(denyRead, allowRead)));
+		assertFalse("Equal but different authorization accepted", compiled.isCompiledFrom(
+				Arrays.asList(allowRead, createAuthorization(AuthorizationDecisionType.DENY, ACTION_READ))));
+
+		authorities.remove(denyRead);
+		assertFalse("Removed authorization not detected", compiled.isCompiledFrom(authorities));
+		assertEquals("Index changed by its source", 2, compiled.getApplicable(ACTION_READ).size());
+	}
+
+	static Authorization createAuthorization(AuthorizationDecisionType decision, String... actions) {
+		AuthorizationType authorizationType = new AuthorizationType();
+		authorizationType.setDecision(decision);
+		authorizationType.getAction().addAll(Arrays.asList(actions));
+		return new Authorization(authorizationType);
+	}
+}
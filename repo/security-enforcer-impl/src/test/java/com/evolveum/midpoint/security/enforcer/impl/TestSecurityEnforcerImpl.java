@@ -0,0 +1,258 @@
+/**
+ * Copyright (c) 2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.security.enforcer.impl;
+
+import static com.evolveum.midpoint.security.enforcer.impl.TestCompiledAuthorizations.ACTION_MODIFY;
+import static com.evolveum.midpoint.security.enforcer.impl.TestCompiledAuthorizations.ACTION_READ;
+import static com.evolveum.midpoint.security.enforcer.impl.TestCompiledAuthorizations.createAuthorization;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.Test;
+import org.xml.sax.SAXException;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.repo.api.query.ObjectFilterExpressionEvaluator;
+import com.evolveum.midpoint.schema.MidPointPrismContextFactory;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.security.api.Authorization;
+import com.evolveum.midpoint.security.api.AuthorizationConstants;
+import com.evolveum.midpoint.security.api.MidPointPrincipal;
+import com.evolveum.midpoint.security.api.OwnerResolver;
+import com.evolveum.midpoint.security.api.SecurityContextManager;
+import com.evolveum.midpoint.security.enforcer.api.AuthorizationParameters;
+import com.evolveum.midpoint.test.util.TestUtil;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AuthorizationDecisionType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AuthorizationPhaseType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AuthorizationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.FocusType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectSelectorType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OwnedObjectSelectorType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SpecialObjectSpecificationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SubjectedObjectSelectorType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+
+/**
+ * Evaluation of authorizations with the index by action and the per-evaluation cache.
+ * The repository is mocked: all selectors match on their type and filter, so only the decisions,
+ * phases and owner/self clauses evaluated by the enforcer itself matter.
+ */
+public class TestSecurityEnforcerImpl {
+
+	private static final String USER_JACK_OID = "c0c010c0-d34d-b33f-f00d-111111111111";
+	private static final String USER_BARBOSSA_OID = "c0c010c0-d34d-b33f-f00d-111111111112";
+	private static final String SHADOW_JACK_OID = "c0c010c0-d34d-b33f-f00d-222222222221";
+	private static final String SHADOW_BARBOSSA_OID = "c0c010c0-d34d-b33f-f00d-222222222222";
+
+	private SecurityEnforcerImpl securityEnforcer;
+	private MidPointPrincipal principal;
+	private CountingOwnerResolver ownerResolver;
+
+	@BeforeSuite
+	public void setupPrismContext() throws SchemaException, SAXException, IOException {
+		PrismTestUtil.resetPrismContext(MidPointPrismContextFactory.FACTORY);
+	}
+
+	@BeforeMethod
+	public void createSecurityEnforcer() throws Exception {
+		RepositoryService repositoryService = mock(RepositoryService.class);
+		when(repositoryService.selectorMatches(any(ObjectSelectorType.class), any(PrismObject.class),
+				any(ObjectFilterExpressionEvaluator.class), any(Trace.class), anyString())).thenReturn(true);
+		securityEnforcer = new SecurityEnforcerImpl();
+		ReflectionTestUtils.setField(securityEnforcer, "repositoryService", repositoryService);
+		ReflectionTestUtils.setField(securityEnforcer, "prismContext", PrismTestUtil.getPrismContext());
+		ReflectionTestUtils.setField(securityEnforcer, "securityContextManager", mock(SecurityContextManager.class));
+
+		principal = new MidPointPrincipal(createUser(USER_JACK_OID, "jack"));
+		SecurityContextHolder.getContext().setAuthentication(
+				new UsernamePasswordAuthenticationToken(principal, null, principal.getAuthorities()));
+		ownerResolver = new CountingOwnerResolver();
+	}
+
+	@AfterMethod
+	public void clearSecurityContext() {
+		SecurityContextHolder.getContext().setAuthentication(null);
+	}
+
+	/**
+	 * Deny wins regardless of its position relative to an allow of all actions.
+	 */
+	@Test
+	public void test100DenyAndAllowAll() throws Exception {
+		final String TEST_NAME = "test100DenyAndAllowAll";
+		TestUtil.displayTestTitle(TEST_NAME);
+		Collection<Authorization> authorities = principal.getAuthorities();
+
+		authorities.add(createAuthorization(AuthorizationDecisionType.ALLOW, AuthorizationConstants.AUTZ_ALL_URL));
+		authorities.add(createAuthorization(AuthorizationDecisionType.DENY, ACTION_READ));
+		assertFalse("Read allowed despite deny after allow all", isAuthorized(ACTION_READ, AuthorizationParameters.EMPTY));
+		assertTrue("Modify not allowed by allow all", isAuthorized(ACTION_MODIFY, AuthorizationParameters.EMPTY));
+
+		authorities.clear();
+		authorities.add(createAuthorization(AuthorizationDecisionType.DENY, ACTION_READ));
+		authorities.add(createAuthorization(AuthorizationDecisionType.ALLOW, AuthorizationConstants.AUTZ_ALL_URL));
+		assertFalse("Read allowed despite deny before allow all", isAuthorized(ACTION_READ, AuthorizationParameters.EMPTY));
+		assertTrue("Modify not allowed by allow all", isAuthorized(ACTION_MODIFY, AuthorizationParameters.EMPTY));
+
+		authorities.clear();
+		authorities.add(createAuthorization(AuthorizationDecisionType.ALLOW, ACTION_READ));
+		authorities.add(createAuthorization(AuthorizationDecisionType.DENY, AuthorizationConstants.AUTZ_ALL_URL));
+		assertFalse("Read allowed despite deny all", isAuthorized(ACTION_READ, AuthorizationParameters.EMPTY));
+	}
+
+	/**
+	 * The authorities of a principal are changed after the index for the principal was built.
+	 */
+	@Test
+	public void test200AuthoritiesChanged() throws Exception {
+		final String TEST_NAME = "test200AuthoritiesChanged";
+		TestUtil.displayTestTitle(TEST_NAME);
+		Collection<Authorization> authorities = principal.getAuthorities();
+		authorities.add(createAuthorization(AuthorizationDecisionType.ALLOW, ACTION_READ));
+		assertTrue(isAuthorized(ACTION_READ, AuthorizationParameters.EMPTY));
+		assertFalse(isAuthorized(ACTION_MODIFY, AuthorizationParameters.EMPTY));
+
+		authorities.add(createAuthorization(AuthorizationDecisionType.DENY, ACTION_READ));
+		assertFalse("Added deny ignored", isAuthorized(ACTION_READ, AuthorizationParameters.EMPTY));
+
+		// the same number of authorizations, but different ones
+		authorities.clear();
+		authorities.add(createAuthorization(AuthorizationDecisionType.ALLOW, ACTION_MODIFY));
+		authorities.add(createAuthorization(AuthorizationDecisionType.ALLOW, ACTION_MODIFY));
+		assertFalse("Removed authorization used", isAuthorized(ACTION_READ, AuthorizationParameters.EMPTY));
+		assertTrue("Added authorization ignored", isAuthorized(ACTION_MODIFY, AuthorizationParameters.EMPTY));
+
+		authorities.clear();
+		assertFalse("Removed authorization used", isAuthorized(ACTION_MODIFY, AuthorizationParameters.EMPTY));
+	}
+
+	/**
+	 * Owner-relative selectors in authorizations for request and execution phase. The owner is resolved
+	 * only once for both phases.
+	 */
+	@Test
+	public void test300OwnerSelectorBothPhases() throws Exception {
+		final String TEST_NAME = "test300OwnerSelectorBothPhases";
+		TestUtil.displayTestTitle(TEST_NAME);
+		principal.getAuthorities().add(createOwnerAuthorization(AuthorizationPhaseType.REQUEST));
+		principal.getAuthorities().add(createOwnerAuthorization(AuthorizationPhaseType.EXECUTION));
+
+		assertTrue("Own shadow not allowed",
+				isAuthorized(ACTION_MODIFY, AuthorizationParameters.Builder.buildObject(createShadow(SHADOW_JACK_OID))));
+		assertEquals("Owner not reused in execution phase", 1, ownerResolver.count);
+
+		ownerResolver.count = 0;
+		assertFalse("Shadow of other user allowed",
+				isAuthorized(ACTION_MODIFY, AuthorizationParameters.Builder.buildObject(createShadow(SHADOW_BARBOSSA_OID))));
+		assertEquals("Wrong # of owner resolutions", 1, ownerResolver.count);
+
+		// each evaluation resolves the owner again, as it may have changed in the meantime
+		ownerResolver.count = 0;
+		PrismObject<ShadowType> shadow = createShadow(SHADOW_JACK_OID);
+		assertTrue(isAuthorized(ACTION_MODIFY, AuthorizationParameters.Builder.buildObject(shadow)));
+		assertTrue(isAuthorized(ACTION_MODIFY, AuthorizationParameters.Builder.buildObject(shadow)));
+		assertEquals("Owner kept between evaluations", 2, ownerResolver.count);
+	}
+
+	/**
+	 * Only the execution phase is allowed: the request phase denies, the owner is resolved for the request phase only.
+	 */
+	@Test
+	public void test310OwnerSelectorExecutionPhaseOnly() throws Exception {
+		final String TEST_NAME = "test310OwnerSelectorExecutionPhaseOnly";
+		TestUtil.displayTestTitle(TEST_NAME);
+		principal.getAuthorities().add(createOwnerAuthorization(AuthorizationPhaseType.EXECUTION));
+		PrismObject<ShadowType> shadow = createShadow(SHADOW_JACK_OID);
+
+		assertFalse("Allowed without request phase authorization",
+				isAuthorized(ACTION_MODIFY, AuthorizationParameters.Builder.buildObject(shadow)));
+		assertEquals("Owner resolved for non-applicable phase", 0, ownerResolver.count);
+
+		assertTrue(securityEnforcer.isAuthorized(ACTION_MODIFY, AuthorizationPhaseType.EXECUTION,
+				AuthorizationParameters.Builder.buildObject(shadow), ownerResolver, null, createResult(TEST_NAME)));
+		assertEquals("Wrong # of owner resolutions", 1, ownerResolver.count);
+	}
+
+	private <O extends ObjectType> boolean isAuthorized(String action, AuthorizationParameters<O, ObjectType> params)
+			throws Exception {
+		return securityEnforcer.isAuthorized(action, null, params, ownerResolver, null, createResult(action));
+	}
+
+	private OperationResult createResult(String operation) {
+		return new OperationResult(TestSecurityEnforcerImpl.class.getName() + "." + operation);
+	}
+
+	private Authorization createOwnerAuthorization(AuthorizationPhaseType phase) {
+		SubjectedObjectSelectorType owner = new SubjectedObjectSelectorType();
+		owner.getSpecial().add(SpecialObjectSpecificationType.SELF);
+		OwnedObjectSelectorType selector = new OwnedObjectSelectorType();
+		selector.setOwner(owner);
+		AuthorizationType authorizationType = new AuthorizationType();
+		authorizationType.getAction().add(ACTION_MODIFY);
+		authorizationType.setPhase(phase);
+		authorizationType.getObject().add(selector);
+		return new Authorization(authorizationType);
+	}
+
+	private UserType createUser(String oid, String name) {
+		UserType user = new UserType(PrismTestUtil.getPrismContext());
+		user.setOid(oid);
+		user.setName(PrismTestUtil.createPolyStringType(name));
+		return user;
+	}
+
+	private PrismObject<ShadowType> createShadow(String oid) {
+		ShadowType shadow = new ShadowType(PrismTestUtil.getPrismContext());
+		shadow.setOid(oid);
+		return shadow.asPrismObject();
+	}
+
+	private class CountingOwnerResolver implements OwnerResolver {
+
+		private int count;
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public <F extends FocusType, O extends ObjectType> PrismObject<F> resolveOwner(PrismObject<O> object) {
+			count++;
+			if (SHADOW_JACK_OID.equals(object.getOid())) {
+				return (PrismObject<F>) principal.getUser().asPrismObject();
+			} else {
+				return (PrismObject<F>) createUser(USER_BARBOSSA_OID, "barbossa").asPrismObject();
+			}
+		}
+	}
+}
@@ -69,6 +69,7 @@ import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.prism.query.builder.QueryBuilder;
 import com.evolveum.midpoint.prism.query.builder.S_AtomicFilterEntry;
 import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.schema.GetOperationOptions;
 import com.evolveum.midpoint.schema.ResultHandler;
@@ -171,6 +172,7 @@ public class TaskManagerQuartzImpl implements TaskManager, BeanFactoryAware {
 	@Autowired private PrismContext prismContext;
 	@Autowired private WorkStateManager workStateManager;
 	@Autowired private WorkersManager workersManager;
+	@Autowired(required = false) private CacheDispatcher cacheDispatcher;
 
 	@Autowired
 	@Qualifier("securityContextManager")
@@ -1737,6 +1739,10 @@ public class TaskManagerQuartzImpl implements TaskManager, BeanFactoryAware {
         return repositoryService;
     }
 
+    public CacheDispatcher getCacheDispatcher() {
+        return cacheDispatcher;
+    }
+
     public ExecutionManager getExecutionManager() {
         return executionManager;
     }
@@ -2929,6 +2929,11 @@ public class TaskQuartzImpl implements Task {
 				.recordProvisioningOperation(resourceOid, resourceName, objectClassName, operation, success, count, duration);
 	}
 
+	@Override
+	public void recordShadowLookup(String resourceOid, String resourceName, QName objectClassName, int objects, int queries) {
+		environmentalPerformanceInformation.recordShadowLookup(resourceOid, resourceName, objectClassName, objects, queries);
+	}
+
 	@Override
 	public void recordNotificationOperation(String transportName, boolean success, long duration) {
 		environmentalPerformanceInformation.recordNotificationOperation(transportName, success, duration);
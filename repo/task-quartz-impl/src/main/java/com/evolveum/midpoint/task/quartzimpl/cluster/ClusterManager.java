@@ -151,6 +151,12 @@ public class ClusterManager {
                         LoggingUtils.logUnexpectedException(LOGGER, "Unexpected exception while checking cluster configuration; continuing execution.", t);
                     }
 
+                    try {
+                        exchangeCacheInvalidations(result);
+                    } catch (Throwable t) {
+                        LoggingUtils.logUnexpectedException(LOGGER, "Unexpected exception while exchanging cache invalidations; continuing execution.", t);
+                    }
+
                     try {
                         checkWaitingTasks(result);
                     } catch (Throwable t) {
@@ -328,6 +334,16 @@ public class ClusterManager {
     }
 
 
+    /**
+     * Sends cache invalidation events originating at this node to other nodes and processes events
+     * coming from them. Relevant only for clustered nodes.
+     */
+    public void exchangeCacheInvalidations(OperationResult result) {
+        if (taskManager.getConfiguration().isClustered() && taskManager.getCacheDispatcher() != null) {
+            taskManager.getCacheDispatcher().exchangeRemoteInvalidations(taskManager.getNodeId(), result);
+        }
+    }
+
     private long lastCheckedWaitingTasks = 0L;
 
     public void checkWaitingTasks(OperationResult result) throws SchemaException {
@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.testing.perf;
+
+import static com.evolveum.midpoint.test.IntegrationTestTools.display;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.SkipException;
+import org.testng.annotations.AfterClass;
+
+import com.evolveum.midpoint.model.test.AbstractModelIntegrationTest;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.schema.internals.InternalCounters;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.test.util.MidPointTestConstants;
+import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SystemObjectsType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+
+/**
+ * Base class for performance (load) tests.
+ *
+ * The tests are parametrized by system properties (see below), e.g.
+ * mvn test -P perftest -Dperf.accounts=10000 -Dperf.workerThreads=8 -Dperf.shadowProcessingThreads=2
+ *
+ * Each measured scenario reports throughput, latency percentiles and increments of internal counters
+ * (InternalMonitor) and it is compared with the baseline file. The test fails if there is a regression
+ * and it is skipped if there is no comparable baseline.
+ * Run with -Dperf.updateBaseline=true to store the current results as the new baseline instead.
+ */
+@ContextConfiguration(locations = {"classpath:ctx-perf-test-main.xml"})
+@DirtiesContext(classMode = ClassMode.AFTER_CLASS)
+public abstract class AbstractPerfTest extends AbstractModelIntegrationTest {
+
+	public static final File SYSTEM_CONFIGURATION_FILE = new File(COMMON_DIR, "system-configuration.xml");
+	public static final String SYSTEM_CONFIGURATION_OID = SystemObjectsType.SYSTEM_CONFIGURATION.value();
+
+	protected static final File USER_ADMINISTRATOR_FILE = new File(COMMON_DIR, "user-administrator.xml");
+	protected static final String USER_ADMINISTRATOR_OID = "00000000-0000-0000-0000-000000000002";
+
+	protected static final File ROLE_SUPERUSER_FILE = new File(COMMON_DIR, "role-superuser.xml");
+
+	protected static final File PERF_DIR = new File(MidPointTestConstants.TEST_RESOURCES_DIR, "perf");
+
+	protected static final String PROP_ACCOUNTS = "perf.accounts";
+	protected static final String PROP_GROUPS = "perf.groups";
+	protected static final String PROP_DELAY = "perf.delay";
+	protected static final String PROP_WORKER_THREADS = "perf.workerThreads";
+	protected static final String PROP_SHADOW_PROCESSING_THREADS = "perf.shadowProcessingThreads";
+	protected static final String PROP_BASELINE = "perf.baseline";
+	protected static final String PROP_UPDATE_BASELINE = "perf.updateBaseline";
+	protected static final String PROP_TIME_TOLERANCE = "perf.timeTolerance";
+	protected static final String PROP_COUNTER_TOLERANCE = "perf.counterTolerance";
+
+	private static final File DEFAULT_BASELINE_FILE = new File(PERF_DIR, "baseline.properties");
+	private static final File REPORT_FILE = new File("target/perf-report.txt");
+
+	protected static final List<InternalCounters> MEASURED_COUNTERS = Arrays.asList(
+			InternalCounters.REPOSITORY_READ_COUNT,
+			InternalCounters.SHADOW_FETCH_OPERATION_COUNT,
+			InternalCounters.CONNECTOR_OPERATION_COUNT,
+			InternalCounters.CONNECTOR_MODIFICATION_COUNT,
+			InternalCounters.PROJECTOR_RUN_COUNT);
+
+	/**
+	 * Number of accounts on the resource.
+	 */
+	protected final int numberOfAccounts = Integer.getInteger(PROP_ACCOUNTS, 2000);
+
+	/**
+	 * Number of groups on the resource.
+	 */
+	protected final int numberOfGroups = Integer.getInteger(PROP_GROUPS, 200);
+
+	/**
+	 * Resource operations are delayed by random time from 0 to this value (milliseconds).
+	 */
+	protected final int operationDelayRange = Integer.getInteger(PROP_DELAY, 10);
+
+	protected final int workerThreads = Integer.getInteger(PROP_WORKER_THREADS, 4);
+
+	/**
+	 * Threads processing the objects read from the resource (import, reconciliation). 0 means no separate threads.
+	 */
+	protected final int shadowProcessingThreads = Integer.getInteger(PROP_SHADOW_PROCESSING_THREADS, 0);
+
+	protected final boolean updateBaseline = Boolean.getBoolean(PROP_UPDATE_BASELINE);
+
+	/**
+	 * Tolerances are taken from the baseline file, unless overridden by system properties.
+	 */
+	protected double timeTolerance;
+	protected double counterTolerance;
+
+	protected PrismObject<UserType> userAdministrator;
+
+	private final LatencyRecorder latencyRecorder = new LatencyRecorder();
+	private final List<PerformanceMeasurement> measurements = new ArrayList<>();
+	private PerformanceBaseline baseline;
+
+	@Override
+	public void initSystem(Task initTask, OperationResult initResult) throws Exception {
+		super.initSystem(initTask, initResult);
+		modelService.postInit(initResult);
+
+		try {
+			repoAddObjectFromFile(SYSTEM_CONFIGURATION_FILE, initResult);
+		} catch (ObjectAlreadyExistsException e) {
+			throw new ObjectAlreadyExistsException("System configuration already exists in repository;" +
+					"looks like the previous test haven't cleaned it up", e);
+		}
+
+		userAdministrator = repoAddObjectFromFile(USER_ADMINISTRATOR_FILE, initResult);
+		repoAddObjectFromFile(ROLE_SUPERUSER_FILE, initResult);
+		login(userAdministrator);
+
+		hookRegistry.registerChangeHook(LatencyRecorder.HOOK_URI, latencyRecorder);
+
+		baseline = new PerformanceBaseline(new File(System.getProperty(PROP_BASELINE, DEFAULT_BASELINE_FILE.getPath())));
+		baseline.load();
+		timeTolerance = Double.parseDouble(System.getProperty(PROP_TIME_TOLERANCE, String.valueOf(baseline.getTimeTolerance())));
+		counterTolerance = Double.parseDouble(System.getProperty(PROP_COUNTER_TOLERANCE, String.valueOf(baseline.getCounterTolerance())));
+		display("Performance test parameters", getParameters());
+	}
+
+	@Override
+	protected PrismObject<UserType> getDefaultActor() {
+		return userAdministrator;
+	}
+
+	protected Map<String, Double> getParameters() {
+		Map<String, Double> parameters = new LinkedHashMap<>();
+		parameters.put("accounts", (double) numberOfAccounts);
+		parameters.put("groups", (double) numberOfGroups);
+		parameters.put("delay", (double) operationDelayRange);
+		parameters.put("workerThreads", (double) workerThreads);
+		if (shadowProcessingThreads > 0) {
+			// not recorded otherwise, so the baselines recorded before this parameter existed remain comparable
+			parameters.put("shadowProcessingThreads", (double) shadowProcessingThreads);
+		}
+		return parameters;
+	}
+
+	/**
+	 * Creates a task for given handler. It is not started: use runTask(..).
+	 */
+	protected Task createPerfTask(String name, String handlerUri, String resourceOid, QName objectClass)
+			throws SchemaException {
+		Task task = taskManager.createTaskInstance(AbstractPerfTest.class.getName() + "." + name);
+		task.setOwner(userAdministrator);
+		task.setName(name);
+		task.setHandlerUri(handlerUri);
+		if (resourceOid != null) {
+			task.setObjectRef(resourceOid, ResourceType.COMPLEX_TYPE);
+		}
+		if (objectClass != null) {
+			task.setExtensionPropertyValue(SchemaConstants.OBJECTCLASS_PROPERTY_NAME, objectClass);
+		}
+		if (workerThreads > 0) {
+			task.setExtensionPropertyValue(SchemaConstants.MODEL_EXTENSION_WORKER_THREADS, workerThreads);
+		}
+		if (shadowProcessingThreads > 0) {
+			task.setExtensionPropertyValue(SchemaConstants.MODEL_EXTENSION_SHADOW_PROCESSING_THREADS, shadowProcessingThreads);
+		}
+		return task;
+	}
+
+	/**
+	 * Starts the task, waits for its (first) run to finish and returns the measurement.
+	 */
+	protected PerformanceMeasurement runTask(String scenario, Task task, int objects, OperationResult result)
+			throws Exception {
+		startMeasurement();
+		taskManager.switchToBackground(task, result);
+		Task finishedTask = waitForTaskFinish(task.getOid(), true, getTaskTimeout(objects));
+		return finishMeasurement(scenario, objects, getRunDuration(finishedTask));
+	}
+
+	/**
+	 * Runs the (recurring) task once more and returns the measurement.
+	 */
+	protected PerformanceMeasurement rerunTask(String scenario, String taskOid, int objects) throws Exception {
+		Task task = taskManager.getTaskWithResult(taskOid, new OperationResult("rerunTask"));
+		startMeasurement();
+		OperationResult taskResult = waitForTaskNextRun(task, true, getTaskTimeout(objects), true);
+		assertTrue("Task " + task + " failed: " + taskResult, taskResult == null || !taskResult.isError());
+		Task finishedTask = taskManager.getTaskWithResult(taskOid, new OperationResult("rerunTask"));
+		return finishMeasurement(scenario, objects, getRunDuration(finishedTask));
+	}
+
+	protected void startMeasurement() {
+		for (InternalCounters counter : MEASURED_COUNTERS) {
+			rememberCounter(counter);
+		}
+		latencyRecorder.start();
+	}
+
+	protected PerformanceMeasurement finishMeasurement(String scenario, int objects, long durationMillis) {
+		long[] latencies = latencyRecorder.stop();
+		Map<InternalCounters, Long> increments = new LinkedHashMap<>();
+		for (InternalCounters counter : MEASURED_COUNTERS) {
+			increments.put(counter, getCounterIncrement(counter));
+		}
+		PerformanceMeasurement measurement = new PerformanceMeasurement(scenario, workerThreads, objects,
+				durationMillis, latencies, increments);
+		measurements.add(measurement);
+		display("Performance of " + scenario, measurement);
+		return measurement;
+	}
+
+	protected void assertNoRegression(PerformanceMeasurement measurement) {
+		if (updateBaseline) {
+			return;
+		}
+		// without a baseline there is nothing to compare with; this is not a regression, but not a pass either
+		if (!baseline.hasScenario(measurement.getScenario())) {
+			throw new SkipException("No baseline recorded for " + measurement.getScenario() + " in " + baseline.getFile()
+					+ ", not checking it; record the baseline on the reference machine with -D" + PROP_UPDATE_BASELINE + "=true");
+		}
+		if (!baseline.isComparable(getParameters())) {
+			throw new SkipException("Baseline " + baseline.getFile() + " was recorded with different parameters, not checking "
+					+ measurement.getScenario());
+		}
+		List<String> regressions = baseline.check(measurement, timeTolerance, counterTolerance);
+		assertTrue("Performance regression in " + measurement.getScenario() + ":\n" + String.join("\n", regressions),
+				regressions.isEmpty());
+	}
+
+	@AfterClass
+	public void storeResults() throws IOException {
+		if (measurements.isEmpty()) {
+			return;
+		}
+		REPORT_FILE.getParentFile().mkdirs();
+		try (Writer writer = new FileWriter(REPORT_FILE, true)) {
+			writer.write(getClass().getSimpleName() + " " + getParameters() + "\n");
+			for (PerformanceMeasurement measurement : measurements) {
+				writer.write(measurement.debugDump(1) + "\n");
+			}
+		}
+		if (updateBaseline) {
+			baseline.setParameters(getParameters());
+			for (PerformanceMeasurement measurement : measurements) {
+				baseline.update(measurement);
+			}
+			baseline.store("Performance baseline written by " + getClass().getSimpleName());
+			display("Baseline updated", baseline.getFile().getAbsolutePath());
+		}
+	}
+
+	private int getTaskTimeout(int objects) {
+		// generous: we want to measure slow runs, not to kill them
+		return DEFAULT_TASK_WAIT_TIMEOUT + objects * (100 + operationDelayRange * 5);
+	}
+
+	private long getRunDuration(Task task) {
+		return task.getLastRunFinishTimestamp() - task.getLastRunStartTimestamp();
+	}
+
+}
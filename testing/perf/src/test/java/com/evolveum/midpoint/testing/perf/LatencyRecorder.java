@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.testing.perf;
+
+import com.evolveum.midpoint.model.api.context.ModelContext;
+import com.evolveum.midpoint.model.api.context.ModelState;
+import com.evolveum.midpoint.model.api.hooks.ChangeHook;
+import com.evolveum.midpoint.model.api.hooks.HookOperationMode;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records per-object processing latencies of the clockwork runs executed by tasks.
+ *
+ * Tasks do not expose the time spent on individual objects, so the latency is approximated by the time between
+ * two consecutive finished clockwork runs in the same thread. Each (lightweight) worker thread processes
+ * its objects one after another, so this interval covers reading the object, synchronization, clockwork and
+ * all the repository and resource operations of one object. The first object in each thread is measured
+ * from the start of the recording.
+ *
+ * Registered as a change hook; it is active only between start() and stop().
+ */
+public class LatencyRecorder implements ChangeHook {
+
+	public static final String HOOK_URI = "http://midpoint.evolveum.com/xml/ns/test/perf/latency-recorder";
+
+	private final Map<Thread, Long> lastFinished = new ConcurrentHashMap<>();
+	private final List<Long> latencies = new ArrayList<>();
+	private volatile boolean recording;
+	private volatile long started;
+
+	public void start() {
+		synchronized (latencies) {
+			latencies.clear();
+		}
+		lastFinished.clear();
+		started = System.nanoTime();
+		recording = true;
+	}
+
+	/**
+	 * Stops the recording and returns the latencies in nanoseconds.
+	 */
+	public long[] stop() {
+		recording = false;
+		synchronized (latencies) {
+			long[] rv = new long[latencies.size()];
+			for (int i = 0; i < rv.length; i++) {
+				rv[i] = latencies.get(i);
+			}
+			return rv;
+		}
+	}
+
+	@Override
+	public <O extends ObjectType> HookOperationMode invoke(@NotNull ModelContext<O> context, @NotNull Task task,
+			@NotNull OperationResult result) {
+		if (recording && context.getState() == ModelState.FINAL) {
+			record();
+		}
+		return HookOperationMode.FOREGROUND;
+	}
+
+	@Override
+	public void invokeOnException(@NotNull ModelContext context, @NotNull Throwable throwable, @NotNull Task task,
+			@NotNull OperationResult result) {
+		// failed objects were processed as well
+		if (recording) {
+			record();
+		}
+	}
+
+	private void record() {
+		long now = System.nanoTime();
+		Long previous = lastFinished.put(Thread.currentThread(), now);
+		long latency = now - (previous != null ? previous : started);
+		synchronized (latencies) {
+			latencies.add(latency);
+		}
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.testing.perf;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Baseline values of the performance metrics, stored as a properties file (scenario.metric = value).
+ *
+ * A measurement is a regression if any of its metrics is worse than the baseline by more than the tolerance.
+ * Time-based metrics (throughput, latencies) depend on the machine, so they have their own, usually larger,
+ * tolerance than the per-object counters. Metrics missing in the baseline are not checked.
+ *
+ * The baseline also records the parameters of the run that produced it (number of objects, resource delay, ...).
+ * Measurements done with different parameters are not comparable with it. The tolerances are stored in the baseline
+ * as well, so they are kept when the baseline is re-recorded.
+ */
+public class PerformanceBaseline {
+
+	private static final String PARAMETER_PREFIX = "parameters.";
+	private static final String TIME_TOLERANCE = "tolerance.time";
+	private static final String COUNTER_TOLERANCE = "tolerance.counter";
+
+	public static final double DEFAULT_TIME_TOLERANCE = 0.5;
+	public static final double DEFAULT_COUNTER_TOLERANCE = 0.1;
+
+	private final File file;
+	private final Map<String, Double> values = new TreeMap<>();
+
+	public PerformanceBaseline(File file) {
+		this.file = file;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public void load() throws IOException {
+		values.clear();
+		if (!file.exists()) {
+			return;
+		}
+		Properties properties = new Properties();
+		try (Reader reader = new FileReader(file)) {
+			properties.load(reader);
+		}
+		for (String key : properties.stringPropertyNames()) {
+			values.put(key, Double.parseDouble(properties.getProperty(key).trim()));
+		}
+	}
+
+	public boolean isEmpty() {
+		return values.isEmpty();
+	}
+
+	public double getTimeTolerance() {
+		return values.getOrDefault(TIME_TOLERANCE, DEFAULT_TIME_TOLERANCE);
+	}
+
+	public double getCounterTolerance() {
+		return values.getOrDefault(COUNTER_TOLERANCE, DEFAULT_COUNTER_TOLERANCE);
+	}
+
+	/**
+	 * Returns true if there is at least one metric of the scenario in the baseline.
+	 */
+	public boolean hasScenario(String scenario) {
+		for (String key : values.keySet()) {
+			if (key.startsWith(scenario + ".")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public boolean isComparable(Map<String, Double> parameters) {
+		for (Map.Entry<String, Double> parameter : parameters.entrySet()) {
+			if (!parameter.getValue().equals(values.get(PARAMETER_PREFIX + parameter.getKey()))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public void setParameters(Map<String, Double> parameters) {
+		for (Map.Entry<String, Double> parameter : parameters.entrySet()) {
+			values.put(PARAMETER_PREFIX + parameter.getKey(), parameter.getValue());
+		}
+	}
+
+	/**
+	 * Returns descriptions of all regressions found (empty list if there are none).
+	 */
+	public List<String> check(PerformanceMeasurement measurement, double timeTolerance, double counterTolerance) {
+		List<String> regressions = new ArrayList<>();
+		for (Map.Entry<String, Double> entry : measurement.getMetrics().entrySet()) {
+			String key = measurement.getScenario() + "." + entry.getKey();
+			Double baseline = values.get(key);
+			if (baseline == null) {
+				continue;
+			}
+			double actual = entry.getValue();
+			boolean counter = entry.getKey().endsWith(PerformanceMeasurement.PER_OBJECT_SUFFIX);
+			double tolerance = counter ? counterTolerance : timeTolerance;
+			boolean regression;
+			if (PerformanceMeasurement.isHigherBetter(entry.getKey())) {
+				regression = actual < baseline * (1 - tolerance);
+			} else {
+				// small absolute slack, so that e.g. 0 -> 0.001 reads per object is not reported
+				regression = actual > baseline * (1 + tolerance) + 0.01;
+			}
+			if (regression) {
+				regressions.add(key + ": " + PerformanceMeasurement.format(actual) + " (baseline "
+						+ PerformanceMeasurement.format(baseline) + ", tolerance " + Math.round(tolerance * 100) + "%)");
+			}
+		}
+		return regressions;
+	}
+
+	public void update(PerformanceMeasurement measurement) {
+		for (Map.Entry<String, Double> entry : measurement.getMetrics().entrySet()) {
+			values.put(measurement.getScenario() + "." + entry.getKey(), entry.getValue());
+		}
+	}
+
+	public void store(String comment) throws IOException {
+		// not using Properties.store(), to keep the keys sorted and the file diff-friendly
+		try (Writer writer = new FileWriter(file)) {
+			writer.write("# " + comment + "\n");
+			for (Map.Entry<String, Double> entry : values.entrySet()) {
+				writer.write(entry.getKey() + " = " + String.format(Locale.US, "%.3f", entry.getValue()) + "\n");
+			}
+		}
+	}
+}
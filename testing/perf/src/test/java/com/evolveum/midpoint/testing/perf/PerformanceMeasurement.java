@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.testing.perf;
+
+import com.evolveum.midpoint.schema.internals.InternalCounters;
+import com.evolveum.midpoint.util.DebugDumpable;
+import com.evolveum.midpoint.util.DebugUtil;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Results of one performance scenario: throughput, latency percentiles and increments of internal counters.
+ *
+ * Metrics are exported as a flat map (see getMetrics()), so they can be compared with the baseline.
+ * Only for the throughput a higher value is better.
+ */
+public class PerformanceMeasurement implements DebugDumpable {
+
+	public static final String METRIC_THROUGHPUT = "throughput";
+	public static final String METRIC_LATENCY_P50 = "latency.p50";
+	public static final String METRIC_LATENCY_P90 = "latency.p90";
+	public static final String METRIC_LATENCY_P99 = "latency.p99";
+	public static final String PER_OBJECT_SUFFIX = ".perObject";
+
+	private final String scenario;
+	private final int workerThreads;
+	private final int objects;
+	private final long durationMillis;
+	private final long[] latencies;                 // sorted, in nanoseconds
+	private final Map<InternalCounters, Long> counterIncrements;
+
+	public PerformanceMeasurement(String scenario, int workerThreads, int objects, long durationMillis,
+			long[] latencies, Map<InternalCounters, Long> counterIncrements) {
+		this.scenario = scenario;
+		this.workerThreads = workerThreads;
+		this.objects = objects;
+		this.durationMillis = durationMillis;
+		this.latencies = latencies.clone();
+		Arrays.sort(this.latencies);
+		this.counterIncrements = counterIncrements;
+	}
+
+	public String getScenario() {
+		return scenario;
+	}
+
+	public int getObjects() {
+		return objects;
+	}
+
+	public long getDurationMillis() {
+		return durationMillis;
+	}
+
+	/**
+	 * Objects per second.
+	 */
+	public double getThroughput() {
+		return durationMillis > 0 ? objects * 1000.0 / durationMillis : 0;
+	}
+
+	/**
+	 * Latency percentile in milliseconds (nearest-rank method).
+	 */
+	public double getLatencyPercentile(double percentile) {
+		if (latencies.length == 0) {
+			return 0;
+		}
+		int rank = (int) Math.ceil(percentile / 100.0 * latencies.length);
+		return latencies[Math.max(0, Math.min(rank, latencies.length) - 1)] / 1_000_000.0;
+	}
+
+	public double getCounterPerObject(InternalCounters counter) {
+		Long increment = counterIncrements.get(counter);
+		return increment != null && objects > 0 ? (double) increment / objects : 0;
+	}
+
+	public Map<String, Double> getMetrics() {
+		Map<String, Double> metrics = new LinkedHashMap<>();
+		metrics.put(METRIC_THROUGHPUT, getThroughput());
+		metrics.put(METRIC_LATENCY_P50, getLatencyPercentile(50));
+		metrics.put(METRIC_LATENCY_P90, getLatencyPercentile(90));
+		metrics.put(METRIC_LATENCY_P99, getLatencyPercentile(99));
+		for (InternalCounters counter : counterIncrements.keySet()) {
+			metrics.put(counter.getKey() + PER_OBJECT_SUFFIX, getCounterPerObject(counter));
+		}
+		return metrics;
+	}
+
+	public static boolean isHigherBetter(String metric) {
+		return METRIC_THROUGHPUT.equals(metric);
+	}
+
+	@Override
+	public String debugDump(int indent) {
+		StringBuilder sb = new StringBuilder();
+		DebugUtil.debugDumpLabelLn(sb, "PerformanceMeasurement " + scenario, indent);
+		DebugUtil.debugDumpWithLabelLn(sb, "Worker threads", workerThreads, indent + 1);
+		DebugUtil.debugDumpWithLabelLn(sb, "Objects", objects, indent + 1);
+		DebugUtil.debugDumpWithLabelLn(sb, "Duration (ms)", durationMillis, indent + 1);
+		DebugUtil.debugDumpWithLabelLn(sb, "Throughput (objects/s)", format(getThroughput()), indent + 1);
+		DebugUtil.debugDumpWithLabelLn(sb, "Latency samples", latencies.length, indent + 1);
+		DebugUtil.debugDumpWithLabelLn(sb, "Latency p50/p90/p99 (ms)", format(getLatencyPercentile(50)) + " / "
+				+ format(getLatencyPercentile(90)) + " / " + format(getLatencyPercentile(99)), indent + 1);
+		DebugUtil.debugDumpLabel(sb, "Counters (total, per object)", indent + 1);
+		for (Map.Entry<InternalCounters, Long> entry : counterIncrements.entrySet()) {
+			sb.append("\n");
+			DebugUtil.debugDumpWithLabel(sb, entry.getKey().getLabel(),
+					entry.getValue() + ", " + format(getCounterPerObject(entry.getKey())), indent + 2);
+		}
+		return sb.toString();
+	}
+
+	static String format(double value) {
+		return String.format(Locale.US, "%.2f", value);
+	}
+
+	@Override
+	public String toString() {
+		return "PerformanceMeasurement(" + scenario + ": " + objects + " objects in " + durationMillis + " ms, "
+				+ format(getThroughput()) + "/s)";
+	}
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.testing.perf;
+
+import static com.evolveum.midpoint.test.IntegrationTestTools.display;
+import static org.testng.AssertJUnit.assertEquals;
+
+import java.io.File;
+
+import javax.xml.namespace.QName;
+
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.Test;
+
+import com.evolveum.icf.dummy.resource.DummyAccount;
+import com.evolveum.icf.dummy.resource.DummyGroup;
+import com.evolveum.icf.dummy.resource.DummyResource;
+import com.evolveum.icf.dummy.resource.DummySyncStyle;
+import com.evolveum.midpoint.model.api.ModelPublicConstants;
+import com.evolveum.midpoint.model.impl.importer.ImportAccountsFromResourceTaskHandler;
+import com.evolveum.midpoint.model.impl.sync.LiveSyncTaskHandler;
+import com.evolveum.midpoint.model.impl.sync.RecomputeTaskHandler;
+import com.evolveum.midpoint.schema.constants.MidPointConstants;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.test.DummyResourceContoller;
+import com.evolveum.midpoint.test.util.TestUtil;
+import com.evolveum.midpoint.util.exception.CommonException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+
+/**
+ * Load test of the synchronization task types: import from resource, reconciliation, live sync
+ * and recompute. All of them run with worker threads against a dummy resource with (optionally)
+ * delayed operations.
+ *
+ * The scenarios depend on each other: import creates the users and roles that are reconciled,
+ * synchronized and recomputed later.
+ */
+@ContextConfiguration(locations = {"classpath:ctx-perf-test-main.xml"})
+@DirtiesContext(classMode = ClassMode.AFTER_CLASS)
+public class TestSynchronizationPerformance extends AbstractPerfTest {
+
+	protected static final File RESOURCE_DUMMY_PERF_FILE = new File(PERF_DIR, "resource-dummy-perf.xml");
+	protected static final String RESOURCE_DUMMY_PERF_OID = "e1a1e4a2-d2f8-11e8-9c4b-4f4a6c8c3e01";
+	protected static final String RESOURCE_DUMMY_PERF_NAME = "perf";
+
+	private static final QName ACCOUNT_OBJECT_CLASS = new QName(MidPointConstants.NS_RI,
+			SchemaConstants.ACCOUNT_OBJECT_CLASS_LOCAL_NAME);
+	private static final QName GROUP_OBJECT_CLASS = new QName(MidPointConstants.NS_RI,
+			SchemaConstants.GROUP_OBJECT_CLASS_LOCAL_NAME);
+
+	private static final String ACCOUNT_NAME_PREFIX = "u";
+	private static final String GROUP_NAME_PREFIX = "g";
+	private static final int MEMBERS_PER_GROUP = 10;
+
+	private DummyResource dummyResource;
+	private String liveSyncTaskOid;
+
+	@Override
+	public void initSystem(Task initTask, OperationResult initResult) throws Exception {
+		super.initSystem(initTask, initResult);
+
+		DummyResourceContoller controller = initDummyResource(RESOURCE_DUMMY_PERF_NAME, RESOURCE_DUMMY_PERF_FILE,
+				RESOURCE_DUMMY_PERF_OID, initTask, initResult);
+		dummyResource = controller.getDummyResource();
+		dummyResource.setSyncStyle(DummySyncStyle.SMART);
+	}
+
+	@Test
+	public void test000Sanity() throws Exception {
+		final String TEST_NAME = "test000Sanity";
+		displayTestTitle(TEST_NAME);
+		Task task = createTask(TEST_NAME);
+
+		OperationResult testResult = modelService.testResource(RESOURCE_DUMMY_PERF_OID, task);
+		TestUtil.assertSuccess(testResult);
+	}
+
+	@Test
+	public void test010PopulateResource() throws Exception {
+		final String TEST_NAME = "test010PopulateResource";
+		displayTestTitle(TEST_NAME);
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < numberOfAccounts; i++) {
+			DummyAccount account = new DummyAccount(getAccountName(i));
+			account.setEnabled(true);
+			account.addAttributeValues(DummyResourceContoller.DUMMY_ACCOUNT_ATTRIBUTE_FULLNAME_NAME, "User " + i);
+			dummyResource.addAccount(account);
+		}
+		for (int i = 0; i < numberOfGroups; i++) {
+			DummyGroup group = new DummyGroup(GROUP_NAME_PREFIX + i);
+			group.setEnabled(true);
+			for (int j = 0; j < MEMBERS_PER_GROUP && numberOfAccounts > 0; j++) {
+				group.addMember(getAccountName((i * MEMBERS_PER_GROUP + j) % numberOfAccounts));
+			}
+			dummyResource.addGroup(group);
+		}
+
+		// THEN
+		displayThen(TEST_NAME);
+		display("Created " + numberOfAccounts + " accounts and " + numberOfGroups + " groups in "
+				+ (System.currentTimeMillis() - start) + " ms");
+
+		// the delay is set after populating, so that it does not slow down the setup
+		dummyResource.setOperationDelayRange(operationDelayRange);
+	}
+
+	@Test
+	public void test100ImportGroups() throws Exception {
+		final String TEST_NAME = "test100ImportGroups";
+		displayTestTitle(TEST_NAME);
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+		Task importTask = createPerfTask(TEST_NAME, ImportAccountsFromResourceTaskHandler.HANDLER_URI,
+				RESOURCE_DUMMY_PERF_OID, GROUP_OBJECT_CLASS);
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		PerformanceMeasurement measurement = runTask("importGroups", importTask, numberOfGroups, result);
+
+		// THEN
+		displayThen(TEST_NAME);
+		assertObjects(RoleType.class, numberOfGroups + 1);          // + superuser
+		assertNoRegression(measurement);
+	}
+
+	@Test
+	public void test110ImportAccounts() throws Exception {
+		final String TEST_NAME = "test110ImportAccounts";
+		displayTestTitle(TEST_NAME);
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+		Task importTask = createPerfTask(TEST_NAME, ImportAccountsFromResourceTaskHandler.HANDLER_URI,
+				RESOURCE_DUMMY_PERF_OID, ACCOUNT_OBJECT_CLASS);
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		PerformanceMeasurement measurement = runTask("importAccounts", importTask, numberOfAccounts, result);
+
+		// THEN
+		displayThen(TEST_NAME);
+		assertUsers(numberOfAccounts + 1);                          // + administrator
+		assertNoRegression(measurement);
+	}
+
+	@Test
+	public void test200ReconcileAccounts() throws Exception {
+		final String TEST_NAME = "test200ReconcileAccounts";
+		displayTestTitle(TEST_NAME);
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+		Task reconTask = createPerfTask(TEST_NAME, ModelPublicConstants.RECONCILIATION_TASK_HANDLER_URI,
+				RESOURCE_DUMMY_PERF_OID, ACCOUNT_OBJECT_CLASS);
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		PerformanceMeasurement measurement = runTask("reconciliation", reconTask, numberOfAccounts, result);
+
+		// THEN
+		displayThen(TEST_NAME);
+		assertUsers(numberOfAccounts + 1);
+		assertObjects(ShadowType.class, numberOfAccounts + numberOfGroups);
+		assertNoRegression(measurement);
+	}
+
+	/**
+	 * The first run only fetches the current token, so it is not measured.
+	 */
+	@Test
+	public void test300LiveSyncInit() throws Exception {
+		final String TEST_NAME = "test300LiveSyncInit";
+		displayTestTitle(TEST_NAME);
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+		Task liveSyncTask = createPerfTask(TEST_NAME, LiveSyncTaskHandler.HANDLER_URI,
+				RESOURCE_DUMMY_PERF_OID, ACCOUNT_OBJECT_CLASS);
+		// runs are started explicitly
+		liveSyncTask.makeRecurringSimple(3600);
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		taskManager.switchToBackground(liveSyncTask, result);
+		liveSyncTaskOid = liveSyncTask.getOid();
+		waitForTaskNextRunAssertSuccess(liveSyncTaskOid, true);
+
+		// THEN
+		displayThen(TEST_NAME);
+		assertUsers(numberOfAccounts + 1);
+	}
+
+	@Test
+	public void test310LiveSyncModifiedAccounts() throws Exception {
+		final String TEST_NAME = "test310LiveSyncModifiedAccounts";
+		displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		modifyAllAccounts("Modified user ");
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		PerformanceMeasurement measurement = rerunTask("liveSync", liveSyncTaskOid, numberOfAccounts);
+
+		// THEN
+		displayThen(TEST_NAME);
+		assertUserFullName(numberOfAccounts - 1, "Modified user ");
+		assertNoRegression(measurement);
+	}
+
+	@Test
+	public void test400RecomputeUsers() throws Exception {
+		final String TEST_NAME = "test400RecomputeUsers";
+		displayTestTitle(TEST_NAME);
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+		Task recomputeTask = createPerfTask(TEST_NAME, RecomputeTaskHandler.HANDLER_URI, null, null);
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		PerformanceMeasurement measurement = runTask("recompute", recomputeTask, numberOfAccounts + 1, result);
+
+		// THEN
+		displayThen(TEST_NAME);
+		assertUsers(numberOfAccounts + 1);
+		assertNoRegression(measurement);
+	}
+
+	private String getAccountName(int i) {
+		return ACCOUNT_NAME_PREFIX + i;
+	}
+
+	private void modifyAllAccounts(String fullNamePrefix) throws Exception {
+		dummyResource.setOperationDelayRange(0);
+		try {
+			for (int i = 0; i < numberOfAccounts; i++) {
+				dummyResource.getAccountByUsername(getAccountName(i)).replaceAttributeValue(
+						DummyResourceContoller.DUMMY_ACCOUNT_ATTRIBUTE_FULLNAME_NAME, fullNamePrefix + i);
+			}
+		} finally {
+			dummyResource.setOperationDelayRange(operationDelayRange);
+		}
+	}
+
+	private void assertUserFullName(int i, String fullNamePrefix) throws CommonException {
+		UserType user = findUserByUsername(getAccountName(i)).asObjectable();
+		assertEquals("Wrong full name of " + user, fullNamePrefix + i, user.getFullName().getOrig());
+	}
+}
@@ -26,6 +26,7 @@ import static org.testng.AssertJUnit.fail;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.function.Function;
 
@@ -33,6 +34,9 @@ import javax.ws.rs.core.Response;
 import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.namespace.QName;
 
+import com.evolveum.midpoint.model.impl.ModelRestService;
+import com.evolveum.midpoint.prism.Objectable;
+import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.Referencable;
 import com.evolveum.midpoint.prism.crypto.EncryptionException;
 import com.evolveum.midpoint.prism.polystring.PolyString;
@@ -41,6 +45,7 @@ import com.evolveum.midpoint.repo.api.RepoAddOptions;
 import com.evolveum.midpoint.util.exception.*;
 
 import com.evolveum.midpoint.xml.ns._public.common.api_types_3.ExecuteScriptResponseType;
+import com.evolveum.midpoint.xml.ns._public.common.api_types_3.ObjectDeltaListType;
 import com.evolveum.midpoint.xml.ns._public.common.api_types_3.PolicyItemDefinitionType;
 import com.evolveum.midpoint.xml.ns._public.common.api_types_3.PolicyItemsDefinitionType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
@@ -57,6 +62,7 @@ import com.evolveum.midpoint.prism.PrismProperty;
 import com.evolveum.midpoint.prism.delta.ChangeType;
 import com.evolveum.midpoint.prism.delta.ObjectDelta;
 import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.schema.DeltaConvertor;
 import com.evolveum.midpoint.schema.GetOperationOptions;
 import com.evolveum.midpoint.schema.SelectorOptions;
 import com.evolveum.midpoint.schema.constants.SchemaConstants;
@@ -792,6 +798,127 @@ public abstract class TestAbstractRestService extends RestServiceInitializer {
 		getDummyAuditService().assertLoginLogout(SchemaConstants.CHANNEL_REST_URI);
 	}
 
+	@Test
+	public void test201searchAllUsersStreaming() throws Exception {
+		final String TEST_NAME = "test201searchAllUsersStreaming";
+		displayTestTitle(this, TEST_NAME);
+
+		WebClient client = prepareClient();
+		client.path("/users/search");
+		client.query("stream", true);
+
+		getDummyAuditService().clear();
+
+		TestUtil.displayWhen(TEST_NAME);
+		Response response = client.post(new QueryType());
+
+		TestUtil.displayThen(TEST_NAME);
+		assertStatus(response, 200);
+		String body = response.readEntity(String.class);
+		display("Response body", body);
+		assertTrue("Administrator is not in the response", body.contains(SystemObjectsType.USER_ADMINISTRATOR.value()));
+		assertEquals("Wrong # of users in the response",
+				getRepositoryService().countObjects(UserType.class, null, new OperationResult(TEST_NAME)), parseObjects(body).size());
+
+		display("Audit", getDummyAuditService());
+		getDummyAuditService().assertRecords(2);
+		getDummyAuditService().assertLoginLogout(SchemaConstants.CHANNEL_REST_URI);
+	}
+
+	/**
+	 * Goes through all the users page by page, the continuation token of each page points to the next one.
+	 */
+	@Test
+	public void test202searchUsersStreamingPaged() throws Exception {
+		final String TEST_NAME = "test202searchUsersStreamingPaged";
+		displayTestTitle(this, TEST_NAME);
+
+		final int PAGE_SIZE = 2;
+		OperationResult result = new OperationResult(TEST_NAME);
+		int expectedUsers = getRepositoryService().countObjects(UserType.class, null, result);
+		assertTrue("Not enough users to test paging: " + expectedUsers, expectedUsers > PAGE_SIZE);
+
+		getDummyAuditService().clear();
+
+		TestUtil.displayWhen(TEST_NAME);
+		List<String> oids = new ArrayList<>();
+		String continuationToken = null;
+		int pages = 0;
+		do {
+			WebClient client = prepareClient();
+			client.path("/users");
+			client.query("stream", true);
+			client.query("pageSize", PAGE_SIZE);
+			if (continuationToken != null) {
+				client.query("continuationToken", continuationToken);
+			}
+			Response response = client.get();
+			pages++;
+
+			assertStatus(response, 200);
+			continuationToken = response.getHeaderString(ModelRestService.CONTINUATION_TOKEN_HEADER);
+			String body = response.readEntity(String.class);
+			display("Response body of page " + pages, body);
+			List<PrismObject<? extends Objectable>> objects = parseObjects(body);
+			if (continuationToken != null) {
+				assertEquals("Wrong # of objects on page " + pages, PAGE_SIZE, objects.size());
+			} else {
+				assertTrue("Wrong # of objects on the last page: " + objects.size(), objects.size() <= PAGE_SIZE);
+			}
+			for (PrismObject<? extends Objectable> object : objects) {
+				assertTrue("Not a user: " + object, object.asObjectable() instanceof UserType);
+				assertTrue("Object " + object + " returned twice", !oids.contains(object.getOid()));
+				oids.add(object.getOid());
+			}
+			assertTrue("Too many pages", pages <= expectedUsers);
+		} while (continuationToken != null);
+
+		TestUtil.displayThen(TEST_NAME);
+		assertEquals("Wrong # of users in all the pages", expectedUsers, oids.size());
+		assertTrue("Administrator is not in the response", oids.contains(SystemObjectsType.USER_ADMINISTRATOR.value()));
+		List<String> sortedOids = new ArrayList<>(oids);
+		Collections.sort(sortedOids);
+		assertEquals("Users not ordered by OID", sortedOids, oids);
+
+		display("Audit", getDummyAuditService());
+		getDummyAuditService().assertRecords(2 * pages);
+	}
+
+	@Test
+	public void test203executeChangesBulk() throws Exception {
+		final String TEST_NAME = "test203executeChangesBulk";
+		displayTestTitle(this, TEST_NAME);
+
+		WebClient client = prepareClient();
+		client.path("/rpc/executeChanges");
+		client.query("threads", 2);
+
+		ObjectDeltaListType deltaList = new ObjectDeltaListType();
+		ObjectDelta<UserType> delta = ObjectDelta.createModificationReplaceProperty(UserType.class, USER_DARTHADDER_OID,
+				UserType.F_LOCALITY, getPrismContext(), PolyString.fromOrig("Death Star"));
+		deltaList.getDelta().add(DeltaConvertor.toObjectDeltaType(delta));
+
+		getDummyAuditService().clear();
+
+		TestUtil.displayWhen(TEST_NAME);
+		Response response = client.post(deltaList);
+
+		TestUtil.displayThen(TEST_NAME);
+		assertStatus(response, 200);
+		String body = response.readEntity(String.class);
+		display("Response body", body);
+		assertTrue("Delta operation is not in the response", body.contains(USER_DARTHADDER_OID));
+
+		display("Audit", getDummyAuditService());
+		getDummyAuditService().assertRecords(4);
+		getDummyAuditService().assertLoginLogout(SchemaConstants.CHANNEL_REST_URI);
+		getDummyAuditService().assertHasDelta(1, ChangeType.MODIFY, UserType.class);
+
+		OperationResult result = new OperationResult("test");
+		PrismObject<UserType> user = getRepositoryService().getObject(UserType.class, USER_DARTHADDER_OID, null, result);
+		assertEquals("Wrong locality", "Death Star", user.asObjectable().getLocality().getOrig());
+	}
+
 	@Test
 	public void test401AddUserTemplateOverwrite() throws Exception {
 		final String TEST_NAME = "test401AddUserTemplateOverwrite";
@@ -1734,4 +1861,16 @@ public abstract class TestAbstractRestService extends RestServiceInitializer {
 		OperationResult result = new OperationResult("getObjectRepo");
 		return repositoryService.getObject(type, oid, null, result);
 	}
+
+	private List<PrismObject<? extends Objectable>> parseObjects(String body) throws SchemaException {
+		String language;
+		if (getContentType().contains(PrismContext.LANG_JSON)) {
+			language = PrismContext.LANG_JSON;
+		} else if (getContentType().contains(PrismContext.LANG_YAML)) {
+			language = PrismContext.LANG_YAML;
+		} else {
+			language = PrismContext.LANG_XML;
+		}
+		return getPrismContext().parserFor(body).language(language).parseObjects();
+	}
 }
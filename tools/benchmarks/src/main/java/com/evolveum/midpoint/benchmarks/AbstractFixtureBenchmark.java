@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.benchmarks;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import org.openjdk.jmh.annotations.Param;
+
+import java.io.IOException;
+
+/**
+ * Benchmarks run on each of the fixture objects.
+ */
+public abstract class AbstractFixtureBenchmark extends AbstractPrismBenchmark {
+
+	@Param({ "USER", "SHADOW", "ROLE", "TASK_LARGE" })
+	public Fixture fixture;
+
+	protected <O extends ObjectType> PrismObject<O> parseFixture(String language) throws SchemaException, IOException {
+		return prismContext.parserFor(fixture.load(prismContext, language)).language(language).parse();
+	}
+}
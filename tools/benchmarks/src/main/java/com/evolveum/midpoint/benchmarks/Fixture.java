@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.benchmarks;
+
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.schema.util.ParamsTypeUtil;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ActionsExecutedInformationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ActivationStatusType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AssignmentType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.FocusType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectActionsExecutedEntryType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OperationResultStatusType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OperationResultType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OrgType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ParamsType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.TaskExecutionStatusType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.TaskType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import com.evolveum.prism.xml.ns._public.types_3.ChangeTypeType;
+import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+import javax.xml.namespace.QName;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Objects the benchmarks are run on. Each fixture is stored in XML (src/main/resources/fixtures/name.xml);
+ * the large task is stored only as a skeleton, its bulky parts are generated (see {@link #complete(ObjectType)}).
+ * JSON and YAML forms are produced by serializing the parsed object, so the content is the same in all languages.
+ */
+public enum Fixture {
+
+	/**
+	 * User with extension, assignments, links and encrypted password.
+	 */
+	USER("user") {
+		@Override
+		void modifySpecific(ObjectType object) {
+			addAssignment((FocusType) object);
+		}
+	},
+
+	/**
+	 * Account shadow with a dozen attributes and associations.
+	 */
+	SHADOW("shadow") {
+		@Override
+		void modifySpecific(ObjectType object) {
+			((ShadowType) object).getActivation().setAdministrativeStatus(ActivationStatusType.DISABLED);
+		}
+	},
+
+	/**
+	 * Business role with inducements (constructions, mappings) and authorizations.
+	 */
+	ROLE("role") {
+		@Override
+		void modifySpecific(ObjectType object) {
+			addAssignment((RoleType) object);
+		}
+	},
+
+	/**
+	 * Recurring task with a big operation result (hundreds of subresults) and operation statistics.
+	 */
+	TASK_LARGE("task-large") {
+		@Override
+		void complete(ObjectType object) {
+			TaskType task = (TaskType) object;
+			List<OperationResultType> subresults = task.getResult().getPartialResults();
+			for (int i = 1; i <= TASK_CHANGES; i++) {
+				subresults.add(createChangeResult(i));
+			}
+			ActionsExecutedInformationType actions = new ActionsExecutedInformationType();
+			for (int i = 0; i < TASK_ACTION_ENTRIES; i++) {
+				actions.getObjectActionsEntry().add(createActionsEntry(i));
+				actions.getResultingObjectActionsEntry().add(createActionsEntry(TASK_ACTION_ENTRIES + i));
+			}
+			task.getOperationStats().setActionsExecutedInformation(actions);
+		}
+
+		@Override
+		void modifySpecific(ObjectType object) {
+			TaskType task = (TaskType) object;
+			task.setExecutionStatus(TaskExecutionStatusType.SUSPENDED);
+			task.setProgress(task.getProgress() + 1);
+		}
+	};
+
+	private static final String ADDED_ROLE_OID = "c0c010c0-d34d-b33f-f00d-333333333338";
+
+	private static final int TASK_CHANGES = 300;
+	private static final int TASK_FAILURE_EVERY = 25;
+	private static final int TASK_ACTION_ENTRIES = 12;
+	private static final String TASK_RESOURCE_OID = "10000000-0000-0000-0000-000000000003";
+	private static final String TASK_TIMESTAMP = "2018-06-15T08:04:58.000+02:00";
+	private static final QName[] TASK_ACTION_OBJECT_TYPES = {
+			UserType.COMPLEX_TYPE, ShadowType.COMPLEX_TYPE, RoleType.COMPLEX_TYPE, OrgType.COMPLEX_TYPE };
+
+	private final String fileName;
+
+	Fixture(String fileName) {
+		this.fileName = fileName;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * @param language one of PrismContext.LANG_XML, LANG_JSON, LANG_YAML
+	 */
+	public String load(PrismContext prismContext, String language) throws SchemaException, IOException {
+		return prismContext.serializerFor(language).serialize(parse(prismContext));
+	}
+
+	public <O extends ObjectType> PrismObject<O> parse(PrismContext prismContext) throws SchemaException, IOException {
+		PrismObject<O> object = prismContext.parserFor(loadXml()).xml().parse();
+		complete(object.asObjectable());
+		return object;
+	}
+
+	private String loadXml() throws IOException {
+		String resource = "/fixtures/" + fileName + ".xml";
+		try (InputStream stream = Fixture.class.getResourceAsStream(resource)) {
+			if (stream == null) {
+				throw new IllegalStateException("Fixture " + resource + " was not found");
+			}
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			byte[] chunk = new byte[8192];
+			int read;
+			while ((read = stream.read(chunk)) != -1) {
+				buffer.write(chunk, 0, read);
+			}
+			return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * Applies a small, typical change (the kind a GUI edit or a synchronization run would make).
+	 * Used to get a second object for diff and a delta for applyTo.
+	 */
+	public void modify(ObjectType object) {
+		object.setName(new PolyStringType(object.getName().getOrig() + "-modified"));
+		object.setDescription("Modified description");
+		modifySpecific(object);
+	}
+
+	/**
+	 * Adds the generated parts of the fixture.
+	 */
+	void complete(ObjectType object) {
+	}
+
+	abstract void modifySpecific(ObjectType object);
+
+	static void addAssignment(FocusType focus) {
+		focus.getAssignment().add(new AssignmentType().targetRef(ADDED_ROLE_OID, RoleType.COMPLEX_TYPE));
+	}
+
+	/**
+	 * Result of processing one live sync change; every TASK_FAILURE_EVERY-th change fails.
+	 */
+	private static OperationResultType createChangeResult(int number) {
+		String shadowOid = String.format("c0c010c0-d34d-b33f-f00d-6%011d", number);
+		boolean failed = number % TASK_FAILURE_EVERY == 0;
+
+		OperationResultType notifyResult = new OperationResultType();
+		notifyResult.setOperation("com.evolveum.midpoint.model.impl.sync.SynchronizationServiceImpl.notifyChange");
+		notifyResult.setStatus(OperationResultStatusType.SUCCESS);
+		notifyResult.setContext(createParams("resourceOid", TASK_RESOURCE_OID));
+		notifyResult.setReturns(createParams("situation", "linked"));
+
+		OperationResultType result = new OperationResultType();
+		result.setOperation("com.evolveum.midpoint.provisioning.impl.ShadowCache.processChange");
+		result.setStatus(failed ? OperationResultStatusType.FATAL_ERROR : OperationResultStatusType.SUCCESS);
+		Map<String, Collection<String>> params = new LinkedHashMap<>();
+		params.put("shadowOid", Collections.singletonList(shadowOid));
+		params.put("token", Collections.singletonList(String.valueOf(1000000 + number)));
+		result.setParams(ParamsTypeUtil.toParamsType(params));
+		result.setCount(1);
+		if (failed) {
+			result.setMessage("Attribute ri:mail of uid=pirate" + number + ",ou=people,dc=example,dc=com violates uniqueness constraint");
+		}
+		result.getPartialResults().add(notifyResult);
+		return result;
+	}
+
+	private static ParamsType createParams(String key, String value) {
+		return ParamsTypeUtil.toParamsType(Collections.singletonMap(key, Collections.singletonList(value)));
+	}
+
+	private static ObjectActionsExecutedEntryType createActionsEntry(int index) {
+		ChangeTypeType[] operations = { ChangeTypeType.ADD, ChangeTypeType.MODIFY, ChangeTypeType.DELETE };
+		XMLGregorianCalendar timestamp = XmlTypeConverter.createXMLGregorianCalendar(TASK_TIMESTAMP);
+
+		ObjectActionsExecutedEntryType entry = new ObjectActionsExecutedEntryType();
+		entry.setObjectType(TASK_ACTION_OBJECT_TYPES[(index / operations.length) % TASK_ACTION_OBJECT_TYPES.length]);
+		entry.setOperation(operations[index % operations.length]);
+		entry.setChannel(SchemaConstants.CHANGE_CHANNEL_LIVE_SYNC_URI);
+		entry.setTotalSuccessCount(1 + 7 * index);
+		entry.setLastSuccessObjectName("pirate" + index);
+		entry.setLastSuccessObjectOid(String.format("c0c010c0-d34d-b33f-f00d-7%011d", index));
+		entry.setLastSuccessTimestamp(timestamp);
+		entry.setTotalFailureCount(0);
+		return entry;
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.benchmarks;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.lex.binary.BinaryLexicalProcessor;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.xml.sax.SAXException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Encoding and decoding of the repository full object (m_object.fullObject) in the two supported formats:
+ * gzipped XML (as in RUtil.getByteArrayFromXml) and LZ4-compressed output of BinaryLexicalProcessor
+ * (as in FullObjectCodec). Sizes of the encoded data are printed during setup.
+ */
+public class FullObjectBenchmark extends AbstractFixtureBenchmark {
+
+	@Param({ "xml", "binary" })
+	public String format;
+
+	private BinaryLexicalProcessor binaryProcessor;
+	private LZ4Compressor compressor;
+	private LZ4FastDecompressor decompressor;
+
+	private PrismObject<?> object;
+	private byte[] data;
+	private int uncompressedLength;
+
+	@Setup
+	public void setup() throws SchemaException, SAXException, IOException {
+		initPrismContext();
+		binaryProcessor = new BinaryLexicalProcessor(prismContext.getSchemaRegistry());
+		LZ4Factory lz4Factory = LZ4Factory.fastestInstance();
+		compressor = lz4Factory.fastCompressor();
+		decompressor = lz4Factory.fastDecompressor();
+		object = parseFixture("xml");
+		data = encode();
+		System.out.println("\n" + fixture + " " + format + ": " + data.length + " bytes (" + uncompressedLength
+				+ " bytes uncompressed)");
+	}
+
+	@Benchmark
+	public byte[] encode() throws SchemaException, IOException {
+		byte[] uncompressed;
+		if ("xml".equals(format)) {
+			uncompressed = prismContext.xmlSerializer().serialize(object).getBytes(StandardCharsets.UTF_8);
+			uncompressedLength = uncompressed.length;
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+				gzip.write(uncompressed);
+			}
+			return out.toByteArray();
+		} else {
+			uncompressed = binaryProcessor.write(prismContext.xnodeSerializer().serialize(object), null);
+			uncompressedLength = uncompressed.length;
+			return compressor.compress(uncompressed);
+		}
+	}
+
+	@Benchmark
+	public PrismObject<?> decode() throws SchemaException, IOException {
+		if ("xml".equals(format)) {
+			String xml;
+			try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(data))) {
+				xml = IOUtils.toString(gzip, StandardCharsets.UTF_8);
+			}
+			return prismContext.parserFor(xml).parse();
+		} else {
+			return prismContext.parserFor(binaryProcessor.read(decompressor.decompress(data, uncompressedLength))).parse();
+		}
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.benchmarks;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.delta.builder.DeltaBuilder;
+import com.evolveum.midpoint.prism.lex.binary.BinaryLexicalProcessor;
+import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
+import com.evolveum.midpoint.prism.xnode.RootXNode;
+import com.evolveum.midpoint.repo.sql.util.FullObjectPatcher;
+import com.evolveum.midpoint.repo.sql.util.RUtil;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ActivationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.CredentialsType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.LoginEventType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.MetadataType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OperationStatsType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.PasswordType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.TaskType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.xml.sax.SAXException;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Repository modification of "hot" items (metadata, activation timestamps, login information, task progress
+ * and statistics) as done by ObjectUpdater: either by decoding the whole stored full object, applying the
+ * modifications and encoding it again, or by patching the stored object by FullObjectPatcher.
+ * Database access is not included; it is the same for both variants.
+ */
+public class FullObjectModifyBenchmark extends AbstractPrismBenchmark {
+
+	@Param({ "USER", "TASK_LARGE" })
+	public Fixture fixture;
+
+	@Param({ "xml", "binary" })
+	public String format;
+
+	private BinaryLexicalProcessor binaryProcessor;
+	private LZ4Compressor compressor;
+	private LZ4FastDecompressor decompressor;
+	private FullObjectPatcher patcher;
+
+	private Collection<? extends ItemDelta> modifications;
+	private byte[] data;
+	private int uncompressedLength;
+	private int lastUncompressedLength;
+
+	@Setup
+	public void setup() throws SchemaException, SAXException, IOException {
+		initPrismContext();
+		binaryProcessor = new BinaryLexicalProcessor(prismContext.getSchemaRegistry());
+		LZ4Factory lz4Factory = LZ4Factory.fastestInstance();
+		compressor = lz4Factory.fastCompressor();
+		decompressor = lz4Factory.fastDecompressor();
+		patcher = new FullObjectPatcher(prismContext);
+
+		PrismObject<ObjectType> object = fixture.parse(prismContext);
+		// as stored by the repository
+		object.removeProperty(TaskType.F_RESULT);
+		modifications = createModifications(object);
+		if (!FullObjectPatcher.isPatchable(object.getCompileTimeClass(), modifications)) {
+			throw new IllegalStateException("Modifications are not patchable: " + modifications);
+		}
+		data = encode(prismContext.xnodeSerializer().serialize(object));
+		uncompressedLength = lastUncompressedLength;
+	}
+
+	private Collection<? extends ItemDelta> createModifications(PrismObject<ObjectType> object) throws SchemaException {
+		XMLGregorianCalendar now = XmlTypeConverter.createXMLGregorianCalendar(System.currentTimeMillis());
+		if (fixture == Fixture.USER) {
+			return DeltaBuilder.deltaFor(UserType.class, prismContext)
+					.item(UserType.F_METADATA, MetadataType.F_MODIFY_TIMESTAMP).replace(now)
+					.item(UserType.F_ACTIVATION, ActivationType.F_ENABLE_TIMESTAMP).replace(now)
+					.item(UserType.F_CREDENTIALS, CredentialsType.F_PASSWORD, PasswordType.F_LAST_SUCCESSFUL_LOGIN)
+							.replace(new LoginEventType().timestamp(now).from("10.0.0.1"))
+					.asItemDeltas();
+		} else {
+			TaskType task = (TaskType) object.asObjectable();
+			OperationStatsType operationStats = task.getOperationStats() != null ?
+					task.getOperationStats().clone() : new OperationStatsType();
+			operationStats.setTimestamp(now);
+			return DeltaBuilder.deltaFor(TaskType.class, prismContext)
+					.item(TaskType.F_PROGRESS).replace(task.getProgress() != null ? task.getProgress() + 1 : 1L)
+					.item(TaskType.F_OPERATION_STATS).replace(operationStats)
+					.item(TaskType.F_LAST_RUN_START_TIMESTAMP).replace(now)
+					.asItemDeltas();
+		}
+	}
+
+	/**
+	 * Full object decoded, modified, "reparsed" (as in ObjectUpdater.updateFullObject) and encoded.
+	 */
+	@Benchmark
+	public byte[] fullRewrite() throws SchemaException, IOException {
+		PrismObject<ObjectType> object = prismContext.parserFor(decode(data)).parse();
+		ItemDelta.applyTo(ItemDelta.cloneCollection(modifications), object);
+		object = prismContext.parserFor(prismContext.xnodeSerializer().serialize(object)).parse();
+		return encode(prismContext.xnodeSerializer().serialize(object));
+	}
+
+	/**
+	 * Only the touched items are parsed and modified; the rest of the stored object is kept as XNode.
+	 */
+	@Benchmark
+	public byte[] patch() throws SchemaException, IOException {
+		RootXNode stored = decode(data);
+		PrismObject<ObjectType> partialObject = patcher.parsePartialObject(stored, modifications);
+		ItemDelta.applyTo(ItemDelta.cloneCollection(modifications), partialObject);
+		patcher.patch(stored, partialObject, modifications);
+		return encode(stored);
+	}
+
+	private byte[] encode(RootXNode object) throws SchemaException {
+		if ("xml".equals(format)) {
+			return RUtil.getByteArrayFromXml(prismContext.xmlSerializer().serialize(object), true);
+		} else {
+			byte[] uncompressed = binaryProcessor.write(object, null);
+			lastUncompressedLength = uncompressed.length;
+			return compressor.compress(uncompressed);
+		}
+	}
+
+	private RootXNode decode(byte[] data) throws SchemaException, IOException {
+		if ("xml".equals(format)) {
+			return prismContext.parserFor(RUtil.getXmlFromByteArray(data, true)).parseToXNode();
+		} else {
+			return binaryProcessor.read(decompressor.decompress(data, uncompressedLength));
+		}
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.benchmarks;
+
+import com.evolveum.midpoint.prism.PrismContainer;
+import com.evolveum.midpoint.prism.PrismContainerValue;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismProperty;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xml.sax.SAXException;
+
+import javax.xml.namespace.QName;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Looking up items in a container value, as done e.g. by mappings when resolving their sources and targets.
+ * Uses a user with given number of extension properties, since large extensions are the usual case
+ * of container values with many items.
+ *
+ * All benchmarks operate on all extension properties, so compare per-property times (score / extensionSize)
+ * across sizes.
+ */
+public class ItemLookupBenchmark extends AbstractPrismBenchmark {
+
+	private static final String NS_EXTENSION = "http://midpoint.evolveum.com/xml/ns/benchmark/extension";
+
+	@Param({ "5", "20", "150" })
+	public int extensionSize;
+
+	private PrismObject<UserType> user;
+	private final List<ItemPath> existingPaths = new ArrayList<>();
+	private final List<ItemPath> missingPaths = new ArrayList<>();
+	private final List<PrismProperty<String>> properties = new ArrayList<>();
+
+	@Setup
+	public void setup() throws SchemaException, SAXException, IOException {
+		initPrismContext();
+		user = prismContext.createObject(UserType.class);
+		PrismContainer<?> extension = user.createExtension();
+		for (int i = 0; i < extensionSize; i++) {
+			QName name = new QName(NS_EXTENSION, "property" + i);
+			PrismProperty<String> property = new PrismProperty<>(name, prismContext);
+			property.setRealValue("value" + i);
+			properties.add(property);
+			extension.getValue().add(property.clone());
+			existingPaths.add(new ItemPath(UserType.F_EXTENSION, name));
+			missingPaths.add(new ItemPath(UserType.F_EXTENSION, new QName(NS_EXTENSION, "missing" + i)));
+		}
+	}
+
+	@Benchmark
+	public void findExisting(Blackhole blackhole) {
+		for (ItemPath path : existingPaths) {
+			blackhole.consume(user.findProperty(path));
+		}
+	}
+
+	@Benchmark
+	public void findMissing(Blackhole blackhole) {
+		for (ItemPath path : missingPaths) {
+			blackhole.consume(user.findProperty(path));
+		}
+	}
+
+	/**
+	 * Adding items one by one, each time checking that the item is not already present.
+	 */
+	@Benchmark
+	public PrismContainerValue<?> add() throws SchemaException {
+		PrismContainerValue<?> value = new PrismContainerValue<>(prismContext);
+		for (PrismProperty<String> property : properties) {
+			value.add(property.clone());
+		}
+		return value;
+	}
+}
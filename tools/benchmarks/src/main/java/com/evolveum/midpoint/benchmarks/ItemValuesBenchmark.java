@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.benchmarks;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismProperty;
+import com.evolveum.midpoint.prism.PrismPropertyValue;
+import com.evolveum.midpoint.prism.PrismReference;
+import com.evolveum.midpoint.prism.PrismReferenceValue;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
+import com.evolveum.midpoint.prism.delta.builder.DeltaBuilder;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xml.sax.SAXException;
+
+import javax.xml.namespace.QName;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Operations on multi-valued items with many values, like roleMembershipRef of a user with many roles
+ * or members of a large group: adding values (with uniqueness check), checking presence of values and applying
+ * a delta adding and deleting some values.
+ *
+ * applyDelta includes cloning of the object (the delta cannot be applied twice to the same object).
+ */
+public class ItemValuesBenchmark extends AbstractPrismBenchmark {
+
+	private static final QName PROPERTY_NAME = new QName("http://midpoint.evolveum.com/xml/ns/benchmark/extension", "member");
+	private static final String USER_OID = "c0c010c0-d34d-b33f-f00d-111111111111";
+
+	/**
+	 * Number of values checked by contains and added/deleted by applyDelta.
+	 */
+	private static final int CHANGES = 100;
+
+	@Param({ "100", "1000", "10000" })
+	public int size;
+
+	private final List<PrismPropertyValue<String>> values = new ArrayList<>();
+	private final List<PrismPropertyValue<String>> probes = new ArrayList<>();
+	private PrismProperty<String> property;
+	private PrismObject<UserType> user;
+	private ObjectDelta<UserType> delta;
+
+	@Setup
+	public void setup() throws SchemaException, SAXException, IOException {
+		initPrismContext();
+
+		property = new PrismProperty<>(PROPERTY_NAME, prismContext);
+		for (int i = 0; i < size; i++) {
+			PrismPropertyValue<String> value = new PrismPropertyValue<>("uid=member" + i + ",ou=people,dc=example,dc=com");
+			values.add(value);
+			property.add(value.clone());
+		}
+		// half of them present, half missing
+		for (int i = 0; i < CHANGES; i++) {
+			probes.add(new PrismPropertyValue<>("uid=member" + (i * 2 * size / CHANGES + i % 2) + ",ou=people,dc=example,dc=com"));
+		}
+
+		user = prismContext.createObject(UserType.class);
+		user.setOid(USER_OID);
+		PrismReference roleMembershipRef = user.findOrCreateReference(UserType.F_ROLE_MEMBERSHIP_REF);
+		for (int i = 0; i < size; i++) {
+			roleMembershipRef.add(roleRef(i));
+		}
+		List<PrismReferenceValue> refsToAdd = new ArrayList<>();
+		List<PrismReferenceValue> refsToDelete = new ArrayList<>();
+		for (int i = 0; i < CHANGES; i++) {
+			refsToAdd.add(roleRef(size + i));
+			refsToDelete.add(roleRef(i * size / CHANGES));
+		}
+		delta = DeltaBuilder.deltaFor(UserType.class, prismContext)
+				.item(UserType.F_ROLE_MEMBERSHIP_REF).add(refsToAdd).delete(refsToDelete)
+				.asObjectDeltaCast(USER_OID);
+	}
+
+	private PrismReferenceValue roleRef(int i) {
+		PrismReferenceValue value = new PrismReferenceValue(String.format("c0c010c0-d34d-b33f-f00d-%012d", i), RoleType.COMPLEX_TYPE);
+		value.setPrismContext(prismContext);
+		return value;
+	}
+
+	@Benchmark
+	public PrismProperty<String> addValues() throws SchemaException {
+		PrismProperty<String> newProperty = new PrismProperty<>(PROPERTY_NAME, prismContext);
+		for (PrismPropertyValue<String> value : values) {
+			newProperty.add(value.clone());
+		}
+		return newProperty;
+	}
+
+	@Benchmark
+	public void contains(Blackhole blackhole) {
+		for (PrismPropertyValue<String> probe : probes) {
+			blackhole.consume(property.contains(probe));
+		}
+	}
+
+	@Benchmark
+	public PrismObject<UserType> applyDelta() throws SchemaException {
+		PrismObject<UserType> clone = user.clone();
+		delta.applyTo(clone);
+		return clone;
+	}
+}
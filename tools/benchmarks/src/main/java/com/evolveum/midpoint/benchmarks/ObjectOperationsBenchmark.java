@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.benchmarks;
+
+import com.evolveum.midpoint.prism.PrismContainerValue;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Setup;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+
+/**
+ * In-memory operations on parsed objects: cloning, computing a delta between two versions of an object
+ * and applying a delta.
+ *
+ * The delta is a small modification (see {@link Fixture#modify(ObjectType)}), as this is the usual case.
+ * Because applyTo modifies its target, it is applied to a fresh clone in each invocation; subtract the
+ * cloneObject result to get the cost of delta application alone.
+ */
+public class ObjectOperationsBenchmark extends AbstractFixtureBenchmark {
+
+	private PrismObject<ObjectType> original;
+	private PrismObject<ObjectType> modified;
+	private ObjectDelta<ObjectType> delta;
+
+	@Setup
+	public void setup() throws SchemaException, SAXException, IOException {
+		initPrismContext();
+		original = parseFixture(PrismContext.LANG_XML);
+		modified = original.clone();
+		fixture.modify(modified.asObjectable());
+		delta = original.diff(modified);
+	}
+
+	@Benchmark
+	public PrismObject<ObjectType> cloneObject() {
+		return original.clone();
+	}
+
+	@Benchmark
+	public PrismContainerValue<ObjectType> cloneContainerValue() {
+		return original.getValue().clone();
+	}
+
+	@Benchmark
+	public ObjectDelta<ObjectType> diff() {
+		return original.diff(modified);
+	}
+
+	@Benchmark
+	public PrismObject<ObjectType> applyTo() throws SchemaException {
+		PrismObject<ObjectType> target = original.clone();
+		delta.applyTo(target);
+		return target;
+	}
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.benchmarks;
+
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+
+/**
+ * Serialization of a complete object into its textual form (PrismSerializer).
+ * The object is always parsed from XML, so the input is the same for all languages.
+ */
+public class SerializeBenchmark extends AbstractFixtureBenchmark {
+
+	@Param({ "xml", "json", "yaml" })
+	public String language;
+
+	private PrismObject<?> object;
+
+	@Setup
+	public void setup() throws SchemaException, SAXException, IOException {
+		initPrismContext();
+		object = parseFixture(PrismContext.LANG_XML);
+	}
+
+	@Benchmark
+	public String serialize() throws SchemaException {
+		return prismContext.serializerFor(language).serialize(object);
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2010-2018 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.benchmarks;
+
+import com.evolveum.midpoint.prism.ParserStringSource;
+import com.evolveum.midpoint.prism.ParsingContext;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.lex.LexicalProcessor;
+import com.evolveum.midpoint.prism.lex.dom.DomLexicalProcessor;
+import com.evolveum.midpoint.prism.lex.dom.StaxLexicalProcessor;
+import com.evolveum.midpoint.prism.xnode.RootXNode;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+
+/**
+ * Reading of XML data by DOM and StAX lexical processors: to XNode only (read) and to prism object (parse).
+ */
+public class XmlReadBenchmark extends AbstractFixtureBenchmark {
+
+	@Param({ "dom", "stax" })
+	public String processor;
+
+	private LexicalProcessor<String> lexicalProcessor;
+	private String data;
+
+	@Setup
+	public void setup() throws SchemaException, SAXException, IOException {
+		initPrismContext();
+		DomLexicalProcessor domLexicalProcessor = new DomLexicalProcessor(prismContext.getSchemaRegistry());
+		lexicalProcessor = "dom".equals(processor)
+				? domLexicalProcessor
+				: new StaxLexicalProcessor(prismContext.getSchemaRegistry(), domLexicalProcessor);
+		data = fixture.load(prismContext, PrismContext.LANG_XML);
+	}
+
+	@Benchmark
+	public RootXNode read() throws SchemaException, IOException {
+		return lexicalProcessor.read(new ParserStringSource(data), ParsingContext.createDefault());
+	}
+
+	@Benchmark
+	public PrismObject<?> parse() throws SchemaException, IOException {
+		return prismContext.parserFor(read()).parse();
+	}
+}
@@ -16,27 +16,22 @@
 
 package com.evolveum.midpoint.ninja.action.worker;
 
-import com.evolveum.midpoint.common.validator.EventHandler;
-import com.evolveum.midpoint.common.validator.EventResult;
-import com.evolveum.midpoint.common.validator.Validator;
 import com.evolveum.midpoint.ninja.impl.NinjaContext;
 import com.evolveum.midpoint.ninja.impl.NinjaException;
 import com.evolveum.midpoint.ninja.opts.ImportOptions;
 import com.evolveum.midpoint.ninja.util.Log;
 import com.evolveum.midpoint.ninja.util.OperationStatus;
-import com.evolveum.midpoint.prism.Objectable;
 import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismParser;
 import com.evolveum.midpoint.prism.match.MatchingRuleRegistry;
 import com.evolveum.midpoint.prism.query.ObjectFilter;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.schema.constants.ObjectTypes;
-import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.exception.SchemaException;
 import org.apache.commons.io.input.ReaderInputStream;
 import org.apache.commons.lang.StringUtils;
 import org.springframework.context.ApplicationContext;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
 
 import java.io.*;
 import java.nio.charset.Charset;
@@ -123,18 +118,10 @@ public class ImportProducerWorker extends BaseWorker<ImportOptions, PrismObject>
         PrismContext prismContext = appContext.getBean(PrismContext.class);
         MatchingRuleRegistry matchingRuleRegistry = appContext.getBean(MatchingRuleRegistry.class);
 
-        EventHandler handler = new EventHandler() {
+        PrismParser.ObjectHandler handler = new PrismParser.ObjectHandler() {
 
             @Override
-            public EventResult preMarshall(Element objectElement, Node postValidationTree,
-                                           OperationResult objectResult) {
-                return EventResult.cont();
-            }
-
-            @Override
-            public <T extends Objectable> EventResult postMarshall(PrismObject<T> object, Element objectElement,
-                                                                   OperationResult objectResult) {
-
+            public boolean handleData(PrismObject<?> object) {
                 try {
                     if (filter != null) {
                         boolean match = ObjectQuery.match(object, filter, matchingRuleRegistry);
@@ -142,14 +129,14 @@ public class ImportProducerWorker extends BaseWorker<ImportOptions, PrismObject>
                         if (!match) {
                             operation.incrementSkipped();
 
-                            return EventResult.skipObject("Object doesn't match filter");
+                            return true;
                         }
                     }
 
                     if (!matchSelectedType(object.getCompileTimeClass())) {
                         operation.incrementSkipped();
 
-                        return EventResult.skipObject("Type doesn't match");
+                        return true;
                     }
 
                     queue.put(object);
@@ -157,23 +144,27 @@ public class ImportProducerWorker extends BaseWorker<ImportOptions, PrismObject>
                     throw new NinjaException("Couldn't import object, reason: " + ex.getMessage(), ex);
                 }
 
-                return stopAfterFound ? EventResult.skipObject() : EventResult.cont();
+                return !stopAfterFound;
             }
 
             @Override
-            public void handleGlobalError(OperationResult currentResult) {
-                operation.finish();
+            public boolean handleError(Throwable t) {
+                context.getLog().error("Couldn't parse object, reason: {}", t.getMessage());
+                operation.incrementError();
+
+                return true;
             }
         };
 
-        Validator validator = new Validator(prismContext, handler);
-        validator.setValidateSchema(false);
-
-        OperationResult result = operation.getResult();
-
+        // objects are read one by one, so the whole file is never kept in memory
         Charset charset = context.getCharset();
         Reader reader = new InputStreamReader(input, charset);
-        validator.validate(new ReaderInputStream(reader, charset), result, result.getOperation());
+        try {
+            prismContext.parserFor(new ReaderInputStream(reader, charset)).xml().parseObjectsIteratively(handler);
+        } catch (SchemaException ex) {
+            context.getLog().error("Couldn't parse objects, reason: {}", ex.getMessage());
+            operation.finish();
+        }
     }
 
     private boolean matchSelectedType(Class clazz) {